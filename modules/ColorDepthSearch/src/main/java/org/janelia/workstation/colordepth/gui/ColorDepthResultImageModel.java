@@ -26,6 +26,7 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Image model for color depth search results and their related information. 
@@ -57,9 +58,37 @@ public class ColorDepthResultImageModel implements ImageModel<ColorDepthMatch, R
         for (ColorDepthMatch match : matches) {
             matchMap.put(match.getImageRef(), match);
         }
-        this.imageMap = DomainUtils.getMapByReference(images);
-        this.sampleMap = DomainUtils.getMapByReference(samples);
-        this.splitInfos = splitInfos;
+        this.imageMap = new ConcurrentHashMap<>(DomainUtils.getMapByReference(images));
+        this.sampleMap = new ConcurrentHashMap<>(DomainUtils.getMapByReference(samples));
+        this.splitInfos = new ConcurrentHashMap<>(splitInfos);
+    }
+
+    /**
+     * Creates a model without any related information, which is added later
+     * with addImages, addSamples and addSplitTypeInfos as it is loaded.
+     */
+    public ColorDepthResultImageModel(ColorDepthMask mask, Collection<ColorDepthMatch> matches) {
+        this(mask, matches, Collections.emptyList(), Collections.emptyList(), Collections.emptyMap());
+    }
+
+    public void addImages(Collection<ColorDepthImage> images) {
+        imageMap.putAll(DomainUtils.getMapByReference(images));
+    }
+
+    public void addSamples(Collection<Sample> samples) {
+        sampleMap.putAll(DomainUtils.getMapByReference(samples));
+    }
+
+    public void addSplitTypeInfos(Map<String, SplitTypeInfo> splitInfos) {
+        this.splitInfos.putAll(splitInfos);
+    }
+
+    public boolean hasImage(Reference imageRef) {
+        return imageMap.containsKey(imageRef);
+    }
+
+    public boolean hasSample(Reference sampleRef) {
+        return sampleMap.containsKey(sampleRef);
     }
 
     public ColorDepthMask getMask() {
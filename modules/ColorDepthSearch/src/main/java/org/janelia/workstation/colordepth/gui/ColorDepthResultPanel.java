@@ -5,6 +5,7 @@ import java.awt.event.ActionEvent;
 import java.awt.event.KeyAdapter;
 import java.awt.event.KeyEvent;
 import java.util.*;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
 import javax.swing.JCheckBox;
@@ -13,6 +14,7 @@ import javax.swing.JPanel;
 import javax.swing.JSeparator;
 import javax.swing.JTextField;
 import javax.swing.SwingConstants;
+import javax.swing.SwingUtilities;
 
 import com.google.common.collect.ImmutableList;
 import com.google.common.eventbus.Subscribe;
@@ -38,9 +40,6 @@ import org.janelia.workstation.common.gui.support.PreferenceSupport;
 import org.janelia.workstation.common.gui.support.SearchProvider;
 import org.janelia.workstation.common.gui.support.WrapLayout;
 import org.janelia.workstation.core.activity_logging.ActivityLogHelper;
-import org.janelia.workstation.core.api.DomainMgr;
-import org.janelia.workstation.core.api.DomainModel;
-import org.janelia.workstation.core.api.web.SageRestClient;
 import org.janelia.workstation.core.events.Events;
 import org.janelia.workstation.core.events.selection.ChildSelectionModel;
 import org.janelia.workstation.core.model.DomainModelViewUtils;
@@ -281,7 +280,23 @@ public class ColorDepthResultPanel extends JPanel implements SearchProvider, Pre
     
             @Override
             protected ResultPage<ColorDepthMatch,Reference> getPage(SearchResults<ColorDepthMatch,Reference> searchResults, int page) throws Exception {
-                return searchResults.getPage(page);
+                ResultPage<ColorDepthMatch,Reference> resultPage = searchResults.getPage(page);
+                int shownPage = page;
+                if (resultPage == null && page > 0) {
+                    // The estimated page count was too high, go to the real last page
+                    shownPage = searchResults.getNumTotalPages() - 1;
+                    resultPage = searchResults.getPage(shownPage);
+                }
+                // The page count may have been refined while walking the matches. Paging state belongs
+                // to the EDT, where this runs before the page is shown.
+                int refinedPage = shownPage;
+                int refinedNumPages = searchResults.getNumTotalPages();
+                SwingUtilities.invokeLater(() -> {
+                    setCurrPage(refinedPage);
+                    numPages = refinedNumPages;
+                    updatePagingStatus();
+                });
+                return resultPage;
             }
             
             @Override
@@ -451,58 +466,11 @@ public class ColorDepthResultPanel extends JPanel implements SearchProvider, Pre
      */
     private ColorDepthSearchResults prepareResults(List<ColorDepthMatch> maskMatches) throws Exception {
 
-        DomainModel model = DomainMgr.getDomainMgr().getModel();
-
-        // Fetch associated images
-        Set<Reference> imageRefs;
-        if (showMatchedImage.isSelected()) {
-            imageRefs = maskMatches.stream()
-                    .map(m -> m.getMatchingImageRef() != null ? m.getMatchingImageRef() : m.getImageRef())
-                    .collect(Collectors.toSet());
-        } else {
-            imageRefs = maskMatches.stream()
-                    .map(ColorDepthMatch::getImageRef)
-                    .collect(Collectors.toSet());
-        }
-
-        List<ColorDepthImage> images = model.getDomainObjectsAs(ColorDepthImage.class, new ArrayList<>(imageRefs));
-
-        // Fetch associated samples
-        Set<Reference> sampleRefs = new HashSet<>();            
-        for (ColorDepthImage image : images) {
-            log.trace("Will load {}", image.getSampleRef());
-            sampleRefs.add(image.getSampleRef());
-        }
-
-        List<Sample> samples = model.getDomainObjectsAs(Sample.class, new ArrayList<>(sampleRefs));
-        
-        // Fetch split half information
-
-        final SageRestClient sageClient = DomainMgr.getDomainMgr().getSageClient();
-        
-        Set<String> frags = new HashSet<>();
-        for (Sample sample : samples) {
-            String frag = SampleUtils.getFragFromLineName(sample.getLine());
-            if (frag == null) {
-                log.warn("Cannot parse fragment from line: {}", sample.getLine());
-            }
-            else {
-                frags.add(frag);
-            }
-        }
-
-        Map<String, SplitTypeInfo> splitInfos = new HashMap<>();
-
-        try {
-            splitInfos = sageClient.getSplitTypeInfo(frags);
-        }
-        catch (Exception e) {
-            // If split type fails, show an error but keep going
-            FrameworkAccess.handleException("Failed to load AB/DBD split half information", e);
-        }
-        
-        // Create and set image model
-        ColorDepthResultImageModel imageModel = new ColorDepthResultImageModel(mask, maskMatches, images, samples, splitInfos) {
+        // Create and set image model, which is filled in as the results are paged through
+        List<ColorDepthMatch> sortedMatches = maskMatches.stream()
+                .sorted(Comparator.comparing(ColorDepthMatch::getScore).reversed())
+                .collect(Collectors.toList());
+        ColorDepthResultImageModel imageModel = new ColorDepthResultImageModel(mask, sortedMatches) {
             @Override
             protected Reference getUsedImageRef(ColorDepthMatch match) {
                 return showMatchedImage.isSelected() && match.getMatchingImageRef() != null ? match.getMatchingImageRef() : match.getImageRef();
@@ -512,68 +480,42 @@ public class ColorDepthResultPanel extends JPanel implements SearchProvider, Pre
 
         log.info("selectedSplitTypes: {}",selectedSplitTypes);
 
-        // Filter matches
-        maskMatches = maskMatches.stream()
-                .filter(match -> showMatch(match, imageModel))
-                .filter(match -> {
-                    // Filter by split type. If no split types are selected, then assume the user wants to see everything.
-                    Sample sample = imageModel.getSample(match);
-                    SplitTypeInfo splitTypeInfo = imageModel.getSplitTypeInfo(sample);
-                    
-                    boolean show = true;
-                    
-                    if (selectedSplitTypes.contains(SplitHalfType.AD)) {
-                        if (splitTypeInfo == null || !splitTypeInfo.hasAD()) {
-                            show = false;
-                        }
-                    }
-                    
-                    if (selectedSplitTypes.contains(SplitHalfType.DBD)) {
-                        if (splitTypeInfo == null || !splitTypeInfo.hasDBD()) {
-                            show = false;
-                        }
-                    }
-                    
-                    return show;
-                })
-                .sorted(Comparator.comparing(ColorDepthMatch::getScore).reversed())
-                .collect(Collectors.toList());
-        
-        log.info("Filtered to {} matches which can be displayed", maskMatches.size());
+        Predicate<ColorDepthMatch> filter = match -> showMatch(match, imageModel);
+        filter = filter.and(match -> {
+            // Filter by split type. If no split types are selected, then assume the user wants to see everything.
+            Sample sample = imageModel.getSample(match);
+            SplitTypeInfo splitTypeInfo = imageModel.getSplitTypeInfo(sample);
+
+            boolean show = true;
+
+            if (selectedSplitTypes.contains(SplitHalfType.AD)) {
+                if (splitTypeInfo == null || !splitTypeInfo.hasAD()) {
+                    show = false;
+                }
+            }
+
+            if (selectedSplitTypes.contains(SplitHalfType.DBD)) {
+                if (splitTypeInfo == null || !splitTypeInfo.hasDBD()) {
+                    show = false;
+                }
+            }
+
+            return show;
+        });
 
         if (newOnlyCheckbox.isSelected()) {
-            
-            Set<String> filepaths = new HashSet<>();
-            
+
             // First determine what was a match in previous results
+            Set<Reference> previousImageRefs = new HashSet<>();
             int currResultIndex = results.indexOf(currResult);
             for (int i=0; i<currResultIndex; i++) {
                 for(ColorDepthMatch match : results.get(i).getMaskMatches(mask)) {
-                    ColorDepthImage image = imageModel.getImage(match);
-                    if (image!=null) {
-                        filepaths.add(image.getFilepath());
-                    }
+                    previousImageRefs.add(imageModel.getUsedImageRef(match));
                 }
             }
-            
+
             // Now filter the current results to show the new matches only
-            List<ColorDepthMatch> filteredMatches = new ArrayList<>();
-            for(ColorDepthMatch match : maskMatches) {
-                ColorDepthImage image = imageModel.getImage(match);
-                if (image!=null) {
-                    if (!filepaths.contains(image.getFilepath())) {
-                        filteredMatches.add(match);
-                    }
-                }
-            }
-            
-            maskMatches = filteredMatches;
-            log.info("Filtered to {} new matches", maskMatches.size());
-        }
-        
-        if (maskMatches.isEmpty()) {
-            // No matches for this mask
-            return null;
+            filter = filter.and(match -> !previousImageRefs.contains(imageModel.getUsedImageRef(match)));
         }
 
         Integer resultsPerLine = null;
@@ -583,30 +525,15 @@ public class ColorDepthResultPanel extends JPanel implements SearchProvider, Pre
         catch (NumberFormatException e) {
             log.warn("Illegal results per line value: "+resultsPerLineField.getText());
         }
-        
-        // Group matches by line
-        Map<String,LineMatches> lines = new LinkedHashMap<>();
-        for (ColorDepthMatch match : maskMatches) {
-            ColorDepthImage image = imageModel.getImage(match);
-            Sample sample = imageModel.getSample(match);
-            String line = sample==null ? image.getName() : sample.getLine();
-            LineMatches lineMatches = lines.get(line);
-            if (lineMatches==null) {
-                lineMatches = new LineMatches(line);
-                lines.put(line, lineMatches);
-            }
-            lineMatches.addMatch(match);
-        }
-        
-        List<ColorDepthMatch> orderedMatches = new ArrayList<>();
-        for (LineMatches lineMatches : lines.values()) {
-            for (ColorDepthMatch match : lineMatches.getOrderedFilteredMatches(resultsPerLine, imageModel)) {
-                orderedMatches.add(match);
-            }
+
+        LazyColorDepthSearchResults lazyResults = LazyColorDepthSearchResults.create(sortedMatches, imageModel, filter, resultsPerLine);
+        if (lazyResults.isEmpty()) {
+            // No matches for this mask
+            return null;
         }
 
-        log.info("Filtered to {} matches, allowing {} results per line, and no duplicate samples", orderedMatches.size(), resultsPerLine);
-        return new ColorDepthSearchResults(orderedMatches);
+        log.info("Showing matches in score order, allowing {} results per line, and no duplicate samples", resultsPerLine);
+        return lazyResults;
     }
     
     public void showNothing() {
@@ -663,56 +590,6 @@ public class ColorDepthResultPanel extends JPanel implements SearchProvider, Pre
         return true;
     }
 
-    private class LineMatches {
-        
-        private String line;
-        private List<ColorDepthMatch> matches = new ArrayList<>();
-        
-        LineMatches(String line) {
-            this.line = line;
-        }
-        
-        public void addMatch(ColorDepthMatch match) {
-            matches.add(match);
-        }
-        
-        public List<ColorDepthMatch> getOrderedFilteredMatches(Integer resultsPerLine, ColorDepthResultImageModel imageModel) {
-
-            log.debug("Getting matches for line {} with {} max results", line, resultsPerLine);
-            
-            Set<Long> seenSamples = new HashSet<>();
-            List<ColorDepthMatch> orderedMatches = new ArrayList<>();
-            for (ColorDepthMatch match : matches) {
-                ColorDepthImage image = imageModel.getImage(match);
-                if (image.getSampleRef() == null) {
-                    orderedMatches.add(match);
-                    continue;
-                }
-
-                String matchStr = String.format("%s@ch%s - %2.2f",
-                        image.getSampleRef(), image.getChannelNumber(), match.getScorePercent());
-
-                if (seenSamples.contains(image.getSampleRef().getTargetId())) {
-                    // Only show top hit for each sample
-                    log.debug("  Skipping duplicate sample: {}", matchStr);
-                    continue;
-                }
-
-                if (resultsPerLine!=null && orderedMatches.size() >= resultsPerLine) {
-                    // Got enough matches
-                    log.debug("  Skipping line: {}", matchStr);
-                    continue;
-                }
-                
-                log.debug("  Adding match: {}", matchStr);
-                orderedMatches.add(match);
-                
-                seenSamples.add(image.getSampleRef().getTargetId());
-            }
-            
-            return orderedMatches;   
-        }
-    }
     
     @Override
     public String getSortField() {
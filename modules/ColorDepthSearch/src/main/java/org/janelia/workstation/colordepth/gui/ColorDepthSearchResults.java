@@ -59,6 +59,12 @@ public class ColorDepthSearchResults implements SearchResults<ColorDepthMatch,Re
         addPage(firstPage);
     }
 
+    /**
+     * Constructor for subclasses which set their own pages.
+     */
+    protected ColorDepthSearchResults() {
+    }
+
     final void addPage(ColorDepthResultPage resultPage) {
         updateNumResults(resultPage);
         pages.add(resultPage);
@@ -119,7 +125,8 @@ public class ColorDepthSearchResults implements SearchResults<ColorDepthMatch,Re
     
     private void updateNumResults(ColorDepthResultPage resultPage) {
         if (!pages.isEmpty() && numTotalResults!=resultPage.getNumTotalResults()) {
-            log.warn("Adding page where total number of results ({}) does not match result set ({}) ",resultPage.getNumTotalResults(),numTotalResults);
+            // Expected for lazily filtered results, whose total is refined as pages are loaded
+            log.debug("Adding page where total number of results ({}) does not match result set ({}) ",resultPage.getNumTotalResults(),numTotalResults);
         }
         
         numLoadedResults += resultPage.getNumPageResults();
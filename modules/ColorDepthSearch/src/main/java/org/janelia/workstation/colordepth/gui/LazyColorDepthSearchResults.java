@@ -0,0 +1,265 @@
+package org.janelia.workstation.colordepth.gui;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+
+import org.janelia.model.domain.Reference;
+import org.janelia.model.domain.SampleUtils;
+import org.janelia.model.domain.gui.cdmip.ColorDepthImage;
+import org.janelia.model.domain.gui.cdmip.ColorDepthMatch;
+import org.janelia.model.domain.sample.Sample;
+import org.janelia.workstation.core.api.DomainMgr;
+import org.janelia.workstation.core.api.DomainModel;
+import org.janelia.workstation.core.model.SplitTypeInfo;
+import org.janelia.workstation.core.workers.SimpleWorker;
+import org.janelia.workstation.integration.util.FrameworkAccess;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Color depth search results which are filtered and paginated as they are viewed.
+ *
+ * The matches are walked in order of descending score, and the images, samples and split half
+ * information needed to filter them are only loaded for as many matches as it takes to fill the
+ * requested page. The page after the requested one is then prepared in the background.
+ *
+ * Each line shows at most resultsPerLine matches, and each sample only its best match, as
+ * decided by the higher scoring matches of the line. Until all of the matches have been walked,
+ * the total number of results is an estimate which counts every match not yet walked.
+ *
+ * Related information is loaded from the server without holding the lock on the results, so that
+ * pages which are already loaded can be read while the matches are being walked.
+ */
+public class LazyColorDepthSearchResults extends ColorDepthSearchResults {
+
+    private static final Logger log = LoggerFactory.getLogger(LazyColorDepthSearchResults.class);
+
+    private final List<ColorDepthMatch> candidates;
+    private final ColorDepthResultImageModel imageModel;
+    private final Predicate<ColorDepthMatch> filter;
+    private final Integer resultsPerLine;
+
+    // Only one thread walks the matches at a time
+    private final Object walkLock = new Object();
+
+    // Walk state, guarded by this
+    private final List<ColorDepthMatch> accepted = new ArrayList<>();
+    private final Map<String, Integer> numAcceptedByLine = new HashMap<>();
+    private final Set<Long> seenSamples = new HashSet<>();
+    private int nextCandidate = 0;
+
+    // Guarded by walkLock
+    private final Set<String> queriedFrags = new HashSet<>();
+    private boolean splitInfoFailed = false;
+
+    /**
+     * Walks the matches far enough to fill the first page.
+     *
+     * @param candidates all matches for the mask, in descending order of score
+     * @param imageModel model which receives the related information as it is loaded
+     * @param filter decides which matches can be shown, once their related information has been loaded
+     * @param resultsPerLine maximum number of matches for any one line, or null for no limit
+     */
+    public static LazyColorDepthSearchResults create(List<ColorDepthMatch> candidates,
+            ColorDepthResultImageModel imageModel, Predicate<ColorDepthMatch> filter, Integer resultsPerLine) throws Exception {
+        LazyColorDepthSearchResults results = new LazyColorDepthSearchResults(candidates, imageModel, filter, resultsPerLine);
+        results.prefetch(1);
+        return results;
+    }
+
+    private LazyColorDepthSearchResults(List<ColorDepthMatch> candidates,
+            ColorDepthResultImageModel imageModel, Predicate<ColorDepthMatch> filter, Integer resultsPerLine) throws Exception {
+        this.candidates = candidates;
+        this.imageModel = imageModel;
+        this.filter = filter;
+        this.resultsPerLine = resultsPerLine;
+        walkUntil(PAGE_SIZE);
+        setPage(0, createPage(0));
+    }
+
+    @Override
+    public synchronized List<ColorDepthResultPage> getPages() {
+        // A copy, since pages are added in the background
+        return new ArrayList<>(pages);
+    }
+
+    @Override
+    public synchronized int getNumTotalPages() {
+        return super.getNumTotalPages();
+    }
+
+    @Override
+    public ColorDepthResultPage getPage(int page) throws Exception {
+        if (page < 0) {
+            return null;
+        }
+        ColorDepthResultPage resultPage = getPageWithoutPrefetch(page);
+        if (resultPage != null) {
+            prefetch(page + 1);
+        }
+        return resultPage;
+    }
+
+    /**
+     * @return true if there are no matches to show at all
+     */
+    public synchronized boolean isEmpty() {
+        return accepted.isEmpty();
+    }
+
+    private void prefetch(int page) {
+        synchronized (this) {
+            if (page < pages.size() && pages.get(page) != null) {
+                return;
+            }
+            if (nextCandidate >= candidates.size() && page * PAGE_SIZE >= accepted.size()) {
+                return;
+            }
+        }
+        SimpleWorker.runInBackground(() -> {
+            try {
+                getPageWithoutPrefetch(page);
+            }
+            catch (Exception e) {
+                log.warn("Could not prefetch page {} of color depth results", page, e);
+            }
+        });
+    }
+
+    private ColorDepthResultPage getPageWithoutPrefetch(int page) throws Exception {
+        synchronized (this) {
+            if (page < pages.size() && pages.get(page) != null) {
+                return pages.get(page);
+            }
+        }
+        walkUntil((page + 1) * PAGE_SIZE);
+        synchronized (this) {
+            if (page < pages.size() && pages.get(page) != null) {
+                // Created by another thread while this one waited to walk
+                return pages.get(page);
+            }
+            if (page > 0 && page * PAGE_SIZE >= accepted.size()) {
+                // Past the end, which is only known now that all matches have been walked
+                return null;
+            }
+            ColorDepthResultPage resultPage = createPage(page);
+            setPage(page, resultPage);
+            return resultPage;
+        }
+    }
+
+    private ColorDepthResultPage createPage(int page) {
+        int from = Math.min(page * PAGE_SIZE, accepted.size());
+        int to = Math.min(from + PAGE_SIZE, accepted.size());
+        return new ColorDepthResultPage(new ArrayList<>(accepted.subList(from, to)), getEstimatedNumResults());
+    }
+
+    private long getEstimatedNumResults() {
+        return accepted.size() + (candidates.size() - nextCandidate);
+    }
+
+    /**
+     * Walks more matches, a page's worth at a time, until the given number have been accepted
+     * or there are no more matches.
+     */
+    private void walkUntil(int numAccepted) throws Exception {
+        synchronized (walkLock) {
+            while (true) {
+                List<ColorDepthMatch> batch;
+                synchronized (this) {
+                    if (accepted.size() >= numAccepted || nextCandidate >= candidates.size()) {
+                        return;
+                    }
+                    batch = candidates.subList(nextCandidate, Math.min(candidates.size(), nextCandidate + PAGE_SIZE));
+                }
+                loadRelatedInfo(batch);
+                synchronized (this) {
+                    for (ColorDepthMatch match : batch) {
+                        if (filter.test(match)) {
+                            accept(match);
+                        }
+                    }
+                    nextCandidate += batch.size();
+                    if (nextCandidate >= candidates.size()) {
+                        log.info("Walked all {} matches, {} can be shown", candidates.size(), accepted.size());
+                    }
+                }
+            }
+        }
+    }
+
+    private void accept(ColorDepthMatch match) {
+        ColorDepthImage image = imageModel.getImage(match);
+        Sample sample = imageModel.getSample(match);
+        String line = sample==null ? image.getName() : sample.getLine();
+        int numAccepted = numAcceptedByLine.getOrDefault(line, 0);
+        if (image.getSampleRef() != null) {
+            if (seenSamples.contains(image.getSampleRef().getTargetId())) {
+                // Only show top hit for each sample
+                return;
+            }
+            if (resultsPerLine != null && numAccepted >= resultsPerLine) {
+                // Got enough matches for this line
+                return;
+            }
+            seenSamples.add(image.getSampleRef().getTargetId());
+        }
+        numAcceptedByLine.put(line, numAccepted + 1);
+        accepted.add(match);
+    }
+
+    private void loadRelatedInfo(List<ColorDepthMatch> batch) throws Exception {
+
+        DomainModel model = DomainMgr.getDomainMgr().getModel();
+
+        Set<Reference> imageRefs = new LinkedHashSet<>();
+        for (ColorDepthMatch match : batch) {
+            Reference imageRef = imageModel.getUsedImageRef(match);
+            if (imageRef != null && !imageModel.hasImage(imageRef)) {
+                imageRefs.add(imageRef);
+            }
+        }
+        List<ColorDepthImage> images = model.getDomainObjectsAs(ColorDepthImage.class, new ArrayList<>(imageRefs));
+        imageModel.addImages(images);
+
+        Set<Reference> sampleRefs = new LinkedHashSet<>();
+        for (ColorDepthImage image : images) {
+            if (image.getSampleRef() != null && !imageModel.hasSample(image.getSampleRef())) {
+                sampleRefs.add(image.getSampleRef());
+            }
+        }
+        List<Sample> samples = model.getDomainObjectsAs(Sample.class, new ArrayList<>(sampleRefs));
+        imageModel.addSamples(samples);
+
+        Set<String> frags = new HashSet<>();
+        for (Sample sample : samples) {
+            String frag = SampleUtils.getFragFromLineName(sample.getLine());
+            if (frag == null) {
+                log.warn("Cannot parse fragment from line: {}", sample.getLine());
+            }
+            else if (queriedFrags.add(frag)) {
+                frags.add(frag);
+            }
+        }
+
+        if (!frags.isEmpty() && !splitInfoFailed) {
+            try {
+                Map<String, SplitTypeInfo> splitInfos = DomainMgr.getDomainMgr().getSageClient().getSplitTypeInfo(frags);
+                imageModel.addSplitTypeInfos(splitInfos);
+            }
+            catch (Exception e) {
+                // If split type fails, show an error once but keep going
+                splitInfoFailed = true;
+                FrameworkAccess.handleException("Failed to load AB/DBD split half information", e);
+            }
+        }
+
+        log.debug("Loaded {} images and {} samples for {} matches", images.size(), samples.size(), batch.size());
+    }
+}
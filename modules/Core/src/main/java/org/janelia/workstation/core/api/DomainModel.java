@@ -32,6 +32,7 @@ import org.janelia.workstation.core.events.model.*;
 import org.janelia.workstation.core.model.search.DomainObjectResultPage;
 import org.janelia.workstation.core.model.search.DomainObjectSearchResults;
 import org.janelia.workstation.core.util.ColorDepthUtils;
+import org.janelia.workstation.core.util.ConsoleProperties;
 import org.perf4j.LoggingStopWatch;
 import org.perf4j.StopWatch;
 import org.slf4j.Logger;
@@ -76,6 +77,7 @@ public class DomainModel {
     private final SampleFacade sampleFacade;
     private final SubjectFacade subjectFacade;
     private final WorkspaceFacade workspaceFacade;
+    private final DomainObjectBatchLoader batchLoader;
 
     private final Cache<Reference, DomainObject> objectCache;
     private Map<Reference, Workspace> workspaceCache;
@@ -102,6 +104,10 @@ public class DomainModel {
         this.sampleFacade = sampleFacade;
         this.subjectFacade = subjectFacade;
         this.workspaceFacade = workspaceFacade;
+        this.batchLoader = new DomainObjectBatchLoader(domainFacade::getDomainObjects,
+                ConsoleProperties.getLong("domain.batchLoader.windowMs", 5),
+                ConsoleProperties.getInt("domain.batchLoader.pageSize", 1000),
+                ConsoleProperties.getInt("domain.batchLoader.threads", 4));
 
         this.objectCache = CacheBuilder.newBuilder().softValues().removalListener((RemovalListener<Reference, DomainObject>) notification -> {
             synchronized (modelLock) {
@@ -115,6 +121,13 @@ public class DomainModel {
         }).build();
     }
 
+    /**
+     * Returns the loader which merges concurrent lookups by reference, for its statistics.
+     */
+    public DomainObjectBatchLoader getBatchLoader() {
+        return batchLoader;
+    }
+
     /**
      * Check if the given object may be cached at all.
      *
@@ -424,7 +437,8 @@ public class DomainModel {
         }
 
         if (!unsatisfiedRefs.isEmpty()) {
-            List<DomainObject> objects = domainFacade.getDomainObjects(unsatisfiedRefs);
+            // merged with the lookups of any other threads
+            List<DomainObject> objects = batchLoader.getDomainObjects(unsatisfiedRefs);
             List<T> classObjects = new ArrayList<>();
             for (DomainObject domainObject : objects) {
                 classObjects.add((T) domainObject);
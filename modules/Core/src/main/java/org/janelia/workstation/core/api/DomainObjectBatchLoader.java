@@ -0,0 +1,248 @@
+package org.janelia.workstation.core.api;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.janelia.model.domain.DomainObject;
+import org.janelia.model.domain.DomainUtils;
+import org.janelia.model.domain.Reference;
+import org.janelia.workstation.core.util.LatencyRecorder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Loads domain objects by reference, merging the lookups of concurrent callers.
+ * <p>
+ * References requested within a short window of each other are fetched together
+ * in one batch. A reference which is already being fetched is not requested
+ * again; its caller waits for the fetch in progress instead. Large batches are
+ * split into pages of bounded size, which are fetched in parallel.
+ * <p>
+ * Like the rest of the domain model, this blocks the calling thread and so
+ * should never be called from the EDT.
+ */
+public class DomainObjectBatchLoader {
+
+    private static final Logger log = LoggerFactory.getLogger(DomainObjectBatchLoader.class);
+
+    /**
+     * Fetches a batch of domain objects from the data source.
+     */
+    public interface BatchFetcher {
+        List<DomainObject> getDomainObjects(List<Reference> references) throws Exception;
+    }
+
+    private final BatchFetcher fetcher;
+    private final long windowMillis;
+    private final int pageSize;
+    private final ScheduledExecutorService flushExecutor;
+    private final ExecutorService fetchExecutor;
+
+    // references which are queued or being fetched
+    private final Map<Reference, CompletableFuture<DomainObject>> inFlight = new ConcurrentHashMap<>();
+    // guarded by this
+    private List<Reference> pendingRefs = new ArrayList<>();
+    private boolean flushScheduled = false;
+
+    private final LongAdder requestCount = new LongAdder();
+    private final LongAdder dedupHitCount = new LongAdder();
+    private final LongAdder batchCount = new LongAdder();
+    private final LongAdder batchedRefCount = new LongAdder();
+    private final LongAdder pageCount = new LongAdder();
+    private final AtomicInteger maxBatchSize = new AtomicInteger();
+    private final LatencyRecorder waitLatency = new LatencyRecorder("Domain object batch wait");
+
+    /**
+     * @param fetcher fetches each page of references
+     * @param windowMillis how long to collect references before fetching them
+     * @param pageSize maximum number of references fetched in one request
+     * @param parallelPages maximum number of requests in progress at once
+     */
+    public DomainObjectBatchLoader(BatchFetcher fetcher, long windowMillis, int pageSize, int parallelPages) {
+        if (pageSize < 1) {
+            throw new IllegalArgumentException("Page size must be at least 1: " + pageSize);
+        }
+        if (parallelPages < 1) {
+            throw new IllegalArgumentException("Parallel pages must be at least 1: " + parallelPages);
+        }
+        this.fetcher = fetcher;
+        this.windowMillis = windowMillis;
+        this.pageSize = pageSize;
+        this.flushExecutor = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder()
+                        .setNameFormat("DomainObjectBatchFlush-%d")
+                        .setDaemon(true).build());
+        this.fetchExecutor = Executors.newFixedThreadPool(parallelPages,
+                new ThreadFactoryBuilder()
+                        .setNameFormat("DomainObjectBatchFetch-%d")
+                        .setDaemon(true).build());
+    }
+
+    /**
+     * Fetch the domain objects with the given references, waiting until they
+     * have all arrived.
+     *
+     * @param references references to look up; nulls and duplicates are ignored
+     * @return the objects which were found, in no particular order
+     * @throws Exception if any of the requests failed
+     */
+    public List<DomainObject> getDomainObjects(Collection<Reference> references) throws Exception {
+
+        long startNanos = System.nanoTime();
+        Map<Reference, CompletableFuture<DomainObject>> fetches = new LinkedHashMap<>();
+        List<Reference> newRefs = new ArrayList<>();
+
+        for (Reference ref : references) {
+            if (ref == null || fetches.containsKey(ref)) continue;
+            requestCount.increment();
+            CompletableFuture<DomainObject> newFetch = new CompletableFuture<>();
+            CompletableFuture<DomainObject> fetch = inFlight.putIfAbsent(ref, newFetch);
+            if (fetch == null) {
+                fetch = newFetch;
+                newRefs.add(ref);
+            }
+            else {
+                dedupHitCount.increment();
+            }
+            fetches.put(ref, fetch);
+        }
+
+        if (!newRefs.isEmpty()) {
+            enqueue(newRefs);
+        }
+
+        try {
+            List<DomainObject> domainObjects = new ArrayList<>();
+            for (CompletableFuture<DomainObject> fetch : fetches.values()) {
+                DomainObject domainObject = fetch.get();
+                if (domainObject != null) {
+                    domainObjects.add(domainObject);
+                }
+            }
+            return domainObjects;
+        }
+        catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            throw e;
+        }
+        finally {
+            waitLatency.recordSince(startNanos);
+        }
+    }
+
+    private synchronized void enqueue(List<Reference> refs) {
+        pendingRefs.addAll(refs);
+        if (pendingRefs.size() >= pageSize || windowMillis <= 0) {
+            // no point waiting for more, a full page is ready
+            flushExecutor.execute(this::flush);
+            flushScheduled = true;
+        }
+        else if (!flushScheduled) {
+            flushExecutor.schedule(this::flush, windowMillis, TimeUnit.MILLISECONDS);
+            flushScheduled = true;
+        }
+    }
+
+    private void flush() {
+        List<Reference> batch;
+        synchronized (this) {
+            batch = pendingRefs;
+            pendingRefs = new ArrayList<>();
+            flushScheduled = false;
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        batchCount.increment();
+        batchedRefCount.add(batch.size());
+        maxBatchSize.accumulateAndGet(batch.size(), Math::max);
+        log.debug("Fetching batch of {} references", batch.size());
+
+        for (int start = 0; start < batch.size(); start += pageSize) {
+            List<Reference> page = batch.subList(start, Math.min(batch.size(), start + pageSize));
+            pageCount.increment();
+            fetchExecutor.execute(() -> fetchPage(page));
+        }
+    }
+
+    private void fetchPage(List<Reference> page) {
+        try {
+            List<DomainObject> domainObjects = fetcher.getDomainObjects(page);
+            Map<Reference, DomainObject> objectsByRef = DomainUtils.getMapByReference(domainObjects);
+            for (Reference ref : page) {
+                // later lookups should go to the cache, or fetch again
+                CompletableFuture<DomainObject> fetch = inFlight.remove(ref);
+                if (fetch != null) {
+                    fetch.complete(objectsByRef.get(ref));
+                }
+            }
+        }
+        catch (Throwable e) {
+            for (Reference ref : page) {
+                CompletableFuture<DomainObject> fetch = inFlight.remove(ref);
+                if (fetch != null) {
+                    fetch.completeExceptionally(e);
+                }
+            }
+        }
+    }
+
+    public long getRequestCount() {
+        return requestCount.sum();
+    }
+
+    /**
+     * @return number of requested references which joined a fetch already in progress
+     */
+    public long getDedupHitCount() {
+        return dedupHitCount.sum();
+    }
+
+    public long getBatchCount() {
+        return batchCount.sum();
+    }
+
+    public long getPageCount() {
+        return pageCount.sum();
+    }
+
+    public double getMeanBatchSize() {
+        long batches = batchCount.sum();
+        return batches == 0 ? 0 : batchedRefCount.sum() / (double) batches;
+    }
+
+    public int getMaxBatchSize() {
+        return maxBatchSize.get();
+    }
+
+    /**
+     * @return time callers spent waiting for their objects
+     */
+    public LatencyRecorder getWaitLatency() {
+        return waitLatency;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Domain object batches: requests=%d dedupHits=%d batches=%d pages=%d meanBatch=%.1f maxBatch=%d; %s",
+                getRequestCount(), getDedupHitCount(), getBatchCount(), getPageCount(),
+                getMeanBatchSize(), getMaxBatchSize(), waitLatency);
+    }
+}
@@ -1,10 +1,15 @@
 package org.janelia.workstation.core.api;
 
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.URI;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.eventbus.Subscribe;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
@@ -18,6 +23,7 @@ import org.janelia.workstation.core.api.http.HttpClientProxy;
 import org.janelia.workstation.core.events.Events;
 import org.janelia.workstation.core.events.lifecycle.ConsolePropsLoaded;
 import org.janelia.workstation.core.filecache.StorageClientMgr;
+import org.janelia.workstation.core.filecache.WebDavException;
 import org.janelia.workstation.core.filecache.WebDavFileKeyProxyMapper;
 import org.janelia.workstation.core.filecache.WebDavUploader;
 import org.janelia.workstation.core.filecache.WebdavCachedFileKey;
@@ -51,6 +57,8 @@ public class FileMgr {
     private int webdavMaxTotalConnections;
     private StorageClientMgr storageClientMgr;
     private LocalFileCache<WebdavCachedFileKey> webdavLocalFileCache;
+    // recently looked up versions of remote files, so that showing them again doesn't ask the server each time
+    private Cache<String, String> remoteFileVersions;
 
     private FileMgr() {
     }
@@ -71,6 +79,11 @@ public class FileMgr {
                 managerParams.setMaxTotalConnections(webdavMaxTotalConnections);
                 HttpClientProxy httpClient = new HttpClientProxy(new HttpClient(mgr));
                 storageClientMgr = new StorageClientMgr(webdavBaseUrl, httpClient);
+                remoteFileVersions = CacheBuilder.newBuilder()
+                        .concurrencyLevel(4)
+                        .maximumSize(ConsoleProperties.getInt("console.webDavClient.fileVersionCacheSize", 10000))
+                        .expireAfterWrite(ConsoleProperties.getInt("console.webDavClient.fileVersionTtlSeconds", 300), TimeUnit.SECONDS)
+                        .build();
                 webdavLocalFileCache = new LocalFileCache<>(
                         LocalCacheMgr.getInstance().getLocalFileCacheStorage(),
                         DEFAULT_FILE_CACHE_CONCURRENCY,
@@ -89,7 +102,11 @@ public class FileMgr {
     }
 
     public WebDavUploader getFileUploader() {
-        return new WebDavUploader(storageClientMgr);
+        return new WebDavUploader(storageClientMgr,
+                ConsoleProperties.getInt("console.webDavClient.uploadThreads", 4),
+                ConsoleProperties.getInt("console.webDavClient.uploadMaxAttempts", 3),
+                ConsoleProperties.getLong("console.webDavClient.uploadRetryDelayMs", 1000),
+                new File(ConsoleProperties.getUploadJournalDir()));
     }
 
     /**
@@ -133,6 +150,50 @@ public class FileMgr {
         return inputStream;
     }
 
+    /**
+     * Returns a token which changes whenever the content of the specified file changes,
+     * for keying anything derived from the content, e.g. thumbnails. Versions of remote
+     * files are remembered for a few minutes, so a change may take that long to be seen.
+     *
+     * @param standardPath the standard system path for the file.
+     *
+     * @return version of the file, or null if it cannot be determined.
+     */
+    public String getFileVersion(String standardPath) throws FileNotFoundException {
+        if (standardPath.startsWith("http://") || standardPath.startsWith("https://")) {
+            return null;
+        }
+        else if (standardPath.startsWith("file://")) {
+            File file;
+            try {
+                file = new File(URI.create(standardPath));
+            }
+            catch (IllegalArgumentException e) {
+                LOG.warn("Could not get version of {}", standardPath, e);
+                return null;
+            }
+            if (!file.exists()) {
+                throw new FileNotFoundException(standardPath);
+            }
+            return file.lastModified() + "-" + file.length();
+        }
+        String version = remoteFileVersions.getIfPresent(standardPath);
+        if (version != null) {
+            return version;
+        }
+        try {
+            version = storageClientMgr.getFileVersion(standardPath);
+            if (version != null) {
+                remoteFileVersions.put(standardPath, version);
+            }
+            return version;
+        }
+        catch (WebDavException e) {
+            LOG.warn("Could not get version of {}", standardPath, e);
+            return null;
+        }
+    }
+
     /**
      * Alternative API using the Jade Client.
      * TODO: in the future, we should implement the same interface as this client,
@@ -13,6 +13,10 @@ import org.apache.jackrabbit.webdav.property.DavPropertySet;
 import org.apache.jackrabbit.webdav.property.DefaultDavProperty;
 import org.apache.jackrabbit.webdav.xml.Namespace;
 
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+
 /**
  * Encapsulates minimum amount of information for a remote
  * file accesible through WebDAV.
@@ -25,6 +29,7 @@ class AbstractWebDav {
     private String webdavFileKey;
     private boolean isDirectory;
     private Long contentLength;
+    private Long lastModified;
     private String storageRootDir;
     private String storageBindName;
 
@@ -69,6 +74,12 @@ class AbstractWebDav {
                     }
                 }
 
+                final DavProperty<?> lastModifiedProperty =
+                        goodResource.get(DavPropertyName.GETLASTMODIFIED);
+                if (lastModifiedProperty != null) {
+                    this.lastModified = parseHttpDate(String.valueOf(lastModifiedProperty.getValue()));
+                }
+
                 final DavProperty<?> storageRootDirProperty =
                         goodResource.get(DavPropertyName.create("storageRootDir", Namespace.getNamespace("JADE:")));
                 if (storageRootDirProperty != null) {
@@ -125,6 +136,13 @@ class AbstractWebDav {
         }
     }
 
+    /**
+     * @return the modification time of the file in milliseconds, or null if the server did not return it.
+     */
+    Long getLastModified() {
+        return lastModified;
+    }
+
     String getStorageRootDir() {
         return storageRootDir;
     }
@@ -140,11 +158,23 @@ class AbstractWebDav {
                 .append("webdavFileKey", webdavFileKey)
                 .append("isDirectory", isDirectory)
                 .append("contentLength", contentLength)
+                .append("lastModified", lastModified)
                 .append("storageRootDir", storageRootDir)
                 .append("storageBindName", storageBindName)
                 .toString();
     }
 
+    private static Long parseHttpDate(String value) {
+        if (StringUtils.isBlank(value)) {
+            return null;
+        }
+        try {
+            return ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
     private static final long ONE_KILOBYTE = 1024;
     private static final String COLLECTION = "collection";
 
@@ -157,6 +187,7 @@ class AbstractWebDav {
         DavPropertyNameSet nameSet = new DavPropertyNameSet();
         nameSet.add(DavPropertyName.RESOURCETYPE);
         nameSet.add(DavPropertyName.GETCONTENTLENGTH);
+        nameSet.add(DavPropertyName.GETLASTMODIFIED);
         PROPERTY_NAMES = nameSet;
     }
 }
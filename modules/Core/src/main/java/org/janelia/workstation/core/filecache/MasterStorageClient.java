@@ -79,12 +79,16 @@ class MasterStorageClient extends AbstractStorageClient {
             responseCode = httpClient.executeMethod(method);
             LOG.trace("createDirectory: {} returned for MKCOL {}", resourceURI, responseCode);
 
-            if (responseCode != HttpServletResponse.SC_CREATED) {
+            // 405 means the collection already exists, e.g. when an interrupted upload is retried
+            if (responseCode != HttpServletResponse.SC_CREATED && responseCode != HttpServletResponse.SC_METHOD_NOT_ALLOWED) {
                 String response = method.getResponseBodyAsString();
                 throw new WebDavException(responseCode + " returned for MKCOL " + resourceURI + ": " + response, responseCode);
             }
             final Header locationHeader = method.getResponseHeader("Location");
             if (locationHeader == null) {
+                if (responseCode == HttpServletResponse.SC_METHOD_NOT_ALLOWED) {
+                    throw new WebDavException(resourceURI + " already exists but its location was not returned", responseCode);
+                }
                 throw new WebDavException("No location header returned for " + resourceURI, responseCode);
             }
             String location = locationHeader.getValue();
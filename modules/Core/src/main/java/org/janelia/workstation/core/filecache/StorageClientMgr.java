@@ -4,12 +4,13 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
-import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.util.LinkedList;
-import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
-import java.util.stream.IntStream;
 import java.util.stream.StreamSupport;
 
 import com.fasterxml.jackson.databind.DeserializationFeature;
@@ -32,9 +33,18 @@ public class StorageClientMgr {
     private static final Logger LOG = LoggerFactory.getLogger(StorageClientMgr.class);
     private static final Consumer<Throwable> NOOP_ERROR_CONN_HANDLER = (t) -> {};
 
-    private final Cache<String, AgentStorageClient> STORAGE_WORKERS_CACHE = CacheBuilder.newBuilder()
+    private static final long STORAGE_CLIENT_TTL_MILLIS = 60 * 60 * 1000L;
+    private static final long MISSING_STORAGE_TTL_SECONDS = 30;
+
+    // storage bind names and root directories mapped to the agents serving them
+    private final StoragePrefixTrie<AgentStorageClient> storageWorkers = new StoragePrefixTrie<>();
+    // storage lookups in progress, by the directory of the looked up path
+    private final ConcurrentMap<String, CompletableFuture<AgentStorageClient>> pendingLookups = new ConcurrentHashMap<>();
+    // directories recently found not to belong to any storage
+    private final Cache<String, Boolean> missingStorageDirs = CacheBuilder.newBuilder()
             .concurrencyLevel(4)
-            .maximumSize(256)
+            .maximumSize(1024)
+            .expireAfterWrite(MISSING_STORAGE_TTL_SECONDS, TimeUnit.SECONDS)
             .build();
 
     private final HttpClientProxy httpClient;
@@ -59,67 +69,97 @@ public class StorageClientMgr {
 
     private AgentStorageClient getStorageClientForStandardPath(String standardPathName) throws FileNotFoundException {
         String standardLocation = standardPathName.replaceFirst("^jade:\\/\\/", "").replace('\\', '/');
-        Path lookupPath = Paths.get(standardLocation);
-        int nPathComponents = lookupPath.getNameCount();
-        List<String> storagePathPrefixCandidates = new LinkedList<>();
-        IntStream.range(1, nPathComponents)
-                .mapToObj(pathIndex -> {
-                    if (lookupPath.getRoot() == null) {
-                        return lookupPath.subpath(0, pathIndex);
-                    } else {
-                        return lookupPath.getRoot().resolve(lookupPath.subpath(0, pathIndex));
-                    }
-                })
-                .map(p -> p.toString().replace('\\', '/'))
-                .forEach(p -> storagePathPrefixCandidates.add(0, p));
-        LOG.debug("storagePathPrefixCandidates={}", storagePathPrefixCandidates);
-        AgentStorageClient storageClient;
-        synchronized(STORAGE_WORKERS_CACHE) {
-            for (String pathPrefix : storagePathPrefixCandidates) {
-                storageClient = STORAGE_WORKERS_CACHE.getIfPresent(pathPrefix);
-                if (storageClient != null) {
-                    LOG.debug("Found storage client {} for {} in cache", storageClient.getBaseUrl(), pathPrefix);
-                    return storageClient;
-                }
-            }
-            LOG.info("Lookup storage client for {}", standardPathName);
-            WebDavStorage storage = masterStorageClient.findStorage(standardPathName);
-            String storageBindName = storage.getStorageBindName();
-            String storageRootDir = storage.getStorageRootDir();
-            LOG.info("Found WEBDAV storage for {}: {}, {}, {}",
-                    standardPathName, storage.getRemoteFileUrl(), storageBindName, storageRootDir);
-
-            String storageKey;
-            Consumer<Throwable> agentErrorHandler;
-            if  (storageBindName != null && standardLocation.startsWith(storageBindName)) {
-                storageKey = storageBindName;
-                agentErrorHandler = t -> {
-                    LOG.info("Invalidate storage client for {} because of an error", storageKey, t);
-                    STORAGE_WORKERS_CACHE.invalidate(storageKey);
-                };
-            } else if (storageRootDir != null && standardLocation.startsWith(storageRootDir)) {
-                storageKey = storageRootDir;
-                agentErrorHandler = t -> {
-                    LOG.info("Invalidate storage client for {} because of an error", storageKey, t);
-                    STORAGE_WORKERS_CACHE.invalidate(storageKey);
-                };
-            } else {
-                storageKey = null;
-                agentErrorHandler = NOOP_ERROR_CONN_HANDLER;
-            }
-            storageClient = new AgentStorageClient(
-                    storage.getRemoteFileUrl(),
-                    httpClient,
-                    objectMapper,
-                    agentErrorHandler
-            );
-            if (storageKey != null) {
-                STORAGE_WORKERS_CACHE.put(storageKey, storageClient);
-                LOG.info("Created storage client {} for {}", storageClient.getBaseUrl(), storageKey);
+        AgentStorageClient storageClient = storageWorkers.find(standardLocation);
+        if (storageClient != null) {
+            LOG.debug("Found storage client {} for {} in cache", storageClient.getBaseUrl(), standardLocation);
+            return storageClient;
+        }
+        // files in the same directory belong to the same storage, so they can share a lookup
+        String lookupDir = StringUtils.defaultIfEmpty(StringUtils.substringBeforeLast(standardLocation, "/"), standardLocation);
+        if (missingStorageDirs.getIfPresent(lookupDir) != null) {
+            throw new FileNotFoundException("No storage found for " + standardPathName);
+        }
+        CompletableFuture<AgentStorageClient> lookup = new CompletableFuture<>();
+        CompletableFuture<AgentStorageClient> pendingLookup = pendingLookups.putIfAbsent(lookupDir, lookup);
+        if (pendingLookup != null) {
+            LOG.debug("Wait for pending storage lookup of {} for {}", lookupDir, standardPathName);
+            return waitForLookup(pendingLookup, standardPathName);
+        }
+        try {
+            storageClient = lookupStorageClient(standardPathName, standardLocation);
+            lookup.complete(storageClient);
+            return storageClient;
+        } catch (FileNotFoundException e) {
+            missingStorageDirs.put(lookupDir, Boolean.TRUE);
+            lookup.completeExceptionally(e);
+            throw e;
+        } catch (RuntimeException e) {
+            lookup.completeExceptionally(e);
+            throw e;
+        } finally {
+            pendingLookups.remove(lookupDir, lookup);
+        }
+    }
+
+    private AgentStorageClient waitForLookup(CompletableFuture<AgentStorageClient> lookup, String standardPathName) throws FileNotFoundException {
+        try {
+            return lookup.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new WebDavException("Interrupted while looking up storage for " + standardPathName, e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof FileNotFoundException) {
+                FileNotFoundException notFound = new FileNotFoundException(cause.getMessage());
+                notFound.initCause(cause);
+                throw notFound;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
             } else {
-                LOG.warn("No storage agent cached for {}", standardPathName);
+                throw new WebDavException("Failed to look up storage for " + standardPathName, cause);
             }
         }
+    }
+
+    private AgentStorageClient lookupStorageClient(String standardPathName, String standardLocation) throws FileNotFoundException {
+        LOG.info("Lookup storage client for {}", standardPathName);
+        WebDavStorage storage = masterStorageClient.findStorage(standardPathName);
+        String storageBindName = storage.getStorageBindName();
+        String storageRootDir = storage.getStorageRootDir();
+        LOG.info("Found WEBDAV storage for {}: {}, {}, {}",
+                standardPathName, storage.getRemoteFileUrl(), storageBindName, storageRootDir);
+
+        String storageKey;
+        if  (storageBindName != null && standardLocation.startsWith(storageBindName)) {
+            storageKey = storageBindName;
+        } else if (storageRootDir != null && standardLocation.startsWith(storageRootDir)) {
+            storageKey = storageRootDir;
+        } else {
+            storageKey = null;
+        }
+        AtomicReference<AgentStorageClient> storageClientRef = new AtomicReference<>();
+        Consumer<Throwable> agentErrorHandler;
+        if (storageKey != null) {
+            agentErrorHandler = t -> {
+                LOG.info("Invalidate storage client for {} because of an error", storageKey, t);
+                storageWorkers.invalidate(storageKey, storageClientRef.get());
+            };
+        } else {
+            agentErrorHandler = NOOP_ERROR_CONN_HANDLER;
+        }
+        AgentStorageClient storageClient = new AgentStorageClient(
+                storage.getRemoteFileUrl(),
+                httpClient,
+                objectMapper,
+                agentErrorHandler
+        );
+        storageClientRef.set(storageClient);
+        if (storageKey != null) {
+            storageWorkers.put(storageKey, storageClient, STORAGE_CLIENT_TTL_MILLIS);
+            LOG.info("Created storage client {} for {}", storageClient.getBaseUrl(), storageKey);
+        } else {
+            LOG.warn("No storage agent cached for {}", standardPathName);
+        }
         return storageClient;
     }
     
@@ -139,6 +179,28 @@ public class StorageClientMgr {
         return storageClient.findFile(remoteFileName);
     }
 
+    /**
+     * Returns a token which changes whenever the content of the specified file changes,
+     * made of the modification time and size reported by the storage.
+     *
+     * @param  remoteFileName  file's remote reference name.
+     *
+     * @return version of the file, or null if the storage does not report enough to tell versions apart.
+     *
+     * @throws WebDavException
+     *   if the file information cannot be retrieved.
+     */
+    public String getFileVersion(String remoteFileName)
+            throws WebDavException, FileNotFoundException {
+        WebDavFile webDavFile = findFile(remoteFileName);
+        Long lastModified = webDavFile.getLastModified();
+        Long sizeInBytes = webDavFile.getSizeInBytes();
+        if (lastModified == null) {
+            return null;
+        }
+        return sizeInBytes == null ? String.valueOf(lastModified) : lastModified + "-" + sizeInBytes;
+    }
+
     String createStorage(String storageName, String storageContext, String storageTags) {
         return masterStorageClient.createStorage(storageName, storageContext, storageTags);
     }
@@ -0,0 +1,98 @@
+package org.janelia.workstation.core.filecache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.google.common.base.Splitter;
+
+/**
+ * Concurrent trie mapping storage path prefixes, i.e. storage bind names and root directories,
+ * to values which expire after a time to live.
+ *
+ * Lookups walk the trie without locking and return the value of the longest live prefix of the
+ * path, so a path is resolved in time proportional to its depth rather than to the number of
+ * known storages.
+ *
+ * @param <V> value type
+ */
+class StoragePrefixTrie<V> {
+
+    private static final String ROOT_COMPONENT = "/";
+
+    private static class Entry<V> {
+        private final V value;
+        private final long expiresAtMillis;
+
+        private Entry(V value, long expiresAtMillis) {
+            this.value = value;
+            this.expiresAtMillis = expiresAtMillis;
+        }
+    }
+
+    private static class Node<V> {
+        private final ConcurrentMap<String, Node<V>> children = new ConcurrentHashMap<>();
+        private volatile Entry<V> entry;
+    }
+
+    private final Node<V> root = new Node<>();
+
+    /**
+     * @return the value of the longest prefix of the path which has a live value, or null if there is none.
+     */
+    V find(String path) {
+        long now = System.currentTimeMillis();
+        V found = null;
+        Node<V> node = root;
+        for (String component : splitPath(path)) {
+            node = node.children.get(component);
+            if (node == null) {
+                break;
+            }
+            Entry<V> entry = node.entry;
+            if (entry != null && entry.expiresAtMillis > now) {
+                found = entry.value;
+            }
+        }
+        return found;
+    }
+
+    void put(String prefix, V value, long ttlMillis) {
+        Node<V> node = root;
+        for (String component : splitPath(prefix)) {
+            node = node.children.computeIfAbsent(component, c -> new Node<>());
+        }
+        synchronized (node) {
+            node.entry = new Entry<>(value, System.currentTimeMillis() + ttlMillis);
+        }
+    }
+
+    /**
+     * Removes the value of the prefix, unless it has already been replaced by another value.
+     */
+    void invalidate(String prefix, V value) {
+        Node<V> node = root;
+        for (String component : splitPath(prefix)) {
+            node = node.children.get(component);
+            if (node == null) {
+                return;
+            }
+        }
+        synchronized (node) {
+            Entry<V> entry = node.entry;
+            if (entry != null && entry.value == value) {
+                node.entry = null;
+            }
+        }
+    }
+
+    static List<String> splitPath(String path) {
+        List<String> components = new ArrayList<>();
+        if (path.startsWith("/")) {
+            components.add(ROOT_COMPONENT);
+        }
+        Splitter.on('/').omitEmptyStrings().split(path).forEach(components::add);
+        return components;
+    }
+}
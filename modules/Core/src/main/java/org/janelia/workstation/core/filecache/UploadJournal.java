@@ -0,0 +1,244 @@
+package org.janelia.workstation.core.filecache;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Splitter;
+import com.google.common.hash.Hashing;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Local record of the files of a multi-file upload which have already reached the server,
+ * so that an interrupted upload can be resumed without sending those files again.
+ *
+ * A journal belongs to a local root directory and the list of files uploaded from it, for a
+ * given storage context and set of storage tags, and records the storage the files go to, so
+ * that a resumed upload goes to the same storage. An upload of the same files with another
+ * context or other tags, e.g. for another user, has a journal of its own. The storage name
+ * is not part of it, since each attempt may pick a new one.
+ * It is a text file which starts with the storage URL, followed by one line per uploaded
+ * file, appended as soon as the upload of that file completes. A file is only considered
+ * uploaded if its size and modification time are unchanged since it was recorded. Lines
+ * which cannot be parsed, such as a line cut short by a crash, are ignored, so at worst a
+ * file is sent twice. Journals of uploads which were never resumed expire after a week.
+ */
+class UploadJournal {
+    private static final Logger LOG = LoggerFactory.getLogger(UploadJournal.class);
+
+    private static final String SEPARATOR = "\t";
+    private static final String JOURNAL_SUFFIX = ".journal";
+    private static final String STORAGE_FIELD = "storage";
+    private static final long MAX_AGE_MILLIS = TimeUnit.DAYS.toMillis(7);
+
+    private static class Entry {
+        private final long length;
+        private final long lastModified;
+        private final RemoteLocation remoteFile;
+
+        private Entry(long length, long lastModified, RemoteLocation remoteFile) {
+            this.length = length;
+            this.lastModified = lastModified;
+            this.remoteFile = remoteFile;
+        }
+    }
+
+    private final File journalFile;
+    private final Map<String, Entry> entries = new HashMap<>();
+    private String storageURL;
+    private Writer writer;
+
+    /**
+     * Opens the journal for uploading the given files below the given local root,
+     * reading the storage and the entries of any earlier attempt.
+     *
+     * @param journalDirectory directory holding the journals.
+     * @param storageContext storage path context of the upload.
+     * @param storageTags comma separated tags used for selecting the storage, in any order.
+     * @param localRootPath local directory the relative file paths are resolved against.
+     * @param relativePaths paths of all files of the upload, relative to the local root.
+     */
+    UploadJournal(File journalDirectory, String storageContext, String storageTags, String localRootPath, List<String> relativePaths) {
+        List<String> sortedTags = new ArrayList<>(Splitter.on(',').trimResults().omitEmptyStrings()
+                .splitToList(storageTags == null ? "" : storageTags));
+        Collections.sort(sortedTags);
+        List<String> sortedPaths = new ArrayList<>(relativePaths);
+        Collections.sort(sortedPaths);
+        String journalName = Hashing.sha256()
+                .hashString(String.join("\n",
+                        storageContext == null ? "" : storageContext,
+                        String.join(",", sortedTags),
+                        localRootPath,
+                        String.join("\n", sortedPaths)), StandardCharsets.UTF_8)
+                .toString();
+        this.journalFile = new File(journalDirectory, journalName + JOURNAL_SUFFIX);
+        if (journalFile.exists()) {
+            read();
+        }
+    }
+
+    /**
+     * Removes the journals in the given directory which have not been written to for a week.
+     */
+    static void deleteExpired(File journalDirectory) {
+        File[] journalFiles = journalDirectory.listFiles((dir, name) -> name.endsWith(JOURNAL_SUFFIX));
+        if (journalFiles == null) {
+            return;
+        }
+        long expiry = System.currentTimeMillis() - MAX_AGE_MILLIS;
+        for (File journalFile : journalFiles) {
+            if (journalFile.lastModified() < expiry) {
+                if (journalFile.delete()) {
+                    LOG.info("Deleted expired upload journal {}", journalFile);
+                } else {
+                    LOG.warn("Could not delete expired upload journal {}", journalFile);
+                }
+            }
+        }
+    }
+
+    File getJournalFile() {
+        return journalFile;
+    }
+
+    /**
+     * @return the URL of the storage an earlier attempt uploaded to, or null if there was no earlier attempt.
+     */
+    synchronized String getStorageURL() {
+        return storageURL;
+    }
+
+    /**
+     * Records the storage the files are uploaded to, before any of them is uploaded.
+     */
+    synchronized void recordStorage(String storageURL) {
+        this.storageURL = storageURL;
+        append(STORAGE_FIELD + SEPARATOR + storageURL);
+    }
+
+    /**
+     * @return the remote location recorded for the file, or null if the file still needs to be uploaded.
+     */
+    synchronized RemoteLocation getUploaded(String relativePath, File file) {
+        Entry entry = entries.get(relativePath);
+        if (entry == null || entry.length != file.length() || entry.lastModified != file.lastModified()) {
+            return null;
+        }
+        return entry.remoteFile;
+    }
+
+    synchronized int getUploadedCount() {
+        return entries.size();
+    }
+
+    /**
+     * Records that the file was uploaded. Failures to write the journal are logged but otherwise
+     * ignored, since they only mean that the file would be sent again after an interruption.
+     */
+    synchronized void recordUploaded(String relativePath, File file, RemoteLocation remoteFile) {
+        Entry entry = new Entry(file.length(), file.lastModified(), remoteFile);
+        entries.put(relativePath, entry);
+        append(String.join(SEPARATOR,
+                relativePath,
+                String.valueOf(entry.length),
+                String.valueOf(entry.lastModified),
+                nullToEmpty(remoteFile.getVirtualFilePath()),
+                nullToEmpty(remoteFile.getRealFilePath()),
+                nullToEmpty(remoteFile.getFileUrl())));
+    }
+
+    // must be called holding the lock
+    private void append(String line) {
+        try {
+            if (writer == null) {
+                Files.createDirectories(journalFile.getParentFile().toPath());
+                writer = Files.newBufferedWriter(journalFile.toPath(), StandardCharsets.UTF_8,
+                        StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            }
+            writer.write(line);
+            writer.write('\n');
+            writer.flush();
+        } catch (IOException e) {
+            LOG.warn("Could not write to {}", journalFile, e);
+        }
+    }
+
+    synchronized void close() {
+        if (writer != null) {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                LOG.warn("Could not close {}", journalFile, e);
+            }
+            writer = null;
+        }
+    }
+
+    /**
+     * Closes and removes the journal, once all of its files have been uploaded.
+     */
+    synchronized void delete() {
+        close();
+        entries.clear();
+        storageURL = null;
+        if (journalFile.exists() && !journalFile.delete()) {
+            LOG.warn("Could not delete {}", journalFile);
+        }
+    }
+
+    private void read() {
+        try (BufferedReader reader = Files.newBufferedReader(journalFile.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                parseLine(line);
+            }
+            LOG.info("Read {} files uploaded to {} from {}", entries.size(), storageURL, journalFile);
+        } catch (IOException e) {
+            LOG.warn("Could not read {}, all files will be uploaded", journalFile, e);
+            entries.clear();
+            storageURL = null;
+        }
+        if (storageURL == null) {
+            entries.clear(); // without the storage the uploaded files can't be found again
+        }
+    }
+
+    private void parseLine(String line) {
+        String[] fields = Splitter.on(SEPARATOR).splitToList(line).toArray(new String[0]);
+        if (fields.length == 2 && STORAGE_FIELD.equals(fields[0]) && !fields[1].isEmpty()) {
+            storageURL = fields[1];
+            return;
+        }
+        if (fields.length != 6) {
+            LOG.debug("Ignore journal line {}", line);
+            return;
+        }
+        try {
+            RemoteLocation remoteFile = new RemoteLocation(emptyToNull(fields[3]), emptyToNull(fields[4]), emptyToNull(fields[5]));
+            entries.put(fields[0], new Entry(Long.parseLong(fields[1]), Long.parseLong(fields[2]), remoteFile));
+        } catch (NumberFormatException e) {
+            LOG.debug("Ignore journal line {}", line);
+        }
+    }
+
+    private static String nullToEmpty(String s) {
+        return s == null ? "" : s;
+    }
+
+    private static String emptyToNull(String s) {
+        return s.isEmpty() ? null : s;
+    }
+}
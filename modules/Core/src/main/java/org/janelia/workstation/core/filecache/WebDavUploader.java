@@ -2,10 +2,22 @@ package org.janelia.workstation.core.filecache;
 
 import java.io.File;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.stream.Collectors;
 
 import com.google.common.base.Splitter;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
@@ -19,15 +31,48 @@ import org.slf4j.LoggerFactory;
 public class WebDavUploader {
     private static final Logger LOG = LoggerFactory.getLogger(WebDavUploader.class);
 
+    private static final int DEFAULT_UPLOAD_THREADS = 4;
+    private static final int DEFAULT_MAX_ATTEMPTS = 3;
+    private static final long DEFAULT_RETRY_DELAY_MILLIS = 1000;
+    private static final long MAX_RETRY_DELAY_MILLIS = 30000;
+
     private final StorageClientMgr storageClientMgr;
+    private final int uploadThreads;
+    private final int maxAttempts;
+    private final long retryDelayMillis;
+    private final File journalDirectory;
 
     /**
-     * Constructs an uploader.
+     * Constructs an uploader which does not keep an upload journal.
      *
      * @param storageClientMgr WebDAV client manager for the current session
      */
     public WebDavUploader(StorageClientMgr storageClientMgr) {
+        this(storageClientMgr, DEFAULT_UPLOAD_THREADS, DEFAULT_MAX_ATTEMPTS, DEFAULT_RETRY_DELAY_MILLIS, null);
+    }
+
+    /**
+     * Constructs an uploader.
+     *
+     * @param storageClientMgr WebDAV client manager for the current session
+     * @param uploadThreads maximum number of files uploaded at the same time
+     * @param maxAttempts number of times the upload of a file is tried before giving up
+     * @param retryDelayMillis delay before the first retry of a file, doubled for every further retry
+     * @param journalDirectory directory for the journals of multi-file uploads,
+     *                         or null if interrupted uploads should not be resumed
+     */
+    public WebDavUploader(StorageClientMgr storageClientMgr, int uploadThreads, int maxAttempts, long retryDelayMillis, File journalDirectory) {
+        if (uploadThreads < 1) {
+            throw new IllegalArgumentException("Upload threads must be at least 1: " + uploadThreads);
+        }
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("Max attempts must be at least 1: " + maxAttempts);
+        }
         this.storageClientMgr = storageClientMgr;
+        this.uploadThreads = uploadThreads;
+        this.maxAttempts = maxAttempts;
+        this.retryDelayMillis = retryDelayMillis;
+        this.journalDirectory = journalDirectory;
     }
 
     public String createUploadContext(String contextName, String subjectName, String storageTags) {
@@ -83,6 +128,13 @@ public class WebDavUploader {
     /**
      * Uploads the specified files to the server.
      *
+     * Files are uploaded in parallel, and the upload of each file is retried a few times
+     * before giving up. If the uploader keeps a journal, the storage and every file which
+     * reached the server are recorded in it. Calling this again with the same files and root
+     * directory after a failure uploads to the storage of the failed attempt, whatever the
+     * storage name, and only sends the files which are still missing. The journal is removed
+     * once all files have been uploaded.
+     *
      * @param  storageName         user assigned storage name
      * @param  fileList            list of local files to upload.
      * @param  storageContext storage path context.
@@ -96,7 +148,7 @@ public class WebDavUploader {
      *                             Specifiy null if the relative paths are not important AND
      *                             all file names are unique.
      *
-     * @return the list of uploaded files.
+     * @return the list of uploaded files, in the order of the file list.
      *
      * @throws IllegalArgumentException
      *   if the server paths cannot be derived or are not unique.
@@ -107,19 +159,139 @@ public class WebDavUploader {
     public List<RemoteLocation> uploadFiles(String storageName, String storageContext, String storageTags, List<File> fileList, File localRootDirectory)
             throws IllegalArgumentException, WebDavException {
 
-        String storageURL = storageClientMgr.createStorage(storageName, storageContext, storageTags);
-        Path localRootPath = localRootDirectory.toPath();
-        List<RemoteLocation> remoteFileList = fileList.stream()
+        List<File> files = fileList.stream()
                 .filter(f -> f.isFile())
-                .map(f -> {
-                    RemoteLocation remoteFile = storageClientMgr.uploadFile(f, storageURL, storageClientMgr.urlEncodeComps(localRootPath.relativize(f.toPath()).toString()));
+                .collect(Collectors.toList());
+        Map<String, File> filesByRelativePath = new HashMap<>();
+        List<String> relativePaths = new ArrayList<>();
+        for (File f : files) {
+            String relativePath = getRelativePath(f, localRootDirectory);
+            File duplicate = filesByRelativePath.put(relativePath, f);
+            if (duplicate != null) {
+                throw new IllegalArgumentException("Both " + duplicate + " and " + f + " would be uploaded to " + relativePath);
+            }
+            relativePaths.add(relativePath);
+        }
+
+        UploadJournal journal = null;
+        if (journalDirectory != null) {
+            UploadJournal.deleteExpired(journalDirectory);
+            journal = new UploadJournal(journalDirectory, storageContext, storageTags,
+                    localRootDirectory == null ? "" : localRootDirectory.getAbsolutePath(), relativePaths);
+        }
+        String storageURL = journal == null ? null : journal.getStorageURL();
+        if (storageURL != null) {
+            LOG.info("Resuming upload of {} files to {}", files.size(), storageURL);
+        } else {
+            storageURL = storageClientMgr.createStorage(storageName, storageContext, storageTags);
+            if (journal != null) {
+                journal.recordStorage(storageURL);
+            }
+        }
+        return uploadFiles(files, relativePaths, storageURL, journal);
+    }
+
+    private List<RemoteLocation> uploadFiles(List<File> files, List<String> relativePaths, String storageURL, UploadJournal journal)
+            throws WebDavException {
+        ExecutorService uploadExecutor = Executors.newFixedThreadPool(Math.max(1, Math.min(uploadThreads, files.size())),
+                new ThreadFactoryBuilder()
+                        .setNameFormat("WebDavUpload-%d")
+                        .setDaemon(true).build());
+        LongAdder uploadedBytes = new LongAdder();
+        int resumedCount = 0;
+        long startNanos = System.nanoTime();
+        try {
+            List<Future<RemoteLocation>> uploads = new ArrayList<>();
+            for (int i = 0; i < files.size(); i++) {
+                File f = files.get(i);
+                String relativePath = relativePaths.get(i);
+                RemoteLocation uploaded = journal == null ? null : journal.getUploaded(relativePath, f);
+                if (uploaded != null) {
+                    LOG.debug("{} was already uploaded to {} - {}", f, storageURL, uploaded);
+                    uploaded.setStorageURL(storageURL);
+                    uploads.add(CompletableFuture.completedFuture(uploaded));
+                    resumedCount++;
+                    continue;
+                }
+                uploads.add(uploadExecutor.submit(() -> {
+                    RemoteLocation remoteFile = uploadWithRetries(f, storageURL, relativePath);
+                    if (journal != null) {
+                        journal.recordUploaded(relativePath, f, remoteFile);
+                    }
+                    uploadedBytes.add(f.length());
                     LOG.info("uploaded {} to {} - {}", f, storageURL, remoteFile);
                     return remoteFile;
-                })
-                .collect(Collectors.toList());
+                }));
+            }
 
-        LOG.info("uploaded {} files to {}", fileList.size(), storageURL);
-        return remoteFileList;
+            List<RemoteLocation> remoteFileList = new ArrayList<>();
+            RuntimeException failure = null;
+            for (Future<RemoteLocation> upload : uploads) {
+                try {
+                    remoteFileList.add(upload.get());
+                } catch (CancellationException e) {
+                    // cancelled after an earlier failure
+                } catch (ExecutionException e) {
+                    if (failure == null) {
+                        failure = e.getCause() instanceof RuntimeException
+                                ? (RuntimeException) e.getCause()
+                                : new WebDavException("Failed to upload to " + storageURL, e.getCause());
+                        // let the uploads in progress finish so they are recorded, but do not start any more
+                        uploads.forEach(u -> u.cancel(false));
+                    }
+                } catch (InterruptedException e) {
+                    uploads.forEach(u -> u.cancel(true));
+                    Thread.currentThread().interrupt();
+                    throw new WebDavException("Interrupted while uploading to " + storageURL, e);
+                }
+            }
+            if (failure != null) {
+                LOG.error("Failed to upload {} of {} files to {}", files.size() - remoteFileList.size(), files.size(), storageURL);
+                throw failure;
+            }
+
+            double seconds = (System.nanoTime() - startNanos) / 1e9;
+            double megabytes = uploadedBytes.sum() / (1024.0 * 1024.0);
+            LOG.info("uploaded {} files ({} resumed) to {}: {} MB in {} s, {} MB/s",
+                    files.size(), resumedCount, storageURL,
+                    String.format("%.1f", megabytes), String.format("%.1f", seconds),
+                    String.format("%.2f", seconds > 0 ? megabytes / seconds : 0));
+            if (journal != null) {
+                journal.delete();
+            }
+            return remoteFileList;
+        } finally {
+            uploadExecutor.shutdownNow();
+            if (journal != null) {
+                journal.close();
+            }
+        }
+    }
+
+    private String getRelativePath(File file, File localRootDirectory) {
+        if (localRootDirectory == null) {
+            return file.getName();
+        }
+        Path localRootPath = localRootDirectory.toPath();
+        return localRootPath.relativize(file.toPath()).toString();
+    }
+
+    private RemoteLocation uploadWithRetries(File file, String storageURL, String relativePath) throws InterruptedException {
+        String storageLocation = storageClientMgr.urlEncodeComps(relativePath);
+        long delayMillis = retryDelayMillis;
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return storageClientMgr.uploadFile(file, storageURL, storageLocation);
+            } catch (RuntimeException e) {
+                if (attempt >= maxAttempts) {
+                    LOG.error("Giving up on {} after {} attempts", file, attempt);
+                    throw e;
+                }
+                LOG.warn("Attempt {} to upload {} failed, retrying in {} ms", attempt, file, delayMillis, e);
+            }
+            TimeUnit.MILLISECONDS.sleep(delayMillis);
+            delayMillis = Math.min(MAX_RETRY_DELAY_MILLIS, delayMillis * 2);
+        }
     }
 
 }
@@ -267,6 +267,16 @@ public class ConsoleProperties extends ConfigProperties {
         return ConsoleProperties.getString("console.localCache.rootDirectory", StringUtils.appendIfMissing(consolePrefsDir, "/") + ".lvv-out-of-sync-neurons");
     }
 
+    public static String getUploadJournalDir() {
+        String consolePrefsDir = System.getProperty("user.home") + ConsoleProperties.getString("Console.Home.Path");
+        return ConsoleProperties.getString("console.webDavClient.uploadJournalDirectory", StringUtils.appendIfMissing(consolePrefsDir, "/") + ".webdav-upload-journals");
+    }
+
+    public static String getThumbnailCacheDir() {
+        String consolePrefsDir = System.getProperty("user.home") + ConsoleProperties.getString("Console.Home.Path");
+        return ConsoleProperties.getString("console.images.thumbnailCacheDirectory", StringUtils.appendIfMissing(consolePrefsDir, "/") + ".jacs-thumbnail-cache");
+    }
+
     /**
      * This method is responsible for loading the property file represented by propertiesFileName
      * into properties passed in.
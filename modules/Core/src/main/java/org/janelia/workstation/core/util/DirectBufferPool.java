@@ -0,0 +1,158 @@
+package org.janelia.workstation.core.util;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Size-classed pool of native-order direct byte buffers.
+ *
+ * Direct memory is only reclaimed when the owning buffer object is garbage
+ * collected, which under a steady stream of image loads means long after it
+ * is actually free. Loaders that acquire their buffers here and release them
+ * when the image is discarded keep direct memory use flat instead.
+ *
+ * Requested capacities are rounded up to a size class (quarter steps between
+ * powers of two, so at most 25% is wasted) and the returned buffer has its
+ * limit set to the requested capacity. Released buffers are kept for reuse
+ * until the pool holds {@code maxPooledBytes}; beyond that they are dropped
+ * and left to the garbage collector. Only buffers obtained from
+ * {@link #acquire(int)} may be passed to {@link #release(ByteBuffer)} or
+ * {@link #detach(ByteBuffer)}.
+ */
+public class DirectBufferPool {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DirectBufferPool.class);
+
+    private static final int MIN_SIZE_CLASS = 4096;
+
+    private final String name;
+    private final long maxPooledBytes;
+    private final Map<Integer, Queue<ByteBuffer>> freeBuffers = new ConcurrentHashMap<>();
+    private final AtomicLong liveBytes = new AtomicLong(); // handed out and not yet released
+    private final AtomicLong peakLiveBytes = new AtomicLong();
+    private final AtomicLong pooledBytes = new AtomicLong(); // waiting in the pool for reuse
+    private final LongAdder allocationCount = new LongAdder();
+    private final LongAdder reuseCount = new LongAdder();
+
+    public DirectBufferPool(String name, long maxPooledBytes) {
+        this.name = name;
+        this.maxPooledBytes = maxPooledBytes;
+    }
+
+    /**
+     * @return a cleared direct buffer in native byte order whose limit is the requested capacity
+     */
+    public ByteBuffer acquire(int capacity) {
+        int sizeClass = sizeClass(capacity);
+        ByteBuffer buffer = null;
+        Queue<ByteBuffer> queue = freeBuffers.get(sizeClass);
+        if (queue != null) {
+            buffer = queue.poll();
+        }
+        if (buffer != null) {
+            pooledBytes.addAndGet(-sizeClass);
+            reuseCount.increment();
+        } else {
+            buffer = ByteBuffer.allocateDirect(sizeClass);
+            allocationCount.increment();
+        }
+        long live = liveBytes.addAndGet(sizeClass);
+        peakLiveBytes.accumulateAndGet(live, Math::max);
+        buffer.clear();
+        buffer.order(ByteOrder.nativeOrder());
+        buffer.limit(capacity);
+        return buffer;
+    }
+
+    /**
+     * Return a buffer to the pool. The caller must not touch the buffer afterwards.
+     */
+    public void release(ByteBuffer buffer) {
+        if (buffer == null || !buffer.isDirect()) {
+            return;
+        }
+        int sizeClass = buffer.capacity();
+        if (sizeClass(sizeClass) != sizeClass) {
+            LOG.warn("{} buffer pool was handed a buffer of {} bytes it did not allocate", name, sizeClass);
+            return;
+        }
+        liveBytes.addAndGet(-sizeClass);
+        if (pooledBytes.addAndGet(sizeClass) > maxPooledBytes) {
+            pooledBytes.addAndGet(-sizeClass);
+            return; // pool is full; let GC reclaim it
+        }
+        freeBuffers.computeIfAbsent(sizeClass, k -> new ConcurrentLinkedQueue<>()).offer(buffer);
+    }
+
+    /**
+     * Stop tracking a buffer that has been handed over to an owner that will
+     * never release it, e.g. a long lived cache.
+     */
+    public void detach(ByteBuffer buffer) {
+        if (buffer == null || !buffer.isDirect()) {
+            return;
+        }
+        liveBytes.addAndGet(-buffer.capacity());
+    }
+
+    /**
+     * Drop all pooled buffers.
+     */
+    public void trim() {
+        for (Queue<ByteBuffer> queue : freeBuffers.values()) {
+            ByteBuffer buffer;
+            while ((buffer = queue.poll()) != null) {
+                pooledBytes.addAndGet(-buffer.capacity());
+            }
+        }
+    }
+
+    public long getLiveBytes() {
+        return liveBytes.get();
+    }
+
+    public long getPeakLiveBytes() {
+        return peakLiveBytes.get();
+    }
+
+    public long getPooledBytes() {
+        return pooledBytes.get();
+    }
+
+    public long getAllocationCount() {
+        return allocationCount.sum();
+    }
+
+    public long getReuseCount() {
+        return reuseCount.sum();
+    }
+
+    static int sizeClass(int capacity) {
+        if (capacity <= MIN_SIZE_CLASS) {
+            return MIN_SIZE_CLASS;
+        }
+        int base = Integer.highestOneBit(capacity - 1);
+        int step = base / 4;
+        long rounded = ((long) capacity + step - 1) / step * step;
+        if (rounded > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Buffer of " + capacity + " bytes is too large to pool");
+        }
+        return (int) rounded;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s buffers: live=%dMB peak=%dMB pooled=%dMB allocations=%d reuses=%d",
+                name, liveBytes.get() >> 20, peakLiveBytes.get() >> 20, pooledBytes.get() >> 20,
+                allocationCount.sum(), reuseCount.sum());
+    }
+}
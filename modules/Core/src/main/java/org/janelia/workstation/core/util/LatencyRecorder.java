@@ -0,0 +1,95 @@
+package org.janelia.workstation.core.util;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free recorder for latency samples. It keeps a sliding window of the
+ * most recent samples, from which percentiles are computed on demand, plus
+ * totals over its whole lifetime. Recording is cheap enough to be done from
+ * loader threads; computing percentiles copies and sorts the window, so it
+ * is meant for status displays and logging only.
+ */
+public class LatencyRecorder {
+
+    private static final int DEFAULT_WINDOW_SIZE = 1024;
+
+    private final String name;
+    private final AtomicLongArray window;
+    private final AtomicLong sampleCount = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+
+    public LatencyRecorder(String name) {
+        this(name, DEFAULT_WINDOW_SIZE);
+    }
+
+    public LatencyRecorder(String name, int windowSize) {
+        this.name = name;
+        this.window = new AtomicLongArray(windowSize);
+    }
+
+    public void recordNanos(long nanos) {
+        long n = sampleCount.getAndIncrement();
+        window.set((int) (n % window.length()), nanos);
+        totalNanos.addAndGet(nanos);
+    }
+
+    /**
+     * Record the time elapsed since the given {@link System#nanoTime()} value.
+     */
+    public void recordSince(long startNanos) {
+        recordNanos(System.nanoTime() - startNanos);
+    }
+
+    public long getSampleCount() {
+        return sampleCount.get();
+    }
+
+    public double getMeanMillis() {
+        long count = sampleCount.get();
+        return count == 0 ? 0 : totalNanos.get() / (double) count / 1e6;
+    }
+
+    /**
+     * @param percentile value between 0 and 100
+     * @return the latency at the given percentile of the recent samples, in milliseconds
+     */
+    public double getPercentileMillis(double percentile) {
+        long[] samples = snapshot();
+        if (samples.length == 0) {
+            return 0;
+        }
+        Arrays.sort(samples);
+        int rank = (int) Math.ceil(percentile / 100.0 * samples.length) - 1;
+        rank = Math.max(0, Math.min(samples.length - 1, rank));
+        return samples[rank] / 1e6;
+    }
+
+    /**
+     * Discard all samples, including those in the window.
+     */
+    public void reset() {
+        for (int i = 0; i < window.length(); i++) {
+            window.set(i, 0);
+        }
+        sampleCount.set(0);
+        totalNanos.set(0);
+    }
+
+    private long[] snapshot() {
+        int count = (int) Math.min(sampleCount.get(), window.length());
+        long[] samples = new long[count];
+        for (int i = 0; i < count; i++) {
+            samples[i] = window.get(i);
+        }
+        return samples;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: n=%d mean=%.1fms p50=%.1fms p90=%.1fms p99=%.1fms",
+                name, getSampleCount(), getMeanMillis(),
+                getPercentileMillis(50), getPercentileMillis(90), getPercentileMillis(99));
+    }
+}
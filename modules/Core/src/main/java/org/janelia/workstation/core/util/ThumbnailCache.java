@@ -0,0 +1,276 @@
+package org.janelia.workstation.core.util;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.imageio.ImageIO;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A two-tier cache of downscaled images, for views which show many images at a small size.
+ *
+ * Thumbnails are kept in memory up to a budget in bytes, and are also written to a directory
+ * as compact encoded images, so that they survive restarts. A thumbnail on disk is keyed by the
+ * image path and a version of the image (e.g. its modification time), so that a changed image
+ * is never shown from a stale thumbnail.
+ *
+ * Requested widths are rounded up to a few fixed sizes, so that resizing a view reuses the same
+ * thumbnails, which are then scaled down a little for display.
+ */
+public class ThumbnailCache {
+
+    private static final Logger log = LoggerFactory.getLogger(ThumbnailCache.class);
+
+    private static final int WIDTH_STEP = 64;
+    private static final String THUMBNAIL_SUFFIX = ".thumb";
+
+    private final Cache<String, BufferedImage> memoryCache;
+    private final File diskDirectory;
+    private final long diskBudgetBytes;
+    private final Executor diskWriter;
+
+    private final AtomicLong diskBytes = new AtomicLong(-1); // -1 until the directory is first measured
+    private final LongAdder memoryHits = new LongAdder();
+    private final LongAdder diskHits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * @param memoryBudgetBytes maximum number of pixel bytes held in memory
+     * @param diskDirectory directory for thumbnails which persist across sessions, or null to only cache in memory
+     * @param diskBudgetBytes maximum size of the thumbnail directory
+     */
+    public ThumbnailCache(long memoryBudgetBytes, File diskDirectory, long diskBudgetBytes) {
+        this(memoryBudgetBytes, diskDirectory, diskBudgetBytes, Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("ThumbnailWriter-%d")
+                .setDaemon(true)
+                .build()));
+    }
+
+    ThumbnailCache(long memoryBudgetBytes, File diskDirectory, long diskBudgetBytes, Executor diskWriter) {
+        this.memoryCache = CacheBuilder.newBuilder()
+                .concurrencyLevel(16)
+                .maximumWeight(memoryBudgetBytes)
+                .weigher((String key, BufferedImage image) -> (int) Math.min(Integer.MAX_VALUE, getSizeInBytes(image)))
+                .build();
+        this.diskDirectory = diskDirectory;
+        this.diskBudgetBytes = diskBudgetBytes;
+        this.diskWriter = diskWriter;
+    }
+
+    /**
+     * @return the width of the thumbnail which is cached for the given display width
+     */
+    public static int getThumbnailWidth(int displayWidth) {
+        return ((Math.max(1, displayWidth) + WIDTH_STEP - 1) / WIDTH_STEP) * WIDTH_STEP;
+    }
+
+    /**
+     * Returns the thumbnail from memory, if it's there.
+     *
+     * @param filepath image path
+     * @param displayWidth width the image will be displayed at
+     * @return a thumbnail at least as wide as the display width, or null
+     */
+    public BufferedImage get(String filepath, int displayWidth) {
+        BufferedImage thumbnail = memoryCache.getIfPresent(getMemoryKey(filepath, getThumbnailWidth(displayWidth)));
+        if (thumbnail != null) {
+            memoryHits.increment();
+        }
+        return thumbnail;
+    }
+
+    /**
+     * Returns the thumbnail from memory or disk. A thumbnail read from disk is kept in memory.
+     *
+     * @param filepath image path
+     * @param version version of the image, e.g. its modification time; if null, the disk is not checked
+     * @param displayWidth width the image will be displayed at
+     * @return a thumbnail at least as wide as the display width, or null
+     */
+    public BufferedImage get(String filepath, String version, int displayWidth) {
+        BufferedImage thumbnail = get(filepath, displayWidth);
+        if (thumbnail != null) {
+            return thumbnail;
+        }
+        int thumbnailWidth = getThumbnailWidth(displayWidth);
+        File thumbnailFile = getThumbnailFile(filepath, version, thumbnailWidth);
+        if (thumbnailFile != null && thumbnailFile.exists()) {
+            try {
+                thumbnail = ImageIO.read(thumbnailFile);
+            }
+            catch (IOException e) {
+                log.warn("Could not read thumbnail {} of {}", thumbnailFile, filepath, e);
+            }
+            if (thumbnail != null) {
+                diskHits.increment();
+                // so that trimming the directory removes the least recently used thumbnails
+                thumbnailFile.setLastModified(System.currentTimeMillis());
+                memoryCache.put(getMemoryKey(filepath, thumbnailWidth), thumbnail);
+                return thumbnail;
+            }
+        }
+        misses.increment();
+        return null;
+    }
+
+    /**
+     * Scales the full size image down to a thumbnail, and caches the thumbnail in memory and,
+     * if the version is known, on disk. The disk is written in the background.
+     *
+     * @param filepath image path
+     * @param version version of the image, e.g. its modification time, or null if unknown
+     * @param displayWidth width the image will be displayed at
+     * @param image full size image
+     * @return the cached thumbnail, or the image itself if it is no larger than the thumbnail would be
+     */
+    public BufferedImage put(String filepath, String version, int displayWidth, BufferedImage image) {
+        int thumbnailWidth = getThumbnailWidth(displayWidth);
+        BufferedImage thumbnail = image.getWidth() <= thumbnailWidth
+                ? image
+                : Utils.getScaledImageByWidth(image, thumbnailWidth);
+        memoryCache.put(getMemoryKey(filepath, thumbnailWidth), thumbnail);
+        File thumbnailFile = getThumbnailFile(filepath, version, thumbnailWidth);
+        if (thumbnailFile != null) {
+            diskWriter.execute(() -> writeThumbnail(thumbnailFile, thumbnail));
+        }
+        return thumbnail;
+    }
+
+    /**
+     * Clears the memory tier. Thumbnails on disk are kept.
+     */
+    public void invalidateAll() {
+        memoryCache.invalidateAll();
+    }
+
+    public long getMemoryHitCount() {
+        return memoryHits.sum();
+    }
+
+    public long getDiskHitCount() {
+        return diskHits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Thumbnails: memoryHits=%d diskHits=%d misses=%d memoryCount=%d diskBytes=%d",
+                getMemoryHitCount(), getDiskHitCount(), getMissCount(), memoryCache.size(), diskBytes.get());
+    }
+
+    private static String getMemoryKey(String filepath, int thumbnailWidth) {
+        return thumbnailWidth + ":" + filepath;
+    }
+
+    private File getThumbnailFile(String filepath, String version, int thumbnailWidth) {
+        if (diskDirectory == null || version == null) {
+            return null;
+        }
+        String name = Hashing.sha256()
+                .hashString(filepath + "\n" + version + "\n" + thumbnailWidth, StandardCharsets.UTF_8)
+                .toString();
+        // spread over subdirectories, so no directory grows too large
+        return new File(new File(diskDirectory, name.substring(0, 2)), name + THUMBNAIL_SUFFIX);
+    }
+
+    private void writeThumbnail(File thumbnailFile, BufferedImage thumbnail) {
+        try {
+            File parent = thumbnailFile.getParentFile();
+            if (!parent.exists() && !parent.mkdirs()) {
+                log.warn("Could not create thumbnail directory {}", parent);
+                return;
+            }
+            // JPEG is lossy but small, so use it for plain opaque images; readers detect the format from the content
+            String format = isJpegCompatible(thumbnail) ? "jpg" : "png";
+            File tempFile = new File(parent, thumbnailFile.getName() + ".tmp");
+            if (!ImageIO.write(thumbnail, format, tempFile) || !tempFile.renameTo(thumbnailFile)) {
+                log.debug("Could not write thumbnail {} as {}", thumbnailFile, format);
+                tempFile.delete();
+                return;
+            }
+            if (addDiskBytes(thumbnailFile.length()) > diskBudgetBytes) {
+                trimDisk();
+            }
+        }
+        catch (IOException e) {
+            log.warn("Could not write thumbnail {}", thumbnailFile, e);
+        }
+    }
+
+    private long addDiskBytes(long bytes) {
+        if (diskBytes.get() < 0) {
+            // first write of the session, the directory may already hold thumbnails, including this one
+            diskBytes.set(Arrays.stream(listThumbnails()).mapToLong(File::length).sum());
+            return diskBytes.get();
+        }
+        return diskBytes.addAndGet(bytes);
+    }
+
+    private static boolean isJpegCompatible(BufferedImage image) {
+        switch (image.getType()) {
+            case BufferedImage.TYPE_INT_RGB:
+            case BufferedImage.TYPE_INT_BGR:
+            case BufferedImage.TYPE_3BYTE_BGR:
+            case BufferedImage.TYPE_BYTE_GRAY:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Removes the least recently used thumbnails, until the directory is well under its budget.
+     */
+    private void trimDisk() {
+        File[] thumbnails = listThumbnails();
+        Arrays.sort(thumbnails, Comparator.comparingLong(File::lastModified));
+        long total = Arrays.stream(thumbnails).mapToLong(File::length).sum();
+        long target = diskBudgetBytes * 3 / 4;
+        int deleted = 0;
+        for (File thumbnail : thumbnails) {
+            if (total <= target) break;
+            long length = thumbnail.length();
+            if (thumbnail.delete()) {
+                total -= length;
+                deleted++;
+            }
+        }
+        diskBytes.set(total);
+        log.info("Removed {} thumbnails, {} bytes remain in {}", deleted, total, diskDirectory);
+    }
+
+    private File[] listThumbnails() {
+        File[] subdirs = diskDirectory.listFiles(File::isDirectory);
+        if (subdirs == null) {
+            return new File[0];
+        }
+        return Arrays.stream(subdirs)
+                .map(dir -> dir.listFiles((d, name) -> name.endsWith(THUMBNAIL_SUFFIX)))
+                .filter(files -> files != null)
+                .flatMap(Arrays::stream)
+                .toArray(File[]::new);
+    }
+
+    private static long getSizeInBytes(BufferedImage image) {
+        DataBuffer buffer = image.getRaster().getDataBuffer();
+        return (long) buffer.getSize() * buffer.getNumBanks() * DataBuffer.getDataTypeSize(buffer.getDataType()) / 8;
+    }
+}
@@ -0,0 +1,144 @@
+package org.janelia.workstation.core.api;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.janelia.model.domain.DomainObject;
+import org.janelia.model.domain.Reference;
+import org.janelia.model.domain.sample.Sample;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class DomainObjectBatchLoaderTest {
+
+    private final List<List<Reference>> fetchedPages = new CopyOnWriteArrayList<>();
+    private final ExecutorService callers = Executors.newFixedThreadPool(4);
+
+    @After
+    public void tearDown() {
+        callers.shutdownNow();
+    }
+
+    @Test
+    public void testConcurrentLookupsAreMerged() throws Exception {
+        DomainObjectBatchLoader loader = new DomainObjectBatchLoader(this::fetchSamples, 200, 100, 2);
+
+        Future<List<DomainObject>> first = callers.submit(() -> loader.getDomainObjects(refs(1, 2, 3)));
+        Future<List<DomainObject>> second = callers.submit(() -> loader.getDomainObjects(refs(3, 4)));
+
+        assertEquals(ids(1, 2, 3), idsOf(first.get(5, TimeUnit.SECONDS)));
+        assertEquals(ids(3, 4), idsOf(second.get(5, TimeUnit.SECONDS)));
+        assertEquals(1, fetchedPages.size());
+        assertEquals(4, fetchedPages.get(0).size());
+        assertEquals(1, loader.getDedupHitCount());
+        assertEquals(1, loader.getBatchCount());
+    }
+
+    @Test
+    public void testLargeBatchesAreSplitIntoPages() throws Exception {
+        DomainObjectBatchLoader loader = new DomainObjectBatchLoader(this::fetchSamples, 5, 10, 3);
+        long[] ids = new long[35];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = i + 1;
+        }
+
+        List<DomainObject> objects = loader.getDomainObjects(refs(ids));
+
+        assertEquals(ids(ids), idsOf(objects));
+        assertEquals(4, fetchedPages.size());
+        for (List<Reference> page : fetchedPages) {
+            assertTrue(page.size() <= 10);
+        }
+        assertEquals(35, loader.getMaxBatchSize());
+    }
+
+    @Test
+    public void testInFlightFetchIsShared() throws Exception {
+        CountDownLatch fetchStarted = new CountDownLatch(1);
+        CountDownLatch releaseFetch = new CountDownLatch(1);
+        DomainObjectBatchLoader loader = new DomainObjectBatchLoader(refs -> {
+            fetchStarted.countDown();
+            releaseFetch.await();
+            return fetchSamples(refs);
+        }, 0, 100, 2);
+
+        Future<List<DomainObject>> first = callers.submit(() -> loader.getDomainObjects(refs(7)));
+        assertTrue(fetchStarted.await(5, TimeUnit.SECONDS));
+        Future<List<DomainObject>> second = callers.submit(() -> loader.getDomainObjects(refs(7)));
+        while (loader.getDedupHitCount() == 0) {
+            Thread.sleep(1);
+        }
+        releaseFetch.countDown();
+
+        assertEquals(ids(7), idsOf(first.get(5, TimeUnit.SECONDS)));
+        assertEquals(ids(7), idsOf(second.get(5, TimeUnit.SECONDS)));
+        assertEquals(1, fetchedPages.size());
+    }
+
+    @Test
+    public void testFailedFetchIsReportedAndRetried() throws Exception {
+        DomainObjectBatchLoader failingLoader = new DomainObjectBatchLoader(refs -> {
+            fetchedPages.add(refs);
+            if (fetchedPages.size() == 1) {
+                throw new IllegalStateException("Server unavailable");
+            }
+            return fetchSamples(refs);
+        }, 0, 100, 1);
+
+        try {
+            failingLoader.getDomainObjects(refs(5));
+            fail("Expected the fetch to fail");
+        }
+        catch (IllegalStateException e) {
+            assertEquals("Server unavailable", e.getMessage());
+        }
+        assertEquals(ids(5), idsOf(failingLoader.getDomainObjects(refs(5))));
+    }
+
+    private List<DomainObject> fetchSamples(List<Reference> refs) {
+        fetchedPages.add(new ArrayList<>(refs));
+        List<DomainObject> samples = new ArrayList<>();
+        for (Reference ref : refs) {
+            Sample sample = new Sample();
+            sample.setId(ref.getTargetId());
+            samples.add(sample);
+        }
+        return samples;
+    }
+
+    private static List<Reference> refs(long... ids) {
+        List<Reference> refs = new ArrayList<>();
+        for (long id : ids) {
+            refs.add(Reference.createFor(Sample.class, id));
+        }
+        return refs;
+    }
+
+    private static Set<Long> ids(long... ids) {
+        Set<Long> set = new HashSet<>();
+        for (long id : ids) {
+            set.add(id);
+        }
+        return set;
+    }
+
+    private static Set<Long> idsOf(List<DomainObject> objects) {
+        Set<Long> set = new HashSet<>();
+        for (DomainObject object : objects) {
+            set.add(object.getId());
+        }
+        return set;
+    }
+}
@@ -0,0 +1,49 @@
+package org.janelia.workstation.core.filecache;
+
+import java.util.Arrays;
+
+import org.janelia.it.jacs.model.TestCategories;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the {@link StoragePrefixTrie} class.
+ */
+@Category(TestCategories.FastTests.class)
+public class StoragePrefixTrieTest {
+
+    @Test
+    public void longestLivePrefixWins() {
+        StoragePrefixTrie<String> trie = new StoragePrefixTrie<>();
+        trie.put("/groups/scicomp", "scicomp", 60000);
+        trie.put("/groups/scicomp/lightsheet", "lightsheet", 60000);
+        trie.put("jade-bind", "bound", 60000);
+
+        assertEquals("lightsheet", trie.find("/groups/scicomp/lightsheet/sample/image.tif"));
+        assertEquals("scicomp", trie.find("/groups/scicomp/other/image.tif"));
+        assertEquals("bound", trie.find("jade-bind/sample/image.tif"));
+        assertNull(trie.find("/groups/scicompx/image.tif"));
+        assertNull(trie.find("/jade-bind/sample/image.tif"));
+    }
+
+    @Test
+    public void expiredAndInvalidatedValuesAreIgnored() {
+        StoragePrefixTrie<String> trie = new StoragePrefixTrie<>();
+        trie.put("/groups/scicomp", "scicomp", 60000);
+        trie.put("/groups/scicomp/lightsheet", "expired", -1);
+        assertEquals("scicomp", trie.find("/groups/scicomp/lightsheet/image.tif"));
+
+        trie.invalidate("/groups/scicomp", "replaced");
+        assertEquals("scicomp", trie.find("/groups/scicomp/image.tif"));
+        trie.invalidate("/groups/scicomp", "scicomp");
+        assertNull(trie.find("/groups/scicomp/image.tif"));
+    }
+
+    @Test
+    public void splitPathKeepsRoot() {
+        assertEquals(Arrays.asList("/", "groups", "scicomp"), StoragePrefixTrie.splitPath("/groups//scicomp/"));
+        assertEquals(Arrays.asList("jade-bind", "a"), StoragePrefixTrie.splitPath("jade-bind/a"));
+    }
+}
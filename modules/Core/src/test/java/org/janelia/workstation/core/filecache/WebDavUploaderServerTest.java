@@ -0,0 +1,192 @@
+package org.janelia.workstation.core.filecache;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.io.ByteStreams;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.HttpMethod;
+import org.janelia.it.jacs.model.TestCategories;
+import org.janelia.workstation.core.api.http.HttpClientProxy;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests resuming an interrupted {@link WebDavUploader} upload against a local stand-in
+ * for the storage server, which creates storages with MKCOL and accepts files with PUT.
+ */
+@Category(TestCategories.FastTests.class)
+public class WebDavUploaderServerTest {
+    private static final String TEST_STORAGE_TAGS = "t1, t2";
+    private static final String TEST_UPLOAD_CONTEXT = "WorkstationFileUpload";
+
+    private HttpServer server;
+    private final Map<String, String> storageLocations = new ConcurrentHashMap<>(); // MKCOL path -> storage URL
+    private final AtomicInteger mkcolCount = new AtomicInteger();
+    private final List<String> uploadedPaths = Collections.synchronizedList(new ArrayList<>());
+    private final AtomicBoolean serverDown = new AtomicBoolean();
+    private volatile String failingFileName;
+
+    private StorageClientMgr storageClientMgr;
+    private File testRootParentDirectory;
+    private File testNestedDirectory;
+    private File testJournalDirectory;
+    private List<File> testFiles;
+
+    @Before
+    public void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", this::handle);
+        server.start();
+        String serverUrl = "http://localhost:" + server.getAddress().getPort();
+
+        HttpClient httpClient = new HttpClient();
+        HttpClientProxy httpClientProxy = new HttpClientProxy(httpClient) {
+            @Override
+            public int executeMethod(HttpMethod method) throws IOException {
+                // without the session headers, which need a logged in user
+                return httpClient.executeMethod(method);
+            }
+        };
+        storageClientMgr = new StorageClientMgr(serverUrl + "/master", httpClientProxy);
+
+        String ts = TestFileUtils.buildTimestampName();
+        testJournalDirectory = new File("test-upload-journal-" + ts);
+        testRootParentDirectory = new File("test-upload-" + ts);
+        testNestedDirectory = new File(testRootParentDirectory, "nestedDir");
+        if (!testNestedDirectory.mkdirs()) {
+            throw new IllegalStateException("failed to create " + testNestedDirectory.getAbsolutePath());
+        }
+        testFiles = new ArrayList<>();
+        testFiles.add(TestFileUtils.createFile(testRootParentDirectory, 1));
+        testFiles.add(TestFileUtils.createFile(testRootParentDirectory, 1));
+        testFiles.add(TestFileUtils.createFile(testNestedDirectory, 1));
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+        for (File file : testFiles) {
+            TestFileUtils.deleteFile(file);
+        }
+        TestFileUtils.deleteFile(testNestedDirectory);
+        TestFileUtils.deleteFile(testRootParentDirectory);
+        File[] journalFiles = testJournalDirectory.listFiles();
+        if (journalFiles != null) {
+            for (File file : journalFiles) {
+                TestFileUtils.deleteFile(file);
+            }
+        }
+        TestFileUtils.deleteFile(testJournalDirectory);
+    }
+
+    @Test
+    public void resumeInterruptedUpload() throws Exception {
+        WebDavUploader uploader = new WebDavUploader(storageClientMgr, 2, 1, 1, testJournalDirectory);
+        failingFileName = testFiles.get(2).getName();
+        serverDown.set(true);
+
+        try {
+            // each attempt uses a new storage name, like the import dialog does
+            uploader.uploadFiles("UserFileImport_1", TEST_UPLOAD_CONTEXT, TEST_STORAGE_TAGS, testFiles, testRootParentDirectory);
+            fail("upload should have failed");
+        } catch (RuntimeException e) {
+            // expected
+        }
+        assertEquals(1, mkcolCount.get());
+        assertEquals(2, uploadedPaths.size());
+        assertEquals("journal should be kept after a failed upload", 1, listJournals().length);
+
+        serverDown.set(false);
+        List<RemoteLocation> remoteFiles = uploader.uploadFiles(
+                "UserFileImport_2", TEST_UPLOAD_CONTEXT, TEST_STORAGE_TAGS, testFiles, testRootParentDirectory);
+
+        assertEquals("the resumed upload should reuse the storage", 1, mkcolCount.get());
+        String storageUrl = storageLocations.values().iterator().next();
+        assertEquals(testFiles.size(), remoteFiles.size());
+        for (RemoteLocation remoteFile : remoteFiles) {
+            assertEquals(storageUrl, remoteFile.getStorageURL());
+        }
+        assertEquals("no file should be sent twice", testFiles.size(), uploadedPaths.size());
+        assertEquals(testFiles.size(), new HashSet<>(uploadedPaths).size());
+        assertEquals("journal should be removed after a complete upload", 0, listJournals().length);
+    }
+
+    @Test
+    public void createExistingStorage() {
+        String storageUrl = storageClientMgr.createStorage("f1", TEST_UPLOAD_CONTEXT, TEST_STORAGE_TAGS);
+        assertEquals(storageUrl, storageClientMgr.createStorage("f1", TEST_UPLOAD_CONTEXT, TEST_STORAGE_TAGS));
+        assertEquals(2, mkcolCount.get());
+    }
+
+    @Test
+    public void deleteExpiredJournals() throws Exception {
+        assertTrue(testJournalDirectory.mkdirs());
+        File expiredJournal = new File(testJournalDirectory, "expired.journal");
+        assertTrue(expiredJournal.createNewFile());
+        assertTrue(expiredJournal.setLastModified(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(8)));
+        File recentJournal = new File(testJournalDirectory, "recent.journal");
+        assertTrue(recentJournal.createNewFile());
+
+        new WebDavUploader(storageClientMgr, 2, 1, 1, testJournalDirectory)
+                .uploadFiles("f1", TEST_UPLOAD_CONTEXT, TEST_STORAGE_TAGS, testFiles, testRootParentDirectory);
+
+        assertFalse(expiredJournal.exists());
+        assertTrue(recentJournal.exists());
+    }
+
+    private File[] listJournals() {
+        File[] journalFiles = testJournalDirectory.listFiles((dir, name) -> name.endsWith(".journal"));
+        return journalFiles == null ? new File[0] : journalFiles;
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getPath();
+        try {
+            if ("MKCOL".equals(exchange.getRequestMethod())) {
+                mkcolCount.incrementAndGet();
+                boolean exists = storageLocations.containsKey(path);
+                String location = storageLocations.computeIfAbsent(path,
+                        p -> "http://localhost:" + server.getAddress().getPort() + "/agent/storage" + storageLocations.size());
+                exchange.getResponseHeaders().add("Location", location);
+                exchange.sendResponseHeaders(exists ? 405 : 201, -1);
+            } else if ("PUT".equals(exchange.getRequestMethod()) && path.contains("/data_content/")) {
+                ByteStreams.exhaust(exchange.getRequestBody());
+                String relativePath = path.substring(path.indexOf("/data_content/") + "/data_content/".length());
+                if (serverDown.get() && relativePath.endsWith(failingFileName)) {
+                    exchange.sendResponseHeaders(503, -1);
+                    return;
+                }
+                uploadedPaths.add(path);
+                byte[] body = ("{\"storageRootPathURI\":\"jade:///upload\",\"storageRootLocation\":\"/upload\","
+                        + "\"nodeRelativePath\":\"" + relativePath + "\"}").getBytes(StandardCharsets.UTF_8);
+                exchange.sendResponseHeaders(201, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            } else {
+                exchange.sendResponseHeaders(404, -1);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+}
@@ -12,6 +12,9 @@ import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
 
 import static org.junit.Assert.*;
 
@@ -23,19 +26,24 @@ import static org.junit.Assert.*;
 @Category(TestCategories.FastTests.class)
 public class WebDavUploaderTest {
     private static final Logger LOG = LoggerFactory.getLogger(WebDavUploaderTest.class);
+    private static final String TEST_STORAGE_NAME = "f1";
+    private static final String TEST_STORAGE_TAGS = "t1, t2";
+    private static final String TEST_UPLOAD_CONTEXT = "WorkstationFileUpload";
 
     private StorageClientMgr storageClientMgr;
     private WebDavUploader uploader;
     private File testRootParentDirectory;
     private File testNestedDirectory;
+    private File testJournalDirectory;
     private List<File> testFiles;
 
     @Before
     public void setUp() throws Exception {
         storageClientMgr = Mockito.mock(StorageClientMgr.class);
-        uploader = new WebDavUploader(storageClientMgr);
 
         final String ts = TestFileUtils.buildTimestampName();
+        testJournalDirectory = new File("test-upload-journal-" + ts);
+        uploader = new WebDavUploader(storageClientMgr, 2, 3, 1, testJournalDirectory);
         testRootParentDirectory = new File("test-upload-" + ts);
         String path = testRootParentDirectory.getAbsolutePath();
         if (testRootParentDirectory.mkdir()) {
@@ -66,6 +74,14 @@ public class WebDavUploaderTest {
 
         TestFileUtils.deleteFile(testNestedDirectory);
         TestFileUtils.deleteFile(testRootParentDirectory);
+
+        File[] journalFiles = testJournalDirectory.listFiles();
+        if (journalFiles != null) {
+            for (File file : journalFiles) {
+                TestFileUtils.deleteFile(file);
+            }
+        }
+        TestFileUtils.deleteFile(testJournalDirectory);
     }
 
     @Test
@@ -91,46 +107,161 @@ public class WebDavUploaderTest {
         assertEquals(testStorageUrl, remoteFile.getStorageURL());
     }
 
-    // TODO: test is out of date, with syntax error
-//    @Test
-//    public void uploadMultipleFiles() throws Exception {
-//        String testStorageName = "f1";
-//        String testStorageTags = "t1, t2";
-//        String testUploadContext = "WorkstationFileUpload";
-//        String testStorageUrl = "http://teststorage/" + testStorageName;
-//        Mockito.when(storageClientMgr.createStorage(testStorageName, testUploadContext, testStorageTags))
-//                .thenReturn(testStorageUrl);
-//        Mockito.when(storageClientMgr.urlEncodeComp(ArgumentMatchers.anyString()))
-//                .thenCallRealMethod();
-//        Mockito.when(storageClientMgr.urlEncodeComps(ArgumentMatchers.anyString()))
-//                .thenCallRealMethod();
-//        Mockito.when(storageClientMgr.uploadFile(ArgumentMatchers.any(File.class), ArgumentMatchers.anyString(), ArgumentMatchers.anyString()))
-//                .then(invocation -> {
-//                    RemoteLocation remoteFile = new RemoteLocation(
-//                            ((File) invocation.getArgument(0)).getAbsolutePath(),
-//                            ((File) invocation.getArgument(0)).getAbsolutePath(),
-//                            invocation.getArgument(2));
-//                    remoteFile.setStorageURL(invocation.getArgument(1));
-//                    return remoteFile;
-//                });
-//
-//        List<RemoteLocation> remoteFiles = uploader.uploadFiles(
-//                testStorageName,
-//                testUploadContext,
-//                testStorageTags,
-//                testFiles,
-//                testRootParentDirectory);
-//
-//        assertNotNull("null path returned for file upload", remoteFiles);
-//        for (RemoteLocation rf : remoteFiles) {
-//            assertEquals(testStorageUrl, rf.getStorageURL());
-//        }
-//
-//        Mockito.verify(storageClientMgr).createDirectory(testStorageUrl, testNestedDirectory.getName());
-//        for (File f : testFiles) {
-//            String encodedUrl = storageClientMgr.urlEncodeComps(testRootParentDirectory.toPath().relativize(f.toPath()).toString());
-//            Mockito.verify(storageClientMgr).uploadFile(f, testStorageUrl, encodedUrl);
-//        }
-//    }
+    @Test
+    public void uploadMultipleFiles() throws Exception {
+        String testStorageUrl = mockStorage();
+        Mockito.when(storageClientMgr.uploadFile(ArgumentMatchers.any(File.class), ArgumentMatchers.anyString(), ArgumentMatchers.anyString()))
+                .then(invocation -> remoteFileFor(invocation.getArgument(0), invocation.getArgument(1), invocation.getArgument(2)));
+
+        List<RemoteLocation> remoteFiles = uploader.uploadFiles(
+                TEST_STORAGE_NAME,
+                TEST_UPLOAD_CONTEXT,
+                TEST_STORAGE_TAGS,
+                testFiles,
+                testRootParentDirectory);
+
+        assertEquals(testFiles.size(), remoteFiles.size());
+        for (int i = 0; i < testFiles.size(); i++) {
+            File f = testFiles.get(i);
+            String encodedUrl = storageClientMgr.urlEncodeComps(testRootParentDirectory.toPath().relativize(f.toPath()).toString());
+            assertEquals(testStorageUrl, remoteFiles.get(i).getStorageURL());
+            assertEquals(encodedUrl, remoteFiles.get(i).getVirtualFilePath());
+            Mockito.verify(storageClientMgr).uploadFile(f, testStorageUrl, encodedUrl);
+        }
+        assertFalse("journal should be removed after a complete upload", journalFile().exists());
+    }
+
+    @Test
+    public void retryFailedUpload() throws Exception {
+        String testStorageUrl = mockStorage();
+        File flakyFile = testFiles.get(1);
+        AtomicInteger flakyAttempts = new AtomicInteger();
+        Mockito.when(storageClientMgr.uploadFile(ArgumentMatchers.any(File.class), ArgumentMatchers.anyString(), ArgumentMatchers.anyString()))
+                .then(invocation -> {
+                    if (flakyFile.equals(invocation.getArgument(0)) && flakyAttempts.incrementAndGet() < 3) {
+                        throw new WebDavException("Service unavailable", 503);
+                    }
+                    return remoteFileFor(invocation.getArgument(0), invocation.getArgument(1), invocation.getArgument(2));
+                });
+
+        List<RemoteLocation> remoteFiles = uploader.uploadFiles(
+                TEST_STORAGE_NAME, TEST_UPLOAD_CONTEXT, TEST_STORAGE_TAGS, testFiles, testRootParentDirectory);
+
+        assertEquals(testFiles.size(), remoteFiles.size());
+        assertEquals(3, flakyAttempts.get());
+        assertEquals(testStorageUrl, remoteFiles.get(1).getStorageURL());
+    }
+
+    @Test
+    public void resumeInterruptedUpload() throws Exception {
+        String testStorageUrl = mockStorage();
+        File failingFile = testFiles.get(2);
+        Set<File> uploadedFiles = Collections.synchronizedSet(new HashSet<>());
+        AtomicBoolean serverDown = new AtomicBoolean(true);
+        Mockito.when(storageClientMgr.uploadFile(ArgumentMatchers.any(File.class), ArgumentMatchers.anyString(), ArgumentMatchers.anyString()))
+                .then(invocation -> {
+                    File f = invocation.getArgument(0);
+                    if (f.equals(failingFile) && serverDown.get()) {
+                        throw new WebDavException("Service unavailable", 503);
+                    }
+                    assertTrue(f + " was uploaded twice", uploadedFiles.add(f));
+                    return remoteFileFor(f, invocation.getArgument(1), invocation.getArgument(2));
+                });
+
+        try {
+            uploader.uploadFiles(TEST_STORAGE_NAME, TEST_UPLOAD_CONTEXT, TEST_STORAGE_TAGS, testFiles, testRootParentDirectory);
+            fail("upload should have failed");
+        } catch (WebDavException e) {
+            assertEquals(Integer.valueOf(503), e.getStatusCode());
+        }
+        assertTrue("journal should be kept after a failed upload", journalFile().exists());
+        assertFalse(uploadedFiles.contains(failingFile));
+        assertEquals("the order of the tags should not matter",
+                journalFile(), journalFile(TEST_UPLOAD_CONTEXT, "t2,t1"));
+
+        serverDown.set(false);
+        List<RemoteLocation> remoteFiles = uploader.uploadFiles(
+                TEST_STORAGE_NAME, TEST_UPLOAD_CONTEXT, TEST_STORAGE_TAGS, testFiles, testRootParentDirectory);
+
+        assertEquals(testFiles.size(), remoteFiles.size());
+        assertEquals(new HashSet<>(testFiles), uploadedFiles);
+        for (int i = 0; i < testFiles.size(); i++) {
+            String encodedUrl = storageClientMgr.urlEncodeComps(testRootParentDirectory.toPath().relativize(testFiles.get(i).toPath()).toString());
+            assertEquals(testStorageUrl, remoteFiles.get(i).getStorageURL());
+            assertEquals(encodedUrl, remoteFiles.get(i).getVirtualFilePath());
+        }
+        assertFalse(journalFile().exists());
+        // the resumed upload went to the storage of the failed one
+        Mockito.verify(storageClientMgr, Mockito.times(1)).createStorage(TEST_STORAGE_NAME, TEST_UPLOAD_CONTEXT, TEST_STORAGE_TAGS);
+    }
+
+    @Test
+    public void retryWithOtherTags() throws Exception {
+        mockStorage();
+        String otherStorageTags = "t3";
+        String otherStorageUrl = "http://teststorage/other";
+        Mockito.when(storageClientMgr.createStorage(TEST_STORAGE_NAME, TEST_UPLOAD_CONTEXT, otherStorageTags))
+                .thenReturn(otherStorageUrl);
+        File failingFile = testFiles.get(2);
+        AtomicBoolean serverDown = new AtomicBoolean(true);
+        Mockito.when(storageClientMgr.uploadFile(ArgumentMatchers.any(File.class), ArgumentMatchers.anyString(), ArgumentMatchers.anyString()))
+                .then(invocation -> {
+                    if (failingFile.equals(invocation.getArgument(0)) && serverDown.get()) {
+                        throw new WebDavException("Service unavailable", 503);
+                    }
+                    return remoteFileFor(invocation.getArgument(0), invocation.getArgument(1), invocation.getArgument(2));
+                });
+
+        try {
+            uploader.uploadFiles(TEST_STORAGE_NAME, TEST_UPLOAD_CONTEXT, TEST_STORAGE_TAGS, testFiles, testRootParentDirectory);
+            fail("upload should have failed");
+        } catch (WebDavException e) {
+            assertEquals(Integer.valueOf(503), e.getStatusCode());
+        }
+
+        serverDown.set(false);
+        List<RemoteLocation> remoteFiles = uploader.uploadFiles(
+                TEST_STORAGE_NAME, TEST_UPLOAD_CONTEXT, otherStorageTags, testFiles, testRootParentDirectory);
+
+        // none of the files uploaded by the first attempt is taken from its storage
+        assertEquals(testFiles.size(), remoteFiles.size());
+        for (int i = 0; i < testFiles.size(); i++) {
+            File f = testFiles.get(i);
+            assertEquals(otherStorageUrl, remoteFiles.get(i).getStorageURL());
+            Mockito.verify(storageClientMgr).uploadFile(ArgumentMatchers.eq(f), ArgumentMatchers.eq(otherStorageUrl), ArgumentMatchers.anyString());
+        }
+        Mockito.verify(storageClientMgr).createStorage(TEST_STORAGE_NAME, TEST_UPLOAD_CONTEXT, otherStorageTags);
+        assertFalse(journalFile(TEST_UPLOAD_CONTEXT, otherStorageTags).exists());
+        assertTrue("the journal of the first attempt should be left alone", journalFile().exists());
+    }
+
+    private String mockStorage() {
+        String testStorageUrl = "http://teststorage/" + TEST_STORAGE_NAME;
+        Mockito.when(storageClientMgr.createStorage(TEST_STORAGE_NAME, TEST_UPLOAD_CONTEXT, TEST_STORAGE_TAGS))
+                .thenReturn(testStorageUrl);
+        Mockito.when(storageClientMgr.urlEncodeComp(ArgumentMatchers.anyString()))
+                .thenCallRealMethod();
+        Mockito.when(storageClientMgr.urlEncodeComps(ArgumentMatchers.anyString()))
+                .thenCallRealMethod();
+        return testStorageUrl;
+    }
+
+    private RemoteLocation remoteFileFor(File file, String storageUrl, String storageLocation) {
+        RemoteLocation remoteFile = new RemoteLocation(storageLocation, file.getAbsolutePath(), storageUrl + "/file/" + storageLocation);
+        remoteFile.setStorageURL(storageUrl);
+        return remoteFile;
+    }
+
+    private File journalFile() {
+        return journalFile(TEST_UPLOAD_CONTEXT, TEST_STORAGE_TAGS);
+    }
+
+    private File journalFile(String storageContext, String storageTags) {
+        List<String> relativePaths = testFiles.stream()
+                .map(f -> testRootParentDirectory.toPath().relativize(f.toPath()).toString())
+                .collect(Collectors.toList());
+        return new UploadJournal(testJournalDirectory, storageContext, storageTags,
+                testRootParentDirectory.getAbsolutePath(), relativePaths).getJournalFile();
+    }
 
 }
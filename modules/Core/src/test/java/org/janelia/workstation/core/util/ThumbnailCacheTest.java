@@ -0,0 +1,94 @@
+package org.janelia.workstation.core.util;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import org.janelia.it.jacs.model.TestCategories;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the {@link ThumbnailCache} class.
+ */
+@Category(TestCategories.FastTests.class)
+public class ThumbnailCacheTest {
+
+    private static final String IMAGE_PATH = "/groups/scicomp/sample/image.png";
+
+    @Rule
+    public TemporaryFolder testDirectory = new TemporaryFolder();
+
+    @Test
+    public void widthsAreRoundedUp() {
+        assertEquals(64, ThumbnailCache.getThumbnailWidth(1));
+        assertEquals(64, ThumbnailCache.getThumbnailWidth(64));
+        assertEquals(128, ThumbnailCache.getThumbnailWidth(65));
+        assertEquals(320, ThumbnailCache.getThumbnailWidth(300));
+    }
+
+    @Test
+    public void thumbnailIsReducedAndKeptInMemory() {
+        ThumbnailCache cache = new ThumbnailCache(10 * 1024 * 1024, null, 0, MoreExecutors.directExecutor());
+        assertNull(cache.get(IMAGE_PATH, 300));
+
+        BufferedImage thumbnail = cache.put(IMAGE_PATH, "1-100", 300, createImage(1000, 500));
+        assertEquals(320, thumbnail.getWidth());
+        assertEquals(160, thumbnail.getHeight());
+
+        assertSame(thumbnail, cache.get(IMAGE_PATH, 290));
+        assertNull(cache.get(IMAGE_PATH, 400));
+        assertEquals(1, cache.getMemoryHitCount());
+    }
+
+    @Test
+    public void smallImagesAreNotEnlarged() {
+        ThumbnailCache cache = new ThumbnailCache(10 * 1024 * 1024, null, 0, MoreExecutors.directExecutor());
+        BufferedImage image = createImage(100, 100);
+        assertSame(image, cache.put(IMAGE_PATH, "1-100", 300, image));
+    }
+
+    @Test
+    public void thumbnailIsReadFromDiskByLaterSessions() throws Exception {
+        File diskDirectory = testDirectory.newFolder("thumbnails");
+        ThumbnailCache cache = new ThumbnailCache(10 * 1024 * 1024, diskDirectory, 1024 * 1024, MoreExecutors.directExecutor());
+        cache.put(IMAGE_PATH, "1-100", 300, createImage(1000, 500));
+
+        ThumbnailCache laterCache = new ThumbnailCache(10 * 1024 * 1024, diskDirectory, 1024 * 1024, MoreExecutors.directExecutor());
+        BufferedImage thumbnail = laterCache.get(IMAGE_PATH, "1-100", 300);
+        assertNotNull(thumbnail);
+        assertEquals(320, thumbnail.getWidth());
+        assertEquals(1, laterCache.getDiskHitCount());
+
+        // a changed image must not be shown from the old thumbnail
+        assertNull(new ThumbnailCache(10 * 1024 * 1024, diskDirectory, 1024 * 1024, MoreExecutors.directExecutor())
+                .get(IMAGE_PATH, "2-100", 300));
+    }
+
+    @Test
+    public void diskIsTrimmedToBudget() throws Exception {
+        File diskDirectory = testDirectory.newFolder("thumbnails");
+        ThumbnailCache cache = new ThumbnailCache(10 * 1024 * 1024, diskDirectory, 1, MoreExecutors.directExecutor());
+        cache.put(IMAGE_PATH, "1-100", 300, createImage(1000, 500));
+        cache.put(IMAGE_PATH + "2", "1-100", 300, createImage(1000, 500));
+
+        ThumbnailCache laterCache = new ThumbnailCache(10 * 1024 * 1024, diskDirectory, 1, MoreExecutors.directExecutor());
+        assertNull(laterCache.get(IMAGE_PATH, "1-100", 300));
+        assertNull(laterCache.get(IMAGE_PATH + "2", "1-100", 300));
+    }
+
+    private static BufferedImage createImage(int width, int height) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        g.setColor(Color.ORANGE);
+        g.fillRect(0, 0, width / 2, height);
+        g.dispose();
+        return image;
+    }
+}
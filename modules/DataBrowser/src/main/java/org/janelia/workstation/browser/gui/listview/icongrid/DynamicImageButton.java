@@ -38,6 +38,7 @@ public class DynamicImageButton<T,S> extends AnnotatedImageButton<T,S> {
     
     // State
     private BufferedImage maxSizeImage;
+    private boolean thumbnail;
     private int displaySize;
     private boolean viewable = false;
     private LoadImageWorker loadWorker;
@@ -82,6 +83,11 @@ public class DynamicImageButton<T,S> extends AnnotatedImageButton<T,S> {
                 }
                 else {
                     imagePanel.setImage(Utils.getScaledImageByWidth(maxSizeImage, width));
+                    if (thumbnail && width > maxSizeImage.getWidth() && loadWorker == null) {
+                        // The thumbnail is too small for this size, so show it scaled up until a larger one is loaded
+                        this.displaySize = width;
+                        loadImage();
+                    }
                 }
             }
     
@@ -108,65 +114,7 @@ public class DynamicImageButton<T,S> extends AnnotatedImageButton<T,S> {
             if (wantViewable) {
                 if (!this.viewable) {
 
-                    log.trace("LoadImageWorker: {}",imageFilename);
-                    
-                    loadWorker = new LoadImageWorker(imageFilename, displaySize) {
-
-                        @Override
-                        protected void hadSuccess() {
-
-                            log.trace("Load complete: {}",imageFilename);
-                                                        
-                            if (isCancelled()) {
-                                log.debug("Load was cancelled");
-                                return;
-                            }
-
-                            setDisplaySize(getNewDisplaySize());
-
-                            BufferedImage image = getNewMaxSizeImage();
-                            setMaxSizeImage(image);
-                            registerAspectRatio(image.getWidth(), image.getHeight());
-
-                            BufferedImage scaledImage = getNewScaledImage();
-                            if (scaledImage == null) {
-                                log.warn("Scaled image is null: {}",imageFilename);
-                                return;
-                            }
-
-                            imagePanel.setImage(scaledImage);
-                            setMainComponent(imagePanel);
-
-                            loadWorker = null;
-                        }
-
-                        @Override
-                        protected void hadError(Throwable error) {
-                            
-                            String errorType;
-                            if (error instanceof FileNotFoundException) {
-                                log.warn("File not found: " + imageFilename);
-                                errorType = "File not found";
-                            }
-                            else if (error.getCause() != null && (error.getCause() instanceof FormatException)) {
-                                log.warn("Image format not supported for: " + imageFilename, error);
-                                errorType = "Image format not supported";
-                            }
-                            else {
-                                log.warn("Image could not be loaded: " + imageFilename, error);
-                                errorType = "Image could not be loaded";
-                            }
-
-                            BufferedImage image = Icons.getImage("file_error.png");
-                            imagePanel.setImage(image);
-                            imagePanel.setText(errorType, Color.red);
-                            setMainComponent(imagePanel);
-                            
-                            loadWorker = null;
-                        }
-                    };
-                    
-                    loadWorker.executeInImagePool();
+                    loadImage();
                 }
             }
             else {
@@ -180,6 +128,7 @@ public class DynamicImageButton<T,S> extends AnnotatedImageButton<T,S> {
                 if (isUnloadImages()) {
                     // Clear all references to the image data so that it can be cleared out of memory
                     maxSizeImage = null;
+                    thumbnail = false;
                     imagePanel.setImage(null);
                     // Show the loading label until the image needs to be loaded again
                     setMainComponent(loadingLabel);
@@ -189,6 +138,79 @@ public class DynamicImageButton<T,S> extends AnnotatedImageButton<T,S> {
         this.viewable = wantViewable;
     }
 
+    private void loadImage() {
+        log.trace("LoadImageWorker: {}",imageFilename);
+                
+        loadWorker = new LoadImageWorker(imageFilename, displaySize) {
+
+            @Override
+            protected void hadSuccess() {
+
+                log.trace("Load complete: {}",imageFilename);
+
+                // on every way out, so that a larger thumbnail can be loaded later
+                loadFinished(this);
+
+                if (isCancelled()) {
+                    log.debug("Load was cancelled");
+                    return;
+                }
+
+                setDisplaySize(getNewDisplaySize());
+
+                BufferedImage image = getNewMaxSizeImage();
+                setMaxSizeImage(image);
+                thumbnail = isNewMaxSizeImageThumbnail();
+                registerAspectRatio(image.getWidth(), image.getHeight());
+
+                BufferedImage scaledImage = getNewScaledImage();
+                if (scaledImage == null) {
+                    log.warn("Scaled image is null: {}",imageFilename);
+                    return;
+                }
+
+                imagePanel.setImage(scaledImage);
+                setMainComponent(imagePanel);
+            }
+
+            @Override
+            protected void hadError(Throwable error) {
+
+                loadFinished(this);
+
+                String errorType;
+                if (error instanceof FileNotFoundException) {
+                    log.warn("File not found: " + imageFilename);
+                    errorType = "File not found";
+                }
+                else if (error.getCause() != null && (error.getCause() instanceof FormatException)) {
+                    log.warn("Image format not supported for: " + imageFilename, error);
+                    errorType = "Image format not supported";
+                }
+                else {
+                    log.warn("Image could not be loaded: " + imageFilename, error);
+                    errorType = "Image could not be loaded";
+                }
+
+                BufferedImage image = Icons.getImage("file_error.png");
+                imagePanel.setImage(image);
+                imagePanel.setText(errorType, Color.red);
+                setMainComponent(imagePanel);
+            }
+        };
+                
+        loadWorker.executeInImagePool();
+    }
+
+    /**
+     * Forget the given worker, unless it has been replaced by a newer one in the meantime.
+     */
+    private void loadFinished(LoadImageWorker worker) {
+        if (loadWorker == worker) {
+            loadWorker = null;
+        }
+    }
+
     private boolean isUnloadImages() {
         return BrowserOptions.getInstance().isUnloadImages();
     }
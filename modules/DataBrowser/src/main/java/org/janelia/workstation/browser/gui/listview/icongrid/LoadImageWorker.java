@@ -17,6 +17,7 @@ import org.janelia.workstation.browser.api.state.DataBrowserMgr;
 import org.janelia.workstation.core.api.FileMgr;
 import org.janelia.workstation.core.util.ConsoleProperties;
 import org.janelia.workstation.core.util.ImageCache;
+import org.janelia.workstation.core.util.ThumbnailCache;
 import org.janelia.workstation.core.util.Utils;
 import org.janelia.workstation.core.workers.SimpleWorker;
 import org.slf4j.Logger;
@@ -26,6 +27,8 @@ import org.slf4j.LoggerFactory;
  * SwingWorker class that loads the image and rescales it to the current imageSizePercent sizing. This
  * thread supports being canceled.
  * if an ImageCache has been set with setImageCache then this method will look there first.
+ * When a display size is given, a thumbnail is loaded from the ThumbnailCache instead, and the full size
+ * image is only read if the thumbnail has not been made yet.
  *
  * @author <a href="mailto:rokickik@janelia.hhmi.org">Konrad Rokicki</a>
  */
@@ -56,6 +59,7 @@ public abstract class LoadImageWorker extends SimpleWorker {
     
     private BufferedImage maxSizeImage;
     private BufferedImage scaledImage;
+    private boolean thumbnailImage;
     
     public LoadImageWorker(String imageFilename) {
         this.imageFilename = imageFilename;
@@ -70,6 +74,12 @@ public abstract class LoadImageWorker extends SimpleWorker {
     @Override
     protected void doStuff() throws Exception {
 
+        ThumbnailCache thumbnailCache = DataBrowserMgr.getDataBrowserMgr().getThumbnailCache();
+        if (displaySize != null && displaySize>0 && thumbnailCache != null) {
+            loadThumbnail(thumbnailCache);
+            return;
+        }
+
         ImageCache imageCache = DataBrowserMgr.getDataBrowserMgr().getImageCache();
         if (imageCache != null) {
             this.maxSizeImage = imageCache.get(imageFilename);
@@ -80,30 +90,62 @@ public abstract class LoadImageWorker extends SimpleWorker {
             }
         }
 
+        maxSizeImage = readImage();
+        if (useCacheBehind && maxSizeImage != null && imageCache != null) {
+            imageCache.put(imageFilename, maxSizeImage);
+        }
+
+        if (maxSizeImage != null) {
+            // Scale image to current image display size
+            rescaleToDisplaySize();
+        }
+    }
+
+    /**
+     * Loads a thumbnail of the image instead of the full size image, from memory or disk if possible.
+     * The full size image is only read if there is no thumbnail yet, and is not kept.
+     */
+    private void loadThumbnail(ThumbnailCache thumbnailCache) throws Exception {
+        BufferedImage thumbnail = thumbnailCache.get(imageFilename, displaySize);
+        if (thumbnail == null) {
+            String version = FileMgr.getFileMgr().getFileVersion(imageFilename);
+            thumbnail = thumbnailCache.get(imageFilename, version, displaySize);
+            if (thumbnail == null) {
+                ImageCache imageCache = DataBrowserMgr.getDataBrowserMgr().getImageCache();
+                BufferedImage image = imageCache == null ? null : imageCache.get(imageFilename);
+                if (image == null) {
+                    image = readImage();
+                }
+                if (image == null) {
+                    return;
+                }
+                thumbnail = thumbnailCache.put(imageFilename, version, displaySize, image);
+            }
+        }
+        this.maxSizeImage = thumbnail;
+        // a thumbnail narrower than requested is the full size image, which was too small to reduce
+        this.thumbnailImage = thumbnail.getWidth() >= ThumbnailCache.getThumbnailWidth(displaySize);
+        rescaleToDisplaySize();
+    }
+
+    private BufferedImage readImage() throws Exception {
         if (useCacheBehind) {
             Stopwatch stopwatch = Stopwatch.createStarted();
             // Async cache-behind
             try (InputStream imageStream = FileMgr.getFileMgr().openFileInputStream(imageFilename, false)) {
                 log.trace("Async cache-behind loading: {}",imageFilename);
-                maxSizeImage = Utils.readImageFromInputStream(imageStream, FilenameUtils.getExtension(imageFilename));
+                BufferedImage image = Utils.readImageFromInputStream(imageStream, FilenameUtils.getExtension(imageFilename));
                 log.info("Took {} ms to load {}", stopwatch.elapsed(TimeUnit.MILLISECONDS), imageFilename);
-            }
-            if (maxSizeImage != null && imageCache != null) {
-                imageCache.put(imageFilename, maxSizeImage);
+                return image;
             }
         }
         else {
             // Sync cache-ahead
             try (InputStream imageStream = FileMgr.getFileMgr().openFileInputStream(imageFilename, false)) {
                 log.trace("Cache-ahead loading: {}", imageFilename);
-                maxSizeImage = Utils.readImageFromInputStream(imageStream, FilenameUtils.getExtension(imageFilename));
+                return Utils.readImageFromInputStream(imageStream, FilenameUtils.getExtension(imageFilename));
             }
         }
-
-        if (maxSizeImage != null) {
-            // Scale image to current image display size
-            rescaleToDisplaySize();
-        }
     }
 
     private void rescaleToDisplaySize() {
@@ -119,6 +161,13 @@ public abstract class LoadImageWorker extends SimpleWorker {
         return maxSizeImage;
     }
 
+    /**
+     * @return true if the max size image is a thumbnail, i.e. only good for displaying up to its own width
+     */
+    protected boolean isNewMaxSizeImageThumbnail() {
+        return thumbnailImage;
+    }
+
     protected BufferedImage getNewScaledImage() {
         return scaledImage;
     }
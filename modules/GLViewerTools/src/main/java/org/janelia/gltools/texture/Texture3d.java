@@ -29,6 +29,7 @@ import org.janelia.gltools.GL3Resource;
 import org.janelia.gltools.MJ2Parser;
 import org.janelia.gltools.activity_logging.ActivityLogHelper;
 import org.janelia.workstation.core.options.ApplicationOptions;
+import org.janelia.workstation.core.util.DirectBufferPool;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -50,6 +51,7 @@ public class Texture3d extends BasicTexture implements GL3Resource {
     private int pixelBufferObject = 0;
     private byte[] pixelBytes;
     private short[] shortBytes;
+    private DirectBufferPool pixelPool; // owns the pixels, if they were handed over by loadShortBuffer()
 
     public Texture3d() {
         textureTarget = GL3.GL_TEXTURE_3D;
@@ -64,6 +66,22 @@ public class Texture3d extends BasicTexture implements GL3Resource {
         int[] pbos = {pixelBufferObject};
         gl.glDeleteBuffers(1, pbos, 0);
         pixelBufferObject = 0;
+        releasePooledPixels();
+    }
+
+    @Override
+    public void deallocateRam() {
+        releasePooledPixels();
+        super.deallocateRam();
+    }
+
+    private synchronized void releasePooledPixels() {
+        if (pixelPool != null) {
+            pixelPool.release(pixels);
+            pixelPool = null;
+            pixels = null;
+            shortPixels = null;
+        }
     }
 
     @Override
@@ -206,6 +224,47 @@ public class Texture3d extends BasicTexture implements GL3Resource {
         }
     }
 
+    /**
+     * Takes over a buffer of single channel 16-bit voxels, in native byte order, with x varying
+     * fastest and then y and z. This is the layout in which the texture is uploaded, so the voxels
+     * are used as they are, without copying.
+     *
+     * @param voxels the voxels, from position zero
+     * @param pool if not null, the buffer is returned to this pool once the texture no longer needs it
+     * @return true if the voxels were loaded
+     */
+    public boolean loadShortBuffer(ByteBuffer voxels, int width, int height, int depth, DirectBufferPool pool) {
+        PerformanceTimer timer = new PerformanceTimer();
+
+        if (voxels == null || width * height * depth == 0) {
+            return false;
+        }
+
+        this.width = width;
+        this.height = height;
+        this.depth = depth;
+        bytesPerIntensity = 2;
+        type = GL3.GL_UNSIGNED_SHORT;
+        numberOfComponents = 1;
+        format = GL3.GL_RED;
+        internalFormat = GL3.GL_R16;
+
+        releasePooledPixels();
+        pixelBytes = null;
+        shortBytes = null;
+        pixels = voxels;
+        pixels.rewind();
+        shortPixels = pixels.asShortBuffer();
+        pixelPool = pool;
+
+        computeMipmaps();
+
+        LOG.debug("Computing mipmaps took {} ms", timer.reportMsAndRestart());
+
+        needsUpload = true;
+        return true;
+    }
+
     private void allocatePixels() {
         int byteCount = numberOfComponents * bytesPerIntensity * width * height * depth;
         pixelBytes = new byte[byteCount];
@@ -499,7 +558,9 @@ public class Texture3d extends BasicTexture implements GL3Resource {
         short[] shortArr=null;
         byte[] byteArr=null;
 
-        if (bytesPerIntensity>1) {
+        if (bytesPerIntensity>1 && pixelBytes==null) {
+            // Direct pixels from loadShortBuffer() are read through shortsIn instead of an array
+        } else if (bytesPerIntensity>1) {
             if (shortBytes==null) {
                 int length = pixelBytes.length / 2;
                 shortBytes = new short[length];
@@ -520,7 +581,7 @@ public class Texture3d extends BasicTexture implements GL3Resource {
 
         if (result.depth<8) {
             MipMapMaxFilterZSlice zRunnable = new MipMapMaxFilterZSlice(0, result.depth, zh1, yh1, xh1, HWN, WN, result, depth,
-                    width, height, numberOfComponents, shortArr, byteArr, bytesPerIntensity, shortsOut, bytesOut);
+                    width, height, numberOfComponents, shortArr, shortsIn, byteArr, bytesPerIntensity, shortsOut, bytesOut);
             zRunnable.run();
             return result;
         } else {
@@ -532,7 +593,7 @@ public class Texture3d extends BasicTexture implements GL3Resource {
                     zCount = zRemaining;
                 }
                 MipMapMaxFilterZSlice zRunnable = new MipMapMaxFilterZSlice(z, zCount, zh1, yh1, xh1, HWN, WN, result, depth,
-                        width, height, numberOfComponents, shortArr, byteArr, bytesPerIntensity, shortsOut, bytesOut);
+                        width, height, numberOfComponents, shortArr, shortsIn, byteArr, bytesPerIntensity, shortsOut, bytesOut);
                 threadList.add(scheduledThreadPoolExecutor.submit(zRunnable));
                 z += zCount;
             }
@@ -564,6 +625,7 @@ public class Texture3d extends BasicTexture implements GL3Resource {
         int z, zCount, zh1, yh1, xh1, HWN, WN, depth, height, width, numberOfComponents, bytesPerIntensity;
         Texture3d result;
         short[] shortArr;
+        ShortBuffer shortsIn;
         byte[] byteArr;
         ShortBuffer shortsOut;
         ByteBuffer bytesOut;
@@ -575,7 +637,7 @@ public class Texture3d extends BasicTexture implements GL3Resource {
         int [] samples = new int [8];
 
         MipMapMaxFilterZSlice(int z, int zCount, int zh1, int yh1, int xh1, int HWN, int WN, Texture3d result, int depth,
-                              int width, int height, int numberOfComponents, short[] shortArr, byte[] byteArr,
+                              int width, int height, int numberOfComponents, short[] shortArr, ShortBuffer shortsIn, byte[] byteArr,
                               int bytesPerIntensity, ShortBuffer shortsOut, ByteBuffer bytesOut) {
             this.z=z;
             this.zCount=zCount;
@@ -590,6 +652,7 @@ public class Texture3d extends BasicTexture implements GL3Resource {
             this.height=height;
             this.numberOfComponents=numberOfComponents;
             this.shortArr=shortArr;
+            this.shortsIn=shortsIn;
             this.byteArr=byteArr;
             this.bytesPerIntensity=bytesPerIntensity;
             this.shortsOut=shortsOut;
@@ -661,6 +724,25 @@ public class Texture3d extends BasicTexture implements GL3Resource {
                                     }
                                 }
 
+                            } else if (bytesPerIntensity > 1) {
+
+                                // Inner loops over input texture voxels
+                                for (int iz : zIn) {
+                                    if (iz != IGNORE_VALUE) {
+                                        for (int iy : yIn) {
+                                            if (iy != IGNORE_VALUE) {
+                                                int ZYWN = iy + iz;
+                                                for (int ix : xIn) {
+                                                    if (ix != IGNORE_VALUE) {
+                                                        int offset = ZYWN + ix;
+                                                        samples[sampleCount++] = shortsIn.get(offset);
+                                                    }
+                                                }
+                                            }
+                                        }
+                                    }
+                                }
+
                             } else {
 
                                 // Inner loops over input texture voxels
@@ -1,6 +1,7 @@
 
 package org.janelia.horta;
 
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.Files;
@@ -35,7 +36,8 @@ public class FileBasedTileLoader implements TileLoader {
         } else {
             try {
                 LOG.info("Streaming tile from {}", tilePath);
-                return Streamable.of(Files.newInputStream(tilePath), Files.size(tilePath));
+                // a FileInputStream exposes its FileChannel, which lets KTX blocks be read straight into direct buffers
+                return Streamable.of(new FileInputStream(tilePath.toFile()), Files.size(tilePath));
             } catch (IOException e) {
                 LOG.error("Error opening {}", tileLocation, e);
                 throw new IllegalStateException("Error opening " + tileLocation, e);
@@ -42,7 +42,6 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Observable;
 import java.util.Observer;
-import java.util.concurrent.Executors;
 import java.util.prefs.Preferences;
 
 import javax.imageio.ImageIO;
@@ -70,7 +69,6 @@ import javax.swing.event.MouseInputListener;
 import Jama.Matrix;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.eventbus.Subscribe;
-import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.jogamp.opengl.util.awt.AWTGLReadBufferUtil;
 import org.apache.commons.lang.StringUtils;
 import org.janelia.geometry3d.Matrix4;
@@ -167,7 +165,6 @@ import org.janelia.workstation.controller.model.color.ChannelColorModel;
 import org.janelia.workstation.controller.model.color.ColorSwatch;
 import org.janelia.workstation.controller.model.color.ImageColorModel;
 import org.janelia.workstation.controller.options.ApplicationPanel;
-import org.janelia.workstation.core.api.LocalCacheMgr;
 import org.janelia.workstation.core.api.http.RestJsonClientManager;
 import org.janelia.workstation.core.api.web.JadeServiceClient;
 import org.janelia.workstation.core.options.ApplicationOptions;
@@ -219,7 +216,6 @@ public final class NeuronTracerTopComponent extends TopComponent
         implements VolumeProjection, NeuronVertexUpdateListener, NeuronVertexDeletionListener, NeuronVertexCreationListener {
 
     static final String PREFERRED_ID = "NeuronTracerTopComponent";
-    private static final int CACHE_CONCURRENCY = 10;
     private SceneWindow sceneWindow;
     private OrbitPanZoomInteractor worldInteractor;
 
@@ -2432,20 +2428,11 @@ public final class NeuronTracerTopComponent extends TopComponent
 
     TileLoader getTileLoader(TmSample sample) {
         if (ApplicationOptions.getInstance().isUseHTTPForTileAccess()) {
-            return new CachedTileLoader(
-                    new JadeBasedTileLoader(new JadeServiceClient(
-                            ConsoleProperties.getString("jadestorage.rest.url"),
-                            () -> new ClientProxy(RestJsonClientManager.getInstance().getHttpClient(true), false)),
-                            new JadeStorageAttributes().setFromMap(sample.getStorageAttributes())),
-                    LocalCacheMgr.getInstance().getLocalFileCacheStorage(),
-                    CACHE_CONCURRENCY,
-                    Executors.newFixedThreadPool(
-                            CACHE_CONCURRENCY,
-                            new ThreadFactoryBuilder()
-                                    .setNameFormat("HortaTileCacheWriter-%d")
-                                    .setDaemon(true)
-                                    .build())
-            );
+            // KTX blocks read over HTTP are cached on local disk by KtxOctreeBlockTileSource
+            return new JadeBasedTileLoader(new JadeServiceClient(
+                    ConsoleProperties.getString("jadestorage.rest.url"),
+                    () -> new ClientProxy(RestJsonClientManager.getInstance().getHttpClient(true), false)),
+                    new JadeStorageAttributes().setFromMap(sample.getStorageAttributes()));
         } else {
             return new FileBasedTileLoader();
         }
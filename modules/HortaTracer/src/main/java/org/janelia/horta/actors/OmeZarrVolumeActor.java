@@ -18,7 +18,9 @@ import javax.media.opengl.GL4;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 public class OmeZarrVolumeActor extends BasicGL3Actor implements DepthSlabClipper {
     private static final Logger LOG = LoggerFactory.getLogger(OmeZarrVolumeActor.class);
@@ -32,6 +34,13 @@ public class OmeZarrVolumeActor extends BasicGL3Actor implements DepthSlabClippe
         return singletonInstance;
     }
 
+    /**
+     * @return the singleton, or null if nothing has needed it yet
+     */
+    static public OmeZarrVolumeActor getInstanceIfPresent() {
+        return singletonInstance;
+    }
+
     private Texture2d opaqueDepthTexture = null;
     private float zNearRelative = 0.10f;
     private float zFarRelative = 100.0f; // relative z clip planes
@@ -53,15 +62,11 @@ public class OmeZarrVolumeActor extends BasicGL3Actor implements DepthSlabClippe
         initBlockStrategy(chooser);
         blockDisplayUpdater.getDisplayChangeObservable().addObserver((o, arg) -> dynamicTiles.updateDesiredTiles(blockDisplayUpdater.getDesiredBlocks()));
         dynamicTiles.getDisplayChangeObservable().addObserver(((o, arg) -> {
-            List<Object3d> list = new ArrayList<>();
-            getChildren().forEach(c -> {
-                if (!dynamicTiles.getDisplayedActors().contains(c)) {
-                    list.add(c);
-                }
-            });
-            getChildren().removeAll(list);
-            dynamicTiles.getDisplayedActors().forEach(a -> {
-                if (!getChildren().contains(a)) {
+            Set<SortableBlockActor> displayed = new HashSet<>(dynamicTiles.getDisplayedActors());
+            Set<Object3d> children = new HashSet<>(getChildren());
+            getChildren().removeIf(c -> !displayed.contains(c));
+            displayed.forEach(a -> {
+                if (!children.contains(a)) {
                     addPersistentBlock(a);
                 }
             });
@@ -167,6 +172,7 @@ public class OmeZarrVolumeActor extends BasicGL3Actor implements DepthSlabClippe
     
     @Override
     public void display(GL3 gl, AbstractCamera camera, Matrix4 parentModelViewMatrix) {
+        getChildren().removeAll(dynamicTiles.disposeObsoleteTiles(gl));
         if (! isVisible())
             return;
         if (! isInitialized) init(gl);
@@ -283,6 +289,10 @@ public class OmeZarrVolumeActor extends BasicGL3Actor implements DepthSlabClippe
         this.brightnessModel = brightnessModel;
     }
 
+    public BasicTileCache.TileCounts getTileCounts() {
+        return dynamicTiles.getTileCounts();
+    }
+
     public void clearAllBlocks() {
         dynamicTiles.clearAllTiles();
         getChildren().clear();
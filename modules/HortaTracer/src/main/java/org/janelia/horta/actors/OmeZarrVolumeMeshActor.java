@@ -10,7 +10,6 @@ import org.janelia.gltools.texture.Texture2d;
 import org.janelia.gltools.texture.Texture3d;
 import org.janelia.gltools.MeshActor;
 import org.janelia.horta.blocks.BlockTileResolution;
-import org.janelia.horta.blocks.OmeZarrBlockResolution;
 import org.janelia.horta.blocks.OmeZarrBlockTileKey;
 import org.janelia.horta.blocks.OmeZarrBlockTileSource;
 import org.janelia.horta.volume.VolumeMipMaterial;
@@ -45,7 +44,7 @@ public class OmeZarrVolumeMeshActor extends MeshActor implements SortableBlockAc
 
         this.homogeneousCentroid = new Vector4(centroid.getX(), centroid.getY(), centroid.getZ(), 1.0f);
 
-        resolution = new OmeZarrBlockResolution(tile.getDataset(), tile.getKeyDepth(), tile.getShape(), tile.getVoxelSize(), tile.getResolutionMicrometers());
+        resolution = source.getResolution(tile.getKeyDepth());
 
         bbox_min = tile.getOrigin();
         Vector3 ext = tile.getExtents();
@@ -58,6 +58,13 @@ public class TetVolumeActor extends BasicGL3Actor implements DepthSlabClipper {
             singletonInstance = new TetVolumeActor();
         return singletonInstance;
     }
+
+    /**
+     * @return the singleton, or null if nothing has needed it yet
+     */
+    static public TetVolumeActor getInstanceIfPresent() {
+        return singletonInstance;
+    }
     
     // Use one global shader, rather than one shader per volume block.
     private final TetVolumeMaterial.TetVolumeShader shader;
@@ -436,6 +443,10 @@ public class TetVolumeActor extends BasicGL3Actor implements DepthSlabClipper {
         return result;
     }
 
+    public BasicTileCache.TileCounts getTileCounts() {
+        return dynamicTiles.getTileCounts();
+    }
+
     // clear all blocks for both RAW and KTX
     public void clearAllBlocks() {
         /*dynamicTiles.updateDesiredTiles(Collections.<KtxOctreeBlockTileKey>emptyList());
@@ -190,7 +190,7 @@ public class TetVolumeMaterial extends BasicMaterial
                 ByteBuffer buf1 = ktxData.mipmaps.get(mipmapLevel);
                 buf1.rewind();
                 gl.glBindBuffer(GL3.GL_PIXEL_UNPACK_BUFFER, pbos.get(mipmapLevel));
-                gl.glBufferData(GL3.GL_PIXEL_UNPACK_BUFFER, buf1.capacity(), buf1, GL3.GL_STREAM_DRAW);
+                gl.glBufferData(GL3.GL_PIXEL_UNPACK_BUFFER, buf1.limit(), buf1, GL3.GL_STREAM_DRAW);
             }
             t1 = System.nanoTime();
             logger.info("Creating pixel buffer objects took "+(t1-t0)/1.0e9+" seconds");
@@ -105,6 +105,13 @@ implements SortableBlockActor, SortableBlockActorSource
         vertexBufferObject.unbind(gl);
     }
 
+    @Override
+    public void dispose(GL3 gl) {
+        super.dispose(gl);
+        // The block is never displayed again, so its voxels can go back to the buffer pool
+        ktxData.releaseMemory();
+    }
+
     @Override
     protected void initTriangleAdjacencyIndices(GL3 gl) 
     {
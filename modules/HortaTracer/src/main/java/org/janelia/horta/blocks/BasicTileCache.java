@@ -3,16 +3,20 @@ package org.janelia.horta.blocks;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.prefs.PreferenceChangeEvent;
 import java.util.prefs.PreferenceChangeListener;
 import java.util.prefs.Preferences;
 
+import com.google.common.collect.Maps;
+
 import org.janelia.geometry3d.ComposableObservable;
 import org.janelia.geometry3d.ObservableInterface;
 import org.janelia.horta.options.TileLoadingPanel;
@@ -26,6 +30,14 @@ import org.slf4j.LoggerFactory;
 /**
  * Generic version of HortaVolumeCache, for use with newer Ktx block loading
  *
+ * Every tile the cache knows about has one entry, which moves from QUEUED to
+ * LOADING to RESIDENT. Tiles that are no longer desired are cancelled while
+ * queued or loading; resident tiles stay displayed until the block strategy
+ * declares them obsolete, at which point they are handed back for disposal
+ * through {@link #popObsoleteTiles()}. All state changes happen while holding
+ * the cache lock, so the loader threads and the camera updates always agree
+ * on the state of a tile.
+ *
  * @author brunsc
  * @param <TILE_KEY> - tile key type
  * @param <TILE_DATA> - tile data type
@@ -36,13 +48,64 @@ public abstract class BasicTileCache<TILE_KEY, TILE_DATA> {
         TILE_DATA loadTile(TILE_KEY key) throws InterruptedException, IOException;
     }
 
-    private final Map<TILE_KEY, RequestProcessor.Task> queuedTiles = new ConcurrentHashMap<>();
-    private final Map<TILE_KEY, RequestProcessor.Task> loadingTiles = new ConcurrentHashMap<>();
+    public enum TileState {
+        QUEUED,
+        LOADING,
+        RESIDENT
+    }
+
+    /**
+     * Number of tiles in each state at one point in time.
+     */
+    public static class TileCounts {
+        private final int desired;
+        private final int queued;
+        private final int loading;
+        private final int resident;
+
+        TileCounts(int desired, int queued, int loading, int resident) {
+            this.desired = desired;
+            this.queued = queued;
+            this.loading = loading;
+            this.resident = resident;
+        }
+
+        public int getDesired() {
+            return desired;
+        }
+
+        public int getQueued() {
+            return queued;
+        }
+
+        public int getLoading() {
+            return loading;
+        }
+
+        public int getResident() {
+            return resident;
+        }
+
+        @Override
+        public String toString() {
+            return "desired=" + desired + ", queued=" + queued + ", loading=" + loading + ", resident=" + resident;
+        }
+    }
+
+    private class TileEntry {
+        private TileState state = TileState.QUEUED;
+        private boolean desired = true;
+        private RequestProcessor.Task task;
+    }
 
-    private final Set<TILE_KEY> nearVolumeMetadata = new HashSet<>();
+    // guarded by this
+    private final Map<TILE_KEY, TileEntry> tiles = new ConcurrentHashMap<>();
+    // view of the tiles waiting to load, as expected by BlockChooser.chooseObsoleteTiles
+    private final Map<TILE_KEY, TileEntry> queuedTiles = Maps.filterValues(tiles, entry -> entry.state == TileState.QUEUED);
 
+    // data of the RESIDENT tiles; only modified while holding the lock
     final Map<TILE_KEY, TILE_DATA> nearVolumeInRam = new ConcurrentHashMap<>();
-    final Map<TILE_KEY, TILE_DATA> obsoleteTiles = new ConcurrentHashMap<>();
+    private final Queue<TILE_DATA> obsoleteTiles = new ConcurrentLinkedQueue<>();
 
     // To enable/disable loading
     BlockChooser blockStrategy;
@@ -71,60 +134,68 @@ public abstract class BasicTileCache<TILE_KEY, TILE_DATA> {
     abstract LoadRunner<TILE_KEY, TILE_DATA> getLoadRunner();
 
     public int getBlockCount() {
-        return nearVolumeMetadata.size();
+        return tiles.size();
     }
 
-    public synchronized void addDesiredTile(TILE_KEY key) {
-        if (nearVolumeMetadata.contains(key)) {
-            return; // already queued
+    public synchronized TileCounts getTileCounts() {
+        int desired = 0;
+        int queued = 0;
+        int loading = 0;
+        int resident = 0;
+        for (TileEntry entry : tiles.values()) {
+            if (entry.desired) {
+                desired++;
+            }
+            switch (entry.state) {
+                case QUEUED:
+                    queued++;
+                    break;
+                case LOADING:
+                    loading++;
+                    break;
+                case RESIDENT:
+                    resident++;
+                    break;
+            }
         }
-        nearVolumeMetadata.add(key);
-        if (nearVolumeInRam.containsKey(key)) {
-            return; // already loaded
+        return new TileCounts(desired, queued, loading, resident);
+    }
+
+    public synchronized void addDesiredTile(TILE_KEY key) {
+        TileEntry entry = tiles.get(key);
+        if (entry != null) {
+            entry.desired = true;
+            return; // already queued, loading or loaded
         }
         queueLoad(key, getLoadRunner());
     }
 
     public synchronized void updateDesiredTiles(List<TILE_KEY> desiredTiles) {
-        List<TILE_KEY> newTiles = new ArrayList<>();
-        for (TILE_KEY key : desiredTiles) {
-            if (!nearVolumeMetadata.contains(key)) {
-                nearVolumeMetadata.add(key);
-            }
-
-            if (queuedTiles.containsKey(key)) {
-                continue; // already queued
-            }
-            if (loadingTiles.containsKey(key)) {
-                continue; // already loading
+        Set<TILE_KEY> desiredSet = new LinkedHashSet<>(desiredTiles); // keeps the order of importance
+
+        int cancelled = 0;
+        Iterator<Map.Entry<TILE_KEY, TileEntry>> tileIter = tiles.entrySet().iterator();
+        while (tileIter.hasNext()) {
+            Map.Entry<TILE_KEY, TileEntry> tile = tileIter.next();
+            TileEntry entry = tile.getValue();
+            entry.desired = desiredSet.contains(tile.getKey());
+            if (!entry.desired && entry.state != TileState.RESIDENT) {
+                // Interrupts the load if it has already started
+                entry.task.cancel();
+                tileIter.remove();
+                cancelled++;
             }
-            if (nearVolumeInRam.containsKey(key)) {
-                continue; // already loaded
-            }
-            newTiles.add(key);
         }
 
-        removeIfNotDesired (desiredTiles, queuedTiles);
-        removeIfNotDesired (desiredTiles, loadingTiles);
-
-        for (TILE_KEY key : newTiles) {
-            queueLoad(key, getLoadRunner());
-        }
-    }
-
-    private void removeIfNotDesired (List<TILE_KEY> desiredTiles, Map<TILE_KEY, RequestProcessor.Task> tileSet) {
-        Iterator<Map.Entry<TILE_KEY, RequestProcessor.Task>> mapIter = tileSet.entrySet().iterator();
-        while (mapIter.hasNext()) {
-            Map.Entry<TILE_KEY, RequestProcessor.Task> entry = mapIter.next();
-            TILE_KEY key = entry.getKey();
-            if (!desiredTiles.contains(key)) {
-                RequestProcessor.Task task = loadingTiles.get(key);
-                if (task != null) {
-                    task.cancel();
-                }
-                mapIter.remove();
+        LoadRunner<TILE_KEY, TILE_DATA> loadRunner = getLoadRunner();
+        for (TILE_KEY key : desiredSet) {
+            if (!tiles.containsKey(key)) {
+                queueLoad(key, loadRunner);
             }
         }
+        if (cancelled > 0) {
+            log.debug("Cancelled {} tile loads that are no longer desired", cancelled);
+        }
     }
 
     public ObservableInterface getDisplayChangeObservable() {
@@ -132,85 +203,75 @@ public abstract class BasicTileCache<TILE_KEY, TILE_DATA> {
     }
 
     public Collection<TILE_DATA> popObsoleteTiles() {
-        Collection<TILE_DATA> result = new ArrayList<>(obsoleteTiles.values());
-        if (!result.isEmpty()) {
-            obsoleteTiles.clear();
+        Collection<TILE_DATA> result = new ArrayList<>();
+        TILE_DATA tile;
+        while ((tile = obsoleteTiles.poll()) != null) {
+            result.add(tile);
         }
         return result;
     }
 
-    public void clearAllTiles() {
-        obsoleteTiles.clear();
+    public synchronized void clearAllTiles() {
+        for (TileEntry entry : tiles.values()) {
+            if (entry.state != TileState.RESIDENT) {
+                entry.task.cancel();
+            }
+        }
+        tiles.clear();
+        obsoleteTiles.addAll(nearVolumeInRam.values());
         nearVolumeInRam.clear();
     }
 
-    private synchronized boolean queueLoad(final TILE_KEY key, final LoadRunner<TILE_KEY, TILE_DATA> loadRunner) {
-        if (queuedTiles.containsKey(key)) {
-            return false; // already queued
-        }
-        if (loadingTiles.containsKey(key)) {
-            return false; // already loading
-        }
+    // must be called holding the lock
+    private void queueLoad(final TILE_KEY key, final LoadRunner<TILE_KEY, TILE_DATA> loadRunner) {
+        final TileEntry entry = new TileEntry();
         Runnable loadTask = new Runnable() {
             @Override
             public void run() {
                 // Move from "queued" to "loading" state
-                synchronized (queuedTiles) {
-                    RequestProcessor.Task task = queuedTiles.get(key);
-                    if (task == null) {
-                        log.warn("Tile has no task: " + getTileName(key));
-                        return;
+                synchronized (BasicTileCache.this) {
+                    if (tiles.get(key) != entry) {
+                        return; // no longer desired
                     }
-                    log.info("Tile has loaded: {}", getTileName(key));
-                    loadingTiles.put(key, task);
-                    queuedTiles.remove(key);
+                    entry.state = TileState.LOADING;
                 }
 
                 ProgressHandle progress = ProgressHandleFactory.createHandle("Loading Tile " + getTileName(key) + " ...", null, null);
-
+                TILE_DATA tileTexture = null;
+                boolean resident = false;
                 try {
-                    // Check whether this tile is still relevant
-                    if (!nearVolumeMetadata.contains(key)) {
-                        return;
-                    }
-
                     progress.start();
                     progress.setDisplayName("Loading Tile " + getTileName(key) + " ...");
                     progress.switchToIndeterminate();
 
                     log.debug("Tile cache load tile data for {}", key);
 
-                    TILE_DATA tileTexture = loadRunner.loadTile(key);
+                    tileTexture = loadRunner.loadTile(key);
 
                     if (tileTexture == null) {
                         log.info("Tile loaded was null {}", getTileName(key));
                         return;
                     }
 
-                    if (!nearVolumeMetadata.contains(key)) {
+                    resident = makeResident(key, entry, tileTexture);
+                    if (resident) {
+                        displayChangeObservable.setChanged();
+                        displayChangeObservable.notifyObservers();
+                    } else {
                         log.info("Tile loaded was no longer needed {}", getTileName(key));
-                        return; // no longer needed
-                    }
-
-                    if (nearVolumeInRam.containsKey(key)) {
-                        log.info("Tile loaded was already loaded {}", getTileName(key));
-                        return; // already loaded by another thread?
                     }
-
-                    nearVolumeInRam.put(key, tileTexture);
-                    displayChangeObservable.setChanged();
-                    displayChangeObservable.notifyObservers();
                 } catch (IOException ex) {
                     log.info("loadTask was IOException {}", getTileName(key), ex);
                 } catch (InterruptedException ex) {
                     log.info("loadTask was interrupted {}", getTileName(key), ex);
                 } finally {
-                    loadingTiles.remove(key);
-                    // figure out if there are tiles we need to remove after successful load of a tile
-                    Map<TILE_KEY, TILE_DATA> obsoleteTiles = blockStrategy.chooseObsoleteTiles(nearVolumeInRam, queuedTiles, (BlockTileKey)key);
-                    if (obsoleteTiles != null) {
-                        for (TILE_KEY key : obsoleteTiles.keySet()) {
-                            nearVolumeInRam.remove(key);
+                    if (!resident) {
+                        synchronized (BasicTileCache.this) {
+                            // forget the failed load, so that the tile is queued again if it is still desired
+                            tiles.remove(key, entry);
+                        }
+                        if (tileTexture != null) {
+                            obsoleteTiles.add(tileTexture);
                         }
                     }
                     progress.finish();
@@ -219,9 +280,27 @@ public abstract class BasicTileCache<TILE_KEY, TILE_DATA> {
         };
 
         // Submit load task asynchronously
-        synchronized (queuedTiles) {
-            log.info("Queueing brick {} (queued={}, loading={})", getTileName(key), queuedTiles.size(), loadingTiles.size());
-            queuedTiles.put(key, loadProcessor.post(loadTask));
+        log.info("Queueing brick {} (tiles={})", getTileName(key), tiles.size());
+        tiles.put(key, entry);
+        entry.task = loadProcessor.post(loadTask);
+    }
+
+    private synchronized boolean makeResident(TILE_KEY key, TileEntry entry, TILE_DATA tileData) {
+        if (tiles.get(key) != entry) {
+            return false; // cancelled while loading
+        }
+        entry.state = TileState.RESIDENT;
+        nearVolumeInRam.put(key, tileData);
+        // figure out if there are tiles we need to remove after successful load of a tile
+        Map<TILE_KEY, TILE_DATA> obsolete = blockStrategy.chooseObsoleteTiles(nearVolumeInRam, queuedTiles, (BlockTileKey) key);
+        if (obsolete != null) {
+            for (TILE_KEY obsoleteKey : obsolete.keySet()) {
+                TILE_DATA obsoleteData = nearVolumeInRam.remove(obsoleteKey);
+                if (obsoleteData != null) {
+                    tiles.remove(obsoleteKey);
+                    obsoleteTiles.add(obsoleteData);
+                }
+            }
         }
         return true;
     }
@@ -236,28 +315,11 @@ public abstract class BasicTileCache<TILE_KEY, TILE_DATA> {
     }
 
     public boolean canDisplay() {
-        if (nearVolumeInRam.isEmpty()) {
-            return false;
-        }
-        if (nearVolumeMetadata.isEmpty()) {
-            return false;
-        }
-        for (TILE_KEY key : nearVolumeMetadata) {
-            if (nearVolumeInRam.containsKey(key)) {
-                return true;
-            }
-        }
-        return false;
+        return !nearVolumeInRam.isEmpty();
     }
 
     public Collection<TILE_DATA> getDisplayedActors() {
-        List<TILE_DATA> result = new ArrayList<>();
-        for (TILE_KEY key : nearVolumeMetadata) {
-            if (nearVolumeInRam.containsKey(key)) {
-                result.add(nearVolumeInRam.get(key));
-            }
-        }
-        return result;
+        return new ArrayList<>(nearVolumeInRam.values());
     }
 
     public BlockChooser getBlockStrategy() {
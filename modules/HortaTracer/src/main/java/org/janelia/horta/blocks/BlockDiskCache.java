@@ -0,0 +1,722 @@
+package org.janelia.horta.blocks;
+
+import java.io.BufferedOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+import com.google.common.eventbus.Subscribe;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import org.janelia.workstation.core.api.LocalCacheMgr;
+import org.janelia.rendering.Streamable;
+import org.janelia.workstation.core.api.LocalPreferenceMgr;
+import org.janelia.workstation.core.events.Events;
+import org.janelia.workstation.core.events.prefs.LocalPreferenceChanged;
+import org.janelia.workstation.core.options.OptionConstants;
+import org.janelia.workstation.core.util.ConsoleProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Size-bounded local disk cache for Horta volume blocks, so that blocks which
+ * drop out of the in-memory tile cache can be read back from local disk
+ * instead of being fetched again over the network.
+ *
+ * Entries are named by a hash of the sample and block keys and live in a
+ * directory under the local file cache root. Each entry is the block content
+ * followed by a trailer holding its length and CRC32. The length is checked
+ * when an entry is opened and the checksum as it is read; corrupt entries are
+ * deleted. A block is written to the cache while the caller reads it from the
+ * network, and only committed once it has been read completely and, if the
+ * source reported a length, has that length. The least recently used entries
+ * are evicted once the cache exceeds its capacity, which is at most the local
+ * file cache capacity set by the user. The cache is off while the user has the
+ * local file cache disabled.
+ *
+ * An entry that can't be deleted, e.g. on Windows while a reader still has it
+ * open, is no longer served and its deletion is retried later.
+ *
+ * When the cache is first enabled the existing entries are indexed, in order of
+ * their last access, and verified in the background.
+ */
+public class BlockDiskCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BlockDiskCache.class);
+
+    private static final int TRAILER_MAGIC = 0x48424331; // "HBC1"
+    private static final int TRAILER_BYTES = 4 + 8 + 8; // magic, length, crc
+    private static final String ENTRY_SUFFIX = ".blk";
+    private static final String TEMP_SUFFIX = ".tmp";
+    // Bytes a caller may leave unread (e.g. trailing padding) and still have the block cached
+    private static final int MAX_DRAIN_BYTES = 64 * 1024;
+    private static final long CONFIGURED_CAPACITY_MB = ConsoleProperties.getLong("horta.blockCache.capacityMB", 10 * 1024);
+
+    // Singleton
+    private static BlockDiskCache instance;
+    public static synchronized BlockDiskCache getInstance() {
+        if (instance == null) {
+            Path cacheDir = LocalCacheMgr.getInstance().getLocalFileCacheStorage().getLocalFileCacheDir().resolve("horta-blocks");
+            LocalPreferenceMgr preferences = LocalPreferenceMgr.getInstance();
+            instance = new BlockDiskCache(cacheDir, capacityInBytes(preferences.getFileCacheGigabyteCapacity()),
+                    preferences.isCacheAvailable() && CONFIGURED_CAPACITY_MB > 0);
+            Events.getInstance().registerOnEventBus(instance);
+            instance.verifyAsync();
+        }
+        return instance;
+    }
+
+    private static long capacityInBytes(int fileCacheGigabytes) {
+        return Math.min(CONFIGURED_CAPACITY_MB, fileCacheGigabytes * 1024L) * 1024 * 1024;
+    }
+
+    private final Path cacheDir;
+    private volatile long capacityBytes;
+    private volatile boolean enabled;
+    private final AtomicBoolean verified = new AtomicBoolean();
+    private final ExecutorService maintenanceExecutor;
+    // entries that could not be deleted yet, e.g. because they were open
+    private final Set<Path> pendingDeletes = ConcurrentHashMap.newKeySet();
+    // entry name -> size on disk, in access order; guarded by this
+    private LinkedHashMap<String, Long> entries = new LinkedHashMap<>(1024, 0.75f, true);
+    private long totalBytes = 0; // guarded by this
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+    private final LongAdder corruptCount = new LongAdder();
+
+    BlockDiskCache(Path cacheDir, long capacityBytes, boolean enabled) {
+        this.cacheDir = cacheDir;
+        this.capacityBytes = capacityBytes;
+        this.enabled = enabled;
+        this.maintenanceExecutor = Executors.newSingleThreadExecutor(
+                new ThreadFactoryBuilder()
+                        .setNameFormat("HortaBlockCacheMaintenance-%d")
+                        .setDaemon(true)
+                        .setPriority(Thread.MIN_PRIORITY)
+                        .build());
+        if (enabled) {
+            LOG.info("Horta block cache at {} with capacity {}MB", cacheDir, capacityBytes >> 20);
+        }
+    }
+
+    /**
+     * Open a block, from the disk cache if it is there, otherwise from the given
+     * remote source. In the latter case the block is added to the cache as it is read.
+     *
+     * @param sampleKey identifies the sample, e.g. its base path
+     * @param blockKey identifies the block within the sample
+     * @param remoteStream opens the block at its source; may return null
+     * @return the block content, or null if the remote source returned null
+     */
+    public InputStream open(String sampleKey, String blockKey, Supplier<InputStream> remoteStream) {
+        return openStreamable(sampleKey, blockKey, () -> {
+            InputStream remote = remoteStream.get();
+            return remote == null ? null : Streamable.of(remote, -1L); // length unknown
+        });
+    }
+
+    /**
+     * Like {@link #open(String, String, Supplier)}, for a source that reports the
+     * length of the block. A block that turns out shorter or longer is not cached.
+     *
+     * @param remoteStreamable opens the block at its source; may return null
+     */
+    public InputStream openStreamable(String sampleKey, String blockKey, Supplier<Streamable<InputStream>> remoteStreamable) {
+        if (!enabled) {
+            Streamable<InputStream> remote = remoteStreamable.get();
+            return remote == null ? null : remote.getContent();
+        }
+        String entryName = entryName(sampleKey, blockKey);
+        Path entryPath = entryPath(entryName);
+        InputStream cached = openCached(entryName, entryPath);
+        if (cached != null) {
+            return cached;
+        }
+        missCount.increment();
+        Streamable<InputStream> remote = remoteStreamable.get();
+        if (remote == null || remote.getContent() == null) {
+            return null;
+        }
+        Long remoteLength = remote.getSize();
+        return new CachingInputStream(remote.getContent(), entryName, entryPath, remoteLength == null ? -1 : remoteLength);
+    }
+
+    /**
+     * Open a block only if it is in the disk cache.
+     *
+     * @return the block content, or null if the block is not cached
+     */
+    public InputStream openCached(String sampleKey, String blockKey) {
+        if (!enabled) {
+            return null;
+        }
+        String entryName = entryName(sampleKey, blockKey);
+        return openCached(entryName, entryPath(entryName));
+    }
+
+    private InputStream openCached(String entryName, Path entryPath) {
+        InputStream cached = openEntry(entryName, entryPath);
+        if (cached != null) {
+            hitCount.increment();
+        }
+        return cached;
+    }
+
+    /**
+     * Follow changes to the user's local file cache settings.
+     */
+    @Subscribe
+    public void propChanged(LocalPreferenceChanged event) {
+        Object eventKey = event.getKey();
+        if (OptionConstants.FILE_CACHE_GIGABYTE_CAPACITY_PROPERTY.equals(eventKey)) {
+            Integer gigabytes = (Integer) event.getNewValue();
+            if (gigabytes != null) {
+                setCapacityInBytes(capacityInBytes(gigabytes));
+            }
+        } else if (OptionConstants.FILE_CACHE_DISABLED_PROPERTY.equals(eventKey)) {
+            Boolean disabled = (Boolean) event.getNewValue();
+            setEnabled(!Boolean.TRUE.equals(disabled) && CONFIGURED_CAPACITY_MB > 0);
+        }
+    }
+
+    void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        LOG.info("Horta block cache {}", enabled ? "enabled" : "disabled");
+        verifyAsync();
+    }
+
+    void setCapacityInBytes(long capacityBytes) {
+        this.capacityBytes = capacityBytes;
+        LOG.info("Horta block cache capacity set to {}MB", capacityBytes >> 20);
+        maintenanceExecutor.submit(() -> {
+            List<Path> evicted;
+            synchronized (this) {
+                evicted = evictToCapacity();
+            }
+            deleteEntries(evicted);
+        });
+    }
+
+    public long getHitCount() {
+        return hitCount.sum();
+    }
+
+    public long getMissCount() {
+        return missCount.sum();
+    }
+
+    public long getCorruptCount() {
+        return corruptCount.sum();
+    }
+
+    public synchronized long getSizeInBytes() {
+        return totalBytes;
+    }
+
+    public synchronized int getEntryCount() {
+        return entries.size();
+    }
+
+    public long getCapacityInBytes() {
+        return capacityBytes;
+    }
+
+    /**
+     * Index the entries left by previous sessions, remove partial writes, and then
+     * check the content of every entry against its checksum. Runs in the background;
+     * lookups work normally in the meantime.
+     */
+    void verifyAsync() {
+        if (!enabled || !verified.compareAndSet(false, true)) {
+            return;
+        }
+        maintenanceExecutor.submit(() -> {
+            try {
+                long startTime = System.currentTimeMillis();
+                List<Path> indexed = indexExistingEntries();
+                int removed = 0;
+                for (Path entryPath : indexed) {
+                    if (!verifyEntry(entryPath)) {
+                        removed++;
+                    }
+                }
+                LOG.info("Verified {} Horta block cache entries in {} ms, removed {} corrupt entries; {}",
+                        indexed.size(), System.currentTimeMillis() - startTime, removed, this);
+            } catch (Exception e) {
+                LOG.warn("Error verifying Horta block cache at {}", cacheDir, e);
+            }
+        });
+    }
+
+    private List<Path> indexExistingEntries() throws IOException {
+        if (!Files.isDirectory(cacheDir)) {
+            return new ArrayList<>();
+        }
+        List<Map.Entry<Path, BasicFileAttributes>> found = new ArrayList<>();
+        try (Stream<Path> paths = Files.walk(cacheDir, 2)) {
+            for (Path path : paths.collect(Collectors.toList())) {
+                String fileName = path.getFileName().toString();
+                if (fileName.endsWith(TEMP_SUFFIX)) {
+                    Files.deleteIfExists(path); // left over from an interrupted write
+                } else if (fileName.endsWith(ENTRY_SUFFIX)) {
+                    found.add(new AbstractMap.SimpleEntry<>(path, Files.readAttributes(path, BasicFileAttributes.class)));
+                }
+            }
+        }
+        found.sort(Comparator.comparing(e -> e.getValue().lastModifiedTime()));
+        List<Path> result = new ArrayList<>();
+        List<Path> evicted;
+        synchronized (this) {
+            // Entries from previous sessions are older than anything touched since startup
+            LinkedHashMap<String, Long> merged = new LinkedHashMap<>(Math.max(1024, found.size() * 2), 0.75f, true);
+            for (Map.Entry<Path, BasicFileAttributes> e : found) {
+                String entryName = entryNameOf(e.getKey());
+                if (!entries.containsKey(entryName)) {
+                    merged.put(entryName, e.getValue().size());
+                    result.add(e.getKey());
+                }
+            }
+            merged.putAll(entries);
+            entries = merged;
+            totalBytes = entries.values().stream().mapToLong(Long::longValue).sum();
+            evicted = evictToCapacity();
+        }
+        deleteEntries(evicted);
+        result.removeIf(path -> !Files.exists(path));
+        return result;
+    }
+
+    /**
+     * @return false if the entry was corrupt and has been removed
+     */
+    private boolean verifyEntry(Path entryPath) {
+        try (InputStream in = openEntryStream(entryPath)) {
+            if (in == null) {
+                if (Files.exists(entryPath)) {
+                    invalidate(entryNameOf(entryPath), entryPath);
+                    return false;
+                }
+                return true; // evicted in the meantime
+            }
+            ByteStreams.exhaust(in);
+            return true;
+        } catch (IOException e) {
+            // a checksum mismatch has already removed the entry
+            return Files.exists(entryPath);
+        }
+    }
+
+    private InputStream openEntry(String entryName, Path entryPath) {
+        if (pendingDeletes.contains(entryPath)) {
+            return null; // evicted or corrupt, but still open elsewhere
+        }
+        InputStream in;
+        try {
+            in = openEntryStream(entryPath);
+        } catch (IOException e) {
+            LOG.debug("Error opening block cache entry {}", entryPath, e);
+            return null;
+        }
+        if (in == null) {
+            if (Files.exists(entryPath)) {
+                invalidate(entryName, entryPath);
+            }
+            return null;
+        }
+        touch(entryName, entryPath);
+        return in;
+    }
+
+    /**
+     * @return a stream over the entry content that checks the checksum once the
+     * content has been read, or null if the entry is missing or truncated
+     */
+    private InputStream openEntryStream(Path entryPath) throws IOException {
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(entryPath, StandardOpenOption.READ);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+        try {
+            long fileSize = channel.size();
+            if (fileSize < TRAILER_BYTES) {
+                channel.close();
+                return null;
+            }
+            ByteBuffer trailer = ByteBuffer.allocate(TRAILER_BYTES);
+            long position = fileSize - TRAILER_BYTES;
+            while (trailer.hasRemaining()) {
+                int n = channel.read(trailer, position + trailer.position());
+                if (n < 0) {
+                    break;
+                }
+            }
+            trailer.flip();
+            if (trailer.remaining() < TRAILER_BYTES || trailer.getInt() != TRAILER_MAGIC) {
+                channel.close();
+                return null;
+            }
+            long length = trailer.getLong();
+            long crc = trailer.getLong();
+            if (length != fileSize - TRAILER_BYTES) {
+                channel.close();
+                return null;
+            }
+            channel.position(0);
+            return new VerifyingInputStream(ByteStreams.limit(Channels.newInputStream(channel), length), length, crc, entryPath);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private void commit(String entryName, Path tempPath, Path entryPath, long size) {
+        try {
+            Files.move(tempPath, entryPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            LOG.debug("Could not add {} to the block cache", entryPath, e);
+            deleteQuietly(tempPath);
+            return;
+        }
+        pendingDeletes.remove(entryPath); // replaced with new content
+        List<Path> evicted;
+        synchronized (this) {
+            Long previous = entries.put(entryName, size);
+            totalBytes += size - (previous == null ? 0 : previous);
+            evicted = evictToCapacity();
+        }
+        deleteEntries(evicted);
+        if (!pendingDeletes.isEmpty()) {
+            maintenanceExecutor.submit(this::retryPendingDeletes);
+        }
+    }
+
+    private void touch(String entryName, Path entryPath) {
+        synchronized (this) {
+            entries.get(entryName); // move to the most recently used end
+        }
+        try {
+            // so that the access order survives a restart
+            Files.setLastModifiedTime(entryPath, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException e) {
+            LOG.trace("Could not touch {}", entryPath, e);
+        }
+    }
+
+    private void invalidate(String entryName, Path entryPath) {
+        corruptCount.increment();
+        LOG.warn("Removing corrupt block cache entry {}", entryPath);
+        synchronized (this) {
+            Long size = entries.remove(entryName);
+            if (size != null) {
+                totalBytes -= size;
+            }
+        }
+        deleteQuietly(entryPath);
+    }
+
+    // must be called holding the lock; the returned files must be deleted after releasing it
+    private List<Path> evictToCapacity() {
+        List<Path> evicted = new ArrayList<>();
+        Iterator<Map.Entry<String, Long>> it = entries.entrySet().iterator();
+        while (totalBytes > capacityBytes && it.hasNext()) {
+            Map.Entry<String, Long> eldest = it.next();
+            totalBytes -= eldest.getValue();
+            evicted.add(entryPath(eldest.getKey()));
+            it.remove();
+        }
+        return evicted;
+    }
+
+    private void deleteEntries(List<Path> paths) {
+        for (Path path : paths) {
+            deleteQuietly(path);
+        }
+    }
+
+    private void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+            pendingDeletes.remove(path);
+        } catch (IOException e) {
+            // e.g. on Windows, while a reader still has the file open
+            LOG.debug("Could not delete {} yet", path, e);
+            pendingDeletes.add(path);
+        }
+    }
+
+    private void retryPendingDeletes() {
+        for (Path path : new ArrayList<>(pendingDeletes)) {
+            deleteQuietly(path);
+        }
+    }
+
+    private static String entryName(String sampleKey, String blockKey) {
+        return Hashing.sha256().hashString(sampleKey + '\n' + blockKey, StandardCharsets.UTF_8).toString();
+    }
+
+    private static String entryNameOf(Path entryPath) {
+        String fileName = entryPath.getFileName().toString();
+        return fileName.substring(0, fileName.length() - ENTRY_SUFFIX.length());
+    }
+
+    private Path entryPath(String entryName) {
+        return cacheDir.resolve(entryName.substring(0, 2)).resolve(entryName + ENTRY_SUFFIX);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Horta block cache: %d entries, %dMB of %dMB, hits=%d misses=%d corrupt=%d",
+                getEntryCount(), getSizeInBytes() >> 20, capacityBytes >> 20,
+                getHitCount(), getMissCount(), getCorruptCount());
+    }
+
+    /**
+     * Checks the content of a cache entry against its checksum as it is read.
+     */
+    private class VerifyingInputStream extends FilterInputStream {
+        private final long length;
+        private final long expectedCrc;
+        private final Path entryPath;
+        private final CRC32 crc = new CRC32();
+        private long bytesRead = 0;
+
+        VerifyingInputStream(InputStream in, long length, long expectedCrc, Path entryPath) {
+            super(in);
+            this.length = length;
+            this.expectedCrc = expectedCrc;
+            this.entryPath = entryPath;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                crc.update(b);
+                advance(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                crc.update(b, off, n);
+                advance(n);
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            // every byte has to pass through the checksum
+            byte[] buffer = new byte[(int) Math.min(n, 8192)];
+            long skipped = 0;
+            while (skipped < n) {
+                int count = read(buffer, 0, (int) Math.min(buffer.length, n - skipped));
+                if (count < 0) {
+                    break;
+                }
+                skipped += count;
+            }
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        private void advance(int n) throws IOException {
+            bytesRead += n;
+            if (bytesRead == length && crc.getValue() != expectedCrc) {
+                invalidate(entryNameOf(entryPath), entryPath);
+                throw new IOException("Checksum mismatch in block cache entry " + entryPath);
+            }
+        }
+    }
+
+    /**
+     * Copies a block into the cache as the caller reads it from its source.
+     */
+    private class CachingInputStream extends FilterInputStream {
+        private final String entryName;
+        private final Path entryPath;
+        private final CRC32 crc = new CRC32();
+        private final long expectedLength; // negative if unknown
+        private Path tempPath;
+        private OutputStream out;
+        private long bytesRead = 0;
+        private boolean eof = false;
+
+        CachingInputStream(InputStream in, String entryName, Path entryPath, long expectedLength) {
+            super(in);
+            this.entryName = entryName;
+            this.entryPath = entryPath;
+            this.expectedLength = expectedLength;
+            try {
+                Files.createDirectories(entryPath.getParent());
+                tempPath = Files.createTempFile(entryPath.getParent(), entryName, TEMP_SUFFIX);
+                out = new BufferedOutputStream(Files.newOutputStream(tempPath));
+            } catch (IOException e) {
+                LOG.debug("Could not create block cache entry for {}", entryPath, e);
+                abandon();
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b < 0) {
+                eof = true;
+            } else if (out != null) {
+                crc.update(b);
+                bytesRead++;
+                try {
+                    out.write(b);
+                } catch (IOException e) {
+                    abandon();
+                }
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n < 0) {
+                eof = true;
+            } else if (n > 0 && out != null) {
+                crc.update(b, off, n);
+                bytesRead += n;
+                try {
+                    out.write(b, off, n);
+                } catch (IOException e) {
+                    abandon();
+                }
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            // skipped bytes still have to go into the cache entry
+            byte[] buffer = new byte[(int) Math.min(n, 8192)];
+            long skipped = 0;
+            while (skipped < n) {
+                int count = read(buffer, 0, (int) Math.min(buffer.length, n - skipped));
+                if (count < 0) {
+                    break;
+                }
+                skipped += count;
+            }
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                if (out != null && !eof) {
+                    drain();
+                }
+            } finally {
+                super.close();
+                finish();
+            }
+        }
+
+        private void drain() {
+            byte[] buffer = new byte[8192];
+            long drained = 0;
+            try {
+                while (!eof && drained < MAX_DRAIN_BYTES) {
+                    int n = read(buffer, 0, buffer.length);
+                    if (n > 0) {
+                        drained += n;
+                    }
+                }
+            } catch (IOException e) {
+                abandon();
+            }
+        }
+
+        private void finish() {
+            if (out == null) {
+                return;
+            }
+            if (!eof) {
+                abandon(); // the caller did not read the whole block
+                return;
+            }
+            if (expectedLength >= 0 && bytesRead != expectedLength) {
+                // the connection was cut short
+                LOG.warn("Not caching {}: read {} bytes but the source reported {}", entryPath, bytesRead, expectedLength);
+                abandon();
+                return;
+            }
+            try {
+                ByteBuffer trailer = ByteBuffer.allocate(TRAILER_BYTES);
+                trailer.putInt(TRAILER_MAGIC).putLong(bytesRead).putLong(crc.getValue());
+                out.write(trailer.array());
+                out.close();
+                out = null;
+            } catch (IOException e) {
+                abandon();
+                return;
+            }
+            commit(entryName, tempPath, entryPath, bytesRead + TRAILER_BYTES);
+        }
+
+        private void abandon() {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    LOG.trace("Error closing {}", tempPath, e);
+                }
+                out = null;
+            }
+            if (tempPath != null) {
+                deleteQuietly(tempPath);
+            }
+        }
+    }
+}
@@ -20,6 +20,7 @@ import org.apache.commons.lang3.tuple.ImmutablePair;
 import org.apache.commons.lang3.tuple.Pair;
 import org.janelia.geometry3d.ConstVector3;
 import org.janelia.geometry3d.Vector3;
+import org.janelia.horta.FileBasedTileLoader;
 import org.janelia.horta.TileLoader;
 import org.janelia.horta.ktx.KtxHeader;
 import org.janelia.model.domain.tiledMicroscope.TmSample;
@@ -34,6 +35,7 @@ public class KtxOctreeBlockTileSource implements BlockTileSource<KtxOctreeBlockT
 
     private final URL originatingSampleURL;
     private final TileLoader tileLoader;
+    private final BlockDiskCache blockDiskCache; // null when the tiles are local anyway
     private String sampleKtxTilesBaseDir;
     private KtxOctreeBlockTileKey rootKey;
     private KtxHeader rootHeader;
@@ -45,6 +47,7 @@ public class KtxOctreeBlockTileSource implements BlockTileSource<KtxOctreeBlockT
     public KtxOctreeBlockTileSource(URL originatingSampleURL, TileLoader tileLoader) {
         this.originatingSampleURL = originatingSampleURL;
         this.tileLoader = tileLoader;
+        this.blockDiskCache = tileLoader instanceof FileBasedTileLoader ? null : BlockDiskCache.getInstance();
     }
 
     public KtxOctreeBlockTileSource init(TmSample sample) {
@@ -150,10 +153,17 @@ public class KtxOctreeBlockTileSource implements BlockTileSource<KtxOctreeBlockT
      */
     Supplier<InputStream> streamKeyBlock(KtxOctreeBlockTileKey octreeKey) {
         String octreeKeyBlockAbsolutePath = getKeyBlockAbsolutePathURI(octreeKey).toString();
-        return () -> tileLoader.findStorageLocation(sampleKtxTilesBaseDir)
-                .flatMap(serverURL -> tileLoader.streamTileContent(serverURL, octreeKeyBlockAbsolutePath).asOptional())
-                .orElse(null)
-                ;
+        if (blockDiskCache == null) {
+            return () -> tileLoader.findStorageLocation(sampleKtxTilesBaseDir)
+                    .flatMap(serverURL -> tileLoader.streamTileContent(serverURL, octreeKeyBlockAbsolutePath).asOptional())
+                    .orElse(null)
+                    ;
+        }
+        // the reported length lets the cache tell a truncated block from a complete one
+        return () -> blockDiskCache.openStreamable(sampleKtxTilesBaseDir, octreeKeyBlockAbsolutePath,
+                () -> tileLoader.findStorageLocation(sampleKtxTilesBaseDir)
+                        .map(serverURL -> tileLoader.streamTileContent(serverURL, octreeKeyBlockAbsolutePath))
+                        .orElse(null));
     }
 
     @Override
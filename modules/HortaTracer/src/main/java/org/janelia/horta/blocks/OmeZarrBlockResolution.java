@@ -1,10 +1,32 @@
 package org.janelia.horta.blocks;
 
 import org.aind.omezarr.OmeZarrDataset;
-
+import org.janelia.geometry3d.ConstVector3;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One scale level of an OME-Zarr dataset.
+ *
+ * The block keys of a resolution are computed from its shape, chunk grid and voxel size alone, and
+ * are cached by chunk offset, so that choosing blocks never has to read from the dataset. Chunks
+ * which turned out to be missing when they were loaded are remembered for a while, so that they
+ * are not chosen again on every camera update. Chunks which could not be read for any other reason
+ * are only skipped briefly, since the error may be gone on the next try.
+ */
 public class OmeZarrBlockResolution implements BlockTileResolution {
+    // How long a chunk which is missing from the dataset is skipped before it is tried again
+    private static final long MISSING_CHUNK_RETRY_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+    // How long a chunk which failed to load for another reason is skipped before it is tried again
+    private static final long FAILED_CHUNK_RETRY_MILLIS = TimeUnit.SECONDS.toMillis(10);
+
     private final int depth;
 
+    private final int[] shapeXYZ;
+
     private final int[] chunkSizeXYZ;
 
     private final double resolutionMicrometers;
@@ -13,9 +35,15 @@ public class OmeZarrBlockResolution implements BlockTileResolution {
 
     private final OmeZarrDataset dataset;
 
-    public OmeZarrBlockResolution(OmeZarrDataset dataset, int depth, int[] chunkSizeXYZ, double[] voxelSize, double resolutionMicrometers) {
+    private final Map<OmeZarrOffsetKey, OmeZarrBlockTileKey> blockKeys = new ConcurrentHashMap<>();
+
+    // Chunk offset to the time after which the chunk may be tried again
+    private final Map<OmeZarrOffsetKey, Long> missingChunks = new ConcurrentHashMap<>();
+
+    public OmeZarrBlockResolution(OmeZarrDataset dataset, int depth, int[] shapeXYZ, int[] chunkSizeXYZ, double[] voxelSize, double resolutionMicrometers) {
         this.dataset = dataset;
         this.depth = depth;
+        this.shapeXYZ = shapeXYZ;
         this.chunkSizeXYZ = chunkSizeXYZ;
         this.resolutionMicrometers = resolutionMicrometers;
         this.voxelSize = voxelSize;
@@ -76,4 +104,82 @@ public class OmeZarrBlockResolution implements BlockTileResolution {
     public int[] getChunkSize() {
         return chunkSizeXYZ;
     }
+
+    public int[] getShape() {
+        return shapeXYZ;
+    }
+
+    /**
+     * @param location position in micrometers
+     * @return key of the chunk containing the location, or null if the location is outside the dataset
+     * or the chunk is known to be missing
+     */
+    public OmeZarrBlockTileKey getBlockKeyAt(ConstVector3 location) {
+        float[] position = {location.getX(), location.getY(), location.getZ()};
+        int[] offset = new int[3];
+
+        for (int xyz = 0; xyz < 3; ++xyz) {
+            double voxel = Math.floor(position[xyz] / voxelSize[xyz]);
+
+            if (voxel < 0 || voxel >= shapeXYZ[xyz]) {
+                return null;
+            }
+
+            offset[xyz] = ((int) voxel / chunkSizeXYZ[xyz]) * chunkSizeXYZ[xyz];
+        }
+
+        OmeZarrOffsetKey offsetKey = new OmeZarrOffsetKey(offset);
+
+        if (isMissing(offsetKey)) {
+            return null;
+        }
+
+        return blockKeys.computeIfAbsent(offsetKey, k -> {
+            // Chunks along the far edges of the dataset are clipped to its shape
+            int[] shape = new int[3];
+            for (int xyz = 0; xyz < 3; ++xyz) {
+                shape[xyz] = Math.min(chunkSizeXYZ[xyz], shapeXYZ[xyz] - offset[xyz]);
+            }
+            return new OmeZarrBlockTileKey(dataset, depth, shape, offset, voxelSize, 1);
+        });
+    }
+
+    /**
+     * Records that the chunk of a key is missing from the dataset, so that it is not chosen again for a while.
+     */
+    public void setMissing(OmeZarrBlockTileKey key) {
+        missingChunks.put(offsetKey(key), System.currentTimeMillis() + MISSING_CHUNK_RETRY_MILLIS);
+    }
+
+    /**
+     * Records that the chunk of a key failed to load, so that it is not chosen again right away.
+     */
+    public void setFailed(OmeZarrBlockTileKey key) {
+        missingChunks.put(offsetKey(key), System.currentTimeMillis() + FAILED_CHUNK_RETRY_MILLIS);
+    }
+
+    public boolean isMissing(OmeZarrBlockTileKey key) {
+        return isMissing(offsetKey(key));
+    }
+
+    private boolean isMissing(OmeZarrOffsetKey offsetKey) {
+        Long retryTime = missingChunks.get(offsetKey);
+
+        if (retryTime == null) {
+            return false;
+        }
+
+        if (System.currentTimeMillis() >= retryTime) {
+            missingChunks.remove(offsetKey, retryTime);
+            return false;
+        }
+
+        return true;
+    }
+
+    private static OmeZarrOffsetKey offsetKey(OmeZarrBlockTileKey key) {
+        // [t, c, z, y, x] read offset back to x, y, z
+        int[] readOffset = key.getReadOffset();
+        return new OmeZarrOffsetKey(new int[]{readOffset[4], readOffset[3], readOffset[2]});
+    }
 }
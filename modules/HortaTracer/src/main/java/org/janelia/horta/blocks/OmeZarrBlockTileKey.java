@@ -210,6 +210,10 @@ public class OmeZarrBlockTileKey implements BlockTileKey {
         return readOffset;
     }
 
+    public int[] getReadShape() {
+        return readShape;
+    }
+
     public String getRelativePath() {
         if (relativePath == null) {
             relativePath = String.format("[%s] [%.0f, %.0f, %.0f] [%.0f, %.0f, %.0f]", dataset.getPath(), blockOrigin.getX(), blockOrigin.getY(), blockOrigin.getY(), shapeMicrometers[0], shapeMicrometers[1], shapeMicrometers[2]);
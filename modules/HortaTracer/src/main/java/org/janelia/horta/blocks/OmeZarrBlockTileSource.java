@@ -1,5 +1,7 @@
 package org.janelia.horta.blocks;
 
+import com.bc.zarr.ZarrArray;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.aind.omezarr.*;
 import org.aind.omezarr.image.AutoContrastParameters;
 import org.aind.omezarr.image.TCZYXRasterZStack;
@@ -12,6 +14,7 @@ import org.janelia.horta.omezarr.OmeZarrJadeReader;
 import org.janelia.horta.omezarr.OmeZarrReaderProgressObserver;
 import org.janelia.horta.omezarr.OmeZarrReaderCompletionObserver;
 import org.janelia.jacsstorage.clients.api.JadeStorageAttributes;
+import org.janelia.jacsstorage.clients.api.StorageObjectNotFoundException;
 import org.janelia.model.domain.enums.FileType;
 import org.janelia.model.domain.tiledMicroscope.TmSample;
 import org.janelia.workstation.controller.model.color.ImageColorModel;
@@ -21,10 +24,15 @@ import org.janelia.workstation.geom.Vec3;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.net.URL;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
@@ -45,10 +53,18 @@ public class OmeZarrBlockTileSource implements BlockTileSource<OmeZarrBlockTileK
 
     private final boolean useAutoContrast;
 
+    // Dataset path to its loader, or empty if its bricks have to be loaded as rasters
+    private final Map<String, Optional<OmeZarrBrickLoader>> brickLoaders = new ConcurrentHashMap<>();
+
     private BoundingBox3d boundingBox3d = new BoundingBox3d();
     private Vec3 voxelCenter = new Vec3(0, 0, 0);
 
-    private static final ExecutorService cachedThreadPool = Executors.newCachedThreadPool();
+    // Reads the dataset metadata when a source is opened; chunks are fetched by OmeZarrChunkFetcher
+    private static final ExecutorService initExecutor = Executors.newFixedThreadPool(2,
+            new ThreadFactoryBuilder()
+                    .setNameFormat("OmeZarrSourceInit-%d")
+                    .setDaemon(true)
+                    .build());
 
     public OmeZarrBlockTileSource(URL originatingSampleURL, ImageColorModel imageColorModel) {
         this(originatingSampleURL, imageColorModel, false);
@@ -91,7 +107,7 @@ public class OmeZarrBlockTileSource implements BlockTileSource<OmeZarrBlockTileK
     }
 
     private OmeZarrBlockTileSource init(OmeZarrReaderProgressObserver progressObserver, OmeZarrReaderCompletionObserver completionObserver) {
-        cachedThreadPool.submit(() -> {
+        initExecutor.submit(() -> {
             int datasetCount = omeZarrGroup.getAttributes().getMultiscales()[0].getDatasets().size();
 
             boolean haveExtents = false;
@@ -112,6 +128,7 @@ public class OmeZarrBlockTileSource implements BlockTileSource<OmeZarrBlockTileK
                     // z, y, x order
                     OmeZarrIndex shapeIndex = dataset.getShapeIndex();
                     OmeZarrIndex chunkSize = dataset.getChunksIndex();
+                    int[] shapeXYZ = {shapeIndex.getX(), shapeIndex.getY(), shapeIndex.getZ()};
                     int[] chunkSizeXYZ = {chunkSize.getX(), chunkSize.getY(), chunkSize.getZ()};
 
                     double resolutionMicrometers = dataset.getMinSpatialResolution();
@@ -131,7 +148,7 @@ public class OmeZarrBlockTileSource implements BlockTileSource<OmeZarrBlockTileK
                         haveExtents = true;
                     }
 
-                    OmeZarrBlockResolution resolution = new OmeZarrBlockResolution(dataset, idx, chunkSizeXYZ, voxelSize, resolutionMicrometers);
+                    OmeZarrBlockResolution resolution = new OmeZarrBlockResolution(dataset, idx, shapeXYZ, chunkSizeXYZ, voxelSize, resolutionMicrometers);
 
                     if (progressObserver != null) {
                         progressObserver.update(this, "Loading dataset " + dataset.getPath());
@@ -189,25 +206,8 @@ public class OmeZarrBlockTileSource implements BlockTileSource<OmeZarrBlockTileK
             return null;
         }
 
-        OmeZarrBlockResolution res = (OmeZarrBlockResolution) resolution;
-
-        OmeZarrDataset dataset = res.getDataset();
-
-        OmeZarrValue location = new OmeZarrValue(0, 0, focus.getZ(), focus.getY(), focus.getX());
-
-        OmeZarrBlockTileKey key2 = null;
-
-        try {
-            OmeZarrReadChunk chunk = dataset.readChunkForLocation(location);
-
-            if (chunk != null) {
-                key2 = new OmeZarrBlockTileKey(dataset, res.getDepth(), chunk.getShape(), chunk.getOffset(), res.getVoxelSize(), 1);
-            }
-        } catch (Exception ignored) {
-        }
-
-        return key2;
-
+        // Computed from the chunk grid, so that choosing blocks does not read from the dataset
+        return ((OmeZarrBlockResolution) resolution).getBlockKeyAt(focus);
     }
 
     @Override
@@ -245,7 +245,80 @@ public class OmeZarrBlockTileSource implements BlockTileSource<OmeZarrBlockTileK
     }
 
     public Texture3d loadBrick(OmeZarrBlockTileKey tile) {
-        return tile.loadBrick(useAutoContrast ? autoContrastParameters : null);
+        AutoContrastParameters parameters = useAutoContrast ? autoContrastParameters : null;
+        Texture3d texture = null;
+        boolean chunkAbsent = false;
+        OmeZarrBrickLoader brickLoader = getBrickLoader(tile.getDataset());
+        if (brickLoader != null) {
+            try {
+                texture = brickLoader.loadBrick(tile.getReadShape(), tile.getReadOffset(), parameters);
+            } catch (IOException ex) {
+                chunkAbsent = isAbsentChunk(ex);
+                if (chunkAbsent) {
+                    log.info("brick {} is missing from the dataset", tile.getRelativePath());
+                } else {
+                    log.error("failed to load brick {}", tile.getRelativePath(), ex);
+                }
+            }
+        } else {
+            texture = tile.loadBrick(parameters);
+        }
+        if (texture == null && !Thread.currentThread().isInterrupted()) {
+            // Don't choose the chunk again for a while; only a chunk which is not there at all
+            // is skipped for long, since other errors may be gone on the next try
+            OmeZarrBlockResolution resolution = getResolution(tile.getKeyDepth());
+            if (resolution != null) {
+                if (chunkAbsent) {
+                    resolution.setMissing(tile);
+                } else {
+                    resolution.setFailed(tile);
+                }
+            }
+        }
+        return texture;
+    }
+
+    /**
+     * @return true if the error, or any of its causes, says that the chunk does not exist
+     */
+    private static boolean isAbsentChunk(Throwable error) {
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            if (cause instanceof FileNotFoundException
+                    || cause instanceof NoSuchFileException
+                    || cause instanceof StorageObjectNotFoundException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private OmeZarrBrickLoader getBrickLoader(OmeZarrDataset dataset) {
+        return brickLoaders.computeIfAbsent(dataset.getPath(), path -> {
+            try {
+                ZarrArray array = reader != null
+                        ? ZarrArray.open(new JadeZarrStoreProvider(path, reader))
+                        : ZarrArray.open(Paths.get(sampleOmeZarrTilesBaseDir, path));
+                if (OmeZarrBrickLoader.canLoad(array)) {
+                    return Optional.of(new OmeZarrBrickLoader(array));
+                }
+                log.info("bricks of {} are loaded as rasters, since it is not a 16 bit array", path);
+            } catch (Exception ex) {
+                log.warn("failed to open {} for direct brick loading", path, ex);
+            }
+            return Optional.empty();
+        }).orElse(null);
+    }
+
+    /**
+     * @return the resolution with the given depth, or null if the dataset has none
+     */
+    public OmeZarrBlockResolution getResolution(int depth) {
+        for (OmeZarrBlockResolution resolution : resolutions) {
+            if (resolution.getDepth() == depth) {
+                return resolution;
+            }
+        }
+        return null;
     }
 /*
     private void createTileKeysForDataset(OmeZarrDataset dataset, OmeZarrReaderProgressObserver progressReceiver) {
@@ -0,0 +1,247 @@
+package org.janelia.horta.blocks;
+
+import com.bc.zarr.DataType;
+import com.bc.zarr.ZarrArray;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.aind.omezarr.image.AutoContrastParameters;
+import org.janelia.gltools.texture.Texture3d;
+import org.janelia.workstation.core.util.ConsoleProperties;
+import org.janelia.workstation.core.util.DirectBufferPool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ShortBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Loads bricks of a 16 bit OME-Zarr array straight into the direct buffers that Texture3d uploads.
+ *
+ * Each chunk overlapping a brick is decompressed into a scratch array kept by the decoding thread,
+ * and its rows are copied into a pooled, native-order direct buffer, with auto-contrast applied on
+ * the way. The buffer is laid out as the texture expects, so it is handed to the texture as it is.
+ * Chunks after the first are decompressed in parallel on a shared pool.
+ */
+public class OmeZarrBrickLoader {
+    private static final Logger LOG = LoggerFactory.getLogger(OmeZarrBrickLoader.class);
+
+    private static final int LOG_INTERVAL = 100; // bricks between metric log lines
+
+    private static final DirectBufferPool BRICK_BUFFER_POOL = new DirectBufferPool("OME-Zarr brick",
+            ConsoleProperties.getLong("horta.omezarr.brickBufferPoolMB", 512) * 1024 * 1024);
+
+    private static final ExecutorService decodeExecutor = Executors.newFixedThreadPool(
+            ConsoleProperties.getInt("horta.omezarr.chunkDecodeThreads", 4),
+            new ThreadFactoryBuilder()
+                    .setNameFormat("OmeZarrChunkDecode-%d")
+                    .setDaemon(true)
+                    .build());
+
+    // Decompressed chunk, reused by each thread for as long as chunks have the same size
+    private static final ThreadLocal<short[]> chunkScratch = new ThreadLocal<>();
+
+    private static final LongAdder brickCount = new LongAdder();
+    private static final LongAdder brickBytes = new LongAdder();
+    private static final LongAdder brickNanos = new LongAdder();
+    private static final LongAdder scratchAllocationCount = new LongAdder();
+
+    private final ZarrArray array;
+
+    public OmeZarrBrickLoader(ZarrArray array) {
+        this.array = array;
+    }
+
+    /**
+     * @return true if the array is one this loader can read, which is [t, c, z, y, x] of 16 bit integers
+     */
+    public static boolean canLoad(ZarrArray array) {
+        return array.getShape().length == 5
+                && (array.getDataType() == DataType.u2 || array.getDataType() == DataType.i2);
+    }
+
+    public static DirectBufferPool getBufferPool() {
+        return BRICK_BUFFER_POOL;
+    }
+
+    /**
+     * @param readShape brick shape as [t, c, z, y, x], for a single time point and channel
+     * @param readOffset brick offset as [t, c, z, y, x]
+     * @param parameters auto-contrast to apply, or null to keep the stored intensities
+     * @return the brick, or null if the load was interrupted
+     * @throws IOException if a chunk could not be read
+     */
+    public Texture3d loadBrick(int[] readShape, int[] readOffset, AutoContrastParameters parameters) throws IOException {
+        long startTime = System.nanoTime();
+
+        int depth = readShape[2];
+        int height = readShape[3];
+        int width = readShape[4];
+
+        ByteBuffer voxels = BRICK_BUFFER_POOL.acquire(width * height * depth * 2);
+
+        List<ChunkCopy> copies = getChunkCopies(readShape, readOffset, voxels, parameters);
+
+        List<Future<?>> futures = new ArrayList<>();
+        try {
+            for (int i = 1; i < copies.size(); ++i) {
+                ChunkCopy copy = copies.get(i);
+                futures.add(decodeExecutor.submit(() -> {
+                    copy.run();
+                    return null;
+                }));
+            }
+            copies.get(0).run();
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            cancel(futures);
+            // Chunks that were already being copied may still write into the buffer, so it can't be reused
+            BRICK_BUFFER_POOL.detach(voxels);
+            return null;
+        } catch (ExecutionException | IOException ex) {
+            cancel(futures);
+            BRICK_BUFFER_POOL.detach(voxels);
+            Throwable cause = ex instanceof ExecutionException ? ex.getCause() : ex;
+            throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+        }
+
+        Texture3d texture = new Texture3d();
+        texture.loadShortBuffer(voxels, width, height, depth, BRICK_BUFFER_POOL);
+
+        long elapsed = System.nanoTime() - startTime;
+        brickNanos.add(elapsed);
+        brickBytes.add(voxels.limit());
+        brickCount.increment();
+        if (brickCount.sum() % LOG_INTERVAL == 0) {
+            LOG.info("{}", getMetrics());
+        }
+
+        return texture;
+    }
+
+    /**
+     * Splits a brick into the parts covered by each chunk of the array.
+     */
+    private List<ChunkCopy> getChunkCopies(int[] readShape, int[] readOffset, ByteBuffer voxels, AutoContrastParameters parameters) {
+        int[] chunks = array.getChunks();
+
+        List<ChunkCopy> copies = new ArrayList<>();
+
+        for (int cz = readOffset[2] / chunks[2]; cz * chunks[2] < readOffset[2] + readShape[2]; ++cz) {
+            for (int cy = readOffset[3] / chunks[3]; cy * chunks[3] < readOffset[3] + readShape[3]; ++cy) {
+                for (int cx = readOffset[4] / chunks[4]; cx * chunks[4] < readOffset[4] + readShape[4]; ++cx) {
+                    int[] chunkIndex = {cz, cy, cx};
+                    int[] from = new int[3];
+                    int[] to = new int[3];
+                    for (int zyx = 0; zyx < 3; ++zyx) {
+                        int d = zyx + 2;
+                        from[zyx] = Math.max(readOffset[d], chunkIndex[zyx] * chunks[d]);
+                        to[zyx] = Math.min(readOffset[d] + readShape[d], (chunkIndex[zyx] + 1) * chunks[d]);
+                    }
+                    copies.add(new ChunkCopy(readShape, readOffset, from, to, voxels, parameters));
+                }
+            }
+        }
+
+        return copies;
+    }
+
+    private static void cancel(List<Future<?>> futures) {
+        for (Future<?> future : futures) {
+            future.cancel(true);
+        }
+    }
+
+    /**
+     * Copies the part of a brick covered by one chunk.
+     */
+    private class ChunkCopy {
+        private final int[] readShape;
+        private final int[] readOffset;
+        private final int[] from; // z, y, x
+        private final int[] to;
+        private final ByteBuffer voxels;
+        private final AutoContrastParameters parameters;
+
+        ChunkCopy(int[] readShape, int[] readOffset, int[] from, int[] to, ByteBuffer voxels, AutoContrastParameters parameters) {
+            this.readShape = readShape;
+            this.readOffset = readOffset;
+            this.from = from;
+            this.to = to;
+            this.voxels = voxels;
+            this.parameters = parameters;
+        }
+
+        void run() throws IOException {
+            int sizeZ = to[0] - from[0];
+            int sizeY = to[1] - from[1];
+            int sizeX = to[2] - from[2];
+
+            short[] chunk = chunkScratch.get();
+            if (chunk == null || chunk.length != sizeZ * sizeY * sizeX) {
+                chunk = new short[sizeZ * sizeY * sizeX];
+                chunkScratch.set(chunk);
+                scratchAllocationCount.increment();
+            }
+
+            try {
+                array.read(chunk, new int[]{1, 1, sizeZ, sizeY, sizeX}, new int[]{readOffset[0], readOffset[1], from[0], from[1], from[2]});
+            } catch (IOException ex) {
+                throw ex;
+            } catch (Exception ex) {
+                throw new IOException("Failed to read chunk at " + from[0] + ", " + from[1] + ", " + from[2], ex);
+            }
+
+            // Each copy writes through its own view, so copies can run concurrently
+            ShortBuffer target = voxels.duplicate().order(voxels.order()).asShortBuffer();
+
+            int brickHeight = readShape[3];
+            int brickWidth = readShape[4];
+
+            int source = 0;
+            for (int z = 0; z < sizeZ; ++z) {
+                for (int y = 0; y < sizeY; ++y) {
+                    int row = ((from[0] - readOffset[2] + z) * brickHeight + (from[1] - readOffset[3] + y)) * brickWidth
+                            + (from[2] - readOffset[4]);
+                    if (parameters == null) {
+                        target.position(row);
+                        target.put(chunk, source, sizeX);
+                    } else {
+                        for (int x = 0; x < sizeX; ++x) {
+                            target.put(row + x, contrast(chunk[source + x], parameters));
+                        }
+                    }
+                    source += sizeX;
+                }
+            }
+        }
+    }
+
+    private static short contrast(short intensity, AutoContrastParameters parameters) {
+        double value = ((intensity & 0xffff) - parameters.min) * parameters.slope;
+        return (short) Math.max(0, Math.min(65535, (int) value));
+    }
+
+    /**
+     * @return number of bricks loaded, their average load rate in megabytes per second, and how many
+     * buffers and scratch arrays were allocated per brick rather than reused
+     */
+    public static String getMetrics() {
+        long bricks = brickCount.sum();
+        double seconds = brickNanos.sum() / 1e9;
+        double allocationsPerBrick = bricks == 0 ? 0
+                : (double) (BRICK_BUFFER_POOL.getAllocationCount() + scratchAllocationCount.sum()) / bricks;
+        return String.format("OME-Zarr bricks: loaded=%d %.1fMB (%.2fMB/s) allocations/brick=%.2f; %s",
+                bricks, brickBytes.sum() / 1e6, seconds <= 0 ? 0 : brickBytes.sum() / 1e6 / seconds,
+                allocationsPerBrick, BRICK_BUFFER_POOL);
+    }
+}
@@ -26,11 +26,15 @@ public class OmeZarrTileCache  extends BasicTileCache<OmeZarrBlockTileKey, Sorta
         };
     }
 
-    public void disposeObsoleteTiles(GL3 gl) {
+    /**
+     * @return the disposed tiles, so that the caller can drop any references to them
+     */
+    public Collection<SortableBlockActor> disposeObsoleteTiles(GL3 gl) {
         Collection<SortableBlockActor> obs = popObsoleteTiles();
         for (SortableBlockActor actor : obs) {
             actor.dispose(gl);
         }
+        return obs;
     }
 
     public void disposeGL(GL3 gl) {
@@ -3,9 +3,14 @@ package org.janelia.horta.ktx;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ReadableByteChannel;
 import java.util.ArrayList;
 import java.util.List;
 
+import org.janelia.workstation.core.util.ConsoleProperties;
+import org.janelia.workstation.core.util.DirectBufferPool;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -17,11 +22,22 @@ public class KtxData {
 
     private static final Logger LOG = LoggerFactory.getLogger(KtxData.class);
 
+    /**
+     * Mipmap buffers are taken from this pool and returned to it by {@link #releaseMemory()}.
+     * Its live and peak byte counts are the direct memory held by loaded KTX blocks.
+     */
+    private static final DirectBufferPool MIPMAP_BUFFER_POOL = new DirectBufferPool("KTX mipmap",
+            ConsoleProperties.getLong("horta.ktx.bufferPoolMB", 512) * 1024 * 1024);
+
     public final KtxHeader header = new KtxHeader();
     public final List<ByteBuffer> mipmaps = new ArrayList<>();
 
-    private final byte[] unused = new byte[4]; // for bulk reading of unused padding bytes
     private final ByteBuffer sizeBuf = ByteBuffer.allocate(4); // to hold binary representation of image size
+    private final ByteBuffer paddingBuf = ByteBuffer.allocate(4); // for bulk reading of unused padding bytes
+
+    public static DirectBufferPool getBufferPool() {
+        return MIPMAP_BUFFER_POOL;
+    }
 
     public void loadStream(InputStream stream) throws IOException, InterruptedException {
         if (stream != null) {
@@ -31,54 +47,72 @@ public class KtxData {
                 throw new InterruptedException("Interrupted while loading the KTX header");
             }
             sizeBuf.order(header.byteOrder);
-            mipmaps.clear();
-            for (int m = 0; m < header.numberOfMipmapLevels; ++m) {
-                mipmaps.add(loadOneMipmap(stream, m));
+            releaseMemory();
+            // For a local file this is the file's own channel, so mipmaps are read
+            // by the OS straight into the direct buffers. Other streams are copied
+            // through a small transfer buffer rather than a whole-mipmap array.
+            ReadableByteChannel channel = Channels.newChannel(stream);
+            try {
+                for (int m = 0; m < header.numberOfMipmapLevels; ++m) {
+                    mipmaps.add(loadOneMipmap(channel, m));
+                }
+            } catch (IOException | InterruptedException | RuntimeException e) {
+                releaseMemory();
+                throw e;
             }
         }
     }
 
-    private ByteBuffer loadOneMipmap(InputStream stream, int mipmapLevel) throws IOException, InterruptedException {
-        int imageSize;
-        int bytesRead;
-        byte[] b;
-        try {
-            stream.read(sizeBuf.array());
-            sizeBuf.rewind();
-            imageSize = (int) ((long) sizeBuf.getInt() & 0xffffffffL);
-            // TODO: figure out how to stream straight into the direct buffer
-            // For now, copy into the direct buffer
-            b = new byte[imageSize];
-            bytesRead = stream.read(b, 0, imageSize);
-        } catch (Exception e) {
-            // this exception most likely occurred because of an interruption
-            throw new InterruptedException("Interrupted the loading of mipmap level " + (mipmapLevel + 1));
+    /**
+     * Return the mipmap buffers to the pool. The mipmaps must not be used afterwards.
+     */
+    public void releaseMemory() {
+        for (ByteBuffer mipmap : mipmaps) {
+            MIPMAP_BUFFER_POOL.release(mipmap);
         }
-        if (bytesRead < 1) {
-            throw new IOException("Error reading bytes for mipmap level " + (mipmapLevel + 1));
+        mipmaps.clear();
+    }
+
+    private ByteBuffer loadOneMipmap(ReadableByteChannel channel, int mipmapLevel) throws IOException, InterruptedException {
+        sizeBuf.clear();
+        readFully(channel, sizeBuf, mipmapLevel);
+        sizeBuf.flip();
+        long imageSize = (long) sizeBuf.getInt() & 0xffffffffL;
+        if (imageSize > Integer.MAX_VALUE) {
+            throw new IOException("Mipmap level " + (mipmapLevel + 1) + " is too large: " + imageSize + " bytes");
+        }
+        // Use a DIRECT buffer for later efficient slurping into OpenGL
+        ByteBuffer mipmap = MIPMAP_BUFFER_POOL.acquire((int) imageSize);
+        try {
+            readFully(channel, mipmap, mipmapLevel);
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            MIPMAP_BUFFER_POOL.release(mipmap);
+            throw e;
         }
-        while (bytesRead < imageSize) {
-            int moreBytes = stream.read(b, bytesRead, imageSize - bytesRead);
-            if (moreBytes < 1) {
-                throw new IOException("Error reading mipmap number " + mipmapLevel);
+        mipmap.flip();
+        int padding = 3 - (((int) imageSize + 3) % 4);
+        if (padding > 0) {
+            paddingBuf.clear().limit(padding);
+            // the padding after the last mipmap may be missing, so do not insist on it
+            while (paddingBuf.hasRemaining() && channel.read(paddingBuf) >= 0) {
             }
-            bytesRead += moreBytes;
         }
-        if (bytesRead != imageSize) {
-            throw new IOException("Error reading mipmap number " + mipmapLevel);
+        return mipmap;
+    }
+
+    private static void readFully(ReadableByteChannel channel, ByteBuffer buffer, int mipmapLevel) throws IOException, InterruptedException {
+        try {
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) {
+                    throw new IOException("Error reading mipmap number " + mipmapLevel);
+                }
+            }
+        } catch (ClosedByInterruptException e) {
+            throw new InterruptedException("Interrupted the loading of mipmap level " + (mipmapLevel + 1));
         }
-        // Use a DIRECT buffer for later efficient slurping into OpenGL
-        final boolean useDirect = true;
-        ByteBuffer mipmap;
-        if (useDirect) {
-            mipmap = ByteBuffer.allocateDirect(imageSize);
-            mipmap.put(b);
-        } else {
-            mipmap = ByteBuffer.wrap(b);
+        if (Thread.interrupted()) {
+            throw new InterruptedException("Interrupted the loading of mipmap level " + (mipmapLevel + 1));
         }
-        int padding = 3 - ((imageSize + 3) % 4);
-        stream.read(unused, 0, padding);
-        return mipmap;
     }
 
 }
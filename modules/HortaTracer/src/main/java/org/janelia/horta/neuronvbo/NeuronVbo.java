@@ -18,6 +18,14 @@ import org.slf4j.LoggerFactory;
 /**
  * Holds one OpenGL vertex buffer object for rendering groups of neuron models.
  * Multiple NeuronVbos may be held in a NeuronVboPool
+ *
+ * Each neuron owns a slab of vertex slots and a slab of edge slots in the
+ * buffers, with some room to grow. When a neuron changes, only its own slabs
+ * are rewritten and uploaded; a neuron that outgrows its slabs moves to new
+ * ones, and the old slabs go on a free list for reuse. Unused slots are left
+ * invisible, so they are skipped by the shaders. Once too much of the buffer
+ * is free, everything is repacked in one rebuild.
+ *
  * @author brunsc
  * 
  * TODO: Perform full clear when workspace changes
@@ -26,29 +34,49 @@ import org.slf4j.LoggerFactory;
 public class NeuronVbo implements Iterable<TmNeuronMetadata>
 {
     private final static int FLOATS_PER_VERTEX = 8;
+    private final static int INTS_PER_EDGE = 2;
     // Be sure to synchronize these constants with the actual shader vertex attribute (in) layout
     private final static int XYZR_ATTRIB = 1;
     private final static int RGBV_ATTRIB = 2;
     private final static float REVIEWED_GRAY_COLOR = 200;
+    // Vertex slot zero is never allocated; it stays invisible, and unused edge slots point to it
+    private final static int NULL_VERTEX = 0;
+    // Repack once at least this many vertex slots, and more than there are live vertices, are free
+    private final static int MIN_COMPACTION_SLOTS = 4096;
+    private final static float[] ZERO_FLOATS = new float[1024];
+    private final static int[] ZERO_INTS = new int[1024];
 
     private final Set<TmNeuronMetadata> neurons = new HashSet<>();
+    private final Map<Long, TmNeuronMetadata> neuronsById = new HashMap<>();
     private int vboVertices = 0;
     private int vboEdgeIndices = 0;
-    private int edgeCount = 0;
-    private int vertexCount = 0;
+    private int edgeCount = 0; // live edges
+    private int vertexCount = 0; // live vertices
     
     private boolean buffersNeedRebuild = false; // non-gl population of buffer data
     private boolean buffersNeedAllocation = false; // allocate and upload gl buffers
-    private boolean buffersNeedUpdate = false; // replace contents of existing gl buffers
     
     private IntBuffer edgeBuffer;
     private FloatBuffer vertexBuffer;
     
-    // Cached indices
-    private final Map<TmNeuronMetadata, Integer> neuronOffsets = new HashMap<>(); // for surgically updating buffers
-    private final Map<TmNeuronMetadata, Integer> neuronVertexCounts = new HashMap<>(); // for sanity checking
-    private final Map<TmNeuronMetadata, Integer> neuronEdgeCounts = new HashMap<>(); // for sanity checking
+    // Slabs of each neuron, for surgically updating buffers
+    private final Map<TmNeuronMetadata, NeuronRange> neuronRanges = new HashMap<>();
+    private final Set<TmNeuronMetadata> dirtyNeurons = new LinkedHashSet<>(); // need to be tabulated again
+    private final SlabAllocator vertexSlabs = new SlabAllocator(NULL_VERTEX + 1);
+    private final SlabAllocator edgeSlabs = new SlabAllocator(0);
     private final Map<TmNeuronMetadata, NeuronObserver> neuronObservers = new HashMap<>();
+
+    // Slots changed since the last upload; empty when from >= to
+    private int dirtyVertexFrom = Integer.MAX_VALUE;
+    private int dirtyVertexTo = 0;
+    private int dirtyEdgeFrom = Integer.MAX_VALUE;
+    private int dirtyEdgeTo = 0;
+
+    // Scratch space for tabulating one neuron
+    private float[] neuronVertexData = new float[1024 * FLOATS_PER_VERTEX];
+    private int[] neuronEdgeData = new int[1024 * INTS_PER_EDGE];
+    private int neuronVertexCount;
+    private int neuronEdgeCount;
     
     private final Logger log = LoggerFactory.getLogger(this.getClass());
     
@@ -56,16 +84,18 @@ public class NeuronVbo implements Iterable<TmNeuronMetadata>
         return neurons.size();
     }
     
-    public void clear() {
+    public synchronized void clear() {
         // first disconnect all signals
         if (edgeCount > 0)
             buffersNeedRebuild = true;
         if (vertexCount > 0)
             buffersNeedRebuild = true;
         neurons.clear();
-        neuronOffsets.clear();
-        neuronEdgeCounts.clear();
-        neuronVertexCounts.clear();
+        neuronsById.clear();
+        neuronRanges.clear();
+        dirtyNeurons.clear();
+        vertexSlabs.reset();
+        edgeSlabs.reset();
         neuronObservers.clear();
         edgeCount = 0;
         vertexCount = 0;
@@ -92,33 +122,37 @@ public class NeuronVbo implements Iterable<TmNeuronMetadata>
     synchronized void displayEdges(GL3 gl) 
     {
         init(gl);
-        if (buffersNeedRebuild)
-            rebuildBuffers();
+        updateBufferContents();
         if (edgeCount < 1) 
             return;
         setUpVbo(gl);
         gl.glBindBuffer(GL3.GL_ELEMENT_ARRAY_BUFFER, vboEdgeIndices);
-        gl.glDrawElements(GL3.GL_LINES, 2 * edgeCount, GL3.GL_UNSIGNED_INT, 0);
+        gl.glDrawElements(GL3.GL_LINES, INTS_PER_EDGE * edgeSlabs.getEnd(), GL3.GL_UNSIGNED_INT, 0);
     }
     
     // Make sure the sphere shader is loaded before calling this method
     synchronized void displayNodes(GL3 gl) 
     {
         init(gl);
-        if (buffersNeedRebuild)
-            rebuildBuffers();
+        updateBufferContents();
         if (vertexCount < 1) 
             return;
         setUpVbo(gl);
-        gl.glDrawArrays(GL3.GL_POINTS, 0, vertexCount);
+        gl.glDrawArrays(GL3.GL_POINTS, 0, vertexSlabs.getEnd());
     }
-    
-    private void setUpVbo(GL3 gl) {
+
+    private void updateBufferContents() {
         if (buffersNeedRebuild)
             rebuildBuffers();
+        else if (! dirtyNeurons.isEmpty())
+            updateDirtyNeurons();
+    }
+    
+    private void setUpVbo(GL3 gl) {
+        updateBufferContents();
         if (buffersNeedAllocation)
             allocateBuffers(gl);
-        if (buffersNeedUpdate)
+        else
             updateBuffers(gl);
         gl.glBindBuffer(GL3.GL_ARRAY_BUFFER, vboVertices);
         gl.glEnableVertexAttribArray(XYZR_ATTRIB);
@@ -156,7 +190,7 @@ public class NeuronVbo implements Iterable<TmNeuronMetadata>
     // lightweight update of just the color field
     private boolean updateNeuronColor(TmNeuronMetadata neuron)
     {
-        if (buffersNeedRebuild)
+        if (buffersNeedRebuild || dirtyNeurons.contains(neuron))
             return false;
         int sv = neuron.getAnnotationCount();
         int se = neuron.getEdges().size();
@@ -166,19 +200,22 @@ public class NeuronVbo implements Iterable<TmNeuronMetadata>
         
         // check for whether the neuron is under review
         if (TmModelManager.getInstance().getCurrentView().isNeuronInReviewMode(neuron.getId())) {
-            buffersNeedRebuild = true;
+            dirtyNeurons.add(neuron);
             return false;
         }
         
         // sanity check
         // Do we already have most of the information for this neuron tabulated?
-        if ( neuronOffsets.containsKey(neuron)
-                && (neuronVertexCounts.get(neuron) == sv)
-                && (neuronEdgeCounts.get(neuron) == se)) 
+        NeuronRange range = neuronRanges.get(neuron);
+        if ( (range != null)
+                && (range.vertexCount == sv)
+                && (range.modelEdgeCount == se))
         {
+            if (sv == 0)
+                return false;
             // Has the color actually changed?
             final int COLOR_OFFSET = 4; // red color begins at 5th value
-            int offset = neuronOffsets.get(neuron) * FLOATS_PER_VERTEX + COLOR_OFFSET;
+            int offset = range.vertexStart * FLOATS_PER_VERTEX + COLOR_OFFSET;
             int max_offset = offset + (sv-1) * FLOATS_PER_VERTEX + 2;
             if (max_offset >= vertexBuffer.limit()) {
                 // Hmm. The actual buffer is no longer big enough to hold this neuron.
@@ -205,7 +242,7 @@ public class NeuronVbo implements Iterable<TmNeuronMetadata>
                         // assert(vertexBuffer.get(index + r) == rgb[r]);
                     }
                 }
-                buffersNeedUpdate = true;
+                markVerticesForUpload(range.vertexStart, range.vertexStart + sv);
                 bChanged = true;
             } catch (IndexOutOfBoundsException exc) {
                 log.info("stale vertex buffer object accessed with bogus index {}. Queueing rebuild.", offset);
@@ -214,7 +251,7 @@ public class NeuronVbo implements Iterable<TmNeuronMetadata>
             }
         }
         else {
-            buffersNeedRebuild = true;
+            dirtyNeurons.add(neuron);
             bChanged = true;
         }
         return bChanged;
@@ -224,8 +261,8 @@ public class NeuronVbo implements Iterable<TmNeuronMetadata>
     // returns true if the buffer state actually changed
     private boolean updateNeuronVisibility(TmNeuronMetadata neuron)
     {
-        if (buffersNeedRebuild)
-            return false; // we are going to redo everything anyway, so skip the surgical update
+        if (buffersNeedRebuild || dirtyNeurons.contains(neuron))
+            return false; // we are going to redo this neuron anyway, so skip the surgical update
         int sv = neuron.getAnnotationCount();
         int se = neuron.getEdges().size();
         TmViewState viewState = TmModelManager.getInstance().getCurrentView();
@@ -236,13 +273,16 @@ public class NeuronVbo implements Iterable<TmNeuronMetadata>
 
         // sanity check
         // Do we already have most of the information for this neuron tabulated?
-        if ( neuronOffsets.containsKey(neuron)
-                && (neuronVertexCounts.get(neuron) == sv)
-                && (neuronEdgeCounts.get(neuron) == se) ) 
+        NeuronRange range = neuronRanges.get(neuron);
+        if ( (range != null)
+                && (range.vertexCount == sv)
+                && (range.modelEdgeCount == se) )
         {
+            if (sv == 0)
+                return false;
             // Has the visibility actually changed?
             final int VISIBILITY_OFFSET = 7; // visibility is the 8th attribute value
-            int offset = neuronOffsets.get(neuron) * FLOATS_PER_VERTEX + VISIBILITY_OFFSET;
+            int offset = range.vertexStart * FLOATS_PER_VERTEX + VISIBILITY_OFFSET;
             int max_offset = offset + (sv-1) * FLOATS_PER_VERTEX;
             if (max_offset >= vertexBuffer.limit()) {
                 log.info("vertex buffer object is too small. rebuild queued (after updateNeuronVisibility())");
@@ -256,7 +296,7 @@ public class NeuronVbo implements Iterable<TmNeuronMetadata>
                         int index = offset + v * FLOATS_PER_VERTEX;
                         vertexBuffer.put(index, visFloat);
                     }
-                    buffersNeedUpdate = true;
+                    markVerticesForUpload(range.vertexStart, range.vertexStart + sv);
                     bChanged = true;
                 }
             } catch (IndexOutOfBoundsException exc) {
@@ -266,106 +306,41 @@ public class NeuronVbo implements Iterable<TmNeuronMetadata>
             }
         }
         else {
-            buffersNeedRebuild = true;
+            dirtyNeurons.add(neuron);
             bChanged = true; // something changed...
         }
         return bChanged;
     }
     
+    // Repack all neurons into freshly allocated buffers
     private void rebuildBuffers()
     {
         log.info("Rebuilding neuron vbo data");
-        // count the primitives
-        List<Float> vertexAttributes = new ArrayList<>();
-        List<Integer> edgeIndexes = new ArrayList<>();
+        neuronRanges.clear();
+        dirtyNeurons.clear();
+        vertexSlabs.reset();
+        edgeSlabs.reset();
         vertexCount = 0;
         edgeCount = 0;
-        float rgb[] = {0,0,0};
-        neuronOffsets.clear();
-        neuronVertexCounts.clear();
-        neuronEdgeCounts.clear();
-        TmViewState viewState = TmModelManager.getInstance().getCurrentView();
+
+        // allocate storage for everything at once, rather than growing as we go
+        int vertexSlots = vertexSlabs.getEnd();
+        int edgeSlots = edgeSlabs.getEnd();
         for (TmNeuronMetadata neuron : neurons) {
-            neuronOffsets.put(neuron, vertexCount);
-            neuronVertexCounts.put(neuron, neuron.getAnnotationCount());
-            neuronEdgeCounts.put(neuron, neuron.getEdges().size());
-            float visibility = viewState.isHidden(neuron.getId()) ? 0 : 1;
-            Color color = TmViewState.getColorForNeuron(neuron.getId());
-            if (color == null) {
-                if (neuron.getColor()==null) {
-                    color = TmViewState.generateNewColor(neuron.getId());
-                } else {
-                    color = neuron.getColor();
-                }
-            }
-            color.getColorComponents(rgb);
-            Map<TmGeoAnnotation, Integer> vertexIndices = new HashMap<>();
-            TmReviewState reviews = TmModelManager.getInstance().getCurrentReviews();
-            for (TmGeoAnnotation vertex : neuron.getGeoAnnotationMap().values()) {
-                int index = vertexCount;
-                vertexIndices.put(vertex, index);
-                // X, Y, Z, radius, r, g, b, visibility
-                float[] xyz = TmModelManager.getInstance().getLocationInMicrometers(vertex.getX(),
-                        vertex.getY(), vertex.getZ());
-                vertexAttributes.add(xyz[0]); // X
-                vertexAttributes.add(xyz[1]); // Y
-                vertexAttributes.add(xyz[2]); // Z
-                float radius = 1.0f;
-                if (vertex.getRadius()!=null)
-                    radius = vertex.getRadius().floatValue();
-                if (TmModelManager.getInstance().getCurrentView().isNeuronRadiusToggle(neuron.getId())) {
-                    radius = 0.3f;
-                }
-                vertexAttributes.add(radius); // radius
-                if (reviews.isReviewedAnnotation(vertex.getId())) {
-                    vertexAttributes.add(REVIEWED_GRAY_COLOR); // red
-                    vertexAttributes.add(REVIEWED_GRAY_COLOR); // green
-                    vertexAttributes.add(REVIEWED_GRAY_COLOR); // blue
-                } else if (reviews.isLoopedAnnotation(vertex.getId())) {
-                    Color loopColor = viewState.getColorLoopIndicator();
-                    vertexAttributes.add(loopColor.getRed()/255.0f); // red
-                    vertexAttributes.add(loopColor.getGreen()/255.0f); // green
-                    vertexAttributes.add(loopColor.getBlue()/255.0f); // blue
-                } else {
-                    vertexAttributes.add(rgb[0]); // red
-                    vertexAttributes.add(rgb[1]); // green
-                    vertexAttributes.add(rgb[2]); // blue
-                }
-                vertexAttributes.add(visibility); // visibility
-                vertexCount += 1;
-            }
-           for (TmNeuronEdge edge : getEdges(neuron)) {
-                TmGeoAnnotation v1 = edge.getParentVertex();
-                TmGeoAnnotation v2 = edge.getChildVertex();
-                Integer i1 = vertexIndices.get(v1);
-                Integer i2 = vertexIndices.get(v2);
-                if ( (i1 == null) || (i2 == null) ) {
-                    log.error("Found neuron edge with unknown vertices {} and {} in neuron '{}'", v1, v2, neuron.getName());
-                    continue;
-                }
-                edgeIndexes.add(i1);
-                edgeIndexes.add(i2);
-                edgeCount += 1;
-            }
-        }
-        
-        // allocate storage
-        vertexBuffer = Buffers.newDirectFloatBuffer(vertexCount * FLOATS_PER_VERTEX);        
-        vertexBuffer.rewind();
-        for (float f : vertexAttributes) {
-            vertexBuffer.put(f);
+            int sv = neuron.getAnnotationCount();
+            vertexSlots += slabCapacity(sv);
+            edgeSlots += slabCapacity(sv); // a tree has fewer edges than vertices
         }
-        vertexBuffer.flip();
+        vertexBuffer = Buffers.newDirectFloatBuffer(vertexSlots * FLOATS_PER_VERTEX);
+        edgeBuffer = Buffers.newDirectIntBuffer(edgeSlots * INTS_PER_EDGE);
         
-        edgeBuffer = Buffers.newDirectIntBuffer(edgeCount * 2);
-        edgeBuffer.rewind();
-        for (int i : edgeIndexes) {
-            edgeBuffer.put(i);
+        for (TmNeuronMetadata neuron : neurons) {
+            writeNeuron(neuron);
         }
-        edgeBuffer.flip();
 
         buffersNeedRebuild = false;
         buffersNeedAllocation = true;
+        clearUploadRanges();
 
         final boolean debugVboContents = false;
         if (debugVboContents) {
@@ -380,6 +355,168 @@ public class NeuronVbo implements Iterable<TmNeuronMetadata>
         }        
     }
 
+    // Rewrite only the neurons that changed since the last display
+    private void updateDirtyNeurons()
+    {
+        if ((vertexBuffer == null) || (edgeBuffer == null)) {
+            rebuildBuffers();
+            return;
+        }
+        log.debug("Updating {} neurons in neuron vbo", dirtyNeurons.size());
+        for (TmNeuronMetadata neuron : dirtyNeurons) {
+            writeNeuron(neuron);
+        }
+        dirtyNeurons.clear();
+        if (vertexSlabs.getFreeCount() > Math.max(MIN_COMPACTION_SLOTS, vertexCount)) {
+            log.info("Compacting neuron vbo; {} of {} vertex slots are free",
+                    vertexSlabs.getFreeCount(), vertexSlabs.getEnd());
+            rebuildBuffers();
+        }
+    }
+
+    // Tabulate one neuron and store it in its slabs, moving it to new slabs if it outgrew the old ones
+    private void writeNeuron(TmNeuronMetadata neuron)
+    {
+        tabulateNeuron(neuron);
+        NeuronRange range = neuronRanges.get(neuron);
+        if ( (range != null)
+                && ( (range.vertexCapacity < neuronVertexCount) || (range.edgeCapacity < neuronEdgeCount) ) )
+        {
+            releaseRange(range);
+            range = null;
+        }
+        if (range == null) {
+            range = new NeuronRange();
+            range.vertexCapacity = slabCapacity(neuronVertexCount);
+            range.edgeCapacity = slabCapacity(neuronEdgeCount);
+            range.vertexStart = vertexSlabs.allocate(range.vertexCapacity);
+            range.edgeStart = edgeSlabs.allocate(range.edgeCapacity);
+            ensureCapacity(vertexSlabs.getEnd(), edgeSlabs.getEnd());
+            neuronRanges.put(neuron, range);
+        }
+        else {
+            vertexCount -= range.vertexCount;
+            edgeCount -= range.edgeCount;
+        }
+        range.vertexCount = neuronVertexCount;
+        range.edgeCount = neuronEdgeCount;
+        range.modelEdgeCount = neuron.getEdges().size();
+        vertexCount += range.vertexCount;
+        edgeCount += range.edgeCount;
+
+        // vertices, followed by invisible unused slots
+        vertexBuffer.position(range.vertexStart * FLOATS_PER_VERTEX);
+        vertexBuffer.put(neuronVertexData, 0, neuronVertexCount * FLOATS_PER_VERTEX);
+        putZeros(vertexBuffer, (range.vertexCapacity - neuronVertexCount) * FLOATS_PER_VERTEX);
+        vertexBuffer.clear();
+        // edges, with indices relative to the whole buffer
+        for (int i = 0; i < neuronEdgeCount * INTS_PER_EDGE; ++i) {
+            neuronEdgeData[i] += range.vertexStart;
+        }
+        edgeBuffer.position(range.edgeStart * INTS_PER_EDGE);
+        edgeBuffer.put(neuronEdgeData, 0, neuronEdgeCount * INTS_PER_EDGE);
+        putZeros(edgeBuffer, (range.edgeCapacity - neuronEdgeCount) * INTS_PER_EDGE);
+        edgeBuffer.clear();
+
+        markVerticesForUpload(range.vertexStart, range.vertexStart + range.vertexCapacity);
+        markEdgesForUpload(range.edgeStart, range.edgeStart + range.edgeCapacity);
+    }
+
+    // Blank out the slabs of a neuron and return them to the free lists
+    private void releaseRange(NeuronRange range)
+    {
+        vertexCount -= range.vertexCount;
+        edgeCount -= range.edgeCount;
+        if ((vertexBuffer != null) && (edgeBuffer != null)) {
+            vertexBuffer.position(range.vertexStart * FLOATS_PER_VERTEX);
+            putZeros(vertexBuffer, range.vertexCapacity * FLOATS_PER_VERTEX);
+            vertexBuffer.clear();
+            edgeBuffer.position(range.edgeStart * INTS_PER_EDGE);
+            putZeros(edgeBuffer, range.edgeCapacity * INTS_PER_EDGE);
+            edgeBuffer.clear();
+            markVerticesForUpload(range.vertexStart, range.vertexStart + range.vertexCapacity);
+            markEdgesForUpload(range.edgeStart, range.edgeStart + range.edgeCapacity);
+        }
+        vertexSlabs.free(range.vertexStart, range.vertexCapacity);
+        edgeSlabs.free(range.edgeStart, range.edgeCapacity);
+    }
+
+    // Fill the scratch arrays with the vertices and edges of one neuron
+    private void tabulateNeuron(TmNeuronMetadata neuron)
+    {
+        float rgb[] = {0,0,0};
+        TmViewState viewState = TmModelManager.getInstance().getCurrentView();
+        float visibility = viewState.isHidden(neuron.getId()) ? 0 : 1;
+        Color color = TmViewState.getColorForNeuron(neuron.getId());
+        if (color == null) {
+            if (neuron.getColor()==null) {
+                color = TmViewState.generateNewColor(neuron.getId());
+            } else {
+                color = neuron.getColor();
+            }
+        }
+        color.getColorComponents(rgb);
+        Collection<TmGeoAnnotation> vertices = neuron.getGeoAnnotationMap().values();
+        if (neuronVertexData.length < vertices.size() * FLOATS_PER_VERTEX)
+            neuronVertexData = new float[vertices.size() * 3 / 2 * FLOATS_PER_VERTEX];
+        Map<TmGeoAnnotation, Integer> vertexIndices = new HashMap<>();
+        TmReviewState reviews = TmModelManager.getInstance().getCurrentReviews();
+        boolean radiusToggle = viewState.isNeuronRadiusToggle(neuron.getId());
+        int v = 0;
+        for (TmGeoAnnotation vertex : vertices) {
+            if (v >= neuronVertexData.length)
+                break; // the neuron grew while we were looking at it; it will be marked dirty again
+            vertexIndices.put(vertex, v / FLOATS_PER_VERTEX);
+            // X, Y, Z, radius, r, g, b, visibility
+            float[] xyz = TmModelManager.getInstance().getLocationInMicrometers(vertex.getX(),
+                    vertex.getY(), vertex.getZ());
+            neuronVertexData[v++] = xyz[0]; // X
+            neuronVertexData[v++] = xyz[1]; // Y
+            neuronVertexData[v++] = xyz[2]; // Z
+            float radius = 1.0f;
+            if (vertex.getRadius()!=null)
+                radius = vertex.getRadius().floatValue();
+            if (radiusToggle) {
+                radius = 0.3f;
+            }
+            neuronVertexData[v++] = radius; // radius
+            if (reviews.isReviewedAnnotation(vertex.getId())) {
+                neuronVertexData[v++] = REVIEWED_GRAY_COLOR; // red
+                neuronVertexData[v++] = REVIEWED_GRAY_COLOR; // green
+                neuronVertexData[v++] = REVIEWED_GRAY_COLOR; // blue
+            } else if (reviews.isLoopedAnnotation(vertex.getId())) {
+                Color loopColor = viewState.getColorLoopIndicator();
+                neuronVertexData[v++] = loopColor.getRed()/255.0f; // red
+                neuronVertexData[v++] = loopColor.getGreen()/255.0f; // green
+                neuronVertexData[v++] = loopColor.getBlue()/255.0f; // blue
+            } else {
+                neuronVertexData[v++] = rgb[0]; // red
+                neuronVertexData[v++] = rgb[1]; // green
+                neuronVertexData[v++] = rgb[2]; // blue
+            }
+            neuronVertexData[v++] = visibility; // visibility
+        }
+        neuronVertexCount = v / FLOATS_PER_VERTEX;
+
+        Collection<TmNeuronEdge> edges = getEdges(neuron);
+        if (neuronEdgeData.length < edges.size() * INTS_PER_EDGE)
+            neuronEdgeData = new int[edges.size() * 3 / 2 * INTS_PER_EDGE];
+        int e = 0;
+        for (TmNeuronEdge edge : edges) {
+            TmGeoAnnotation v1 = edge.getParentVertex();
+            TmGeoAnnotation v2 = edge.getChildVertex();
+            Integer i1 = vertexIndices.get(v1);
+            Integer i2 = vertexIndices.get(v2);
+            if ( (i1 == null) || (i2 == null) ) {
+                log.error("Found neuron edge with unknown vertices {} and {} in neuron '{}'", v1, v2, neuron.getName());
+                continue;
+            }
+            neuronEdgeData[e++] = i1;
+            neuronEdgeData[e++] = i2;
+        }
+        neuronEdgeCount = e / INTS_PER_EDGE;
+    }
+
     private Collection<TmNeuronEdge> getEdges(TmNeuronMetadata neuron) {
         Set<TmNeuronEdge> freshEdges = new HashSet<>(); // All edges in the current model
         for (TmGeoAnnotation child : neuron.getGeoAnnotationMap().values()) {
@@ -393,55 +530,122 @@ public class NeuronVbo implements Iterable<TmNeuronMetadata>
         return freshEdges;
     }
 
+    // Number of slots to reserve for a neuron, leaving room for it to grow in place
+    private static int slabCapacity(int count) {
+        return count + count / 4 + 8;
+    }
+
+    // Grow the client side buffers, if the slabs no longer fit; the gl buffers then need to be reallocated
+    private void ensureCapacity(int vertexSlots, int edgeSlots)
+    {
+        if (vertexBuffer.capacity() < vertexSlots * FLOATS_PER_VERTEX) {
+            int slots = Math.max(vertexSlots, vertexBuffer.capacity() / FLOATS_PER_VERTEX * 3 / 2);
+            FloatBuffer grown = Buffers.newDirectFloatBuffer(slots * FLOATS_PER_VERTEX);
+            vertexBuffer.clear();
+            grown.put(vertexBuffer);
+            grown.clear();
+            vertexBuffer = grown;
+            buffersNeedAllocation = true;
+        }
+        if (edgeBuffer.capacity() < edgeSlots * INTS_PER_EDGE) {
+            int slots = Math.max(edgeSlots, edgeBuffer.capacity() / INTS_PER_EDGE * 3 / 2);
+            IntBuffer grown = Buffers.newDirectIntBuffer(slots * INTS_PER_EDGE);
+            edgeBuffer.clear();
+            grown.put(edgeBuffer);
+            grown.clear();
+            edgeBuffer = grown;
+            buffersNeedAllocation = true;
+        }
+    }
+
+    private static void putZeros(FloatBuffer buffer, int count) {
+        while (count > 0) {
+            int n = Math.min(count, ZERO_FLOATS.length);
+            buffer.put(ZERO_FLOATS, 0, n);
+            count -= n;
+        }
+    }
+
+    // Unused edges connect the invisible null vertex to itself
+    private static void putZeros(IntBuffer buffer, int count) {
+        while (count > 0) {
+            int n = Math.min(count, ZERO_INTS.length);
+            buffer.put(ZERO_INTS, 0, n);
+            count -= n;
+        }
+    }
+
+    private void markVerticesForUpload(int fromSlot, int toSlot) {
+        if (fromSlot >= toSlot)
+            return;
+        dirtyVertexFrom = Math.min(dirtyVertexFrom, fromSlot);
+        dirtyVertexTo = Math.max(dirtyVertexTo, toSlot);
+    }
+
+    private void markEdgesForUpload(int fromSlot, int toSlot) {
+        if (fromSlot >= toSlot)
+            return;
+        dirtyEdgeFrom = Math.min(dirtyEdgeFrom, fromSlot);
+        dirtyEdgeTo = Math.max(dirtyEdgeTo, toSlot);
+    }
+
+    private void clearUploadRanges() {
+        dirtyVertexFrom = Integer.MAX_VALUE;
+        dirtyVertexTo = 0;
+        dirtyEdgeFrom = Integer.MAX_VALUE;
+        dirtyEdgeTo = 0;
+    }
+
     private void allocateBuffers(GL3 gl)
     {
         log.info("Uploading neuron vbo data");
-        if (buffersNeedRebuild)
-            rebuildBuffers();
-        vertexBuffer.rewind();
+        vertexBuffer.clear();
         gl.glBindBuffer(GL3.GL_ARRAY_BUFFER, vboVertices);
         gl.glBufferData(GL3.GL_ARRAY_BUFFER, 
                 vertexBuffer.capacity() * Buffers.SIZEOF_FLOAT,
                 vertexBuffer, 
-                GL3.GL_STATIC_DRAW);
-        edgeBuffer.rewind();
+                GL3.GL_DYNAMIC_DRAW);
+        edgeBuffer.clear();
         gl.glBindBuffer(GL3.GL_ELEMENT_ARRAY_BUFFER, vboEdgeIndices);        
         gl.glBufferData(
                 GL3.GL_ELEMENT_ARRAY_BUFFER,
                 edgeBuffer.capacity() * Buffers.SIZEOF_INT,
                 edgeBuffer,
-                GL3.GL_STATIC_DRAW);
+                GL3.GL_DYNAMIC_DRAW);
 
         buffersNeedAllocation = false;
-        buffersNeedUpdate = false;
+        clearUploadRanges();
     }
     
-    // Reloads the entire buffer
-    // TODO: Incrementally update one neuron at a time.
+    // Uploads only the slots that changed since the last upload
     private void updateBuffers(GL3 gl)
     {
-        // log.info("Updating neuron vbo data");
-        if (buffersNeedRebuild)
-            rebuildBuffers();
-        vertexBuffer.rewind();
-        gl.glBindBuffer(GL3.GL_ARRAY_BUFFER, vboVertices);
-        gl.glBufferSubData(
-                GL3.GL_ARRAY_BUFFER, 
-                0,
-                vertexBuffer.capacity() * Buffers.SIZEOF_FLOAT,
-                vertexBuffer);
-        edgeBuffer.rewind();
-        gl.glBindBuffer(GL3.GL_ELEMENT_ARRAY_BUFFER, vboEdgeIndices);        
-        gl.glBufferSubData(
-                GL3.GL_ELEMENT_ARRAY_BUFFER,
-                0, 
-                edgeBuffer.capacity() * Buffers.SIZEOF_INT,
-                edgeBuffer);
-
-        buffersNeedUpdate = false;
+        if (dirtyVertexFrom < dirtyVertexTo) {
+            vertexBuffer.position(dirtyVertexFrom * FLOATS_PER_VERTEX);
+            vertexBuffer.limit(dirtyVertexTo * FLOATS_PER_VERTEX);
+            gl.glBindBuffer(GL3.GL_ARRAY_BUFFER, vboVertices);
+            gl.glBufferSubData(
+                    GL3.GL_ARRAY_BUFFER,
+                    (long) dirtyVertexFrom * FLOATS_PER_VERTEX * Buffers.SIZEOF_FLOAT,
+                    (long) (dirtyVertexTo - dirtyVertexFrom) * FLOATS_PER_VERTEX * Buffers.SIZEOF_FLOAT,
+                    vertexBuffer);
+            vertexBuffer.clear();
+        }
+        if (dirtyEdgeFrom < dirtyEdgeTo) {
+            edgeBuffer.position(dirtyEdgeFrom * INTS_PER_EDGE);
+            edgeBuffer.limit(dirtyEdgeTo * INTS_PER_EDGE);
+            gl.glBindBuffer(GL3.GL_ELEMENT_ARRAY_BUFFER, vboEdgeIndices);
+            gl.glBufferSubData(
+                    GL3.GL_ELEMENT_ARRAY_BUFFER,
+                    (long) dirtyEdgeFrom * INTS_PER_EDGE * Buffers.SIZEOF_INT,
+                    (long) (dirtyEdgeTo - dirtyEdgeFrom) * INTS_PER_EDGE * Buffers.SIZEOF_INT,
+                    edgeBuffer);
+            edgeBuffer.clear();
+        }
+        clearUploadRanges();
     }
 
-    boolean add(final TmNeuronMetadata neuron)
+    synchronized boolean add(final TmNeuronMetadata neuron)
     {
         if (neuron == null)
             return false;
@@ -449,9 +653,14 @@ public class NeuronVbo implements Iterable<TmNeuronMetadata>
             return false;
         if (! neurons.add(neuron))
             return false;
+        neuronsById.put(neuron.getId(), neuron);
 
+        // counted now, so the pool can balance its vbos; corrected once the neuron is written
         vertexCount += neuron.getAnnotationCount();
-        buffersNeedRebuild = true;
+        NeuronRange range = new NeuronRange();
+        range.vertexCount = neuron.getAnnotationCount();
+        neuronRanges.put(neuron, range);
+        dirtyNeurons.add(neuron);
 
         connectSignals(neuron);
         
@@ -475,24 +684,36 @@ public class NeuronVbo implements Iterable<TmNeuronMetadata>
         return neurons.contains(neuron);
     }
 
-    boolean remove(TmNeuronMetadata neuron) {
+    synchronized boolean remove(TmNeuronMetadata neuron) {
         if (! neurons.remove(neuron))
             return false;
-        buffersNeedRebuild = true;
+        neuronsById.remove(neuron.getId());
+        dirtyNeurons.remove(neuron);
+        NeuronRange range = neuronRanges.remove(neuron);
+        if (range != null) {
+            if (range.vertexCapacity > 0)
+                releaseRange(range);
+            else
+                vertexCount -= range.vertexCount; // added, but never written
+        }
         return true;
     }
 
-    void checkForChanges() 
+    synchronized void checkForChanges()
     {
         // log.info("check for changes");
         if (buffersNeedRebuild)
             return; // no need to check counts, if we will be rebuilding anyway
         for (TmNeuronMetadata neuron : this) {
-            if ( (neuron.getAnnotationCount() != neuronVertexCounts.get(neuron))
-                    || (neuron.getEdges().size() != neuronEdgeCounts.get(neuron)))
+            if (dirtyNeurons.contains(neuron))
+                continue; // will be rewritten anyway
+            NeuronRange range = neuronRanges.get(neuron);
+            if ( (range == null)
+                    || (neuron.getAnnotationCount() != range.vertexCount)
+                    || (neuron.getEdges().size() != range.modelEdgeCount))
             {
-                buffersNeedRebuild = true;
-                return;
+                dirtyNeurons.add(neuron);
+                continue;
             }
             // Check for visibility and color changes, in case of bulk update
             updateNeuronVisibility(neuron);
@@ -500,9 +721,99 @@ public class NeuronVbo implements Iterable<TmNeuronMetadata>
         }
     }
 
-    public void markAsDirty () {
+    public synchronized void markAsDirty () {
         buffersNeedRebuild = true;
     }
+
+    /**
+     * Rewrite just the given neuron, the next time this vbo is displayed.
+     */
+    public synchronized void markAsDirty (Long neuronId) {
+        TmNeuronMetadata neuron = neuronsById.get(neuronId);
+        if (neuron != null)
+            dirtyNeurons.add(neuron);
+    }
+
+    // Where one neuron lives in the buffers, in units of vertices and edges
+    private static class NeuronRange
+    {
+        private int vertexStart;
+        private int vertexCapacity;
+        private int vertexCount;
+        private int edgeStart;
+        private int edgeCapacity;
+        private int edgeCount;
+        private int modelEdgeCount; // for sanity checking against the neuron
+    }
+
+    // First-fit allocator of contiguous slots, with a free list of released slabs
+    private static class SlabAllocator
+    {
+        private final int reserved; // slots at the start that are never allocated
+        private final NavigableMap<Integer, Integer> freeSlabs = new TreeMap<>(); // start -> length
+        private int end; // first slot that has never been allocated
+        private int freeCount;
+
+        SlabAllocator(int reserved) {
+            this.reserved = reserved;
+            this.end = reserved;
+        }
+
+        void reset() {
+            freeSlabs.clear();
+            end = reserved;
+            freeCount = 0;
+        }
+
+        int getEnd() {
+            return end;
+        }
+
+        int getFreeCount() {
+            return freeCount;
+        }
+
+        int allocate(int length) {
+            for (Map.Entry<Integer, Integer> slab : freeSlabs.entrySet()) {
+                int slabLength = slab.getValue();
+                if (slabLength >= length) {
+                    int start = slab.getKey();
+                    freeSlabs.remove(start);
+                    if (slabLength > length)
+                        freeSlabs.put(start + length, slabLength - length);
+                    freeCount -= length;
+                    return start;
+                }
+            }
+            int start = end;
+            end += length;
+            return start;
+        }
+
+        void free(int start, int length) {
+            if (length < 1)
+                return;
+            freeCount += length;
+            // merge with adjacent free slabs
+            Map.Entry<Integer, Integer> before = freeSlabs.floorEntry(start);
+            if ( (before != null) && (before.getKey() + before.getValue() == start) ) {
+                freeSlabs.remove(before.getKey());
+                start = before.getKey();
+                length += before.getValue();
+            }
+            Integer afterLength = freeSlabs.remove(start + length);
+            if (afterLength != null)
+                length += afterLength;
+            if (start + length == end) {
+                // give the tail back, so fewer slots are drawn
+                end = start;
+                freeCount -= length;
+            }
+            else {
+                freeSlabs.put(start, length);
+            }
+        }
+    }
     
     private class NeuronObserver
     {
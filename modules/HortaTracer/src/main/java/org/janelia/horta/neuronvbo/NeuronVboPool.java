@@ -199,6 +199,7 @@ public class NeuronVboPool implements Iterable<TmNeuronMetadata> {
     synchronized boolean remove(TmNeuronMetadata neuron) {
         for (NeuronVbo vbo : new VboIterable()) {
             if (vbo.remove(neuron)) {
+                neuronMap.remove(neuron.getId());
                 return true;
             }
         }
@@ -239,7 +240,7 @@ public class NeuronVboPool implements Iterable<TmNeuronMetadata> {
     public void markAsDirty(Long neuronId) {
         NeuronVbo dirtyVbo = neuronMap.get(neuronId);
         if (dirtyVbo!=null) {
-            dirtyVbo.markAsDirty();
+            dirtyVbo.markAsDirty(neuronId); // rewrites just this neuron
         }
     }
 
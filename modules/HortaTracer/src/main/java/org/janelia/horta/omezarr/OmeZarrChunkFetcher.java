@@ -0,0 +1,190 @@
+package org.janelia.horta.omezarr;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import org.janelia.workstation.core.util.ConsoleProperties;
+import org.janelia.workstation.core.util.LatencyRecorder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Fetches OME-Zarr chunks on a bounded pool of threads.
+ *
+ * Concurrent requests for the same chunk share one download: the first
+ * request starts the fetch and later ones wait for the same future. Each
+ * caller gets its own stream over the downloaded bytes, without a copy.
+ * Chunks that are already on local disk should be read from there instead.
+ */
+public class OmeZarrChunkFetcher {
+
+    private static final Logger LOG = LoggerFactory.getLogger(OmeZarrChunkFetcher.class);
+
+    private static final int LOG_INTERVAL = 500; // fetches between metric log lines
+
+    // Singleton
+    private static OmeZarrChunkFetcher instance;
+    public static synchronized OmeZarrChunkFetcher getInstance() {
+        if (instance == null) {
+            instance = new OmeZarrChunkFetcher(ConsoleProperties.getInt("horta.omezarr.chunkFetchThreads", 8));
+        }
+        return instance;
+    }
+
+    private final ThreadPoolExecutor fetchExecutor;
+    private final Map<String, CompletableFuture<byte[]>> inFlight = new ConcurrentHashMap<>();
+    private final LatencyRecorder fetchLatency = new LatencyRecorder("OME-Zarr chunk fetch");
+    private final LongAdder requestCount = new LongAdder();
+    private final LongAdder coalescedCount = new LongAdder();
+    private final LongAdder fetchCount = new LongAdder();
+    private final LongAdder fetchedBytes = new LongAdder();
+    private final LongAdder failureCount = new LongAdder();
+    private final LongAdder fetchNanos = new LongAdder();
+    private final AtomicLong completedCount = new AtomicLong(); // fetches and failures
+
+    OmeZarrChunkFetcher(int parallelism) {
+        fetchExecutor = new ThreadPoolExecutor(
+                parallelism,
+                parallelism,
+                30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(),
+                new ThreadFactoryBuilder()
+                        .setNameFormat("OmeZarrChunkFetch-%d")
+                        .setDaemon(true)
+                        .build());
+        fetchExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Fetch a chunk, or join a fetch of the same chunk that is already in progress.
+     *
+     * @param chunkKey uniquely identifies the chunk
+     * @param chunkStream opens the chunk at its source; may return null
+     * @return a stream over the chunk, or null if the source returned null
+     * @throws IOException if the fetch failed
+     */
+    public InputStream fetch(String chunkKey, Supplier<InputStream> chunkStream) throws IOException {
+        requestCount.increment();
+        CompletableFuture<byte[]> newFetch = new CompletableFuture<>();
+        CompletableFuture<byte[]> fetch = inFlight.putIfAbsent(chunkKey, newFetch);
+        if (fetch == null) {
+            fetch = newFetch;
+            fetchExecutor.execute(() -> download(chunkKey, chunkStream, newFetch));
+        } else {
+            coalescedCount.increment();
+        }
+        byte[] bytes;
+        try {
+            bytes = fetch.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while fetching " + chunkKey, e);
+        } catch (ExecutionException e) {
+            throw new IOException("Error fetching " + chunkKey, e.getCause());
+        }
+        return bytes == null ? null : new ByteArrayInputStream(bytes);
+    }
+
+    private void download(String chunkKey, Supplier<InputStream> chunkStream, CompletableFuture<byte[]> result) {
+        long fetchStart = System.nanoTime();
+        try (InputStream in = chunkStream.get()) {
+            byte[] bytes = in == null ? null : ByteStreams.toByteArray(in);
+            long elapsed = System.nanoTime() - fetchStart;
+            fetchLatency.recordNanos(elapsed);
+            fetchNanos.add(elapsed);
+            fetchCount.increment();
+            if (bytes != null) {
+                fetchedBytes.add(bytes.length);
+            }
+            result.complete(bytes);
+        } catch (Exception e) {
+            failureCount.increment();
+            result.completeExceptionally(e);
+        } finally {
+            // later requests start a new fetch, so a failed fetch can be retried
+            inFlight.remove(chunkKey, result);
+        }
+        if (completedCount.incrementAndGet() % LOG_INTERVAL == 0) {
+            LOG.info("{}", this);
+        }
+    }
+
+    public int getParallelism() {
+        return fetchExecutor.getMaximumPoolSize();
+    }
+
+    public synchronized void setParallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be at least 1: " + parallelism);
+        }
+        // the core size may never exceed the maximum size, so change them in a safe order
+        if (parallelism > fetchExecutor.getMaximumPoolSize()) {
+            fetchExecutor.setMaximumPoolSize(parallelism);
+            fetchExecutor.setCorePoolSize(parallelism);
+        } else {
+            fetchExecutor.setCorePoolSize(parallelism);
+            fetchExecutor.setMaximumPoolSize(parallelism);
+        }
+    }
+
+    public long getRequestCount() {
+        return requestCount.sum();
+    }
+
+    /**
+     * @return number of requests that joined a fetch already in progress
+     */
+    public long getCoalescedCount() {
+        return coalescedCount.sum();
+    }
+
+    public long getFetchCount() {
+        return fetchCount.sum();
+    }
+
+    public long getFetchedBytes() {
+        return fetchedBytes.sum();
+    }
+
+    public long getFailureCount() {
+        return failureCount.sum();
+    }
+
+    public int getQueuedCount() {
+        return fetchExecutor.getQueue().size();
+    }
+
+    public LatencyRecorder getFetchLatency() {
+        return fetchLatency;
+    }
+
+    /**
+     * @return average download rate of a single fetch, in megabytes per second
+     */
+    public double getThroughputMBPerSecond() {
+        double seconds = fetchNanos.sum() / 1e9;
+        return seconds <= 0 ? 0 : fetchedBytes.sum() / 1e6 / seconds;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("OME-Zarr chunks: requests=%d coalesced=%d fetches=%d failures=%d %.1fMB (%.2fMB/s) queued=%d threads=%d; %s",
+                getRequestCount(), getCoalescedCount(), getFetchCount(), getFailureCount(),
+                getFetchedBytes() / 1e6, getThroughputMBPerSecond(), getQueuedCount(), getParallelism(),
+                fetchLatency);
+    }
+}
@@ -1,6 +1,7 @@
 package org.janelia.horta.omezarr;
 
 import org.apache.commons.lang.StringUtils;
+import org.janelia.horta.blocks.BlockDiskCache;
 import org.janelia.jacsstorage.clients.api.JadeStorageAttributes;
 import org.janelia.jacsstorage.clients.api.JadeStorageService;
 import org.janelia.jacsstorage.clients.api.StorageLocation;
@@ -27,6 +28,9 @@ public class OmeZarrJadeReader {
 
     protected final String basePath;
 
+    private final BlockDiskCache blockDiskCache = BlockDiskCache.getInstance();
+    private final OmeZarrChunkFetcher chunkFetcher = OmeZarrChunkFetcher.getInstance();
+
     public OmeZarrJadeReader(final JadeStorageService jadeStorage, final String basePath, JadeStorageAttributes storageAttributes) throws IOException {
         this.jadeStorage = jadeStorage;
         this.basePath = basePath;
@@ -41,11 +45,21 @@ public class OmeZarrJadeReader {
         return this.basePath;
     }
 
-    public InputStream getInputStream(String location) {
+    public InputStream getInputStream(String location) throws IOException {
         String l = StringUtils.isBlank(location) ? "" : location.replace('\\', '/');
         final String path = URI.create(basePath).resolve(l).toString();
         String relativePath = storageLocation.getRelativePath(path);
-        return jadeStorage.getContent(storageLocation, relativePath);
+        if (l.substring(l.lastIndexOf('/') + 1).startsWith(".")) {
+            // metadata such as .zarray is small and may change, so only chunks are cached
+            return jadeStorage.getContent(storageLocation, relativePath);
+        }
+        InputStream cached = blockDiskCache.openCached(basePath, relativePath);
+        if (cached != null) {
+            // read straight from disk, rather than into memory on a fetch thread
+            return cached;
+        }
+        return chunkFetcher.fetch(basePath + relativePath,
+                () -> blockDiskCache.open(basePath, relativePath, () -> jadeStorage.getContent(storageLocation, relativePath)));
     }
 
     public InputStream getAttributesStream() {
@@ -12,6 +12,8 @@ import javax.swing.event.DocumentEvent;
 import javax.swing.event.DocumentListener;
 
 import net.miginfocom.swing.MigLayout;
+import org.janelia.horta.actors.OmeZarrVolumeActor;
+import org.janelia.horta.actors.TetVolumeActor;
 import org.openide.util.NbPreferences;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -35,6 +37,8 @@ public class TileLoadingPanel extends javax.swing.JPanel {
     private final JTextField concurrentLoadsField;
     private final JTextField ramTileCountField;
     private JComboBox<String> clickModeCombo;
+    private final JLabel ktxTileCountsLabel = new JLabel();
+    private final JLabel omeZarrTileCountsLabel = new JLabel();
 
     DocumentListener listener = new DocumentListener() {
         @Override
@@ -92,6 +96,12 @@ public class TileLoadingPanel extends javax.swing.JPanel {
         attrPanel.add(clickModeLabel, "gap para");
         attrPanel.add(clickModeCombo, "gap para");
 
+        // current state of the volume block caches, refreshed whenever the panel is shown
+        attrPanel.add(new JLabel("KTX blocks: "), "gap para");
+        attrPanel.add(ktxTileCountsLabel, "gap para");
+        attrPanel.add(new JLabel("OME-Zarr blocks: "), "gap para");
+        attrPanel.add(omeZarrTileCountsLabel, "gap para");
+
         add(attrPanel, BorderLayout.CENTER);
     }
 
@@ -111,6 +121,11 @@ public class TileLoadingPanel extends javax.swing.JPanel {
         concurrentLoadsField.setText(NbPreferences.forModule(TileLoadingPanel.class).get(PREFERENCE_CONCURRENT_LOADS, PREFERENCE_CONCURRENT_LOADS_DEFAULT));
         ramTileCountField.setText(NbPreferences.forModule(TileLoadingPanel.class).get(PREFERENCE_RAM_TILE_COUNT, PREFERENCE_RAM_TILE_COUNT_DEFAULT));
         clickModeCombo.setSelectedItem(NbPreferences.forModule(TileLoadingPanel.class).get(PREFERENCE_ANNOTATIONS_CLICK_MODE, PREFERENCE_ANNOTATIONS_CLICK_MODE_DEFAULT));
+        // Only report on actors that are already in use, rather than creating them and their GL resources here
+        TetVolumeActor ktxActor = TetVolumeActor.getInstanceIfPresent();
+        ktxTileCountsLabel.setText(ktxActor == null ? "" : ktxActor.getTileCounts().toString());
+        OmeZarrVolumeActor omeZarrActor = OmeZarrVolumeActor.getInstanceIfPresent();
+        omeZarrTileCountsLabel.setText(omeZarrActor == null ? "" : omeZarrActor.getTileCounts().toString());
     }
 
     void store() {
@@ -523,6 +523,8 @@ public class ImportImageFilesDialog extends ModalDialog {
                 storageTags);
         String uploadPath;
 
+        // A retried multi-file upload goes back to the storage recorded in its journal,
+        // so only a new upload uses this name
         Long guid = FrameworkAccess.generateGUID();
         String storageName = "UserFileImport_"+guid;
         
@@ -748,7 +748,7 @@ public class QuadViewUi extends JPanel implements VolumeLoadListener {
         resetViewButton.setAction(resetViewAction);
         buttonsPanel.add(resetViewButton);
 
-        buttonsPanel.add(new TileStackCacheStatusPanel());
+        buttonsPanel.add(new TileStackCacheStatusPanel(() -> tileServer == null ? null : tileServer.getTextureCache()));
 
         Component verticalGlue = Box.createVerticalGlue();
         buttonsPanel.add(verticalGlue);
@@ -56,8 +56,6 @@ public class SliceActor implements GLActor {
             TextureCache tc = viewTileManager.getTextureCache();
             if (tc != null) {
                 int[] txIds = tc.popObsoleteTextureIds();
-                int historySize = tc.getHistoryCache().size();
-                int futureSize = tc.getFutureCache().size();
                 if (txIds.length > 0) {
                     long startTime = System.nanoTime();
                     gl.glDeleteTextures(txIds.length, txIds, 0);
@@ -173,6 +171,7 @@ public class SliceActor implements GLActor {
             PyramidTexture joglTexture = tileTexture.getTexture();
             joglTexture.destroy(gl);
             tileTexture.setLoadStatus(TileTexture.LoadStatus.RAM_LOADED);
+            textureCache.textureReleasedFromGl(tileTexture);
         }
         needsGlDisposal = false;
     }
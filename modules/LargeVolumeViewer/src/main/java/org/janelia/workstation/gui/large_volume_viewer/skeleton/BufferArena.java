@@ -0,0 +1,294 @@
+package org.janelia.workstation.gui.large_volume_viewer.skeleton;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Growable direct buffer holding one slot of data per neuron, to be uploaded
+ * to a single OpenGL buffer object.
+ *
+ * A neuron keeps its slot for as long as its data fits, so rewriting one
+ * neuron only touches the bytes of that neuron. Released slots are reused by
+ * later neurons. The byte range changed since the last upload is tracked, so
+ * that only that range needs to be sent to the video card.
+ */
+class BufferArena {
+
+    private static final int MIN_CAPACITY = 64 * 1024;
+    private static final int SLOT_HEADROOM = 64; // bytes, so a neuron can grow a little in place
+    private static final int MIN_COMPACTION_BYTES = 1024 * 1024;
+
+    private static class Slot {
+        private final ElementDataOffset element;
+        private final int capacity;
+
+        Slot(Long id, int offset, int capacity) {
+            this.element = new ElementDataOffset(id, 0, offset);
+            this.capacity = capacity;
+        }
+
+        int getOffset() {
+            return (int) element.offset;
+        }
+    }
+
+    private ByteBuffer bytes;
+    private FloatBuffer floats;
+    private IntBuffer ints;
+
+    private final Map<Long, Slot> slots = new HashMap<>();
+    private final NavigableMap<Integer, Integer> freeSlots = new TreeMap<>(); // offset -> capacity
+    private int end = 0; // bytes in use, including released slots below the last live one
+    private int freeBytes = 0;
+
+    // changed since the last upload
+    private boolean reallocated = true;
+    private int dirtyStart = Integer.MAX_VALUE;
+    private int dirtyEnd = 0;
+
+    private long copiedBytes = 0;
+    private long uploadedBytes = 0;
+
+    BufferArena() {
+        allocateBuffer(MIN_CAPACITY);
+    }
+
+    ElementDataOffset get(Long id) {
+        Slot slot = slots.get(id);
+        return slot == null ? null : slot.element;
+    }
+
+    /**
+     * Store the contents of the buffer as the data for the given neuron.
+     *
+     * @return the location of the neuron data in this arena
+     */
+    ElementDataOffset put(Long id, FloatBuffer data) {
+        int size = data == null ? 0 : data.capacity() * SkeletonActorModel.FLOAT_BYTE_COUNT;
+        Slot slot = reserve(id, size);
+        if (size > 0) {
+            data.rewind();
+            floats.position(slot.getOffset() / SkeletonActorModel.FLOAT_BYTE_COUNT);
+            floats.put(data);
+            floats.rewind();
+        }
+        return slot.element;
+    }
+
+    /**
+     * Store the contents of the buffer as the data for the given neuron.
+     *
+     * @return the location of the neuron data in this arena
+     */
+    ElementDataOffset put(Long id, IntBuffer data) {
+        int size = data == null ? 0 : data.capacity() * SkeletonActorModel.INT_BYTE_COUNT;
+        Slot slot = reserve(id, size);
+        if (size > 0) {
+            data.rewind();
+            ints.position(slot.getOffset() / SkeletonActorModel.INT_BYTE_COUNT);
+            ints.put(data);
+            ints.rewind();
+        }
+        return slot.element;
+    }
+
+    /**
+     * Release the slots of all neurons not in the given set.
+     */
+    void retainOnly(Set<Long> ids) {
+        Iterator<Map.Entry<Long, Slot>> slotIter = slots.entrySet().iterator();
+        while (slotIter.hasNext()) {
+            Slot slot = slotIter.next().getValue();
+            if (!ids.contains(slot.element.id)) {
+                release(slot);
+                slotIter.remove();
+            }
+        }
+    }
+
+    void clear() {
+        slots.clear();
+        freeSlots.clear();
+        end = 0;
+        freeBytes = 0;
+    }
+
+    /**
+     * @return true if so much of the arena is released slots, that it should be repacked
+     */
+    boolean needsCompaction() {
+        return freeBytes > Math.max(MIN_COMPACTION_BYTES, end - freeBytes);
+    }
+
+    ByteBuffer getBuffer() {
+        return bytes;
+    }
+
+    int getSize() {
+        return end;
+    }
+
+    int getCapacity() {
+        return bytes.capacity();
+    }
+
+    /**
+     * @return true if the buffer was replaced since the last upload, so the
+     * whole buffer object must be reallocated
+     */
+    boolean isReallocated() {
+        return reallocated;
+    }
+
+    boolean hasDirtyRange() {
+        return dirtyStart < dirtyEnd;
+    }
+
+    int getDirtyStart() {
+        return dirtyStart;
+    }
+
+    int getDirtyLength() {
+        return dirtyEnd - dirtyStart;
+    }
+
+    /**
+     * @return the buffer, positioned at the bytes changed since the last upload
+     */
+    ByteBuffer getDirtyBytes() {
+        bytes.limit(dirtyEnd);
+        bytes.position(dirtyStart);
+        return bytes;
+    }
+
+    /**
+     * Call after uploading the whole buffer, or just its dirty bytes.
+     */
+    void uploaded(boolean wholeBuffer) {
+        uploadedBytes += wholeBuffer ? bytes.capacity() : Math.max(0, dirtyEnd - dirtyStart);
+        bytes.clear();
+        reallocated = false;
+        dirtyStart = Integer.MAX_VALUE;
+        dirtyEnd = 0;
+    }
+
+    /**
+     * @return total bytes copied into this arena
+     */
+    long getCopiedBytes() {
+        return copiedBytes;
+    }
+
+    /**
+     * @return total bytes uploaded from this arena
+     */
+    long getUploadedBytes() {
+        return uploadedBytes;
+    }
+
+    private Slot reserve(Long id, int size) {
+        Slot slot = slots.get(id);
+        if (slot != null && slot.capacity < size) {
+            release(slot);
+            slot = null;
+        }
+        if (slot == null) {
+            int capacity = size == 0 ? 0 : align(size + size / 4 + SLOT_HEADROOM);
+            slot = new Slot(id, allocate(capacity), capacity);
+            slots.put(id, slot);
+        }
+        slot.element.size = size;
+        markDirty(slot.getOffset(), slot.getOffset() + size);
+        copiedBytes += size;
+        return slot;
+    }
+
+    private int allocate(int capacity) {
+        if (capacity == 0) {
+            return 0;
+        }
+        // first fit among the released slots
+        for (Map.Entry<Integer, Integer> free : freeSlots.entrySet()) {
+            int freeCapacity = free.getValue();
+            if (freeCapacity >= capacity) {
+                int offset = free.getKey();
+                freeSlots.remove(offset);
+                if (freeCapacity > capacity) {
+                    freeSlots.put(offset + capacity, freeCapacity - capacity);
+                }
+                freeBytes -= capacity;
+                return offset;
+            }
+        }
+        int offset = end;
+        end += capacity;
+        if (end > bytes.capacity()) {
+            growBuffer(Math.max(end, bytes.capacity() + bytes.capacity() / 2));
+        }
+        return offset;
+    }
+
+    private void release(Slot slot) {
+        int offset = slot.getOffset();
+        int capacity = slot.capacity;
+        if (capacity == 0) {
+            return;
+        }
+        freeBytes += capacity;
+        // merge with neighboring released slots
+        Map.Entry<Integer, Integer> before = freeSlots.floorEntry(offset);
+        if (before != null && before.getKey() + before.getValue() == offset) {
+            freeSlots.remove(before.getKey());
+            offset = before.getKey();
+            capacity += before.getValue();
+        }
+        Integer after = freeSlots.remove(offset + capacity);
+        if (after != null) {
+            capacity += after;
+        }
+        if (offset + capacity == end) {
+            end = offset;
+            freeBytes -= capacity;
+        }
+        else {
+            freeSlots.put(offset, capacity);
+        }
+    }
+
+    private void markDirty(int start, int stop) {
+        if (start >= stop) {
+            return;
+        }
+        dirtyStart = Math.min(dirtyStart, start);
+        dirtyEnd = Math.max(dirtyEnd, stop);
+    }
+
+    private void growBuffer(int capacity) {
+        ByteBuffer oldBytes = bytes;
+        allocateBuffer(capacity);
+        oldBytes.clear();
+        bytes.put(oldBytes);
+        bytes.clear();
+        copiedBytes += oldBytes.capacity();
+    }
+
+    private void allocateBuffer(int capacity) {
+        bytes = ByteBuffer.allocateDirect(capacity).order(ByteOrder.nativeOrder());
+        floats = bytes.asFloatBuffer();
+        ints = bytes.asIntBuffer();
+        reallocated = true;
+    }
+
+    private static int align(int size) {
+        return (size + 3) & ~3;
+    }
+
+}
@@ -62,6 +62,9 @@ public class SkeletonActor implements GLActor {
     }
 
     private boolean bIsGlInitialized = false;
+    // new buffer objects need all the data
+    private boolean lineBuffersNeedAllocation = true;
+    private boolean pointBufferNeedsAllocation = true;
 
     private int vbo = -1;
     private int lineIbo = -1;
@@ -226,6 +229,8 @@ public class SkeletonActor implements GLActor {
         lineIbo = ix[1];
         pointIbo = ix[2];
         colorBo = ix[3];
+        lineBuffersNeedAllocation = true;
+        pointBufferNeedsAllocation = true;
         //
         PassThroughTextureShader.checkGlError(gl, "load anchor texture");
         transparencyDepthMode(gl, true);
@@ -282,15 +287,11 @@ public class SkeletonActor implements GLActor {
 
         boolean refreshBufferData = model.updateVertices();
 
-        if (refreshBufferData) {
-            gl.glBindBuffer(GL.GL_ARRAY_BUFFER, vbo);
-            gl.glBufferData(GL.GL_ARRAY_BUFFER, model.getCummulativeVertexOffset(), model.getVertexBuffer(), GL.GL_DYNAMIC_DRAW);
-
-            gl.glBindBuffer(GL.GL_ARRAY_BUFFER, colorBo);
-            gl.glBufferData(GL.GL_ARRAY_BUFFER, model.getCummulativeColorOffset(), model.getColorBuffer(), GL.GL_DYNAMIC_DRAW);
-
-            gl.glBindBuffer(GL.GL_ELEMENT_ARRAY_BUFFER, lineIbo);
-            gl.glBufferData(GL.GL_ELEMENT_ARRAY_BUFFER, model.getCummulativeLineOffset(), model.getLineBuffer(), GL.GL_DYNAMIC_DRAW);
+        if (refreshBufferData || lineBuffersNeedAllocation) {
+            uploadArena(gl, GL.GL_ARRAY_BUFFER, vbo, model.getVertexArena(), lineBuffersNeedAllocation);
+            uploadArena(gl, GL.GL_ARRAY_BUFFER, colorBo, model.getColorArena(), lineBuffersNeedAllocation);
+            uploadArena(gl, GL.GL_ELEMENT_ARRAY_BUFFER, lineIbo, model.getLineArena(), lineBuffersNeedAllocation);
+            lineBuffersNeedAllocation = false;
         }
 
         gl.glEnableClientState(GL2.GL_VERTEX_ARRAY);
@@ -351,6 +352,22 @@ public class SkeletonActor implements GLActor {
         lineShader.unload(gl2);
     }
 
+    /**
+     * Send the changed part of the arena to its buffer object; the whole
+     * arena is sent when the buffer object is new or the arena has grown.
+     */
+    private void uploadArena(GL gl, int target, int bufferObject, BufferArena arena, boolean allocate) {
+        gl.glBindBuffer(target, bufferObject);
+        if (allocate || arena.isReallocated()) {
+            gl.glBufferData(target, arena.getCapacity(), arena.getBuffer(), GL.GL_DYNAMIC_DRAW);
+            arena.uploaded(true);
+        }
+        else if (arena.hasDirtyRange()) {
+            gl.glBufferSubData(target, arena.getDirtyStart(), arena.getDirtyLength(), arena.getDirtyBytes());
+            arena.uploaded(false);
+        }
+    }
+
     protected void lineOffset(GL2GL3 gl, boolean enable) {
         if (rim == RenderInterpositionMethod.Occlusion) {
             if (enable) {
@@ -419,9 +436,9 @@ public class SkeletonActor implements GLActor {
 
         boolean refreshBufferData = model.updatePoints();
 
-        if (refreshBufferData) {
-            gl.glBindBuffer(GL.GL_ELEMENT_ARRAY_BUFFER, pointIbo);
-            gl.glBufferData(GL.GL_ELEMENT_ARRAY_BUFFER, model.getCummulativePointOffset(), model.getPointBuffer(), GL.GL_DYNAMIC_DRAW);
+        if (refreshBufferData || pointBufferNeedsAllocation) {
+            uploadArena(gl, GL.GL_ELEMENT_ARRAY_BUFFER, pointIbo, model.getPointArena(), pointBufferNeedsAllocation);
+            pointBufferNeedsAllocation = false;
         }
 
         gl.glEnableClientState(GL2.GL_VERTEX_ARRAY);
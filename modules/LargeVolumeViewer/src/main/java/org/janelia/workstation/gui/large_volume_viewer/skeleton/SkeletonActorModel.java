@@ -1,6 +1,7 @@
 package org.janelia.workstation.gui.large_volume_viewer.skeleton;
 
 import java.awt.Point;
+import java.nio.Buffer;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
@@ -82,17 +83,20 @@ public class SkeletonActorModel {
     private Skeleton skeleton;
     private SkeletonActorStateUpdater updater;
 
-    ByteBuffer vertexByteBuffer;
-    FloatBuffer vertexBuffer;
+    // combined buffers for all visible neurons, with one slot per neuron
+    private final BufferArena vertexArena = new BufferArena();
+    private final BufferArena colorArena = new BufferArena();
+    private final BufferArena lineArena = new BufferArena();
+    private final BufferArena pointArena = new BufferArena();
 
-    ByteBuffer colorByteBuffer;
-    FloatBuffer colorBuffer;
+    // neurons whose data changed since they were last copied into the arenas
+    private final Set<Long> dirtyNeurons = new HashSet<>();
+    private final Set<Long> dirtyPointNeurons = new HashSet<>();
+    private final Set<Long> visibleNeurons = new HashSet<>();
 
-    ByteBuffer lineByteBuffer;
-    IntBuffer lineBuffer;
-
-    ByteBuffer pointByteBuffer;
-    IntBuffer pointBuffer;
+    // bytes copied into the arenas, for measuring the cost of updates
+    private long lastCopyByteCount = 0;
+    private long totalCopyByteCount = 0;
 
     // arrays for draw
     private Multiset<Long> neuronVertexCount = HashMultiset.create();
@@ -117,24 +121,15 @@ public class SkeletonActorModel {
 
     public Map<Long, IntBuffer> getNeuronLineIndices() { return neuronLineIndices; }
 
-    int cummulativeVertexOffset = 0;
-    int cummulativeColorOffset = 0;
-    int cummulativeLineOffset = 0;
-    int cummulativePointOffset=0;
-
     private float zoomedZThicknessInPixels = 0f;
 
-    public int getCummulativeVertexOffset() { return cummulativeVertexOffset; }
-    public ByteBuffer getVertexBuffer() { return vertexByteBuffer; }
-    public int getCummulativeColorOffset() { return cummulativeColorOffset; }
-    public FloatBuffer getColorBuffer() { return colorBuffer; }
-    public int getCummulativeLineOffset() { return cummulativeLineOffset; }
-    public IntBuffer getLineBuffer() { return lineBuffer; }
+    BufferArena getVertexArena() { return vertexArena; }
+    BufferArena getColorArena() { return colorArena; }
+    BufferArena getLineArena() { return lineArena; }
+    BufferArena getPointArena() { return pointArena; }
     public List<ElementDataOffset> getLineOffsets() { return lineOffsets; }
     public List<ElementDataOffset> getVertexOffsets() { return vertexOffsets; }
     public List<ElementDataOffset> getColorOffsets() { return colorOffsets; }
-    public int getCummulativePointOffset() { return cummulativePointOffset; }
-    public IntBuffer getPointBuffer() { return pointBuffer; }
     public Map<Long, IntBuffer> getNeuronPointIndices() { return neuronPointIndices; }
     public List<ElementDataOffset> getPointOffsets() { return pointOffsets; }
     public Map<Long, ElementDataOffset> getVertexOffsetMap() { return vertexOffsetMap; }
@@ -142,6 +137,12 @@ public class SkeletonActorModel {
     public Multiset<Long> getNeuronVertexCount() { return neuronVertexCount; }
     public Map<Long, Map<SegmentIndex, TracedPathActor>> getNeuronTracedSegments() { return neuronTracedSegments; }
 
+    /**
+     * @return bytes copied into the combined buffers by the most recent vertex and point updates
+     */
+    public long getLastCopyByteCount() { return lastCopyByteCount; }
+    public long getTotalCopyByteCount() { return totalCopyByteCount; }
+
     public SkeletonActorModel() {
         this.updater = new SkeletonActorStateUpdater();
     }
@@ -172,13 +173,16 @@ public class SkeletonActorModel {
         updater.update();
     }
 
+    /**
+     * copy the data of visible neurons into the combined vertex, color and line
+     * buffers; only neurons that changed since the last copy are rewritten
+     *
+     * @return true if the buffers changed and need to be uploaded
+     */
     public synchronized boolean updateVertices() {
         if (verticesNeedCopy) {
             log.trace("updateVertices - running");
-            
-            cummulativeVertexOffset=0;
-            cummulativeColorOffset=0;
-            cummulativeLineOffset=0;
+            long copiedBefore = vertexArena.getCopiedBytes() + colorArena.getCopiedBytes() + lineArena.getCopiedBytes();
 
             vertexOffsets.clear();
             colorOffsets.clear();
@@ -187,85 +191,49 @@ public class SkeletonActorModel {
             vertexOffsetMap.clear();
             colorOffsetMap.clear();
 
-            List<Long> neuronOrderList = new ArrayList<>();
-
-            //log.info("displayLines2 Check1");
-
+            visibleNeurons.clear();
             for (Long neuronID : neuronVertices.keySet()) {
-                if (TmModelManager.getInstance().getCurrentView().isHidden(neuronID)) {
-                    continue;
+                if (!TmModelManager.getInstance().getCurrentView().isHidden(neuronID)) {
+                    visibleNeurons.add(neuronID);
                 }
+            }
+            vertexArena.retainOnly(visibleNeurons);
+            colorArena.retainOnly(visibleNeurons);
+            lineArena.retainOnly(visibleNeurons);
+            if (vertexArena.needsCompaction() || colorArena.needsCompaction() || lineArena.needsCompaction()) {
+                log.debug("updateVertices - repacking buffers");
+                vertexArena.clear();
+                colorArena.clear();
+                lineArena.clear();
+            }
 
-                neuronOrderList.add(neuronID);
-
-                int vertexCount=neuronVertexCount.count(neuronID);
-
-                int vertexBufferSize = vertexCount * FLOAT_BYTE_COUNT * VERTEX_FLOAT_COUNT;
-                int colorBufferSize = vertexCount * FLOAT_BYTE_COUNT * COLOR_FLOAT_COUNT;
-
-                int lineBufferSize = 0;
-                IntBuffer lineBuffer=neuronLineIndices.get(neuronID);
-                if (lineBuffer!=null) {
-                    lineBufferSize = lineBuffer.capacity() * INT_BYTE_COUNT;
+            int rewritten = 0;
+            for (Long neuronID : visibleNeurons) {
+                ElementDataOffset vertexOffset = vertexArena.get(neuronID);
+                ElementDataOffset colorOffset;
+                ElementDataOffset lineOffset;
+                if (vertexOffset == null || dirtyNeurons.contains(neuronID)) {
+                    vertexOffset = vertexArena.put(neuronID, neuronVertices.get(neuronID));
+                    colorOffset = colorArena.put(neuronID, neuronColors.get(neuronID));
+                    lineOffset = lineArena.put(neuronID, neuronLineIndices.get(neuronID));
+                    rewritten++;
+                }
+                else {
+                    colorOffset = colorArena.get(neuronID);
+                    lineOffset = lineArena.get(neuronID);
                 }
 
-                ElementDataOffset vertexOffset = new ElementDataOffset(neuronID, vertexBufferSize, cummulativeVertexOffset);
                 vertexOffsets.add(vertexOffset);
                 vertexOffsetMap.put(neuronID, vertexOffset);
-
-                ElementDataOffset colorOffset = new ElementDataOffset(neuronID, colorBufferSize, cummulativeColorOffset);
                 colorOffsets.add(colorOffset);
                 colorOffsetMap.put(neuronID, colorOffset);
-
-                lineOffsets.add(new ElementDataOffset(neuronID, lineBufferSize, cummulativeLineOffset));
-
-                cummulativeVertexOffset += vertexBufferSize;
-                cummulativeColorOffset += colorBufferSize;
-                cummulativeLineOffset += lineBufferSize;
-            }
-
-            if (vertexByteBuffer==null || vertexByteBuffer.limit()!=cummulativeVertexOffset) {
-                vertexByteBuffer = ByteBuffer.allocateDirect(cummulativeVertexOffset);
-                vertexBuffer = vertexByteBuffer.order(ByteOrder.nativeOrder()).asFloatBuffer();
-            }
-            int n = 0;
-            for (Long neuronID : neuronOrderList) {
-                ElementDataOffset elementDataOffset = vertexOffsets.get(n);
-                FloatBuffer neuronVertexBuffer = neuronVertices.get(elementDataOffset.id);
-                neuronVertexBuffer.rewind();
-                vertexBuffer.put(neuronVertexBuffer);
-                n++;
+                lineOffsets.add(lineOffset);
             }
-            vertexBuffer.rewind();
+            dirtyNeurons.clear();
 
-            if (colorByteBuffer==null || colorByteBuffer.limit()!=cummulativeColorOffset) {
-                colorByteBuffer = ByteBuffer.allocateDirect(cummulativeColorOffset);
-                colorBuffer = colorByteBuffer.order(ByteOrder.nativeOrder()).asFloatBuffer();
-            }
-            n = 0;
-            for (Long neuronID : neuronOrderList) {
-                ElementDataOffset elementDataOffset = colorOffsets.get(n);
-                FloatBuffer neuronColorBuffer = neuronColors.get(elementDataOffset.id);
-                neuronColorBuffer.rewind();
-                colorBuffer.put(neuronColorBuffer);
-                n++;
-            }
-            colorBuffer.rewind();
-
-            if (lineByteBuffer==null || lineByteBuffer.limit()!=cummulativeLineOffset) {
-                lineByteBuffer = ByteBuffer.allocateDirect(cummulativeLineOffset);
-                lineBuffer = lineByteBuffer.order(ByteOrder.nativeOrder()).asIntBuffer();
-            }
-            n = 0;
-            for (Long neuronID : neuronOrderList) {
-                ElementDataOffset elementDataOffset = lineOffsets.get(n);
-                if (elementDataOffset.size != 0) {
-                    IntBuffer neuronLineBuffer = neuronLineIndices.get(elementDataOffset.id);
-                    lineBuffer.put(neuronLineBuffer);
-                }
-                n++;
-            }
-            lineBuffer.rewind();
+            lastCopyByteCount = vertexArena.getCopiedBytes() + colorArena.getCopiedBytes() + lineArena.getCopiedBytes() - copiedBefore;
+            totalCopyByteCount += lastCopyByteCount;
+            log.debug("updateVertices rewrote {} of {} neurons, copying {} bytes", rewritten, visibleNeurons.size(), lastCopyByteCount);
             verticesNeedCopy=false;
             return true;
         } else {
@@ -276,41 +244,39 @@ public class SkeletonActorModel {
     public synchronized boolean updatePoints() {
         if (pointIndicesNeedCopy) {
             log.trace("updatePoints - running");
+            long copiedBefore = pointArena.getCopiedBytes();
 
             pointOffsets.clear();
 
-            cummulativePointOffset=0;
-            List<Long> neuronOrderList=new ArrayList<>();
-
+            visibleNeurons.clear();
             for (Long neuronID : neuronVertices.keySet()) {
                 if (TmModelManager.getInstance().getCurrentView().isHidden(neuronID)) {
                     continue;
                 }
-                neuronOrderList.add(neuronID);
-                IntBuffer intBuffer = neuronPointIndices.get(neuronID);
-                if (intBuffer==null) {
+                if (!neuronPointIndices.containsKey(neuronID)) {
                     log.warn("Missing neuron {} from neuronPointIndices",neuronID);
+                    continue;
                 }
-                else {
-                    int pointBufferSize=intBuffer.capacity()*INT_BYTE_COUNT;
-                    pointOffsets.add(new ElementDataOffset(neuronID, pointBufferSize, cummulativePointOffset));
-                    cummulativePointOffset+=pointBufferSize;
-                }
+                visibleNeurons.add(neuronID);
             }
-
-            int n=0;
-            if (pointByteBuffer==null || pointByteBuffer.limit()!=cummulativePointOffset) {
-                pointByteBuffer = ByteBuffer.allocateDirect(cummulativePointOffset);
-                pointBuffer = pointByteBuffer.order(ByteOrder.nativeOrder()).asIntBuffer();
+            pointArena.retainOnly(visibleNeurons);
+            if (pointArena.needsCompaction()) {
+                log.debug("updatePoints - repacking buffer");
+                pointArena.clear();
             }
-            for (Long neuronID : neuronOrderList) {
-                ElementDataOffset elementDataOffset = pointOffsets.get(n);
-                IntBuffer neuronPointBuffer=neuronPointIndices.get(elementDataOffset.id);
-                neuronPointBuffer.rewind();
-                pointBuffer.put(neuronPointBuffer);
-                n++;
+
+            for (Long neuronID : visibleNeurons) {
+                ElementDataOffset pointOffset = pointArena.get(neuronID);
+                if (pointOffset == null || dirtyPointNeurons.contains(neuronID)) {
+                    pointOffset = pointArena.put(neuronID, neuronPointIndices.get(neuronID));
+                }
+                pointOffsets.add(pointOffset);
             }
-            pointBuffer.rewind();
+            dirtyPointNeurons.clear();
+
+            long copied = pointArena.getCopiedBytes() - copiedBefore;
+            lastCopyByteCount += copied;
+            totalCopyByteCount += copied;
             pointIndicesNeedCopy=false;
             return true;
         } else {
@@ -366,6 +332,9 @@ public class SkeletonActorModel {
         //  to other methods for the lines and paths; no reason we
         //  couldn't also refactor this into its own method, too
         // clear out the maps first
+        Map<Long, FloatBuffer> previousVertices = new HashMap<>(neuronVertices);
+        Map<Long, FloatBuffer> previousColors = new HashMap<>(neuronColors);
+        Map<Long, IntBuffer> previousPointIndices = new HashMap<>(neuronPointIndices);
         neuronVertexCount.clear();
         neuronVertices.clear();
         neuronColors.clear();
@@ -435,6 +404,11 @@ public class SkeletonActorModel {
             neuronPointIndices.get(anchor.getNeuronID()).put(i1);
         }
 
+        // only neurons whose data actually changed need to be copied again
+        markChangedNeurons(previousVertices, neuronVertices, dirtyNeurons);
+        markChangedNeurons(previousColors, neuronColors, dirtyNeurons);
+        markChangedNeurons(previousPointIndices, neuronPointIndices, dirtyPointNeurons);
+
         pointIndicesNeedCopy=true;
 
         // automatically traced paths
@@ -509,6 +483,7 @@ public class SkeletonActorModel {
         }
 
         // loop over neurons and fill the arrays
+        Map<Long, IntBuffer> previousLineIndices = new HashMap<>(neuronLineIndices);
         neuronLineIndices.clear();
         for (Long neuronID : tempLineIndices.keySet()) {
             ByteBuffer lineBytes = ByteBuffer.allocateDirect(tempLineIndices.get(neuronID).size() * INT_BYTE_COUNT);
@@ -522,9 +497,34 @@ public class SkeletonActorModel {
             }
             lineIndexBuffer.rewind();
         }
+        markChangedNeurons(previousLineIndices, neuronLineIndices, dirtyNeurons);
         verticesNeedCopy=true;
     }
 
+    /**
+     * add to the dirty set each neuron whose buffer contents differ between the two maps
+     */
+    private static <B extends Buffer> void markChangedNeurons(Map<Long, B> previous, Map<Long, B> current, Set<Long> dirty) {
+        for (Map.Entry<Long, B> entry : current.entrySet()) {
+            B previousBuffer = previous.get(entry.getKey());
+            B currentBuffer = entry.getValue();
+            if (previousBuffer == null) {
+                dirty.add(entry.getKey());
+                continue;
+            }
+            previousBuffer.rewind();
+            currentBuffer.rewind();
+            if (!previousBuffer.equals(currentBuffer)) {
+                dirty.add(entry.getKey());
+            }
+        }
+        for (Long neuronID : previous.keySet()) {
+            if (!current.containsKey(neuronID)) {
+                dirty.add(neuronID);
+            }
+        }
+    }
+
     private void updateTracedPaths(Collection<Anchor> anchors) {
         // Update Traced path actors
 
@@ -634,6 +634,7 @@ public class SkeletonActorModel {
         for (int i = 0; i < 3; ++i) {
             neuronVertices.get(dragAnchor.getNeuronID()).put(offset + i, (float) (double) location.get(i));
         }
+        dirtyNeurons.add(dragAnchor.getNeuronID());
         updateLines(null);
         updater.update();
     }
@@ -0,0 +1,543 @@
+package org.janelia.workstation.gui.large_volume_viewer.tracing;
+
+import java.nio.ByteBuffer;
+import java.nio.ShortBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.janelia.workstation.controller.tileimagery.Subvolume;
+import org.janelia.workstation.controller.tileimagery.raster.VoxelIndex;
+import org.janelia.workstation.octree.ZoomLevel;
+import org.janelia.workstation.octree.ZoomedVoxelIndex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A* path tracing through a subvolume, with the same step costs and bounds as {@link AStar},
+ * but without per-voxel objects. As in AStar, paths never step onto the last voxel along
+ * any axis of the subvolume.
+ *
+ * Voxels are addressed by their flattened index within the subvolume. Path costs, parent
+ * links and heap positions are kept in primitive arrays sized to the subvolume, and the open
+ * set is an indexed binary heap, so that the lowest cost voxel is found in logarithmic time.
+ *
+ * Optionally, the search runs from both ends at once, stopping when neither frontier can
+ * improve on the best path through a voxel reached from both ends. The two frontiers can
+ * also be expanded on separate threads, in rounds, checking for meetings between rounds.
+ * Because the heuristic is inflated by the same lower bound on the step cost as in AStar, the
+ * two directions can settle on a different path than a search from the start alone.
+ */
+public class IndexedAStar {
+
+    private static final Logger log = LoggerFactory.getLogger(IndexedAStar.class);
+
+    // Same as in AStar, prevents meandering paths through very bright voxels
+    private static final double STEP_COST_LOWER_BOUND = 1e-60;
+    // Same as in AStar, so we can numerically distinguish more very bright values
+    private static final double Z_FUDGE = 0.80;
+    // Voxels examined by each frontier between checks for a meeting, growing from the first to
+    // the last, so that short paths don't overshoot and long ones don't synchronize too often
+    private static final int FIRST_ROUND_SIZE = 64;
+    private static final int MAX_ROUND_SIZE = 8192;
+    private static final int TIMEOUT_CHECK_INTERVAL = 1000;
+
+    private static final ExecutorService frontierExecutor = Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+            .setNameFormat("AStarFrontier-%d")
+            .setDaemon(true)
+            .build());
+
+    private final Subvolume volume;
+    private final int sizeX;
+    private final int sizeY;
+    private final int sizeZ;
+    private final int voxelCount;
+    private final int channelCount;
+    private final ByteBuffer bytes;
+    private final ShortBuffer shorts;
+
+    private double voxelSizeX = 1.0;
+    private double voxelSizeY = 1.0;
+    private double voxelSizeZ = 1.0;
+    private boolean bidirectional = false;
+    private boolean parallel = false;
+
+    // Path step cost per unit of distance, for each intensity value
+    private double[] stepCostForIntensity;
+    private double minStepCost;
+
+    // Neighbor offsets, with their flattened index deltas and lengths
+    private final int[] neighborDx = new int[26];
+    private final int[] neighborDy = new int[26];
+    private final int[] neighborDz = new int[26];
+    private final int[] neighborDelta = new int[26];
+    private final double[] neighborDistance = new double[26];
+
+    private long examinedVoxelCount;
+
+    public IndexedAStar(Subvolume volume) {
+        this.volume = volume;
+        VoxelIndex extent = volume.getExtent();
+        this.sizeX = extent.getX();
+        this.sizeY = extent.getY();
+        this.sizeZ = extent.getZ();
+        long count = (long) sizeX * sizeY * sizeZ;
+        if (count > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Subvolume is too large to trace: " + sizeX + "x" + sizeY + "x" + sizeZ);
+        }
+        this.voxelCount = (int) count;
+        this.channelCount = volume.getChannelCount();
+        // Absolute reads only, so the volume's own buffer positions are left alone
+        ByteBuffer volumeBytes = volume.getByteBuffer();
+        this.bytes = volumeBytes.duplicate().order(volumeBytes.order());
+        this.bytes.clear();
+        this.shorts = volume.getBytesPerIntensity() == 2 ? bytes.asShortBuffer() : null;
+        computeStepCosts();
+        initNeighbors();
+    }
+
+    public void setVoxelSizes(double[] sizes) {
+        setVoxelSizes(sizes[0], sizes[1], sizes[2]);
+    }
+
+    public void setVoxelSizes(double xSize, double ySize, double zSize) {
+        voxelSizeX = xSize;
+        voxelSizeY = ySize;
+        voxelSizeZ = zSize;
+        initNeighbors();
+    }
+
+    /**
+     * @param bidirectional search from both ends of the path at once
+     */
+    public void setBidirectional(boolean bidirectional) {
+        this.bidirectional = bidirectional;
+    }
+
+    /**
+     * @param parallel when searching from both ends, expand each frontier on its own thread
+     */
+    public void setParallel(boolean parallel) {
+        this.parallel = parallel;
+    }
+
+    /**
+     * @return number of voxels examined by the last trace
+     */
+    public long getExaminedVoxelCount() {
+        return examinedVoxelCount;
+    }
+
+    /**
+     * Finds the lowest cost path between two voxels in the subvolume.
+     *
+     * @param start0 first voxel of the path
+     * @param goal0 last voxel of the path
+     * @param timeout maximum time to search, in seconds
+     * @return the voxels of the path, from start to goal, or null if the search timed out
+     */
+    public List<ZoomedVoxelIndex> trace(ZoomedVoxelIndex start0, ZoomedVoxelIndex goal0, double timeout) {
+        int start = toLocalIndex(start0);
+        int goal = toLocalIndex(goal0);
+        long deadline = System.currentTimeMillis() + (long) (timeout * 1000);
+        examinedVoxelCount = 0;
+
+        Frontier forward = new Frontier(goal, true, bidirectional);
+        forward.open(start, 0, -1);
+        if (start == goal) {
+            return reconstructPath(forward, null, start, start0.getZoomLevel());
+        }
+
+        if (!bidirectional) {
+            while (!forward.heap.isEmpty()) {
+                int current = forward.heap.peek();
+                if (current == goal) {
+                    examinedVoxelCount = forward.examinedCount;
+                    return reconstructPath(forward, null, goal, start0.getZoomLevel());
+                }
+                forward.expandNext();
+                if (forward.examinedCount % TIMEOUT_CHECK_INTERVAL == 0 && System.currentTimeMillis() > deadline) {
+                    return timedOut(forward.examinedCount);
+                }
+            }
+            examinedVoxelCount = forward.examinedCount;
+            return null;
+        }
+
+        Frontier backward = new Frontier(start, false, true);
+        backward.open(goal, 0, -1);
+        double bestCost = Double.POSITIVE_INFINITY;
+        int meeting = -1;
+        int roundSize = FIRST_ROUND_SIZE;
+        while (!forward.heap.isEmpty() && !backward.heap.isEmpty()) {
+            // Pohl's criterion: no path through either open set can beat the best meeting so far
+            if (forward.heap.peekKey() >= bestCost || backward.heap.peekKey() >= bestCost) {
+                break;
+            }
+            if (parallel) {
+                double bound = bestCost;
+                int size = roundSize;
+                Future<?> backwardRound = frontierExecutor.submit(() -> backward.expandRound(size, bound));
+                forward.expandRound(size, bound);
+                try {
+                    backwardRound.get();
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return null;
+                }
+                catch (ExecutionException e) {
+                    throw new IllegalStateException("Backward search failed", e.getCause());
+                }
+            }
+            else {
+                forward.expandRound(roundSize, bestCost);
+                backward.expandRound(roundSize, bestCost);
+            }
+            // Look for voxels reached from both ends during this round
+            for (Frontier frontier : new Frontier[]{forward, backward}) {
+                Frontier other = frontier == forward ? backward : forward;
+                for (int i = 0; i < frontier.reachedCount; i++) {
+                    int v = frontier.reached[i];
+                    double cost = frontier.g[v] + other.g[v];
+                    if (cost < bestCost) {
+                        bestCost = cost;
+                        meeting = v;
+                    }
+                }
+                frontier.reachedCount = 0;
+            }
+            if (System.currentTimeMillis() > deadline) {
+                return timedOut(forward.examinedCount + backward.examinedCount);
+            }
+            roundSize = Math.min(MAX_ROUND_SIZE, roundSize * 2);
+        }
+        examinedVoxelCount = forward.examinedCount + backward.examinedCount;
+        if (meeting < 0) {
+            return null;
+        }
+        return reconstructPath(forward, backward, meeting, start0.getZoomLevel());
+    }
+
+    private List<ZoomedVoxelIndex> timedOut(long examined) {
+        examinedVoxelCount = examined;
+        log.warn("A-star tracing timed out, " + examined + " voxels examined");
+        return null;
+    }
+
+    private int toLocalIndex(ZoomedVoxelIndex v) {
+        int x = v.getX() - volume.getOrigin().getX();
+        int y = v.getY() - volume.getOrigin().getY();
+        int z = v.getZ() - volume.getOrigin().getZ();
+        if (x < 0 || y < 0 || z < 0 || x >= sizeX || y >= sizeY || z >= sizeZ) {
+            throw new IllegalArgumentException("Voxel " + v + " is outside of the subvolume");
+        }
+        return (z * sizeY + y) * sizeX + x;
+    }
+
+    private ZoomedVoxelIndex toZoomedVoxelIndex(int index, ZoomLevel zoomLevel) {
+        int x = index % sizeX;
+        int y = (index / sizeX) % sizeY;
+        int z = index / (sizeX * sizeY);
+        return new ZoomedVoxelIndex(zoomLevel,
+                x + volume.getOrigin().getX(),
+                y + volume.getOrigin().getY(),
+                z + volume.getOrigin().getZ());
+    }
+
+    private List<ZoomedVoxelIndex> reconstructPath(Frontier forward, Frontier backward, int meeting, ZoomLevel zoomLevel) {
+        List<ZoomedVoxelIndex> result = new ArrayList<>();
+        for (int v = meeting; v >= 0; v = forward.parent(v)) {
+            result.add(toZoomedVoxelIndex(v, zoomLevel));
+        }
+        result = new ArrayList<>(Lists.reverse(result));
+        if (backward != null) {
+            for (int v = backward.parent(meeting); v >= 0; v = backward.parent(v)) {
+                result.add(toZoomedVoxelIndex(v, zoomLevel));
+            }
+        }
+        return result;
+    }
+
+    private int intensityAt(int index) {
+        int offset = index * channelCount;
+        return shorts != null ? shorts.get(offset) & 0xffff : bytes.get(offset) & 0xff;
+    }
+
+    private double stepCostAt(int index) {
+        return stepCostForIntensity[intensityAt(index)];
+    }
+
+    /**
+     * Lower bound on the cost of a path between two voxels, which must not overestimate it.
+     */
+    private double heuristic(int v, int targetX, int targetY, int targetZ) {
+        int x = v % sizeX;
+        int y = (v / sizeX) % sizeY;
+        int z = v / (sizeX * sizeY);
+        double dx = (x - targetX) * voxelSizeX;
+        double dy = (y - targetY) * voxelSizeY;
+        double dz = (z - targetZ) * voxelSizeZ;
+        return Math.sqrt(dx * dx + dy * dy + dz * dz) * minStepCost;
+    }
+
+    private void initNeighbors() {
+        int n = 0;
+        for (int dz = -1; dz <= 1; dz++) {
+            for (int dy = -1; dy <= 1; dy++) {
+                for (int dx = -1; dx <= 1; dx++) {
+                    if (dx == 0 && dy == 0 && dz == 0) {
+                        continue; // self is not a neighbor
+                    }
+                    neighborDx[n] = dx;
+                    neighborDy[n] = dy;
+                    neighborDz[n] = dz;
+                    neighborDelta[n] = (dz * sizeY + dy) * sizeX + dx;
+                    double x = dx * voxelSizeX;
+                    double y = dy * voxelSizeY;
+                    double z = dz * voxelSizeZ;
+                    neighborDistance[n] = Math.sqrt(x * x + y * y + z * z);
+                    n++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Computes the same intensity statistics and step costs as {@link AStar}, for every possible intensity.
+     */
+    private void computeStepCosts() {
+        int bytesPerIntensity = volume.getBytesPerIntensity();
+        int valueCount = shorts != null ? shorts.limit() : bytes.limit();
+        double sumIntensity = 0;
+        int maxIntensity = Integer.MIN_VALUE;
+        for (int i = 0; i < valueCount; i++) {
+            int intensity = shorts != null ? shorts.get(i) & 0xffff : bytes.get(i) & 0xff;
+            maxIntensity = Math.max(intensity, maxIntensity);
+            sumIntensity += intensity;
+        }
+        double meanIntensity = valueCount > 0 ? sumIntensity / valueCount : 0.0;
+        double delta = 0;
+        for (int i = 0; i < valueCount; i++) {
+            int intensity = shorts != null ? shorts.get(i) & 0xffff : bytes.get(i) & 0xff;
+            double di = meanIntensity - intensity;
+            delta += di * di;
+        }
+        double stdDevIntensity = valueCount > 0 ? Math.sqrt(delta / valueCount) : 1.0;
+
+        stepCostForIntensity = new double[bytesPerIntensity == 2 ? 0x10000 : 0x100];
+        for (int intensity = 0; intensity < stepCostForIntensity.length; intensity++) {
+            double zScore = (intensity - meanIntensity) / stdDevIntensity;
+            stepCostForIntensity[intensity] = AStar.oneMinusErf(Z_FUDGE * zScore);
+        }
+        minStepCost = (maxIntensity < 0 ? 0 : stepCostForIntensity[maxIntensity]) + STEP_COST_LOWER_BOUND;
+    }
+
+    /**
+     * One direction of the search. A forward frontier charges each step the cost of the voxel
+     * stepped onto, so a backward frontier, which walks the same steps in reverse, charges the
+     * cost of the voxel it is expanding.
+     */
+    private class Frontier {
+
+        private static final int UNSEEN = -1;
+        private static final int CLOSED = -2;
+
+        private final boolean isForward;
+        private final boolean recordReached;
+        private final int targetX;
+        private final int targetY;
+        private final int targetZ;
+        private final double[] g;
+        // position in the heap, or UNSEEN or CLOSED
+        private final int[] heapPosition;
+        // index of the neighbor offset leading back to the parent, or -1
+        private final byte[] parentNeighbor;
+        private final IndexedHeap heap;
+        private long examinedCount;
+        // voxels whose cost was lowered in the current round
+        private int[] reached = new int[1024];
+        private int reachedCount;
+
+        Frontier(int target, boolean isForward, boolean recordReached) {
+            this.isForward = isForward;
+            this.recordReached = recordReached;
+            this.targetX = target % sizeX;
+            this.targetY = (target / sizeX) % sizeY;
+            this.targetZ = target / (sizeX * sizeY);
+            this.g = new double[voxelCount];
+            Arrays.fill(g, Double.POSITIVE_INFINITY);
+            this.heapPosition = new int[voxelCount];
+            Arrays.fill(heapPosition, UNSEEN);
+            this.parentNeighbor = new byte[voxelCount];
+            Arrays.fill(parentNeighbor, (byte) -1);
+            this.heap = new IndexedHeap(heapPosition);
+        }
+
+        int parent(int v) {
+            int n = parentNeighbor[v];
+            return n < 0 ? -1 : v - neighborDelta[n];
+        }
+
+        void open(int v, double cost, int neighbor) {
+            g[v] = cost;
+            parentNeighbor[v] = (byte) neighbor;
+            double f = cost + heuristic(v, targetX, targetY, targetZ);
+            if (heapPosition[v] >= 0) {
+                heap.decreaseKey(v, f);
+            }
+            else {
+                heap.push(v, f);
+            }
+            if (recordReached) {
+                if (reachedCount == reached.length) {
+                    reached = Arrays.copyOf(reached, reachedCount * 2);
+                }
+                reached[reachedCount++] = v;
+            }
+        }
+
+        /**
+         * Expands up to the given number of voxels, stopping early if this frontier can no longer
+         * improve on the best path found so far.
+         */
+        void expandRound(int roundSize, double bestCost) {
+            for (int i = 0; i < roundSize && !heap.isEmpty() && heap.peekKey() < bestCost; i++) {
+                expandNext();
+            }
+        }
+
+        void expandNext() {
+            int current = heap.pop();
+            heapPosition[current] = CLOSED;
+            examinedCount++;
+            int x = current % sizeX;
+            int y = (current / sizeX) % sizeY;
+            int z = current / (sizeX * sizeY);
+            double currentCost = g[current];
+            double backwardStepCost = isForward ? 0 : stepCostAt(current);
+            for (int n = 0; n < 26; n++) {
+                int nx = x + neighborDx[n];
+                int ny = y + neighborDy[n];
+                int nz = z + neighborDz[n];
+                // the last voxel along each axis is excluded, as in AStar
+                if (nx < 0 || ny < 0 || nz < 0 || nx >= sizeX - 1 || ny >= sizeY - 1 || nz >= sizeZ - 1) {
+                    continue;
+                }
+                int neighbor = current + neighborDelta[n];
+                // a closed voxel is reopened if a cheaper path to it turns up, as in AStar
+                double stepCost = isForward ? stepCostAt(neighbor) : backwardStepCost;
+                double tentative = currentCost + stepCost * neighborDistance[n];
+                if (tentative < g[neighbor]) {
+                    open(neighbor, tentative, n);
+                }
+            }
+        }
+    }
+
+    /**
+     * Binary min-heap of voxel indexes keyed by path cost estimate, which keeps track of where
+     * each voxel is, so that its key can be lowered in place.
+     */
+    private static class IndexedHeap {
+
+        private final int[] positions;
+        private int[] voxels = new int[1024];
+        private double[] keys = new double[1024];
+        private int size;
+
+        IndexedHeap(int[] positions) {
+            this.positions = positions;
+        }
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        int peek() {
+            return voxels[0];
+        }
+
+        double peekKey() {
+            return keys[0];
+        }
+
+        void push(int voxel, double key) {
+            if (size == voxels.length) {
+                voxels = Arrays.copyOf(voxels, size * 2);
+                keys = Arrays.copyOf(keys, size * 2);
+            }
+            voxels[size] = voxel;
+            keys[size] = key;
+            positions[voxel] = size;
+            siftUp(size++);
+        }
+
+        void decreaseKey(int voxel, double key) {
+            int i = positions[voxel];
+            keys[i] = key;
+            siftUp(i);
+        }
+
+        int pop() {
+            int top = voxels[0];
+            size--;
+            if (size > 0) {
+                voxels[0] = voxels[size];
+                keys[0] = keys[size];
+                positions[voxels[0]] = 0;
+                siftDown(0);
+            }
+            return top;
+        }
+
+        private void siftUp(int i) {
+            int voxel = voxels[i];
+            double key = keys[i];
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (keys[parent] <= key) {
+                    break;
+                }
+                move(parent, i);
+                i = parent;
+            }
+            voxels[i] = voxel;
+            keys[i] = key;
+            positions[voxel] = i;
+        }
+
+        private void siftDown(int i) {
+            int voxel = voxels[i];
+            double key = keys[i];
+            int half = size >>> 1;
+            while (i < half) {
+                int child = 2 * i + 1;
+                int right = child + 1;
+                if (right < size && keys[right] < keys[child]) {
+                    child = right;
+                }
+                if (key <= keys[child]) {
+                    break;
+                }
+                move(child, i);
+                i = child;
+            }
+            voxels[i] = voxel;
+            keys[i] = key;
+            positions[voxel] = i;
+        }
+
+        private void move(int from, int to) {
+            voxels[to] = voxels[from];
+            keys[to] = keys[from];
+            positions[voxels[to]] = to;
+        }
+    }
+}
@@ -5,6 +5,7 @@ import org.janelia.workstation.geom.Vec3;
 import org.janelia.workstation.octree.ZoomLevel;
 import org.janelia.workstation.octree.ZoomedVoxelIndex;
 import org.janelia.workstation.controller.tileimagery.VoxelPosition;
+import org.janelia.workstation.core.util.ConsoleProperties;
 import org.janelia.workstation.core.workers.BackgroundWorker;
 import org.janelia.workstation.controller.tileimagery.Subvolume;
 import org.janelia.workstation.controller.tileimagery.TileFormat;
@@ -23,6 +24,10 @@ import java.util.List;
  */
 public class PathTraceToParentWorker extends BackgroundWorker {
 
+    // Searching from both ends finds different paths, because the heuristic is inflated
+    private static final boolean BIDIRECTIONAL = ConsoleProperties.getBoolean("console.lvv.tracing.bidirectional", false);
+    private static final boolean PARALLEL = ConsoleProperties.getBoolean("console.lvv.tracing.parallel", true);
+
     private PathTraceToParentRequest request;
     private PathTraceListener pathTraceListener;
 
@@ -80,8 +85,10 @@ public class PathTraceToParentWorker extends BackgroundWorker {
 
         Subvolume subvolume = new Subvolume(v1pad, v2pad, request.getImageVolume(),
                 request.getTextureCache());
-        AStar astar = new AStar(subvolume);
+        IndexedAStar astar = new IndexedAStar(subvolume);
         astar.setVoxelSizes(tileFormat.getVoxelMicrometers());
+        astar.setBidirectional(BIDIRECTIONAL);
+        astar.setParallel(PARALLEL);
 
         setStatus("Tracing");
         List<ZoomedVoxelIndex> path = astar.trace(zv1, zv2, timeout); // This is the slow part
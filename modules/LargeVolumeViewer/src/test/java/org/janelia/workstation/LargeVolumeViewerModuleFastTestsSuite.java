@@ -3,6 +3,9 @@ package org.janelia.workstation;
 
 
 import org.janelia.workstation.gui.large_volume_viewer.TestTileFormat;
+import org.janelia.workstation.gui.large_volume_viewer.tracing.TestIndexedAStar;
+import org.janelia.workstation.octree.TestExtractSubvolume;
+import org.janelia.workstation.controller.tileimagery.TestTextureCache;
 import org.janelia.it.jacs.model.TestCategories;
 import org.junit.experimental.categories.Categories;
 import org.junit.runner.RunWith;
@@ -11,6 +14,9 @@ import org.junit.runners.Suite;
 @RunWith(Categories.class)
 @Categories.IncludeCategory(TestCategories.FastTests.class)
 @Suite.SuiteClasses({
-        TestTileFormat.class
+        TestTileFormat.class,
+        TestIndexedAStar.class,
+        TestExtractSubvolume.class,
+        TestTextureCache.class
 })
 public class LargeVolumeViewerModuleFastTestsSuite {}
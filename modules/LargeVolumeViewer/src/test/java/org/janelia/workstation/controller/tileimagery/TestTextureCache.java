@@ -0,0 +1,88 @@
+package org.janelia.workstation.controller.tileimagery;
+
+import static org.junit.Assert.*;
+
+import java.awt.image.BufferedImage;
+
+import org.janelia.it.jacs.model.TestCategories;
+import org.janelia.workstation.geom.CoordinateAxis;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+public class TestTextureCache {
+
+    // 16 bit gray tiles of 64 x 64, which take one 8 kB buffer each
+    private static final int TILE_SIZE = 64;
+    private static final long TILE_BYTES = TILE_SIZE * TILE_SIZE * 2;
+
+    private final TileLoadAdapter loadAdapter = new TileLoadAdapter();
+
+    /**
+     * Evicted tiles give their buffers back to the pool, so that loading more tiles reuses them.
+     */
+    @Test
+    @Category(TestCategories.FastTests.class)
+    public void testEvictionRecyclesPixelBuffers() {
+        // room for three tiles in the future tier
+        TextureCache cache = new TextureCache(5 * TILE_BYTES, 1024 * TILE_BYTES);
+        long reusesBefore = TextureData2d.PIXEL_BUFFER_POOL.getReuseCount();
+        long allocationsBefore = TextureData2d.PIXEL_BUFFER_POOL.getAllocationCount();
+
+        int tileCount = 20;
+        for (int x = 0; x < tileCount; x++) {
+            cache.add(loadTile(x));
+        }
+
+        assertTrue(cache.getStatistics().getEvictionCount() > 0);
+        assertTrue(cache.size() <= 3);
+        assertTrue("evicted buffers should be reused",
+                TextureData2d.PIXEL_BUFFER_POOL.getReuseCount() - reusesBefore >= tileCount - 4);
+        assertTrue(TextureData2d.PIXEL_BUFFER_POOL.getAllocationCount() - allocationsBefore <= 4);
+    }
+
+    /**
+     * A tile evicted while its pixels are being read keeps them until the reader is done.
+     */
+    @Test
+    @Category(TestCategories.FastTests.class)
+    public void testEvictionWaitsForReaders() {
+        TextureCache cache = new TextureCache(5 * TILE_BYTES, 1024 * TILE_BYTES);
+        TileTexture tile = loadTile(0);
+        cache.add(tile);
+        TextureData2dGL data = tile.getTextureData();
+        assertTrue(data.retainPixels());
+
+        for (int x = 1; x < 10; x++) {
+            cache.add(loadTile(x));
+        }
+
+        assertFalse("tile should have been evicted", cache.containsKey(tile.getIndex()));
+        assertNotNull("pixels should be kept while they are read", data.getPixels());
+        assertFalse("released pixels should not be handed to new readers", data.retainPixels());
+        data.releasePixels();
+        assertNull(data.getPixels());
+    }
+
+    private TileTexture loadTile(int x) {
+        TileIndex index = new TileIndex(x, 0, 0, 0, 1, TileIndex.IndexStyle.OCTREE, CoordinateAxis.Z);
+        TileTexture tile = new TileTexture(index, loadAdapter);
+        assertTrue(tile.loadImageToRam());
+        return tile;
+    }
+
+    private static class TileLoadAdapter extends AbstractTextureLoadAdapter {
+
+        TileLoadAdapter() {
+            super(new TileFormat());
+        }
+
+        @Override
+        public TextureData2d loadToRam(TileIndex tileIndex) {
+            BufferedImage image = new BufferedImage(TILE_SIZE, TILE_SIZE, BufferedImage.TYPE_USHORT_GRAY);
+            image.getRaster().setSample(tileIndex.getX() % TILE_SIZE, 0, 0, 1000);
+            TextureData2d tileData = new TextureData2d();
+            tileData.loadRenderedImage(image);
+            return tileData;
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package org.janelia.workstation.gui.large_volume_viewer.tracing;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.util.List;
+import java.util.Random;
+
+import org.janelia.it.jacs.model.TestCategories;
+import org.janelia.workstation.controller.tileimagery.Subvolume;
+import org.janelia.workstation.controller.tileimagery.raster.VoxelIndex;
+import org.janelia.workstation.octree.ZoomLevel;
+import org.janelia.workstation.octree.ZoomedVoxelIndex;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+public class TestIndexedAStar {
+
+    private static final ZoomLevel ZOOM_LEVEL = new ZoomLevel(0);
+    private static final int ORIGIN_X = 1000;
+    private static final int ORIGIN_Y = 2000;
+    private static final int ORIGIN_Z = 300;
+    private static final double[] VOXEL_SIZES = {1.0, 1.0, 2.0};
+
+    @Test
+    @Category(TestCategories.FastTests.class)
+    public void testSamePathAsAStar() {
+        Subvolume subvolume = createNeuriteVolume(60, 40, 30);
+        ZoomedVoxelIndex start = neuriteVoxel(2, 40, 30);
+        ZoomedVoxelIndex goal = neuriteVoxel(57, 40, 30);
+
+        AStar astar = new AStar(subvolume);
+        astar.setVoxelSizes(VOXEL_SIZES);
+        List<ZoomedVoxelIndex> expected = astar.trace(start, goal, 100.0);
+
+        IndexedAStar indexedAStar = new IndexedAStar(subvolume);
+        indexedAStar.setVoxelSizes(VOXEL_SIZES);
+        List<ZoomedVoxelIndex> path = indexedAStar.trace(start, goal, 100.0);
+
+        assertNotNull(expected);
+        assertEquals(expected, path);
+    }
+
+    @Test
+    @Category(TestCategories.FastTests.class)
+    public void testSamePathAsAStarNextToBrightBorder() {
+        int sizeX = 60, sizeY = 40, sizeZ = 30;
+        Subvolume subvolume = createNeuriteVolume(sizeX, sizeY, sizeZ);
+        // AStar never steps onto the last voxel along an axis, however bright
+        ShortBuffer shorts = subvolume.getByteBuffer().duplicate().order(ByteOrder.nativeOrder()).asShortBuffer();
+        for (int z = 0; z < sizeZ; z++) {
+            for (int y = 0; y < sizeY; y++) {
+                for (int x = 0; x < sizeX; x++) {
+                    if (x == sizeX - 1 || y == sizeY - 1 || z == sizeZ - 1) {
+                        shorts.put((z * sizeY + y) * sizeX + x, (short) 10000);
+                    }
+                }
+            }
+        }
+        ZoomedVoxelIndex start = new ZoomedVoxelIndex(ZOOM_LEVEL, ORIGIN_X + 2, ORIGIN_Y + 5, ORIGIN_Z + sizeZ - 2);
+        ZoomedVoxelIndex goal = new ZoomedVoxelIndex(ZOOM_LEVEL, ORIGIN_X + sizeX - 2, ORIGIN_Y + sizeY - 2, ORIGIN_Z + sizeZ - 2);
+
+        AStar astar = new AStar(subvolume);
+        List<ZoomedVoxelIndex> expected = astar.trace(start, goal, 100.0);
+
+        IndexedAStar indexedAStar = new IndexedAStar(subvolume);
+        List<ZoomedVoxelIndex> path = indexedAStar.trace(start, goal, 100.0);
+
+        assertNotNull(expected);
+        assertEquals(expected, path);
+    }
+
+    @Test
+    @Category(TestCategories.FastTests.class)
+    public void testBidirectionalPath() {
+        Subvolume subvolume = createNeuriteVolume(60, 40, 30);
+        ZoomedVoxelIndex start = neuriteVoxel(2, 40, 30);
+        ZoomedVoxelIndex goal = neuriteVoxel(57, 40, 30);
+
+        IndexedAStar indexedAStar = new IndexedAStar(subvolume);
+        indexedAStar.setVoxelSizes(VOXEL_SIZES);
+        indexedAStar.setBidirectional(true);
+        List<ZoomedVoxelIndex> path = indexedAStar.trace(start, goal, 100.0);
+        assertConnected(path, start, goal);
+
+        indexedAStar.setParallel(true);
+        List<ZoomedVoxelIndex> parallelPath = indexedAStar.trace(start, goal, 100.0);
+        assertEquals(path, parallelPath);
+    }
+
+    @Test
+    @Category(TestCategories.FastTests.class)
+    public void testStartIsGoal() {
+        Subvolume subvolume = createNeuriteVolume(10, 10, 10);
+        ZoomedVoxelIndex start = neuriteVoxel(5, 10, 10);
+        IndexedAStar indexedAStar = new IndexedAStar(subvolume);
+        indexedAStar.setBidirectional(true);
+        List<ZoomedVoxelIndex> path = indexedAStar.trace(start, start, 100.0);
+        assertEquals(1, path.size());
+        assertEquals(start, path.get(0));
+    }
+
+    /**
+     * Compares the time taken by both tracers on a long synthetic neurite, about as long as
+     * the one traced by TestAStar. Timing only, so it is not run with the fast tests.
+     */
+    @Test
+    @Category(TestCategories.PrototypeTests.class)
+    public void benchmarkTracePath() {
+        Subvolume subvolume = createNeuriteVolume(800, 40, 30);
+        ZoomedVoxelIndex v1 = neuriteVoxel(10, 40, 30);
+        ZoomedVoxelIndex v2 = neuriteVoxel(789, 40, 30);
+
+        for (int i = 0; i < 3; i++) {
+            long start = System.currentTimeMillis();
+            List<ZoomedVoxelIndex> expected = new AStar(subvolume).trace(v1, v2, 1000.0);
+            System.out.println("AStar: " + (System.currentTimeMillis() - start) + " ms");
+
+            for (boolean bidirectional : new boolean[]{false, true}) {
+                start = System.currentTimeMillis();
+                IndexedAStar indexedAStar = new IndexedAStar(subvolume);
+                indexedAStar.setBidirectional(bidirectional);
+                indexedAStar.setParallel(true);
+                List<ZoomedVoxelIndex> path = indexedAStar.trace(v1, v2, 1000.0);
+                System.out.println("IndexedAStar (bidirectional=" + bidirectional + "): "
+                        + (System.currentTimeMillis() - start) + " ms, "
+                        + indexedAStar.getExaminedVoxelCount() + " voxels examined");
+                assertConnected(path, v1, v2);
+                if (!bidirectional) {
+                    assertEquals(expected, path);
+                }
+            }
+        }
+    }
+
+    private static void assertConnected(List<ZoomedVoxelIndex> path, ZoomedVoxelIndex start, ZoomedVoxelIndex goal) {
+        assertNotNull(path);
+        assertEquals(start, path.get(0));
+        assertEquals(goal, path.get(path.size() - 1));
+        for (int i = 1; i < path.size(); i++) {
+            ZoomedVoxelIndex a = path.get(i - 1);
+            ZoomedVoxelIndex b = path.get(i);
+            int step = Math.max(Math.abs(a.getX() - b.getX()),
+                    Math.max(Math.abs(a.getY() - b.getY()), Math.abs(a.getZ() - b.getZ())));
+            assertEquals("Path must step to a neighboring voxel", 1, step);
+        }
+    }
+
+    /**
+     * Creates a noisy 16 bit volume with a bright, winding neurite running along x.
+     */
+    private static Subvolume createNeuriteVolume(int sizeX, int sizeY, int sizeZ) {
+        Random random = new Random(42);
+        ByteBuffer bytes = ByteBuffer.allocateDirect(sizeX * sizeY * sizeZ * 2).order(ByteOrder.nativeOrder());
+        ShortBuffer shorts = bytes.asShortBuffer();
+        for (int z = 0; z < sizeZ; z++) {
+            for (int y = 0; y < sizeY; y++) {
+                for (int x = 0; x < sizeX; x++) {
+                    int intensity = 100 + random.nextInt(50);
+                    if (Math.abs(y - neuriteY(x, sizeY)) < 2 && Math.abs(z - neuriteZ(x, sizeZ)) < 2) {
+                        intensity = 2000 + random.nextInt(500);
+                    }
+                    shorts.put((z * sizeY + y) * sizeX + x, (short) intensity);
+                }
+            }
+        }
+        return new Subvolume(new ZoomedVoxelIndex(ZOOM_LEVEL, ORIGIN_X, ORIGIN_Y, ORIGIN_Z),
+                new VoxelIndex(sizeX, sizeY, sizeZ), bytes, 2, 1);
+    }
+
+    private static ZoomedVoxelIndex neuriteVoxel(int x, int sizeY, int sizeZ) {
+        return new ZoomedVoxelIndex(ZOOM_LEVEL,
+                ORIGIN_X + x,
+                ORIGIN_Y + (int) Math.round(neuriteY(x, sizeY)),
+                ORIGIN_Z + (int) Math.round(neuriteZ(x, sizeZ)));
+    }
+
+    private static double neuriteY(int x, int sizeY) {
+        return sizeY / 2 + (sizeY / 4) * Math.sin(x * 0.1);
+    }
+
+    private static double neuriteZ(int x, int sizeZ) {
+        return sizeZ / 2 + (sizeZ / 4) * Math.cos(x * 0.07);
+    }
+}
@@ -4,17 +4,32 @@ import static org.junit.Assert.*;
 
 import java.io.File;
 import java.net.MalformedURLException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.util.HashMap;
+import java.util.Map;
 
+import org.janelia.workstation.geom.CoordinateAxis;
 import org.janelia.workstation.octree.ZoomLevel;
 import org.janelia.workstation.octree.ZoomedVoxelIndex;
+import org.janelia.workstation.controller.tileimagery.AbstractTextureLoadAdapter;
 import org.janelia.workstation.controller.tileimagery.SharedVolumeImage;
 import org.janelia.workstation.controller.tileimagery.Subvolume;
+import org.janelia.workstation.controller.tileimagery.TextureData2d;
+import org.janelia.workstation.controller.tileimagery.TileFormat;
+import org.janelia.workstation.controller.tileimagery.TileIndex;
 import org.janelia.it.jacs.model.TestCategories;
 import org.junit.Test;
 import org.junit.experimental.categories.Category;
 
 public class TestExtractSubvolume {
 
+    private static final ZoomLevel ZOOM_LEVEL = new ZoomLevel(0);
+    private static final int CHANNEL_COUNT = 2;
+    private static final int TILE_SIZE = 256;
+    private static final short PADDING = (short) 0xffff;
+
     @Test
     @Category(TestCategories.PrototypeTests.class) // mark this as prototype until octree folder can be properly setup
     public void testExtractUpperRightBackValue() {
@@ -44,4 +59,136 @@ public class TestExtractSubvolume {
         assertEquals(25903, subvolume.getIntensityGlobal(v2, 0));
     }
 
+    /**
+     * Extracts a block spanning several tiles in x, y and z from a synthetic 16 bit, two channel
+     * volume, whose last column of tiles is narrower than the others and padded, and compares
+     * every voxel with a copy made one voxel at a time from the same tiles.
+     */
+    @Test
+    @Category(TestCategories.FastTests.class)
+    public void testExtractMultiTileMultiChannel() {
+        SyntheticLoadAdapter loadAdapter = new SyntheticLoadAdapter(1000, 768, 8);
+        ZoomedVoxelIndex corner1 = new ZoomedVoxelIndex(ZOOM_LEVEL, 900, 100, 6);
+        ZoomedVoxelIndex corner2 = new ZoomedVoxelIndex(ZOOM_LEVEL, 200, 600, 2);
+
+        Subvolume subvolume = new Subvolume(corner1, corner2, loadAdapter);
+
+        assertEquals(CHANNEL_COUNT, subvolume.getChannelCount());
+        assertEquals(2, subvolume.getBytesPerIntensity());
+        assertEquals(701, subvolume.getExtent().getX());
+        assertEquals(501, subvolume.getExtent().getY());
+        assertEquals(5, subvolume.getExtent().getZ());
+        for (int z = 2; z <= 6; z++) {
+            for (int y = 100; y <= 600; y++) {
+                for (int x = 200; x <= 900; x++) {
+                    for (int c = 0; c < CHANNEL_COUNT; c++) {
+                        int expected = loadAdapter.getIntensityFromTile(x, y, z, c);
+                        int actual = subvolume.getIntensityGlobal(x, y, z, c);
+                        if (expected != actual) {
+                            fail("Voxel " + x + "," + y + "," + z + " channel " + c + ": expected " + expected + " but was " + actual);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Times the extraction of a block spanning many tiles in x, y and z of a synthetic volume.
+     * Timing only, so it is not run with the fast tests.
+     */
+    @Test
+    @Category(TestCategories.PrototypeTests.class)
+    public void benchmarkLargeExtraction() {
+        SyntheticLoadAdapter loadAdapter = new SyntheticLoadAdapter(2048, 2048, 64);
+        ZoomedVoxelIndex v1 = new ZoomedVoxelIndex(ZOOM_LEVEL, 0, 0, 0);
+        ZoomedVoxelIndex v2 = new ZoomedVoxelIndex(ZOOM_LEVEL, 2047, 1023, 15);
+        for (int i = 0; i < 3; i++) {
+            long start = System.currentTimeMillis();
+            Subvolume subvolume = new Subvolume(v1, v2, loadAdapter);
+            long elapsed = System.currentTimeMillis() - start;
+            System.out.println("Extracted " + subvolume.getByteBuffer().capacity() / (1024 * 1024) + " MB in " + elapsed + " ms");
+            assertEquals(2048, subvolume.getExtent().getX());
+            assertEquals(16, subvolume.getExtent().getZ());
+        }
+    }
+
+    /**
+     * Serves tiles of a volume whose intensities are a function of the voxel position and channel.
+     * Tiles are laid out like those of the rendered octrees, with y flipped and the channel
+     * moving fastest, and the right hand tiles are padded to a multiple of 8 voxels.
+     */
+    private static class SyntheticLoadAdapter extends AbstractTextureLoadAdapter {
+
+        // Tiles read by getIntensityFromTile, kept apart from those handed to the subvolume
+        private final Map<TileIndex, TextureData2d> referenceTiles = new HashMap<>();
+
+        SyntheticLoadAdapter(int sizeX, int sizeY, int sizeZ) {
+            super(createTileFormat(sizeX, sizeY, sizeZ));
+        }
+
+        private static TileFormat createTileFormat(int sizeX, int sizeY, int sizeZ) {
+            TileFormat tileFormat = new TileFormat();
+            tileFormat.setDefaultParameters();
+            tileFormat.setVolumeSize(new int[] {sizeX, sizeY, sizeZ});
+            tileFormat.setTileSize(new int[] {TILE_SIZE, TILE_SIZE, 1});
+            tileFormat.setZoomLevelCount(1);
+            tileFormat.setBitDepth(16);
+            tileFormat.setChannelCount(CHANNEL_COUNT);
+            return tileFormat;
+        }
+
+        @Override
+        public TextureData2d loadToRam(TileIndex tileIndex) {
+            ZoomedVoxelIndex tileOrigin = getTileOrigin(tileIndex.getX(), tileIndex.getY(), tileIndex.getZ());
+            int usedWidth = getUsedWidth(tileOrigin);
+            int width = (usedWidth + 7) / 8 * 8;
+            ByteBuffer pixels = ByteBuffer.allocateDirect(width * TILE_SIZE * CHANNEL_COUNT * 2).order(ByteOrder.nativeOrder());
+            ShortBuffer shorts = pixels.asShortBuffer();
+            for (int y = 0; y < TILE_SIZE; y++) {
+                for (int x = 0; x < width; x++) {
+                    for (int c = 0; c < CHANNEL_COUNT; c++) {
+                        shorts.put(x < usedWidth
+                                ? intensity(tileOrigin.getX() + x, tileOrigin.getY() + y, tileOrigin.getZ(), c)
+                                : PADDING);
+                    }
+                }
+            }
+            TextureData2d tileData = new TextureData2d();
+            tileData.setBitDepth(16);
+            tileData.setChannelCount(CHANNEL_COUNT);
+            tileData.setHeight(TILE_SIZE);
+            tileData.setWidth(width);
+            tileData.setUsedWidth(usedWidth);
+            tileData.setPixels(pixels);
+            return tileData;
+        }
+
+        /**
+         * Reads a voxel from the tile which holds it, as the subvolume used to copy them.
+         */
+        int getIntensityFromTile(int x, int y, int z, int c) {
+            int tileX = x / TILE_SIZE;
+            int tileY = (getTileFormat().getVolumeSize()[1] - 1 - y) / TILE_SIZE;
+            TextureData2d tileData = referenceTiles.computeIfAbsent(new TileIndex(tileX, tileY, z, 0, 0,
+                    getTileFormat().getIndexStyle(), CoordinateAxis.Z), this::loadToRam);
+            ZoomedVoxelIndex tileOrigin = getTileOrigin(tileX, tileY, z);
+            int index = ((y - tileOrigin.getY()) * tileData.getWidth() + (x - tileOrigin.getX())) * CHANNEL_COUNT + c;
+            return tileData.getPixels().asShortBuffer().get(index) & 0xffff;
+        }
+
+        private ZoomedVoxelIndex getTileOrigin(int tileX, int tileY, int tileZ) {
+            return getTileFormat().zoomedVoxelIndexForTileXyz(
+                    new TileFormat.TileXyz(tileX, tileY, tileZ), ZOOM_LEVEL, CoordinateAxis.Z);
+        }
+
+        private int getUsedWidth(ZoomedVoxelIndex tileOrigin) {
+            return Math.min(TILE_SIZE, getTileFormat().getVolumeSize()[0] - tileOrigin.getX());
+        }
+
+        private static short intensity(int x, int y, int z, int c) {
+            // spans the whole unsigned range, so sign handling is checked as well
+            return (short) (x * 31 + y * 17 + z * 1009 + c * 40000);
+        }
+    }
 }
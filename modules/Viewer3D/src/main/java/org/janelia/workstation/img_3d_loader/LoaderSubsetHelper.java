@@ -47,7 +47,6 @@ public class LoaderSubsetHelper {
     
     private byte[] textureByteArray;
     private int[] argbTextureIntArray;
-    private int[] tempIntBuffer;
     
     private int pixelBytes;
 
@@ -148,6 +147,16 @@ public class LoaderSubsetHelper {
     public int getStartingZ() {
         return boundingBox[START_Z_INX];
     }
+
+    /** What is the first applicable column of each plane? */
+    public int getStartingX() {
+        return boundingBox[START_X_INX];
+    }
+
+    /** What is the first applicable row of each plane? */
+    public int getStartingY() {
+        return boundingBox[START_Y_INX];
+    }
     
     /**
      * @return the textureByteArray
@@ -300,6 +309,8 @@ public class LoaderSubsetHelper {
      * @param destZ where in the output buffer to place this "sheet".
      * @param destSheetSize size of sheet: dest X * dest Y
      * @param zSlice a buffered image from which to extract a partial sheet.
+     *
+     * Different sheets may be stored concurrently.
      */
     public void storeSubsetToBuffer(int destZ, int destSheetSize, BufferedImage zSlice) {
         DataMover dataMover;
@@ -314,9 +325,8 @@ public class LoaderSubsetHelper {
             dataMover = new ShortDataMover( pixels );
         }
         else if ( getPixelBytes() == 4 ) {            
-            if ( tempIntBuffer == null ) {
-                tempIntBuffer = new int[ getSourceWidth() * getSourceHeight() ];
-            }
+            // Per call, since slices may be stored from several threads.
+            int[] tempIntBuffer = new int[ getSourceWidth() * getSourceHeight() ];
             zSlice.getRGB(0, 0, getSx(), getSy(),
                     tempIntBuffer, 0, getSx());
             dataMover = new IntDataMover( tempIntBuffer );
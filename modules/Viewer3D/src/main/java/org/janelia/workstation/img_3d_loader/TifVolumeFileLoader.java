@@ -23,6 +23,10 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.log4j.Logger;
 import org.janelia.workstation.img_3d_loader.AbstractVolumeFileLoader;
@@ -40,6 +44,7 @@ public class TifVolumeFileLoader extends AbstractVolumeFileLoader {
     
     private static final Logger logger = Logger.getLogger(TifVolumeFileLoader.class);
     public static final int LOAD_SIZE = 8 * 1024 * 1024;
+    private static final int MAX_LOAD_THREADS = 8;
 
     /**
      * Sets maximum size in all dimensions, to add to outgoing image.
@@ -65,6 +70,148 @@ public class TifVolumeFileLoader extends AbstractVolumeFileLoader {
         setUnCachedFileName(fileName);
         
         final File file = new File(fileName);
+        TiffStripReader stripReader;
+        try {
+            stripReader = new TiffStripReader( file );
+        } catch ( IOException e ) {
+            logger.info("Cannot read the layout of " + fileName + ", decoding the whole stack: " + e.getMessage());
+            loadAllSlices( file );
+            return;
+        }
+        try {
+            loadSlices( file, stripReader );
+        } finally {
+            stripReader.close();
+        }
+    }
+
+    /**
+     * Fills the texture arrays slice by slice, without holding any more of
+     * the stack than the slices being decoded. Uncompressed stacks are copied
+     * straight from the file, others are decoded a slice at a time; either
+     * way, slices are loaded in parallel and only the requested subset of
+     * each slice is read out.
+     */
+    private void loadSlices( final File file, final TiffStripReader stripReader ) throws Exception {
+        sheetCountFromFile = stripReader.getPageCount();
+        final int width = stripReader.getWidth(0);
+        final int height = stripReader.getHeight(0);
+        final int sheetSize;
+        final int startZ;
+        final int startX;
+        final int startY;
+        if ( subsetHelper != null ) {
+            subsetHelper.setSourceDepth( sheetCountFromFile );
+            subsetHelper.calculateBoundingZ( sheetCountFromFile );
+            subsetHelper.setSourceWidth( width );
+            subsetHelper.setSourceHeight( height );
+            subsetHelper.calculateBoundingBox( sheetCountFromFile );
+
+            // Apply volume characteristics 'learned' from subset helper.
+            setSx(subsetHelper.getSx());
+            setSy(subsetHelper.getSy());
+            setSz(subsetHelper.getSz());
+
+            sheetSize = subsetHelper.initializeStorage(file.length());
+            setPixelBytes( subsetHelper.getPixelBytes() );
+            setArgbTextureIntArray(subsetHelper.getArgbTextureIntArray());
+            setTextureByteArray(subsetHelper.getTextureByteArray());
+            startZ = subsetHelper.getStartingZ();
+            startX = subsetHelper.getStartingX();
+            startY = subsetHelper.getStartingY();
+        }
+        else {
+            setSx( width );
+            setSy( height );
+            setSz( sheetCountFromFile );
+            sheetSize = initializeStorage(file.length());
+            startZ = 0;
+            startX = 0;
+            startY = 0;
+        }
+
+        for ( int z = startZ; z < startZ + getSz(); z++ ) {
+            if ( stripReader.getWidth(z) != width  ||  stripReader.getHeight(z) != height ) {
+                throw new IllegalStateException( "Image number " + z +
+                        " with HEIGHT=" + stripReader.getHeight(z) + " and WIDTH=" +
+                        stripReader.getWidth(z) + " has dimensions which do not match previous width * height of " + width + " * " + height );
+            }
+        }
+
+        final boolean direct = stripReader.isDirectlyReadable()  &&  getPixelBytes() == stripReader.getBytesPerSample();
+        final int threadCount = Math.max( 1, Math.min( MAX_LOAD_THREADS, Math.min( getSz(), Runtime.getRuntime().availableProcessors() ) ) );
+        logger.debug("Loading " + getSz() + " slices of " + file + (direct ? " directly" : " by decoding") + " with " + threadCount + " threads.");
+        ExecutorService executor = Executors.newFixedThreadPool( threadCount, runnable -> {
+            Thread thread = new Thread( runnable, "TifSliceLoader" );
+            thread.setDaemon( true );
+            return thread;
+        });
+        try {
+            List<Future<?>> loads = new ArrayList<>();
+            if ( direct ) {
+                for ( int targetZ = 0; targetZ < getSz(); targetZ++ ) {
+                    final int z = targetZ;
+                    loads.add( executor.submit( () -> {
+                        stripReader.copyRegion( startZ + z, startX, startY, getSx(), getSy(),
+                                getTextureByteArray(), z * sheetSize * getPixelBytes() );
+                        return null;
+                    }));
+                }
+            }
+            else {
+                // Decoders are not thread safe, so each thread decodes a run of slices with its own.
+                final int slicesPerThread = (getSz() + threadCount - 1) / threadCount;
+                for ( int firstZ = 0; firstZ < getSz(); firstZ += slicesPerThread ) {
+                    final int fromZ = firstZ;
+                    final int toZ = Math.min( getSz(), firstZ + slicesPerThread );
+                    loads.add( executor.submit( () -> {
+                        decodeSlices( file, startZ, fromZ, toZ, sheetSize, width, height );
+                        return null;
+                    }));
+                }
+            }
+            for ( Future<?> load: loads ) {
+                try {
+                    load.get();
+                } catch ( ExecutionException e ) {
+                    if ( e.getCause() instanceof Exception ) {
+                        throw (Exception)e.getCause();
+                    }
+                    throw e;
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void decodeSlices( File file, int startZ, int fromZ, int toZ, int sheetSize, int width, int height ) throws IOException {
+        try (SeekableStream s = new FileSeekableStream(file)) {
+            ImageDecoder dec = ImageCodec.createImageDecoder("tiff", s, null);
+            for ( int targetZ = fromZ; targetZ < toZ; targetZ++ ) {
+                BufferedImage zSlice = renderedToBuffered(
+                        new NullOpImage(dec.decodeAsRenderedImage(startZ + targetZ), null, OpImage.OP_IO_BOUND, null));
+                if ( zSlice.getWidth() != width  ||  zSlice.getHeight() != height ) {
+                    throw new IllegalStateException( "Image number " + (startZ + targetZ) +
+                            " with HEIGHT=" + zSlice.getHeight() + " and WIDTH=" +
+                            zSlice.getWidth() + " has dimensions which do not match previous width * height of " + width + " * " + height );
+                }
+                if ( subsetHelper == null ) {
+                    storeToBuffer(targetZ, sheetSize, zSlice);
+                }
+                else {
+                    subsetHelper.storeSubsetToBuffer(targetZ, sheetSize, zSlice);
+                }
+            }
+        }
+    }
+
+    /**
+     * Decodes the whole stack before storing it, for files whose layout
+     * cannot be read up front.
+     */
+    private void loadAllSlices( final File file ) throws Exception {
+        String fileName = file.getPath();
         logger.debug("Loading the subset of images.");
         Collection<BufferedImage> allImages = loadTIFF( file );
         if ( allImages == null ) {
@@ -0,0 +1,369 @@
+package org.janelia.workstation.img_3d_loader;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Reads the layout of the pages of a multi-page TIFF file, and copies rows of
+ * uncompressed pages straight out of a memory mapping of the file, without
+ * decoding the pages into images first.
+ *
+ * Only stacks of uncompressed, single channel, 8 or 16 bit pages stored in
+ * strips can be copied this way, see isDirectlyReadable(); the dimensions of
+ * the pages are available for any classic (not Big) TIFF file.
+ *
+ * Copies of different pages may run concurrently.
+ */
+class TiffStripReader implements Closeable {
+
+    private static final int TAG_IMAGE_WIDTH = 256;
+    private static final int TAG_IMAGE_LENGTH = 257;
+    private static final int TAG_BITS_PER_SAMPLE = 258;
+    private static final int TAG_COMPRESSION = 259;
+    private static final int TAG_STRIP_OFFSETS = 273;
+    private static final int TAG_SAMPLES_PER_PIXEL = 277;
+    private static final int TAG_ROWS_PER_STRIP = 278;
+    private static final int TAG_STRIP_BYTE_COUNTS = 279;
+    private static final int TAG_TILE_WIDTH = 322;
+    private static final int TAG_SAMPLE_FORMAT = 339;
+
+    private static final int TYPE_BYTE = 1;
+    private static final int TYPE_SHORT = 3;
+    private static final int TYPE_LONG = 4;
+
+    private static final int COMPRESSION_NONE = 1;
+    private static final int SAMPLE_FORMAT_UNSIGNED = 1;
+
+    private static class Page {
+        private int width;
+        private int height;
+        private int bitsPerSample = 1;
+        private int samplesPerPixel = 1;
+        private int compression = COMPRESSION_NONE;
+        private int sampleFormat = SAMPLE_FORMAT_UNSIGNED;
+        private boolean tiled;
+        private long rowsPerStrip = Integer.MAX_VALUE;
+        private long[] stripOffsets;
+        private long[] stripByteCounts;
+        // when the strips follow each other in order, only where the first one starts
+        private long dataOffset = -1;
+
+        private long getRowBytes() {
+            return (long) width * samplesPerPixel * (bitsPerSample / 8);
+        }
+
+        private long getRowOffset(int y) {
+            if (dataOffset >= 0) {
+                return dataOffset + y * getRowBytes();
+            }
+            int strip = (int) (y / rowsPerStrip);
+            return stripOffsets[strip] + (y % rowsPerStrip) * getRowBytes();
+        }
+    }
+
+    private final FileChannel channel;
+    private final long fileSize;
+    private final List<Page> pages = new ArrayList<>();
+    private ByteOrder byteOrder;
+
+    /**
+     * Reads the directories of all pages of the file.
+     *
+     * @throws IOException if the file cannot be read, or is not a classic TIFF file.
+     */
+    TiffStripReader(File file) throws IOException {
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            fileSize = channel.size();
+            readDirectories();
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    int getPageCount() {
+        return pages.size();
+    }
+
+    int getWidth(int page) {
+        return pages.get(page).width;
+    }
+
+    int getHeight(int page) {
+        return pages.get(page).height;
+    }
+
+    /**
+     * @return bytes per voxel of the first page, for the directly readable
+     * single channel stacks this reader can copy.
+     */
+    int getBytesPerSample() {
+        return pages.get(0).bitsPerSample / 8;
+    }
+
+    /**
+     * @return true if all pages are uncompressed strips of unsigned 8 or 16
+     * bit single channel samples, all alike, which lie within the file.
+     */
+    boolean isDirectlyReadable() {
+        Page first = pages.get(0);
+        for (Page page : pages) {
+            if (page.compression != COMPRESSION_NONE || page.tiled || page.samplesPerPixel != 1
+                    || page.sampleFormat != SAMPLE_FORMAT_UNSIGNED
+                    || (page.bitsPerSample != 8 && page.bitsPerSample != 16)
+                    || page.bitsPerSample != first.bitsPerSample
+                    || page.width != first.width || page.height != first.height
+                    || !hasAllRows(page)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Copies a rectangle of a directly readable page into the target array,
+     * rows one after the other, 16 bit samples low byte first.
+     *
+     * @param pageNumber which page.
+     * @param x0 first column of the rectangle.
+     * @param y0 first row of the rectangle.
+     * @param width columns in the rectangle.
+     * @param height rows in the rectangle.
+     * @param target where to copy to.
+     * @param targetOffset where the rectangle starts in the target.
+     */
+    void copyRegion(int pageNumber, int x0, int y0, int width, int height, byte[] target, int targetOffset)
+            throws IOException {
+        if (height == 0) {
+            return;
+        }
+        Page page = pages.get(pageNumber);
+        int bytesPerSample = page.bitsPerSample / 8;
+        int rowBytes = width * bytesPerSample;
+        long windowStart = Long.MAX_VALUE;
+        long windowEnd = 0;
+        for (int y = y0; y < y0 + height; y++) {
+            long rowOffset = page.getRowOffset(y);
+            windowStart = Math.min(windowStart, rowOffset);
+            windowEnd = Math.max(windowEnd, rowOffset + page.getRowBytes());
+        }
+        if (windowEnd - windowStart > Integer.MAX_VALUE) {
+            throw new IOException("Page " + pageNumber + " is too large to map");
+        }
+        MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, windowEnd - windowStart);
+        boolean swap = bytesPerSample == 2 && byteOrder == ByteOrder.BIG_ENDIAN;
+        int destOffset = targetOffset;
+        for (int y = y0; y < y0 + height; y++) {
+            int sourceOffset = (int) (page.getRowOffset(y) - windowStart) + x0 * bytesPerSample;
+            if (swap) {
+                for (int i = 0; i < rowBytes; i += 2) {
+                    target[destOffset + i] = window.get(sourceOffset + i + 1);
+                    target[destOffset + i + 1] = window.get(sourceOffset + i);
+                }
+            }
+            else {
+                window.position(sourceOffset);
+                window.get(target, destOffset, rowBytes);
+            }
+            destOffset += rowBytes;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private boolean hasAllRows(Page page) {
+        if (page.dataOffset >= 0) {
+            return page.dataOffset + page.height * page.getRowBytes() <= fileSize;
+        }
+        if (page.stripOffsets == null || page.stripByteCounts == null
+                || page.stripOffsets.length != page.stripByteCounts.length
+                || page.stripOffsets.length * page.rowsPerStrip < page.height) {
+            return false;
+        }
+        for (int strip = 0; strip < page.stripOffsets.length; strip++) {
+            long rows = Math.min(page.rowsPerStrip, page.height - strip * page.rowsPerStrip);
+            if (rows > 0 && (page.stripByteCounts[strip] < rows * page.getRowBytes()
+                    || page.stripOffsets[strip] + rows * page.getRowBytes() > fileSize)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void readDirectories() throws IOException {
+        ByteBuffer header = read(0, 8);
+        if (header.get(0) == 'I' && header.get(1) == 'I') {
+            byteOrder = ByteOrder.LITTLE_ENDIAN;
+        }
+        else if (header.get(0) == 'M' && header.get(1) == 'M') {
+            byteOrder = ByteOrder.BIG_ENDIAN;
+        }
+        else {
+            throw new IOException("Not a TIFF file");
+        }
+        header.order(byteOrder);
+        int version = header.getShort(2) & 0xffff;
+        if (version != 42) {
+            throw new IOException("Unsupported TIFF version " + version);
+        }
+        Set<Long> visited = new HashSet<>();
+        long directoryOffset = header.getInt(4) & 0xffffffffL;
+        while (directoryOffset != 0) {
+            if (!visited.add(directoryOffset)) {
+                throw new IOException("Directory at " + directoryOffset + " is listed twice");
+            }
+            int entryCount = read(directoryOffset, 2).getShort(0) & 0xffff;
+            ByteBuffer entries = read(directoryOffset + 2, entryCount * 12 + 4);
+            pages.add(readPage(entries, entryCount));
+            directoryOffset = entries.getInt(entryCount * 12) & 0xffffffffL;
+        }
+        if (pages.isEmpty()) {
+            throw new IOException("No pages in TIFF file");
+        }
+    }
+
+    private Page readPage(ByteBuffer entries, int entryCount) throws IOException {
+        Page page = new Page();
+        for (int i = 0; i < entryCount; i++) {
+            int entry = i * 12;
+            int tag = entries.getShort(entry) & 0xffff;
+            switch (tag) {
+                case TAG_IMAGE_WIDTH:
+                    page.width = (int) readValues(entries, entry)[0];
+                    break;
+                case TAG_IMAGE_LENGTH:
+                    page.height = (int) readValues(entries, entry)[0];
+                    break;
+                case TAG_BITS_PER_SAMPLE:
+                    page.bitsPerSample = (int) readValues(entries, entry)[0];
+                    break;
+                case TAG_COMPRESSION:
+                    page.compression = (int) readValues(entries, entry)[0];
+                    break;
+                case TAG_SAMPLES_PER_PIXEL:
+                    page.samplesPerPixel = (int) readValues(entries, entry)[0];
+                    break;
+                case TAG_ROWS_PER_STRIP:
+                    page.rowsPerStrip = readValues(entries, entry)[0];
+                    break;
+                case TAG_SAMPLE_FORMAT:
+                    page.sampleFormat = (int) readValues(entries, entry)[0];
+                    break;
+                case TAG_STRIP_OFFSETS:
+                    page.stripOffsets = readValues(entries, entry);
+                    break;
+                case TAG_STRIP_BYTE_COUNTS:
+                    page.stripByteCounts = readValues(entries, entry);
+                    break;
+                case TAG_TILE_WIDTH:
+                    page.tiled = true;
+                    break;
+                default:
+                    break;
+            }
+        }
+        if (page.width <= 0 || page.height <= 0) {
+            throw new IOException("Page without dimensions");
+        }
+        page.rowsPerStrip = Math.max(1, Math.min(page.rowsPerStrip, page.height));
+        compactStrips(page);
+        return page;
+    }
+
+    /**
+     * Drops the strip arrays of a page whose strips lie one after the other,
+     * which is how stacks are usually written; a stack with a strip per row
+     * would otherwise hold a few longs per row of every page.
+     */
+    private void compactStrips(Page page) {
+        if (page.stripOffsets == null || page.stripByteCounts == null
+                || page.stripOffsets.length != page.stripByteCounts.length || page.stripOffsets.length == 0) {
+            return;
+        }
+        long stripBytes = page.rowsPerStrip * page.getRowBytes();
+        for (int strip = 0; strip < page.stripOffsets.length; strip++) {
+            long rows = Math.min(page.rowsPerStrip, page.height - strip * page.rowsPerStrip);
+            if (page.stripOffsets[strip] != page.stripOffsets[0] + strip * stripBytes
+                    || page.stripByteCounts[strip] < rows * page.getRowBytes()) {
+                return;
+            }
+        }
+        page.dataOffset = page.stripOffsets[0];
+        page.stripOffsets = null;
+        page.stripByteCounts = null;
+    }
+
+    private long[] readValues(ByteBuffer entries, int entry) throws IOException {
+        int type = entries.getShort(entry + 2) & 0xffff;
+        long count = entries.getInt(entry + 4) & 0xffffffffL;
+        int size;
+        switch (type) {
+            case TYPE_BYTE:
+                size = 1;
+                break;
+            case TYPE_SHORT:
+                size = 2;
+                break;
+            case TYPE_LONG:
+                size = 4;
+                break;
+            default:
+                throw new IOException("Unsupported type " + type + " of tag " + (entries.getShort(entry) & 0xffff));
+        }
+        if (count == 0 || count * size > Integer.MAX_VALUE) {
+            throw new IOException("Unsupported number of values " + count);
+        }
+        ByteBuffer values;
+        int position;
+        if (count * size <= 4) {
+            values = entries;
+            position = entry + 8;
+        }
+        else {
+            values = read(entries.getInt(entry + 8) & 0xffffffffL, (int) (count * size));
+            position = 0;
+        }
+        long[] result = new long[(int) count];
+        for (int i = 0; i < result.length; i++) {
+            switch (size) {
+                case 1:
+                    result[i] = values.get(position + i) & 0xff;
+                    break;
+                case 2:
+                    result[i] = values.getShort(position + i * 2) & 0xffff;
+                    break;
+                default:
+                    result[i] = values.getInt(position + i * 4) & 0xffffffffL;
+                    break;
+            }
+        }
+        return result;
+    }
+
+    private ByteBuffer read(long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("TIFF file ends within its directories");
+            }
+        }
+        buffer.order(byteOrder == null ? ByteOrder.LITTLE_ENDIAN : byteOrder);
+        return buffer;
+    }
+
+}
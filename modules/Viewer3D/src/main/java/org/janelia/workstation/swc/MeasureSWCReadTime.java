@@ -0,0 +1,143 @@
+package org.janelia.workstation.swc;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * benchmark for reading large SWC corpora: compares the SWCNode list reader
+ * (plus the boxed parent/annotation maps the import used to build from it)
+ * with the columnar reader, one file at a time and several files in parallel
+ *
+ * usage: MeasureSWCReadTime [directory of .swc files]
+ *
+ * without a directory, a synthetic corpus is written to a temp directory;
+ * run with a fixed -Xmx to compare peak memory as well as time
+ */
+public class MeasureSWCReadTime {
+
+    private static final int SYNTHETIC_FILES = 8;
+    private static final int SYNTHETIC_NODES = 1_000_000;
+    private static final int REPEATS = 3;
+
+    public static void main(String[] args) throws Exception {
+        List<File> swcFiles;
+        if (args.length > 0) {
+            try (Stream<Path> walker = Files.walk(new File(args[0]).toPath())) {
+                swcFiles = walker.filter(Files::isRegularFile)
+                        .filter(p -> p.toString().endsWith(SWCData.STD_SWC_EXTENSION))
+                        .map(Path::toFile)
+                        .collect(Collectors.toList());
+            }
+        } else {
+            swcFiles = writeSyntheticCorpus();
+        }
+        long totalBytes = swcFiles.stream().mapToLong(File::length).sum();
+        System.out.printf("%d files, %.1f MB%n", swcFiles.size(), totalBytes / 1e6);
+
+        int threads = Runtime.getRuntime().availableProcessors();
+        for (int i = 0; i < REPEATS; i++) {
+            measure("node list, sequential", swcFiles, 1, MeasureSWCReadTime::readNodeList);
+            measure("columns, sequential", swcFiles, 1, MeasureSWCReadTime::readColumns);
+            measure("columns, " + threads + " threads", swcFiles, threads, MeasureSWCReadTime::readColumns);
+        }
+    }
+
+    private interface Reader {
+        int read(File swcFile) throws Exception;
+    }
+
+    private static void measure(String name, List<File> swcFiles, int threads, Reader reader) throws Exception {
+        System.gc();
+        Runtime runtime = Runtime.getRuntime();
+        long usedBefore = runtime.totalMemory() - runtime.freeMemory();
+        long start = System.nanoTime();
+        long nodes = 0;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Integer>> reads = new ArrayList<>();
+            for (File swcFile : swcFiles) {
+                reads.add(executor.submit(() -> reader.read(swcFile)));
+            }
+            for (Future<Integer> read : reads) {
+                nodes += read.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        long usedAfter = runtime.totalMemory() - runtime.freeMemory();
+        System.out.printf("%-28s %8.2f s %10.0f nodes/s  heap growth %6.0f MB%n",
+                name, seconds, nodes / seconds, (usedAfter - usedBefore) / 1e6);
+    }
+
+    private static int readNodeList(File swcFile) throws IOException {
+        SWCData swcData = SWCData.read(swcFile);
+        if (!swcData.isValid()) {
+            throw new IllegalStateException(swcData.getInvalidReason());
+        }
+        // what the import built for each node before it read columns
+        Map<Integer, Integer> nodeParentLinkage = new HashMap<>();
+        Map<Integer, double[]> locations = new HashMap<>();
+        for (SWCNode node : swcData.getNodeList()) {
+            nodeParentLinkage.put(node.getIndex(), node.getParentIndex());
+            locations.put(node.getIndex(), new double[] {node.getX(), node.getY(), node.getZ()});
+        }
+        return nodeParentLinkage.size();
+    }
+
+    private static int readColumns(File swcFile) throws IOException {
+        SWCData swcData = SWCData.readColumns(swcFile);
+        if (!swcData.isValid()) {
+            throw new IllegalStateException(swcData.getInvalidReason());
+        }
+        return swcData.getNodeColumns().size();
+    }
+
+    /**
+     * random walk neurons, branching now and then, written in the usual export format
+     */
+    private static List<File> writeSyntheticCorpus() throws IOException {
+        File dir = Files.createTempDirectory("swc-benchmark").toFile();
+        dir.deleteOnExit();
+        Random random = new Random(42);
+        List<File> swcFiles = new ArrayList<>();
+        for (int f = 0; f < SYNTHETIC_FILES; f++) {
+            File swcFile = new File(dir, "neuron-" + f + SWCData.STD_SWC_EXTENSION);
+            swcFile.deleteOnExit();
+            try (BufferedWriter writer = Files.newBufferedWriter(swcFile.toPath(), Charset.defaultCharset())) {
+                writer.write("# NAME neuron-" + f);
+                writer.newLine();
+                writer.write("# COLOR 1.0 0.5 0.0");
+                writer.newLine();
+                double x = 70000, y = 40000, z = 20000;
+                int parent = -1;
+                for (int index = 1; index <= SYNTHETIC_NODES; index++) {
+                    x += random.nextGaussian();
+                    y += random.nextGaussian();
+                    z += random.nextGaussian();
+                    writer.write(String.format("%d %d %f %f %f %f %d", index, 0, x, y, z, 1.0, parent));
+                    writer.newLine();
+                    // mostly continue the branch, sometimes fork from an earlier node
+                    parent = random.nextInt(50) == 0 ? 1 + random.nextInt(index) : index;
+                }
+            }
+            swcFiles.add(swcFile);
+        }
+        return swcFiles;
+    }
+
+}
@@ -55,12 +55,15 @@ public class SWCData {
 
     private List<SWCNode> nodeList = new ArrayList<>();
     private List<String> headerList = new ArrayList<>();
+    // set when read with readColumns(); the node list is then only built on demand (see getNodeList())
+    private SWCNodeColumns nodeColumns = null;
 
     // neuron center is also encoded in the header list, but
     //  some routines want it in original form
     private double[] neuronCenter = {0.0, 0.0, 0.0};
 
     private String invalidReason = null;
+    private String parseFailure = null;
 
     public SWCData() {
         clear();
@@ -86,7 +89,9 @@ public class SWCData {
         swcFile = null;
         nodeList = new ArrayList<>();
         headerList = new ArrayList<>();
+        nodeColumns = null;
         invalidReason = null;
+        parseFailure = null;
     }
 
     public static SWCData read(File swcFile) throws IOException {
@@ -96,20 +101,41 @@ public class SWCData {
         return data;
     }
 
-    private void readParseFile() throws IOException {
-        List<String> lines = Files.readAllLines(swcFile.toPath(), Charset.defaultCharset());
-
-        for (String line: lines) {
-            line = line.trim();
+    /**
+     * read the file with its nodes held in primitive columns (see getNodeColumns())
+     * instead of SWCNode objects; the file is streamed, never held in memory
+     * as a whole, so this is the one to use for very large reconstructions
+     */
+    public static SWCData readColumns(File swcFile) throws IOException {
+        SWCData data = new SWCData();
+        data.swcFile = swcFile;
+        data.nodeColumns = new SWCNodeColumns();
+        data.readParseFile();
+        return data;
+    }
 
-            if (line.length() == 0) {
-                // if blank, skip--do nothing
-            } else if (line.startsWith("#")) {
-                // if starts with #, into header list
-                headerList.add(line);
-            } else {
-                // if not, create SWCNode; put into node list
-                nodeList.add(SWCNode.parseLine(line));
+    private void readParseFile() throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(swcFile.toPath(), Charset.defaultCharset())) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+
+                if (line.length() == 0) {
+                    // if blank, skip--do nothing
+                } else if (line.startsWith("#")) {
+                    // if starts with #, into header list
+                    headerList.add(line);
+                } else if (nodeColumns != null) {
+                    // columns have nowhere to put an unparseable line, so remember it
+                    if (!nodeColumns.addLine(line) && parseFailure == null) {
+                        parseFailure = String.format("can't parse node at line %d: %s", lineNumber, line);
+                    }
+                } else {
+                    // if not, create SWCNode; put into node list
+                    nodeList.add(SWCNode.parseLine(line));
+                }
             }
         }
     }
@@ -122,29 +148,23 @@ public class SWCData {
      * @throws Exception thrown by called methods.
      */
     public void write(File swcFile, int offset) throws Exception {
+        write(swcFile, offset, offset == -1 ? null : getExportDirectory(swcFile));
+    }
+
+    /**
+     * Validate file contents and write back to target, or into the given directory if one of many.
+     * When several neurons are written at once, the directory is resolved once, with
+     * {@link #getExportDirectory(File)}, so that they all end up in the same one.
+     *
+     * @param swcFile target file, which names the files of a neuron that has no name.
+     * @param offset serial number of output file, if one of many.
+     * @param parentDir directory for the output file, if one of many.
+     * @throws Exception thrown by called methods.
+     */
+    public void write(File swcFile, int offset, File parentDir) throws Exception {
         if (isValid()) {
             if (offset != -1) {
-                // we're exporting a bunch of swc to a dir, and the dir is named like the
-                //  given "all neurons" filename; if the original neuron has the expected
-                //  .swc extension, remove it and use that for the dir name; if not, append
-                //  "dir" to the name instead
                 String swcFileName = swcFile.getName();
-                String parentDirName;
-                if (swcFileName.endsWith(STD_SWC_EXTENSION)) {
-                    parentDirName = swcFileName.substring(0, swcFileName.length() - STD_SWC_EXTENSION.length());
-                } else {
-                    parentDirName = swcFileName + "-dir";
-                }
-                File parentDir = new File(swcFile.getParent(), parentDirName);
-                // If anyone ever made a file of the name we wish to call our
-                // directory, we'll make an alternative with unique name.
-                if (parentDir.exists()  &&  !parentDir.isDirectory()) {
-                    parentDir = new File(parentDir.getParentFile(), parentDirName + "_" + new java.util.Date().getTime());                    
-                }
-                if (! parentDir.exists() ) {
-                    parentDir.mkdirs();
-                }
-
                 // use neuron name for the file name, but increment if it's
                 // in use already (we allow multiple neurons with the same name)
                 if (parseName() != "") {
@@ -166,6 +186,35 @@ public class SWCData {
 
     }
 
+    /**
+     * Finds, and creates if need be, the directory that the files of a bunch of neurons
+     * are exported to, which is named like the given "all neurons" file.
+     *
+     * @param swcFile file for all neurons.
+     * @return directory for the file of each neuron.
+     */
+    public static File getExportDirectory(File swcFile) {
+        // if the original neuron has the expected .swc extension, remove it and use
+        //  that for the dir name; if not, append "dir" to the name instead
+        String swcFileName = swcFile.getName();
+        String parentDirName;
+        if (swcFileName.endsWith(STD_SWC_EXTENSION)) {
+            parentDirName = swcFileName.substring(0, swcFileName.length() - STD_SWC_EXTENSION.length());
+        } else {
+            parentDirName = swcFileName + "-dir";
+        }
+        File parentDir = new File(swcFile.getParent(), parentDirName);
+        // If anyone ever made a file of the name we wish to call our
+        // directory, we'll make an alternative with unique name.
+        if (parentDir.exists()  &&  !parentDir.isDirectory()) {
+            parentDir = new File(parentDir.getParentFile(), parentDirName + "_" + new java.util.Date().getTime());
+        }
+        if (! parentDir.exists() ) {
+            parentDir.mkdirs();
+        }
+        return parentDir;
+    }
+
     /**
      * Given some filename, return an 'iterated' version, containing a counter
      * offset.  In this fashion, 'sub names' iterated over a count can be
@@ -191,10 +240,12 @@ public class SWCData {
      * given a filename, return a filename in the input directory that
      * is unique, adding integers as needed
      */
-    private File getUniqueSWCFile(File parentDir, String basename) {
+    private File getUniqueSWCFile(File parentDir, String basename) throws IOException {
+        // the file is claimed by creating it, so that neurons written in parallel
+        //  never end up with the same file
         File testFile = new File(parentDir, basename + STD_SWC_EXTENSION);
         int counter = 1;
-        while (testFile.exists()) {
+        while (!testFile.createNewFile()) {
             counter++;
             testFile = new File(parentDir, basename + "_" + counter + STD_SWC_EXTENSION);
         }
@@ -303,6 +354,11 @@ public class SWCData {
      * check the swcFile; if false, call getInvalidReason()
      */
     public boolean isValid() {
+        if (parseFailure != null) {
+            // a node line couldn't be parsed when reading
+            invalidReason = parseFailure;
+            return false;
+        }
         invalidReason = null;
 
         // header lines all start with #
@@ -313,6 +369,11 @@ public class SWCData {
             }
         }
 
+        if (nodeColumns != null) {
+            invalidReason = nodeColumns.getInvalidReason();
+            return invalidReason == null;
+        }
+
         int nRoots = 0;
         Set<Integer> possibleParents = new HashSet<>();
         // -1 (no parent) is valid:
@@ -371,7 +432,7 @@ public class SWCData {
         // add to current data, adding original node count
         //  to each index and parent index, EXCEPT the -1 parents (!)
 
-        int offset = nodeList.size();
+        int offset = getNodeList().size();
         for (SWCNode node: swcData.getNodeList()) {
             node.setIndex(node.getIndex() + offset);
             if (node.getParentIndex() != -1) {
@@ -382,6 +443,49 @@ public class SWCData {
 
     }
 
+    /**
+     * write one file containing the nodes of several swc files, as if their data had been
+     * combined with addDataFrom(); the parts are streamed a line at a time, so they never
+     * need to be in memory; the header lines of the parts are replaced by the given ones
+     *
+     * @param swcFile target file
+     * @param headerList header lines of the target file
+     * @param parts swc files to concatenate, in order
+     * @throws IOException thrown by called methods.
+     */
+    public static void writeConcatenated(File swcFile, List<String> headerList, List<File> parts) throws IOException {
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(swcFile))) {
+            for (String line: headerList) {
+                writer.write(line);
+                writer.newLine();
+            }
+            int offset = 0;
+            for (File part: parts) {
+                int nodeCount = 0;
+                try (BufferedReader reader = new BufferedReader(new FileReader(part))) {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        if (line.isEmpty() || line.startsWith("#")) {
+                            continue;
+                        }
+                        // shift the index (first field) and the parent index (last field),
+                        //  except for the -1 parents of roots, as addDataFrom() does
+                        int indexEnd = line.indexOf(' ');
+                        int parentStart = line.lastIndexOf(' ') + 1;
+                        int index = Integer.parseInt(line.substring(0, indexEnd));
+                        int parentIndex = Integer.parseInt(line.substring(parentStart));
+                        writer.write(Integer.toString(index + offset));
+                        writer.write(line, indexEnd, parentStart - indexEnd);
+                        writer.write(Integer.toString(parentIndex == -1 ? -1 : parentIndex + offset));
+                        writer.newLine();
+                        nodeCount++;
+                    }
+                }
+                offset += nodeCount;
+            }
+        }
+    }
+
     /**
      * usually headers are of the form "# KEY thing1 thing2 ...";
      * given a KEY, return the full line if it exists in the header,
@@ -397,10 +501,26 @@ public class SWCData {
         return null;
     }
 
+    /**
+     * if read with readColumns(), this converts the columns to SWCNodes
+     * and drops them, so that edits to the nodes aren't lost
+     */
     public List<SWCNode> getNodeList() {
+        if (nodeColumns != null) {
+            nodeList = nodeColumns.toNodeList();
+            nodeColumns = null;
+        }
         return nodeList;
     }
 
+    /**
+     * @return the nodes as columns, or null if this wasn't read with readColumns()
+     * or the columns have since been converted by getNodeList()
+     */
+    public SWCNodeColumns getNodeColumns() {
+        return nodeColumns;
+    }
+
     public List<String> getHeaderList() {
         return headerList;
     }
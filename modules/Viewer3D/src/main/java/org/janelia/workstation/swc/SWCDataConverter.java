@@ -74,17 +74,44 @@ public class SWCDataConverter {
             nodeList = nodesFromCombinedPath(neuron, xcenter, ycenter, zcenter, downsampleModulo);
         }
 
+        headerList.addAll(headersFor(externalizedCenter));
+
+        return new SWCData(nodeList, headerList, externalizedCenter);
+    }
+
+    /**
+     * @return the standard header lines of an swc file whose nodes are offset from the given center
+     */
+    public List<String> headersFor(double[] externalizedCenter) {
+        List<String> headerList = new ArrayList<>();
         // headers: I'm not going to put in all the fields I
         //  saw in the "specification" unless I have to; we only
         //  use the OFFSET field
         headerList.add("# ORIGINAL_SOURCE Janelia Workstation Large Volume Viewer");
         double[] externalPoint =
             new double[] {
-                xcenter, ycenter, zcenter
+                externalizedCenter[SWC_X], externalizedCenter[SWC_Y], externalizedCenter[SWC_Z]
             };
         headerList.add(String.format("# OFFSET %f %f %f", externalPoint[0], externalPoint[1], externalPoint[2]));
+        return headerList;
+    }
 
-        return new SWCData(nodeList, headerList, externalizedCenter);
+    /**
+     * convert one neuron, offset from a center shared with other neurons, and
+     * add the given extra header lines
+     */
+    public SWCData fromTmNeuron(TmNeuronMetadata neuron, double[] externalizedCenter, List<String> extraHeaders,
+        int downsampleModulo) {
+        final SWCData neuronData = fromTmNeuron(neuron, externalizedCenter, downsampleModulo);
+        if (extraHeaders != null) {
+            for (String header: extraHeaders) {
+                if (! header.startsWith("#")) {
+                    header = "# " + header;
+                }
+                neuronData.getHeaderList().add(header);
+            }
+        }
+        return neuronData;
     }
 
     public List<SWCData> fromTmNeuron(Collection<TmNeuronMetadata> neuronList, Map<Long,List<String>> extraHeaders, int downsampleModulo) {
@@ -95,15 +122,7 @@ public class SWCDataConverter {
         for (TmNeuronMetadata neuron : neuronList) {
             if (neuron != null && neuron.getGeoAnnotationMap().size() > 0) {
                 log.debug("Creating SWCData for neuron{} (id={})",neuron.getName(),neuron.getId());
-                final SWCData neuronData = fromTmNeuron(neuron, com, downsampleModulo);
-                List<String> headers = extraHeaders.get( neuron.getId() );
-                for (String header: headers) {
-                    if (! header.startsWith("#")) {
-                        header = "# " + header;
-                    }
-                    neuronData.getHeaderList().add(header);
-                }
-                dataList.add(neuronData);
+                dataList.add(fromTmNeuron(neuron, com, extraHeaders.get( neuron.getId() ), downsampleModulo));
             }
             else {
                 log.trace("Skipping empty neuron "+neuron);
@@ -26,6 +26,10 @@ public class SWCNode {
         public static SegmentType getSegmentType( String typeName ) {
             return SegmentType.valueOf(typeName.replaceAll(" ","_"));
         }
+
+        public static SegmentType fromDecodeNum( int decodeNum ) {
+            return decodeToSegment.get( decodeNum );
+        }
         
         private SegmentType( int decodeNum ) {
             this.decodeNum = decodeNum;
@@ -64,7 +68,7 @@ public class SWCNode {
 
         return new SWCNode(
                 Integer.parseInt(items[0]),
-                decodeToSegment.get(Integer.parseInt(items[1])),
+                SegmentType.fromDecodeNum(Integer.parseInt(items[1])),
                 Double.parseDouble(items[2]),
                 Double.parseDouble(items[3]),
                 Double.parseDouble(items[4]),
@@ -0,0 +1,192 @@
+package org.janelia.workstation.swc;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * holds the nodes of an SWC file as columns of primitive arrays rather than
+ * as a list of SWCNode objects; a node is then just a row number, and a
+ * multi-million node reconstruction costs a few dozen bytes per node instead
+ * of an object, boxed map entries and so on
+ *
+ * rows are in file order; parents are also available as row numbers, which is
+ * what consumers usually want, since indices in valid files run from 1 up
+ */
+public class SWCNodeColumns {
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private int size = 0;
+    private int[] index = new int[INITIAL_CAPACITY];
+    private int[] segmentType = new int[INITIAL_CAPACITY];
+    private double[] x = new double[INITIAL_CAPACITY];
+    private double[] y = new double[INITIAL_CAPACITY];
+    private double[] z = new double[INITIAL_CAPACITY];
+    private double[] radius = new double[INITIAL_CAPACITY];
+    private int[] parentIndex = new int[INITIAL_CAPACITY];
+
+    // scratch space for addLine()
+    private final int[] tokenStarts = new int[7];
+    private final int[] tokenEnds = new int[7];
+
+    public void add(int nodeIndex, int nodeSegmentType, double nodeX, double nodeY, double nodeZ,
+        double nodeRadius, int nodeParentIndex) {
+        if (size == index.length) {
+            grow();
+        }
+        index[size] = nodeIndex;
+        segmentType[size] = nodeSegmentType;
+        x[size] = nodeX;
+        y[size] = nodeY;
+        z[size] = nodeZ;
+        radius[size] = nodeRadius;
+        parentIndex[size] = nodeParentIndex;
+        size++;
+    }
+
+    /**
+     * parse one node line of an SWC file and add it; the line must already be
+     * trimmed; returns false (and adds nothing) if the line isn't seven
+     * whitespace separated numbers
+     */
+    public boolean addLine(String line) {
+        // hand tokenized; a regex split per line dominates parsing time on big files
+        int[] starts = tokenStarts;
+        int[] ends = tokenEnds;
+        int nItems = 0;
+        int pos = 0;
+        int length = line.length();
+        while (pos < length) {
+            while (pos < length && Character.isWhitespace(line.charAt(pos))) {
+                pos++;
+            }
+            if (pos == length) {
+                break;
+            }
+            if (nItems == 7) {
+                return false;
+            }
+            starts[nItems] = pos;
+            while (pos < length && !Character.isWhitespace(line.charAt(pos))) {
+                pos++;
+            }
+            ends[nItems++] = pos;
+        }
+        if (nItems != 7) {
+            return false;
+        }
+        try {
+            add(Integer.parseInt(line.substring(starts[0], ends[0])),
+                Integer.parseInt(line.substring(starts[1], ends[1])),
+                Double.parseDouble(line.substring(starts[2], ends[2])),
+                Double.parseDouble(line.substring(starts[3], ends[3])),
+                Double.parseDouble(line.substring(starts[4], ends[4])),
+                Double.parseDouble(line.substring(starts[5], ends[5])),
+                Integer.parseInt(line.substring(starts[6], ends[6])));
+            return true;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getIndex(int row) {
+        return index[row];
+    }
+
+    public int getSegmentType(int row) {
+        return segmentType[row];
+    }
+
+    public double getX(int row) {
+        return x[row];
+    }
+
+    public double getY(int row) {
+        return y[row];
+    }
+
+    public double getZ(int row) {
+        return z[row];
+    }
+
+    public void setLocation(int row, double newX, double newY, double newZ) {
+        x[row] = newX;
+        y[row] = newY;
+        z[row] = newZ;
+    }
+
+    public double getRadius(int row) {
+        return radius[row];
+    }
+
+    public int getParentIndex(int row) {
+        return parentIndex[row];
+    }
+
+    /**
+     * row of the parent node, or -1 for roots; only meaningful for
+     * valid data (see getInvalidReason()), where node n is on row n - 1
+     */
+    public int getParentRow(int row) {
+        int parent = parentIndex[row];
+        return parent == -1 ? -1 : parent - 1;
+    }
+
+    /**
+     * same checks as SWCData.isValid() does on a node list: indices run
+     * from 1 in steps of one, every parent exists, radii are positive
+     * and there is at least one root
+     *
+     * @return null if valid, else the reason it isn't
+     */
+    public String getInvalidReason() {
+        int nRoots = 0;
+        for (int row = 0; row < size; row++) {
+            if (index[row] != row + 1) {
+                return String.format("index %d out of order", index[row]);
+            }
+            if (parentIndex[row] == -1) {
+                nRoots++;
+            }
+            if (radius[row] <= 0.0) {
+                return String.format("invalid node (index %d): invalid radius %s", index[row], radius[row]);
+            }
+            if (parentIndex[row] != -1 && (parentIndex[row] < 1 || parentIndex[row] > size)) {
+                return String.format("node with invalid parent index %d", parentIndex[row]);
+            }
+        }
+        if (nRoots == 0) {
+            return "no root node";
+        }
+        return null;
+    }
+
+    /**
+     * build the equivalent list of SWCNode objects
+     */
+    public List<SWCNode> toNodeList() {
+        List<SWCNode> nodeList = new ArrayList<>(size);
+        for (int row = 0; row < size; row++) {
+            SWCNode.SegmentType type = SWCNode.SegmentType.fromDecodeNum(segmentType[row]);
+            nodeList.add(new SWCNode(index[row], type, x[row], y[row], z[row], radius[row], parentIndex[row]));
+        }
+        return nodeList;
+    }
+
+    private void grow() {
+        int capacity = index.length * 2;
+        index = Arrays.copyOf(index, capacity);
+        segmentType = Arrays.copyOf(segmentType, capacity);
+        x = Arrays.copyOf(x, capacity);
+        y = Arrays.copyOf(y, capacity);
+        z = Arrays.copyOf(z, capacity);
+        radius = Arrays.copyOf(radius, capacity);
+        parentIndex = Arrays.copyOf(parentIndex, capacity);
+    }
+
+}
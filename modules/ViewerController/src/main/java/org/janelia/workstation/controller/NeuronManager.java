@@ -8,6 +8,7 @@ import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.google.common.base.Stopwatch;
 import com.google.common.eventbus.Subscribe;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.apache.commons.io.FilenameUtils;
 import org.janelia.model.domain.DomainConstants;
 import org.janelia.model.domain.Reference;
@@ -39,6 +40,7 @@ import org.janelia.workstation.swc.MatrixDrivenSWCExchanger;
 import org.janelia.workstation.swc.SWCData;
 import org.janelia.workstation.swc.SWCDataConverter;
 import org.janelia.workstation.swc.SWCNode;
+import org.janelia.workstation.swc.SWCNodeColumns;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -51,6 +53,10 @@ import java.nio.file.Path;
 import java.util.List;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -780,6 +786,24 @@ public class NeuronManager implements DomainObjectSelectionSupport {
         }
     }
 
+    /**
+     * Same as refreshNeuron, but updates the spatial index and notifies listeners once for all the neurons.
+     */
+    public synchronized void refreshNeurons(List<TmNeuronMetadata> refreshNeurons) {
+        if (refreshNeurons.isEmpty()) {
+            return;
+        }
+        NeuronUpdateEvent updateEvent = new NeuronUpdateEvent(this, refreshNeurons);
+        TmModelManager.getInstance().getSpatialIndexManager().neuronUpdated(updateEvent);
+        ViewerEventBus.postEvent(updateEvent);
+        if (applyFilter) {
+            for (TmNeuronMetadata neuron : refreshNeurons) {
+                NeuronUpdates updates = neuronFilter.updateNeuron(neuron);
+                updateFrags(updates);
+            }
+        }
+    }
+
     /**
      * change radius of an existing annotation
      *
@@ -1901,66 +1925,84 @@ public class NeuronManager implements DomainObjectSelectionSupport {
 
         progress.setStatus("Exporting neuron files");
 
-        // get swcdata via converter, then write; conversion from TmNeurons is done
-        //  all at once so all neurons are off set from the same center of mass
-        // First write one file per neuron.
-        List<SWCData> swcDatas = getSwcDataConverter().fromTmNeuron(neuronList, neuronHeaders, downsampleModulo);
-        // there's one swc and one note file per neuron, plus aggregate; note how
-        //  we set progress; i only increments per neuron, but we show progress over
-        //  all files
-        int total = 1;
-        if (swcDatas != null && !swcDatas.isEmpty()) {
-            if (exportNotes) {
-                total = 2 * (swcDatas.size() + 1);
-            } else {
-                total = swcDatas.size() + 1;
+        // conversion from TmNeurons uses the center of mass of all neurons, so
+        //  all neurons are offset from the same point
+        SWCDataConverter converter = getSwcDataConverter();
+        double[] center = converter.neuronCenterOfMass(neuronList);
+        Long workspaceId = modelManager.getCurrentWorkspace().getId();
+        List<TmNeuronMetadata> exportList = new ArrayList<>();
+        for (TmNeuronMetadata neuron: neuronList) {
+            if (neuron != null && neuron.getGeoAnnotationMap().size() > 0) {
+                exportList.add(neuron);
             }
-            int i = 0;
-            for (SWCData swcData: swcDatas) {
-                progress.setStatus("Exporting neuron file " + (i + 1));
-                if (swcDatas.size() == 1) {
-                    swcData.write(swcFile, -1);
-                }
-                else {
-                    swcData.write(swcFile, i);
-                }
-                progress.setProgress(2 * i, total);
+        }
+        if (exportList.isEmpty()) {
+            progress.setProgress(1, 1);
+            progress.setStatus("No data retrieved!");
+            return;
+        }
 
-                if (exportNotes) {
-                    progress.setStatus("Exporting notes file " + (i + 1));
-                    NoteExporter.exportNotes(swcData.getPath(), modelManager.getCurrentWorkspace().getId(), swcData.getNeuronCenter(),
-                        neuronList.get(i), getSwcDataConverter());
-                    progress.setProgress(2 * i + 1, total);
+        // there's one swc and one note file per neuron, plus aggregate
+        int filesPerNeuron = exportNotes ? 2 : 1;
+        int total = filesPerNeuron * (exportList.size() + 1);
+        final boolean singleNeuron = exportList.size() == 1;
+        // resolved once, as each neuron written to it would otherwise pick its own if the name is taken
+        final File exportDir = singleNeuron ? null : SWCData.getExportDirectory(swcFile);
+
+        // First write one file per neuron. Neurons are converted and written in parallel,
+        //  but only a few more than there are threads are in memory at any time; the
+        //  results are collected in order, so progress is reported from this thread
+        int threads = Runtime.getRuntime().availableProcessors();
+        ExecutorService exportExecutor = Executors.newFixedThreadPool(threads, new ThreadFactoryBuilder()
+                .setNameFormat("SWCExport-%d")
+                .setDaemon(true)
+                .build());
+        List<File> neuronFiles = new ArrayList<>();
+        Deque<Future<File>> pending = new ArrayDeque<>();
+        try {
+            int submitted = 0;
+            while (neuronFiles.size() < exportList.size()) {
+                while (submitted < exportList.size() && pending.size() < 2 * threads) {
+                    final TmNeuronMetadata neuron = exportList.get(submitted);
+                    final int offset = singleNeuron ? -1 : submitted;
+                    pending.add(exportExecutor.submit(() -> {
+                        log.debug("Creating SWCData for neuron{} (id={})", neuron.getName(), neuron.getId());
+                        SWCData swcData = converter.fromTmNeuron(neuron, center, neuronHeaders.get(neuron.getId()), downsampleModulo);
+                        swcData.write(swcFile, offset, exportDir);
+                        if (exportNotes) {
+                            NoteExporter.exportNotes(swcData.getPath(), workspaceId, swcData.getNeuronCenter(),
+                                neuron, converter);
+                        }
+                        return new File(swcData.getPath());
+                    }));
+                    submitted++;
                 }
-
-                i++;
-                // for reasons that are not clear but may involve modification of the workspace
-                //  while a long export is happening (particularly now in the shared workspace era),
-                //  the number of items processed can occasionally exceed the total, causing an
-                //  error in the progress widget; adjust for that
-                if (2 * i + 1 >= total) {
-                    total = 2 * i + 1;
+                try {
+                    neuronFiles.add(pending.remove().get());
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof Exception) {
+                        throw (Exception) e.getCause();
+                    }
+                    throw e;
                 }
+                progress.setStatus("Exported neuron file " + neuronFiles.size());
+                progress.setProgress(filesPerNeuron * neuronFiles.size(), total);
             }
-        } else {
-            progress.setProgress(total, total);
-            progress.setStatus("No data retrieved!");
-            return;
+        } finally {
+            exportExecutor.shutdownNow();
         }
 
-        // Next write one file containing all neurons, if there are more than one.
-        if (swcDatas.size() > 1) {
-            SWCData swcData = getSwcDataConverter().fromAllTmNeuron(neuronList, downsampleModulo);
-            if (swcData != null) {
-                swcData.write(swcFile);
-                progress.setStatus("Exporting combined neuron file");
-                //activityLog.logExportSWCFile(modelManager.getCurrentWorkspace().getId(), swcFile.getName());
+        // Next write one file containing all neurons, if there are more than one; it is
+        //  assembled from the files just written rather than converting the neurons again
+        if (!singleNeuron) {
+            progress.setStatus("Exporting combined neuron file");
+            SWCData.writeConcatenated(swcFile, converter.headersFor(center), neuronFiles);
+            //activityLog.logExportSWCFile(modelManager.getCurrentWorkspace().getId(), swcFile.getName());
 
-                if (exportNotes) {
-                    progress.setStatus("Exporting combined notes file");
-                    NoteExporter.exportNotes(swcData.getPath(),  modelManager.getCurrentWorkspace().getId(), swcData.getNeuronCenter(),
-                        neuronList, getSwcDataConverter());
-                }
+            if (exportNotes) {
+                progress.setStatus("Exporting combined notes file");
+                NoteExporter.exportNotes(swcFile.getAbsolutePath(), workspaceId, center,
+                    neuronList, converter);
             }
         }
 
@@ -1969,11 +2011,115 @@ public class NeuronManager implements DomainObjectSelectionSupport {
     }
 
     public synchronized void importBulkSWCData(final File swcFile, TmWorkspace tmWorkspace) throws Exception {
+        TmNeuronMetadata neuron = prepareSWCImport(swcFile);
+        finishSWCImport(neuron, neuronModel.saveNeuronData(neuron), swcFile);
+    }
+
+    /**
+     * Import each SWC file as a new neuron. Files are read and converted in parallel,
+     *  while only a few more than there are threads are in memory at any time; the
+     *  converted neurons are collected in order and handed to the server in batches,
+     *  waiting for each batch to be saved before sending the next one.
+     */
+    public void importBulkSWCData(List<File> swcFiles, TmWorkspace tmWorkspace, Progress progress) throws Exception {
+
+        log.info("Importing {} SWC files", swcFiles.size());
+        int threads = Math.min(swcFiles.size(),
+                ConsoleProperties.getInt("console.LVVHorta.swcImportThreads", Runtime.getRuntime().availableProcessors()));
+        int saveBatchSize = ConsoleProperties.getInt("console.LVVHorta.swcImportSaveBatchSize", 8);
+        ExecutorService importExecutor = Executors.newFixedThreadPool(Math.max(1, threads), new ThreadFactoryBuilder()
+                .setNameFormat("SWCImport-%d")
+                .setDaemon(true)
+                .build());
+        Deque<Future<TmNeuronMetadata>> pending = new ArrayDeque<>();
+        Deque<File> pendingFiles = new ArrayDeque<>();
+        Map<TmNeuronMetadata, File> saveBatch = new LinkedHashMap<>();
+        int imported = 0;
+        boolean cancelled = false;
+        Exception failure = null;
+        try {
+            int submitted = 0;
+            // after a cancel, files already being converted are still imported, since their neurons exist
+            while (!pending.isEmpty() || (!cancelled && submitted < swcFiles.size())) {
+                while (!cancelled && submitted < swcFiles.size() && pending.size() < 2 * threads) {
+                    final File swcFile = swcFiles.get(submitted);
+                    pending.add(importExecutor.submit(() -> prepareSWCImport(swcFile)));
+                    pendingFiles.add(swcFile);
+                    submitted++;
+                }
+                File swcFile = pendingFiles.remove();
+                TmNeuronMetadata neuron;
+                try {
+                    neuron = pending.remove().get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof Exception) {
+                        throw (Exception) e.getCause();
+                    }
+                    throw e;
+                }
+                saveBatch.put(neuron, swcFile);
+                imported++;
+                if (saveBatch.size() >= saveBatchSize || pending.isEmpty()) {
+                    saveSWCImports(saveBatch);
+                    saveBatch.clear();
+                }
+                progress.setStatus("Imported " + imported + " of " + swcFiles.size() + " files");
+                progress.setProgress(imported, swcFiles.size());
+                cancelled = progress.isCancelled();
+            }
+        } catch (Exception e) {
+            failure = e;
+            throw e;
+        } finally {
+            importExecutor.shutdown();
+            try {
+                // files still being converted after a failure have already created their neurons,
+                //  so wait for them and save what they have along with the rest of the batch
+                while (!pending.isEmpty()) {
+                    File swcFile = pendingFiles.remove();
+                    try {
+                        saveBatch.put(pending.remove().get(), swcFile);
+                    } catch (ExecutionException e) {
+                        log.warn("Could not import {}", swcFile, e.getCause());
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        importExecutor.shutdownNow();
+                        break;
+                    }
+                }
+                if (!saveBatch.isEmpty()) {
+                    saveSWCImports(saveBatch);
+                }
+            } catch (Exception e) {
+                if (failure == null) {
+                    throw e;
+                }
+                failure.addSuppressed(e);
+            }
+        }
+    }
+
+    private void saveSWCImports(Map<TmNeuronMetadata, File> saveBatch) throws Exception {
+        Map<TmNeuronMetadata, CompletableFuture<TmNeuronMetadata>> saves = new LinkedHashMap<>();
+        for (TmNeuronMetadata neuron : saveBatch.keySet()) {
+            saves.put(neuron, neuronModel.saveNeuronData(neuron));
+        }
+        CompletableFuture.allOf(saves.values().toArray(new CompletableFuture[0])).join();
+        for (Map.Entry<TmNeuronMetadata, CompletableFuture<TmNeuronMetadata>> save : saves.entrySet()) {
+            finishSWCImport(save.getKey(), save.getValue(), saveBatch.get(save.getKey()));
+        }
+    }
+
+    /**
+     * Read an SWC file, create a neuron for it, and add its nodes to the neuron,
+     *  all without saving the annotations; safe to run for several files at once.
+     */
+    private TmNeuronMetadata prepareSWCImport(File swcFile) throws Exception {
 
         log.info("Importing neuron from SWC file {}",swcFile);
 
-        // the constructor also triggers the parsing, but not the validation
-        SWCData swcData = SWCData.read(swcFile);
+        // nodes are streamed into primitive columns; validation is separate
+        SWCData swcData = SWCData.readColumns(swcFile);
         if (!swcData.isValid()) {
             throw new Exception(String.format("invalid SWC file %s; reason: %s",
                     swcFile.getName(), swcData.getInvalidReason()));
@@ -1987,15 +2133,12 @@ public class NeuronManager implements DomainObjectSelectionSupport {
         if (neuronName.endsWith(SWCData.STD_SWC_EXTENSION)) {
             neuronName = neuronName.substring(0, neuronName.length() - SWCData.STD_SWC_EXTENSION.length());
         }
-        Map<String,Object> parameters = new HashMap<String,Object>();
-        parameters.put("swc", swcData);
-        parameters.put("file", swcFile);
 
         // Must create the neuron up front, because we need the id when adding the linked geometric annotations below.
         // we're doing this synchronously now, as we do when user clicks "+" in the neuron list
-        TmNeuronMetadata updatedNeuron = createNeuron(neuronName).get();
-        parameters.put("neuron", updatedNeuron);
-        finishBulkSWCData(parameters);
+        TmNeuronMetadata neuron = createNeuron(neuronName).get();
+        addSWCAnnotations(neuron, swcData);
+        return neuron;
     }
 
     public synchronized void finishBulkSWCData(Map<String,Object> neuronData) {
@@ -2008,47 +2151,42 @@ public class NeuronManager implements DomainObjectSelectionSupport {
             return;
 
         File swcFile = (File)neuronData.get("file");
+        addSWCAnnotations(neuron, swcData);
+        try {
+            finishSWCImport(neuron, neuronModel.saveNeuronData(neuron), swcFile);
+        } catch (Exception e) {
+            log.info("Error saving neurons", e);
+        }
+    }
+
+    private void addSWCAnnotations(TmNeuronMetadata neuron, SWCData swcData) {
+        SWCNodeColumns nodes = swcData.getNodeColumns();
+        if (nodes == null) {
+            nodes = new SWCNodeColumns();
+            for (SWCNode node : swcData.getNodeList()) {
+                nodes.add(node.getIndex(), node.getSegmentType().decode(), node.getX(), node.getY(), node.getZ(),
+                        node.getRadius(), node.getParentIndex());
+            }
+        }
+
         // note from CB, July 2013: Vaa3d can't handle large coordinates in swc files,
         //  so he added an OFFSET header and recentered on zero when exporting
         // therefore, if that header is present, respect it
         double[] externalOffset = swcData.parseOffset();
-        // Bulk update in play.
-        // and as long as we're doing brute force, we can update progress
-        //  granularly (if we have a worker); start with 5% increments (1/20)
-        int totalLength = swcData.getNodeList().size();
-        int updateFrequency = totalLength / 20;
-        if (updateFrequency == 0) {
-            updateFrequency = 1;
-        }
-
-        Map<Integer, Integer> nodeParentLinkage = new HashMap<>();
-
-        Map<Integer, TmGeoAnnotation> annotations = new HashMap<>();
-        for (SWCNode node : swcData.getNodeList()) {
+        SWCDataConverter converter = getSwcDataConverter();
+        double[] externalPoint = new double[3];
+        for (int row = 0; row < nodes.size(); row++) {
             // Internal points, as seen in annotations, are same as external
             // points in SWC: represented as voxels. --LLF
-            double[] internalPoint = getSwcDataConverter().internalFromExternal(
-                    new double[]{
-                            node.getX() + externalOffset[0],
-                            node.getY() + externalOffset[1],
-                            node.getZ() + externalOffset[2],}
-            );
-
-            // Build an external, unblessed annotation.  Set the id to the index.
-            Date now = new Date();
-            TmGeoAnnotation unserializedAnnotation = new TmGeoAnnotation(
-                    new Long(node.getIndex()), null, neuron.getId(),
-                    internalPoint[0], internalPoint[1], internalPoint[2], node.getRadius(),
-                    now, now
-            );
-
-            annotations.put(node.getIndex(), unserializedAnnotation);
-            nodeParentLinkage.put(node.getIndex(), node.getParentIndex());
+            externalPoint[0] = nodes.getX(row) + externalOffset[0];
+            externalPoint[1] = nodes.getY(row) + externalOffset[1];
+            externalPoint[2] = nodes.getZ(row) + externalOffset[2];
+            double[] internalPoint = converter.internalFromExternal(externalPoint);
+            nodes.setLocation(row, internalPoint[0], internalPoint[1], internalPoint[2]);
         }
 
-        // Fire off the bulk update.  The "un-serialized" or
-        // db-unknown annotations could be swapped for "blessed" versions.
-        neuronModel.addLinkedGeometricAnnotationsInMemory(nodeParentLinkage, annotations, neuron);
+        // The "un-serialized" or db-unknown annotations could be swapped for "blessed" versions.
+        neuronModel.addLinkedGeometricAnnotationsInMemory(nodes, neuron);
 
         // Set neuron color
         float[] colorArr = swcData.parseColorFloats();
@@ -2056,12 +2194,12 @@ public class NeuronManager implements DomainObjectSelectionSupport {
             Color color = new Color(colorArr[0], colorArr[1], colorArr[2]);
             neuron.setColor(color);
         }
+    }
 
+    private void finishSWCImport(TmNeuronMetadata neuron, CompletableFuture<TmNeuronMetadata> future, File swcFile) {
         try {
-            // need to save neuron now; notes have to be attached to the final
+            // the neuron is being saved now; notes have to be attached to the final
             //  annotation IDs, not the placeholders that exist before the save
-            CompletableFuture<TmNeuronMetadata> future = neuronModel.saveNeuronData(neuron);
-
             // check for corresponding notes file; if present, import notes
             // find file; read and parse it
             File notesFile = findNotesFile(swcFile);
@@ -1,24 +1,39 @@
 package org.janelia.workstation.controller;
 
-import java.util.Arrays;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Collectors;
 
 import edu.wlu.cs.levy.CG.*;
 import org.janelia.model.domain.tiledMicroscope.TmGeoAnnotation;
 import org.janelia.model.domain.tiledMicroscope.TmNeuronMetadata;
 import org.janelia.workstation.controller.model.TmModelManager;
+import org.janelia.workstation.core.util.LatencyRecorder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
  * Spatial index for fast access to local NeuronVertexes, given a position in micron space.
  *
+ * The index is kept up to date incrementally: when a neuron changes, only the vertices
+ * that were added, moved or deleted since it was last indexed are applied to the KD-tree.
+ * A full rebuild (e.g. when a project is loaded) computes the keys in parallel and inserts
+ * them in median order, so the resulting tree is balanced. Queries may run concurrently
+ * with each other, and only wait for updates while a change is being applied. Changes
+ * made while a rebuild is collecting vertices are recorded, and applied again to the
+ * rebuilt tree.
+ *
  * @author Christopher Bruns
  * @author <a href="mailto:rokickik@janelia.hhmi.org">Konrad Rokicki</a>
  */
@@ -26,15 +41,26 @@ public class NeuronVertexSpatialIndex {
 
     private final Logger log = LoggerFactory.getLogger(this.getClass());
 
-    private final Map<TmGeoAnnotation, CacheableKey> cachedKeys = new HashMap<>();
-    
-    private KDTree<TmGeoAnnotation> index; // Cannot be final because it doesn't have a clear method
+    // bulk loads are split across threads down to this many vertices
+    private static final int PARALLEL_THRESHOLD = 10000;
+    // deleted vertices stay in the KD-tree as dead nodes until the tree is compacted
+    private static final int MIN_COMPACTION_DELETIONS = 100000;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // The following are guarded by lock
+    private KDTree<TmGeoAnnotation> index = new KDTree<>(3); // Cannot be final because it doesn't have a clear method
+    private Map<Long, IndexedVertex> indexedVertices = new HashMap<>(); // annotation id -> indexed state
+    private Map<Long, Set<Long>> neuronVertices = new HashMap<>(); // neuron id -> annotation ids
+    private int deletedNodeCount;
+    private List<Runnable> changesDuringRebuild; // non-null while a rebuild collects vertices
 
     // Is the index currently in a valid, usable state?
     private AtomicBoolean valid = new AtomicBoolean(false);
 
+    private final LatencyRecorder queryLatency = new LatencyRecorder("Spatial index query");
+
     // used by key fuzzing routine
-    private Random generator = new Random();
     private static final double XY_PIXEL_MICRONS = 0.4;
     private double keyFuzzFactor = XY_PIXEL_MICRONS / 2.0 * 1.0e-3;
 
@@ -49,28 +75,33 @@ public class NeuronVertexSpatialIndex {
      * @return
      */
     public TmGeoAnnotation getAnchorClosestToMicronLocation(double[] micronXYZ) {
-        if (index==null) return null;
         List<TmGeoAnnotation> nbrs = getAnchorClosestToMicronLocation(micronXYZ, 1);
-        if (nbrs.isEmpty()) return null;
+        if (nbrs==null || nbrs.isEmpty()) return null;
         return nbrs.get(0);
     }
-    
+
     /**
-     * Returns the N closest anchors to the location given in micron units. The locations are sorted in 
+     * Returns the N closest anchors to the location given in micron units. The locations are sorted in
      * order from closest to farthest.
      * @param micronXYZ
      * @param n
      * @return
      */
     public List<TmGeoAnnotation> getAnchorClosestToMicronLocation(double[] micronXYZ, int n) {
-        if (index==null) return Collections.emptyList();
+        long start = System.nanoTime();
+        lock.readLock().lock();
         try {
+            if (index==null) return Collections.emptyList();
             return index.nearest(micronXYZ, n);
-        } 
+        }
         catch (KeySizeException ex) {
             log.warn("Exception while finding anchor in spatial index", ex);
             return null;
         }
+        finally {
+            lock.readLock().unlock();
+            queryLatency.recordSince(start);
+        }
     }
 
     /**
@@ -82,98 +113,116 @@ public class NeuronVertexSpatialIndex {
      * @return list of matching anchors
      */
     public List<TmGeoAnnotation> getAnchorClosestToMicronLocation(double[] micronXYZ, int n, final Checker<TmGeoAnnotation> filter) {
-        if (index==null) return Collections.emptyList();
+        long start = System.nanoTime();
+        lock.readLock().lock();
         try {
+            if (index==null) return Collections.emptyList();
             return index.nearest(micronXYZ, n, filter);
         }
         catch (KeySizeException ex) {
             log.warn("Exception while finding anchor in spatial index", ex);
             return null;
         }
+        finally {
+            lock.readLock().unlock();
+            queryLatency.recordSince(start);
+        }
     }
 
     /**
-     * Returns all the anchors found in the area given by two corners points, given in micron units.  
+     * Returns all the anchors found in the area given by two corners points, given in micron units.
      * @param p1 lower corner
      * @param p2 higher corner
-     * @return list of anchors 
+     * @return list of anchors
      */
     public List<TmGeoAnnotation> getAnchorsInMicronArea(double[] p1, double[] p2) {
-        if (index==null) return Collections.emptyList();
+        long start = System.nanoTime();
+        lock.readLock().lock();
         try {
+            if (index==null) return Collections.emptyList();
             log.debug("Finding anchors in area bounded by points: p1=({},{},{}) p2=({},{},{})",p1[0],p1[1],p1[2],p2[0],p2[1],p2[2]);
             return index.range(p1, p2);
-        } 
+        }
         catch (KeySizeException ex) {
             log.warn("Exception while anchors in area using spatial index", ex);
             return null;
         }
+        finally {
+            lock.readLock().unlock();
+            queryLatency.recordSince(start);
+        }
     }
-    
+
+    /**
+     * @return latency of the recent nearest-neighbor and range queries
+     */
+    public LatencyRecorder getQueryLatency() {
+        return queryLatency;
+    }
+
     /**
      * Return the location of the vertex in micrometers, for indexing within the KD-tree.
-     * @param v
+     * @param xyz
      * @return
      */
-    private double[] keyForVertex(TmGeoAnnotation v) {
-        if (cachedKeys.containsKey(v)) {
-            return cachedKeys.get(v).toArray();
-        }
-        else {
-
-            float xyz[] = getLocationInMicrometers(v); // Neuron API returns coordinates in micrometers
-
-            // we originally used the exact coords as the key; that caused
-            //  problems (collisions) when there were duplicate points, which
-            //  happens because (a) we're actually on a discrete pixel grid,
-            //  and (b) when tracers are comparing work, there's a high
-            //  likelihood that they have duplicate points; the problem
-            //  manifest as both inability to select visible points, and
-            //  as points not even being drawn
+    private double[] keyForLocation(float[] xyz) {
+        // we originally used the exact coords as the key; that caused
+        //  problems (collisions) when there were duplicate points, which
+        //  happens because (a) we're actually on a discrete pixel grid,
+        //  and (b) when tracers are comparing work, there's a high
+        //  likelihood that they have duplicate points; the problem
+        //  manifest as both inability to select visible points, and
+        //  as points not even being drawn
 
-            // old
-            // return new double[] { xyz[0], xyz[1], xyz[2] };
+        // old
+        // return new double[] { xyz[0], xyz[1], xyz[2] };
 
-            // new: add a random fuzz so the indices don't match; note that
-            //  they are all very close to each other, far closer than to any
-            //  other pixel, and that we return the original vertex, which has its
-            //  location data unchanged; it's only the internal key that is fuzzed
-            //  to prevent collisions
+        // new: add a random fuzz so the indices don't match; note that
+        //  they are all very close to each other, far closer than to any
+        //  other pixel, and that we return the original vertex, which has its
+        //  location data unchanged; it's only the internal key that is fuzzed
+        //  to prevent collisions
 
-            // I'm doing random fuzzing, but you could make a case for
-            //  generating an offset deterministically, based on some unique
-            //  ID, to prevent any possible collisions (again taking advantage
-            //  of the fact that all points are actually on a discrete grid)
+        // I'm doing random fuzzing, but you could make a case for
+        //  generating an offset deterministically, based on some unique
+        //  ID, to prevent any possible collisions (again taking advantage
+        //  of the fact that all points are actually on a discrete grid)
 
-            // the usual pixel size is hard-coded as a constant above; we
-            //  could get it from the transform matrices, but they are loaded
-            //  async with the first spatial index build, so that's inconvenient
-            // for now, we'll use the static typical pixel size, and use a
-            //  fuzz factor that's three orders of magnitude less than the
-            //  pixel "radius"; this should behave well as long as the pixel
-            //  size doesn't drop by a couple orders of magnitude below
-            //  the hard-coded size
+        // the usual pixel size is hard-coded as a constant above; we
+        //  could get it from the transform matrices, but they are loaded
+        //  async with the first spatial index build, so that's inconvenient
+        // for now, we'll use the static typical pixel size, and use a
+        //  fuzz factor that's three orders of magnitude less than the
+        //  pixel "radius"; this should behave well as long as the pixel
+        //  size doesn't drop by a couple orders of magnitude below
+        //  the hard-coded size
 
-            double dy = keyFuzzFactor * generator.nextDouble();
-            double dz = keyFuzzFactor * generator.nextDouble();
-            double dx = keyFuzzFactor * generator.nextDouble();
-            return new double[] { xyz[0] + dx, xyz[1] + dy, xyz[2] + dz };
-        }
+        // keys are computed on several threads during a bulk load
+        ThreadLocalRandom generator = ThreadLocalRandom.current();
+        double dy = keyFuzzFactor * generator.nextDouble();
+        double dz = keyFuzzFactor * generator.nextDouble();
+        double dx = keyFuzzFactor * generator.nextDouble();
+        return new double[] { xyz[0] + dx, xyz[1] + dy, xyz[2] + dz };
     }
 
     public boolean addToIndex(TmGeoAnnotation vertex) {
+        lock.writeLock().lock();
         try {
-            double[] key = keyForVertex(vertex);
-            // log.info("Adding key to index: ({},{},{})",key[0],key[1],key[2]);
-            index.insert(key, vertex);
-            // log.info("index size = " + index.size());
-            // Store original key, in case the old position changes
-            cachedKeys.put(vertex, cacheableKey(key));
+            recordForRebuild(() -> addVertex(vertex));
+            return addVertex(vertex);
         }
-        catch (KeySizeException | KeyDuplicateException ex) {
-            return false;
+        finally {
+            lock.writeLock().unlock();
         }
-        return true;
+    }
+
+    // must be called holding the write lock
+    private boolean addVertex(TmGeoAnnotation vertex) {
+        IndexedVertex indexed = indexedVertices.get(vertex.getId());
+        if (indexed != null) {
+            return updateVertex(indexed, vertex.getNeuronId(), vertex);
+        }
+        return insertVertex(vertex.getNeuronId(), vertex);
     }
 
     public float[] getLocationInMicrometers(TmGeoAnnotation vertex) {
@@ -193,64 +242,442 @@ public class NeuronVertexSpatialIndex {
                 (float) micLoc.get(2, 0)};
     }
 
+    /**
+     * Same conversion as {@link #getLocationInMicrometers(TmGeoAnnotation)}, with the
+     * matrix looked up once by the caller. Used for bulk loads.
+     */
+    private static float[] getLocationInMicrometers(double[][] voxToMicron, TmGeoAnnotation vertex) {
+        double x = vertex.getX();
+        double y = vertex.getY();
+        double z = vertex.getZ();
+        float[] micron = new float[3];
+        for (int i = 0; i < 3; i++) {
+            double[] row = voxToMicron[i];
+            micron[i] = (float) (row[0] * x + row[1] * y + row[2] * z + row[3]);
+        }
+        return micron;
+    }
 
     public boolean removeFromIndex(TmGeoAnnotation vertex) {
+        lock.writeLock().lock();
         try {
-            double[] k = keyForVertex(vertex);
-            // log.info("Removing key from index: ({},{},{})",k[0],k[1],k[2]);
-            index.delete(k);
-            // log.info("index size = " + index.size());
-            cachedKeys.remove(vertex);
+            recordForRebuild(() -> removeVertex(vertex));
+            return removeVertex(vertex);
         }
-        catch (KeySizeException | KeyMissingException ex) {
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // must be called holding the write lock
+    private boolean removeVertex(TmGeoAnnotation vertex) {
+        IndexedVertex indexed = indexedVertices.get(vertex.getId());
+        if (indexed == null) {
             return false;
         }
-        return true;
+        return deleteVertex(indexed);
     }
-    
+
     public boolean updateIndex(TmGeoAnnotation vertex) {
-        if (!removeFromIndex(vertex)) {
+        lock.writeLock().lock();
+        try {
+            recordForRebuild(() -> moveVertex(vertex));
+            return moveVertex(vertex);
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // must be called holding the write lock
+    private boolean moveVertex(TmGeoAnnotation vertex) {
+        IndexedVertex indexed = indexedVertices.get(vertex.getId());
+        if (indexed == null) {
             return false;
         }
-        return addToIndex(vertex);
+        return updateVertex(indexed, vertex.getNeuronId(), vertex);
+    }
+
+    /**
+     * Bring the vertices of the given neuron up to date. Only vertices that were added,
+     * moved or deleted since the neuron was last indexed touch the KD-tree.
+     * @param neuron neuron in its current state
+     */
+    public void updateNeuron(TmNeuronMetadata neuron) {
+        lock.writeLock().lock();
+        try {
+            recordForRebuild(() -> applyNeuron(neuron));
+            applyNeuron(neuron);
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // must be called holding the write lock
+    private void applyNeuron(TmNeuronMetadata neuron) {
+        int changes = 0;
+        Map<Long, TmGeoAnnotation> current = neuron.getGeoAnnotationMap();
+        Set<Long> previous = neuronVertices.get(neuron.getId());
+        if (previous != null) {
+            for (Long annotationId : new ArrayList<>(previous)) {
+                if (!current.containsKey(annotationId)) {
+                    deleteVertex(indexedVertices.get(annotationId));
+                    changes++;
+                }
+            }
+        }
+        for (TmGeoAnnotation vertex : current.values()) {
+            IndexedVertex indexed = indexedVertices.get(vertex.getId());
+            if (indexed == null) {
+                insertVertex(neuron.getId(), vertex);
+                changes++;
+            }
+            else if (indexed.isStale(neuron.getId(), vertex)) {
+                updateVertex(indexed, neuron.getId(), vertex);
+                changes++;
+            }
+        }
+        if (changes > 0) {
+            log.debug("Applied {} vertex changes for neuron {}", changes, neuron.getId());
+        }
+        compactIfNeeded();
+    }
+
+    /**
+     * Remove all vertices of the given neuron.
+     */
+    public void removeNeuron(TmNeuronMetadata neuron) {
+        lock.writeLock().lock();
+        try {
+            recordForRebuild(() -> removeNeuronVertices(neuron.getId()));
+            removeNeuronVertices(neuron.getId());
+            compactIfNeeded();
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
     }
 
-    private CacheableKey cacheableKey(double[] key) {
-        return new CacheableKey(key);
+    // must be called holding the write lock
+    private void removeNeuronVertices(Long neuronId) {
+        Set<Long> previous = neuronVertices.get(neuronId);
+        if (previous != null) {
+            for (Long annotationId : new ArrayList<>(previous)) {
+                deleteVertex(indexedVertices.get(annotationId));
+            }
+        }
     }
-    
+
+    /**
+     * Make the index contain exactly the given neurons, e.g. after the neuron filter changed.
+     * Neurons that are already indexed are diffed rather than reloaded, and the lock is taken
+     * one neuron at a time so that queries are not held up for the whole update.
+     * @param neuronList all neurons which should be indexed
+     */
+    public void updateNeurons(Collection<TmNeuronMetadata> neuronList) {
+        long start = System.nanoTime();
+        Set<Long> neuronIds = new HashSet<>();
+        for (TmNeuronMetadata neuron : neuronList) {
+            neuronIds.add(neuron.getId());
+        }
+        List<Long> removedNeuronIds = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            for (Long neuronId : neuronVertices.keySet()) {
+                if (!neuronIds.contains(neuronId)) {
+                    removedNeuronIds.add(neuronId);
+                }
+            }
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+        for (Long neuronId : removedNeuronIds) {
+            lock.writeLock().lock();
+            try {
+                recordForRebuild(() -> removeNeuronVertices(neuronId));
+                removeNeuronVertices(neuronId);
+            }
+            finally {
+                lock.writeLock().unlock();
+            }
+        }
+        for (TmNeuronMetadata neuron : neuronList) {
+            updateNeuron(neuron);
+        }
+        log.info("Updated spatial index for {} neurons ({} removed) in {} ms",
+                neuronIds.size(), removedNeuronIds.size(), (System.nanoTime() - start) / 1000000);
+    }
+
+    // must be called holding the write lock
+    private boolean insertVertex(Long neuronId, TmGeoAnnotation vertex) {
+        IndexedVertex indexed = new IndexedVertex(neuronId, vertex, keyForLocation(getLocationInMicrometers(vertex)));
+        try {
+            index.insert(indexed.key, vertex);
+        }
+        catch (KeySizeException | KeyDuplicateException ex) {
+            return false;
+        }
+        indexedVertices.put(vertex.getId(), indexed);
+        neuronVertices.computeIfAbsent(neuronId, id -> new HashSet<>()).add(vertex.getId());
+        return true;
+    }
+
+    // must be called holding the write lock
+    private boolean deleteVertex(IndexedVertex indexed) {
+        Long annotationId = indexed.annotation.getId();
+        indexedVertices.remove(annotationId);
+        Set<Long> siblings = neuronVertices.get(indexed.neuronId);
+        if (siblings != null) {
+            siblings.remove(annotationId);
+            if (siblings.isEmpty()) {
+                neuronVertices.remove(indexed.neuronId);
+            }
+        }
+        try {
+            // the KD-tree only marks the node as deleted
+            index.delete(indexed.key);
+            deletedNodeCount++;
+        }
+        catch (KeySizeException | KeyMissingException ex) {
+            return false;
+        }
+        return true;
+    }
+
+    // must be called holding the write lock
+    private boolean updateVertex(IndexedVertex indexed, Long neuronId, TmGeoAnnotation vertex) {
+        boolean deleted = deleteVertex(indexed);
+        return insertVertex(neuronId, vertex) && deleted;
+    }
+
+    // must be called holding the write lock
+    private void compactIfNeeded() {
+        if (deletedNodeCount > Math.max(MIN_COMPACTION_DELETIONS, indexedVertices.size())) {
+            log.info("Compacting spatial index ({} live vertices, {} deleted)", indexedVertices.size(), deletedNodeCount);
+            // the keys are kept, so rebuilding only has to reorder and reinsert them
+            install(new TreeContents(indexedVertices.values().toArray(new IndexedVertex[0])));
+        }
+    }
+
     public boolean isValid() {
         return valid.get();
     }
-    
+
     public synchronized void rebuildIndex(Collection<TmNeuronMetadata> neuronList) {
         log.info("Rebuilding spatial index");
+        long start = System.nanoTime();
         valid.set(false);
-        clear();
-        for (TmNeuronMetadata neuronModel : neuronList) {
-            for (TmGeoAnnotation neuronVertex : neuronModel.getGeoAnnotationMap().values()) {
-                addToIndex(neuronVertex);
+        lock.writeLock().lock();
+        try {
+            changesDuringRebuild = new ArrayList<>();
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+        List<IndexedVertex> vertices;
+        TreeContents contents;
+        try {
+            double[][] voxToMicron = TmModelManager.getInstance().getVoxToMicronMatrix().getArray();
+            vertices = new ArrayList<>(neuronList).parallelStream()
+                    .flatMap(neuron -> neuron.getGeoAnnotationMap().values().stream()
+                            .map(vertex -> new IndexedVertex(neuron.getId(), vertex,
+                                    keyForLocation(getLocationInMicrometers(voxToMicron, vertex)))))
+                    .collect(Collectors.toList());
+            // the new tree is built while queries still use the old one
+            contents = new TreeContents(vertices.toArray(new IndexedVertex[0]));
+        }
+        catch (RuntimeException e) {
+            lock.writeLock().lock();
+            try {
+                changesDuringRebuild = null; // the old tree already has the changes
             }
+            finally {
+                lock.writeLock().unlock();
+            }
+            throw e;
+        }
+        int changeCount;
+        lock.writeLock().lock();
+        try {
+            install(contents);
+            // the vertices were collected without the lock, so they may predate these changes
+            List<Runnable> changes = changesDuringRebuild;
+            changesDuringRebuild = null;
+            for (Runnable change : changes) {
+                change.run();
+            }
+            changeCount = changes.size();
+        }
+        finally {
+            lock.writeLock().unlock();
         }
         valid.set(true);
-        log.info("Added {} vertices to spatial index", index.size());
+        log.info("Added {} vertices to spatial index in {} ms, and applied {} changes made meanwhile",
+                vertices.size(), (System.nanoTime() - start) / 1000000, changeCount);
     }
-    
+
+    // must be called holding the write lock
+    private void recordForRebuild(Runnable change) {
+        if (changesDuringRebuild != null) {
+            changesDuringRebuild.add(change);
+        }
+    }
+
+    // must be called holding the write lock
+    private void install(TreeContents contents) {
+        index = contents.tree;
+        indexedVertices = contents.vertexMap;
+        neuronVertices = contents.neuronMap;
+        deletedNodeCount = 0;
+    }
+
     public void clear() {
-        this.index = new KDTree<>(3);
+        lock.writeLock().lock();
+        try {
+            if (changesDuringRebuild != null) {
+                changesDuringRebuild.clear();
+                changesDuringRebuild.add(this::clear); // reentrant, so the replay can take the lock again
+            }
+            this.index = new KDTree<>(3);
+            indexedVertices = new HashMap<>();
+            neuronVertices = new HashMap<>();
+            deletedNodeCount = 0;
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
     }
-    
-    private class CacheableKey {
 
-        private final double[] data;
-        
-        public CacheableKey(double[] data) {
-            this.data = Arrays.copyOf(data, 3);
+    /**
+     * A vertex as it was when it was inserted into the KD-tree. The position is remembered
+     * because annotations are moved in place, and the key is needed to delete it again.
+     */
+    private static class IndexedVertex {
+
+        private final Long neuronId;
+        private final TmGeoAnnotation annotation;
+        private final double[] key;
+        private final double x;
+        private final double y;
+        private final double z;
+
+        IndexedVertex(Long neuronId, TmGeoAnnotation annotation, double[] key) {
+            this.neuronId = neuronId;
+            this.annotation = annotation;
+            this.key = key;
+            this.x = annotation.getX();
+            this.y = annotation.getY();
+            this.z = annotation.getZ();
+        }
+
+        boolean isStale(Long currentNeuronId, TmGeoAnnotation current) {
+            return current != annotation
+                    || !neuronId.equals(currentNeuronId)
+                    || Double.compare(x, current.getX()) != 0
+                    || Double.compare(y, current.getY()) != 0
+                    || Double.compare(z, current.getZ()) != 0;
         }
-        
-        public double[] toArray() {
-            return data;
+    }
+
+    /**
+     * A balanced KD-tree of the given vertices, along with the maps that describe it.
+     */
+    private static class TreeContents {
+
+        private final KDTree<TmGeoAnnotation> tree = new KDTree<>(3);
+        private final Map<Long, IndexedVertex> vertexMap;
+        private final Map<Long, Set<Long>> neuronMap = new HashMap<>();
+
+        TreeContents(IndexedVertex[] vertices) {
+            IndexedVertex[] insertionOrder = new IndexedVertex[vertices.length];
+            new BalancedOrder(vertices, insertionOrder, 0, vertices.length, 0, 0).invoke();
+            vertexMap = new HashMap<>(vertices.length * 4 / 3 + 1);
+            for (IndexedVertex indexed : insertionOrder) {
+                try {
+                    tree.insert(indexed.key, indexed.annotation);
+                }
+                catch (KeySizeException | KeyDuplicateException ex) {
+                    continue;
+                }
+                vertexMap.put(indexed.annotation.getId(), indexed);
+                neuronMap.computeIfAbsent(indexed.neuronId, id -> new HashSet<>()).add(indexed.annotation.getId());
+            }
+        }
+    }
+
+    /**
+     * Orders vertices so that inserting them one by one yields a balanced KD-tree: the median
+     * along the splitting axis of each subtree comes before the vertices of its two halves.
+     * The halves write to disjoint parts of the output, so they are ordered in parallel.
+     */
+    private static class BalancedOrder extends RecursiveAction {
+
+        private final IndexedVertex[] vertices; // partitioned in place
+        private final IndexedVertex[] order;
+        private final int from;
+        private final int to;
+        private final int out;
+        private final int depth;
+
+        BalancedOrder(IndexedVertex[] vertices, IndexedVertex[] order, int from, int to, int out, int depth) {
+            this.vertices = vertices;
+            this.order = order;
+            this.from = from;
+            this.to = to;
+            this.out = out;
+            this.depth = depth;
+        }
+
+        @Override
+        protected void compute() {
+            if (from >= to) {
+                return;
+            }
+            int median = (from + to) >>> 1;
+            select(vertices, from, to - 1, median, depth % 3);
+            order[out] = vertices[median];
+            BalancedOrder lower = new BalancedOrder(vertices, order, from, median, out + 1, depth + 1);
+            BalancedOrder upper = new BalancedOrder(vertices, order, median + 1, to, out + 1 + (median - from), depth + 1);
+            if (to - from > PARALLEL_THRESHOLD) {
+                invokeAll(lower, upper);
+            }
+            else {
+                lower.compute();
+                upper.compute();
+            }
+        }
+
+        /**
+         * Partially sort vertices[left..right] so that the k-th one is in its sorted position along the axis.
+         */
+        private static void select(IndexedVertex[] vertices, int left, int right, int k, int axis) {
+            while (right > left) {
+                double pivot = vertices[(left + right) >>> 1].key[axis];
+                int i = left;
+                int j = right;
+                while (i <= j) {
+                    while (vertices[i].key[axis] < pivot) i++;
+                    while (vertices[j].key[axis] > pivot) j--;
+                    if (i <= j) {
+                        IndexedVertex swap = vertices[i];
+                        vertices[i] = vertices[j];
+                        vertices[j] = swap;
+                        i++;
+                        j--;
+                    }
+                }
+                if (k <= j) {
+                    right = j;
+                }
+                else if (k >= i) {
+                    left = i;
+                }
+                else {
+                    return;
+                }
+            }
         }
-        
     }
 }
@@ -16,7 +16,6 @@ public class SpatialIndexManager {
     }
 
     public void initialize() {
-        spatialIndex.clear();
         spatialIndex.rebuildIndex(NeuronManager.getInstance().getNeuronList());
     }
 
@@ -60,12 +59,7 @@ public class SpatialIndexManager {
     @Subscribe
     public void neuronCreated(NeuronCreateEvent event) {
         for (TmNeuronMetadata neuron : event.getNeurons()) {
-            for (TmGeoAnnotation annotation : neuron.getGeoAnnotationMap().values()) {
-                spatialIndex.removeFromIndex(annotation);
-            }
-            for (TmGeoAnnotation annotation : neuron.getGeoAnnotationMap().values()) {
-                spatialIndex.addToIndex(annotation);
-            }
+            spatialIndex.updateNeuron(neuron);
         }
     }
 
@@ -74,34 +68,26 @@ public class SpatialIndexManager {
         if (event.getNeurons()==null)
             return;
         for (TmNeuronMetadata neuron : event.getNeurons()) {
-            for (TmGeoAnnotation annotation : neuron.getGeoAnnotationMap().values()) {
-                spatialIndex.removeFromIndex(annotation);
-            }
-            for (TmGeoAnnotation annotation : neuron.getGeoAnnotationMap().values()) {
-                spatialIndex.addToIndex(annotation);
-            }
+            spatialIndex.updateNeuron(neuron);
         }
     }
 
     @Subscribe
     public void neuronDeleted(NeuronDeleteEvent event) {
         for (TmNeuronMetadata neuron : event.getNeurons()) {
-            for (TmGeoAnnotation annotation : neuron.getGeoAnnotationMap().values()) {
-                spatialIndex.removeFromIndex(annotation);
-            }
+            spatialIndex.removeNeuron(neuron);
         }
     }
 
     @Subscribe
     public void projectLoaded(LoadProjectEvent event) {
-        spatialIndex.clear();
         spatialIndex.rebuildIndex(NeuronManager.getInstance().getNeuronList());
     }
 
     @Subscribe
     public void neuronSpatialFilterUpdated(NeuronSpatialFilterUpdateEvent event) {
-        spatialIndex.clear();
-        spatialIndex.rebuildIndex(NeuronManager.getInstance().getNeuronList());
+        // only the neurons which entered or left the filter are changed
+        spatialIndex.updateNeurons(NeuronManager.getInstance().getNeuronList());
     }
 
     @Subscribe
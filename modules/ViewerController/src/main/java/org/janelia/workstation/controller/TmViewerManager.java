@@ -8,6 +8,7 @@ import org.janelia.model.security.Subject;
 import org.janelia.model.security.User;
 import org.janelia.workstation.controller.access.ProjectInitFacade;
 import org.janelia.workstation.controller.access.ProjectInitFacadeImpl;
+import org.janelia.workstation.controller.access.OperationLogShipper;
 import org.janelia.workstation.controller.access.RefreshHandler;
 import org.janelia.workstation.controller.dialog.NeuronGroupsDialog;
 import org.janelia.workstation.controller.eventbus.*;
@@ -76,7 +77,8 @@ public class TmViewerManager implements GlobalViewerController {
             newOperationLog.setNeuronId(modelManager.getCurrentSelections().getCurrentNeuron().getId());
         if (modelManager.getCurrentSelections().getCurrentVertex()!=null)
             newOperationLog.setVertexId(modelManager.getCurrentSelections().getCurrentVertex().getId());
-        tmDomainMgr.createOperationLog(newOperationLog, AccessManager.getSubjectKey());
+        // shipped in batches in the background, so that callers such as tile loaders never wait on the server
+        OperationLogShipper.getInstance().add(newOperationLog);
     }
 
     @Subscribe
@@ -0,0 +1,394 @@
+package org.janelia.workstation.controller.access;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.google.common.eventbus.Subscribe;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.janelia.model.domain.tiledMicroscope.TmOperation;
+import org.janelia.workstation.core.api.AccessManager;
+import org.janelia.workstation.core.api.LocalCacheMgr;
+import org.janelia.workstation.core.events.Events;
+import org.janelia.workstation.core.events.lifecycle.ApplicationClosing;
+import org.janelia.workstation.core.util.ConsoleProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToIntFunction;
+
+/**
+ * Ships operation logs to the server in the background.
+ *
+ * Operations are added to a bounded ring buffer without locking, so callers such as the tile loaders
+ * never wait on the server. A single background thread drains the buffer once a batch has filled,
+ * or at the latest every flush interval, and ships each batch in one call. When the server can't be
+ * reached, the batch is appended to a local spill file, which is shipped first once the server is
+ * back. Operations are dropped, and counted, when the buffer or the spill file is full. When the
+ * application closes, operations still in the buffer are spilled, to be shipped by the next session.
+ * Every operation is shipped for the user it names, so spilled operations keep their user across sessions.
+ */
+public class OperationLogShipper {
+    private static final Logger log = LoggerFactory.getLogger(OperationLogShipper.class);
+
+    private static final ObjectReader OPERATION_READER = new ObjectMapper().readerFor(TmOperation.class);
+    private static final ObjectWriter OPERATION_WRITER = new ObjectMapper().writerFor(TmOperation.class);
+    private static final long CLOSE_TIMEOUT_SECONDS = 10;
+
+    // Singleton
+    private static OperationLogShipper instance;
+    public static synchronized OperationLogShipper getInstance() {
+        if (instance == null) {
+            Path spillFile = LocalCacheMgr.getInstance().getLocalFileCacheStorage().getLocalFileCacheDir()
+                    .resolve("operation-log").resolve("unshipped.json");
+            instance = new OperationLogShipper(
+                    operations -> TiledMicroscopeDomainMgr.getDomainMgr().createOperationLogs(operations, AccessManager.getSubjectKey()),
+                    spillFile,
+                    ConsoleProperties.getInt("console.operationLog.bufferSize", 4096),
+                    ConsoleProperties.getInt("console.operationLog.batchSize", 200),
+                    ConsoleProperties.getLong("console.operationLog.flushIntervalMs", 5000),
+                    ConsoleProperties.getLong("console.operationLog.maxSpillMB", 16) * 1024 * 1024);
+            Events.getInstance().registerOnEventBus(instance);
+        }
+        return instance;
+    }
+
+    private final ToIntFunction<List<TmOperation>> shipper;
+    private final Path spillFile;
+    private final int batchSize;
+    private final long maxSpillBytes;
+    private final OperationRing ring;
+    private final ScheduledExecutorService shipExecutor = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder()
+                    .setNameFormat("OperationLogShipper-%d")
+                    .setDaemon(true)
+                    .build());
+    private final AtomicBoolean drainScheduled = new AtomicBoolean();
+    private final LongAdder droppedCount = new LongAdder();
+    private final LongAdder shippedCount = new LongAdder();
+    private final LongAdder spilledCount = new LongAdder();
+    private final AtomicLong batchCount = new AtomicLong();
+
+    /**
+     * @param shipper sends a batch of operations to the server in order, and returns how many were stored,
+     *                which is fewer than all of them if the server could not be reached part way through;
+     *                it may also throw if none were stored
+     */
+    OperationLogShipper(ToIntFunction<List<TmOperation>> shipper, Path spillFile, int bufferSize, int batchSize,
+                        long flushIntervalMs, long maxSpillBytes) {
+        this.shipper = shipper;
+        this.spillFile = spillFile;
+        this.batchSize = batchSize;
+        this.maxSpillBytes = maxSpillBytes;
+        this.ring = new OperationRing(bufferSize);
+        shipExecutor.scheduleWithFixedDelay(this::drain, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Queues an operation for shipping. Never blocks; the operation is dropped if the buffer is full.
+     */
+    public void add(TmOperation operation) {
+        if (!ring.offer(operation)) {
+            droppedCount.increment();
+            return;
+        }
+        if (ring.size() >= batchSize && !shipExecutor.isShutdown() && drainScheduled.compareAndSet(false, true)) {
+            shipExecutor.execute(this::drain);
+        }
+    }
+
+    @Subscribe
+    public void systemWillExit(ApplicationClosing closingEvent) {
+        close();
+    }
+
+    /**
+     * Stops shipping, and writes the operations still in the buffer to the spill file, so that they are
+     * shipped by the next session. Waits for a batch being shipped to finish, but not indefinitely.
+     */
+    public synchronized void close() {
+        if (shipExecutor.isShutdown()) {
+            return;
+        }
+        Future<?> flush = shipExecutor.submit(() -> {
+            List<TmOperation> batch;
+            while (!(batch = ring.poll(batchSize)).isEmpty()) {
+                spill(batch);
+            }
+        });
+        shipExecutor.shutdown();
+        try {
+            flush.get(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException e) {
+            log.warn("Could not keep {} operation logs for the next session", ring.size(), e);
+        }
+    }
+
+    /**
+     * Ships everything queued so far, on the shipping thread.
+     */
+    private void drain() {
+        drainScheduled.set(false);
+        try {
+            shipSpilled();
+        } catch (Exception e) {
+            // the buffer is still drained below, so that it doesn't fill up and drop operations
+            log.error("Error shipping operation logs from {}", spillFile, e);
+        }
+        try {
+            // if the spill file is still there, the server can't be reached, and the batches are spilled behind it
+            List<TmOperation> batch;
+            while (!(batch = ring.poll(batchSize)).isEmpty()) {
+                ship(batch);
+            }
+        } catch (Exception e) {
+            // keep the scheduled drains going
+            log.error("Error shipping operation logs", e);
+        }
+    }
+
+    private void ship(List<TmOperation> batch) {
+        if (Files.exists(spillFile)) {
+            // the server is still unreachable, so keep the operations in order behind the spilled ones
+            spill(batch);
+            return;
+        }
+        int shipped = shipToServer(batch);
+        if (shipped < batch.size()) {
+            spill(batch.subList(shipped, batch.size()));
+        }
+    }
+
+    /**
+     * @return number of operations from the start of the batch which the server stored
+     */
+    private int shipToServer(List<TmOperation> batch) {
+        int shipped;
+        try {
+            shipped = Math.max(0, Math.min(batch.size(), shipper.applyAsInt(batch)));
+        } catch (Exception e) {
+            log.warn("Could not ship {} operation logs, keeping them until the server can be reached: {}",
+                    batch.size(), e.getMessage());
+            return 0;
+        }
+        if (shipped > 0) {
+            shippedCount.add(shipped);
+            batchCount.incrementAndGet();
+        }
+        if (shipped < batch.size()) {
+            log.warn("Shipped {} of {} operation logs, keeping the rest until the server can be reached",
+                    shipped, batch.size());
+        }
+        return shipped;
+    }
+
+    private void spill(List<TmOperation> batch) {
+        try {
+            Files.createDirectories(spillFile.getParent());
+            if (Files.exists(spillFile) && Files.size(spillFile) >= maxSpillBytes) {
+                droppedCount.add(batch.size());
+                return;
+            }
+            try (BufferedWriter writer = Files.newBufferedWriter(spillFile, StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+                for (TmOperation operation : batch) {
+                    writer.write(OPERATION_WRITER.writeValueAsString(operation));
+                    writer.newLine();
+                }
+            }
+            spilledCount.add(batch.size());
+        } catch (IOException e) {
+            log.error("Could not spill {} operation logs to {}", batch.size(), spillFile, e);
+            droppedCount.add(batch.size());
+        }
+    }
+
+    /**
+     * Ships the spill file, if there is one, a batch at a time, and deletes it once all of it has been shipped.
+     * When the server can't be reached part way through, only the first batch that failed is read; the file
+     * is then replaced by what is left of it, so that shipped operations aren't sent twice and unreadable
+     * lines are only counted once.
+     */
+    private void shipSpilled() throws IOException {
+        if (!Files.exists(spillFile)) {
+            return;
+        }
+        long shippedBefore = shippedCount.sum();
+        Path remainderFile = spillFile.resolveSibling(spillFile.getFileName() + ".tmp");
+        boolean shippedAll = false;
+        boolean wroteRemainder = false;
+        try (BufferedReader reader = Files.newBufferedReader(spillFile, StandardCharsets.UTF_8)) {
+            boolean consumedLines = false; // whether any lines were shipped or dropped
+            while (!shippedAll) {
+                List<String> lines = new ArrayList<>();
+                List<TmOperation> batch = new ArrayList<>();
+                String line;
+                while (batch.size() < batchSize && (line = reader.readLine()) != null) {
+                    if (line.isEmpty()) {
+                        continue;
+                    }
+                    try {
+                        batch.add(OPERATION_READER.readValue(line));
+                        lines.add(line);
+                    } catch (IOException e) {
+                        // e.g. a line cut short when the application exited
+                        log.warn("Skipping unreadable operation log in {}", spillFile);
+                        droppedCount.increment();
+                        consumedLines = true;
+                    }
+                }
+                if (batch.isEmpty()) {
+                    shippedAll = true;
+                    continue;
+                }
+                int shipped = shipToServer(batch);
+                if (shipped < batch.size()) {
+                    if (shipped > 0 || consumedLines) {
+                        writeRemainder(remainderFile, lines.subList(shipped, lines.size()), reader);
+                        wroteRemainder = true;
+                    }
+                    break;
+                }
+                consumedLines = true;
+            }
+        }
+        // only once the spill file is closed, so that it can be replaced on every platform
+        if (wroteRemainder) {
+            try {
+                Files.move(remainderFile, spillFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(remainderFile, spillFile, StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        if (!shippedAll) {
+            return;
+        }
+        Files.delete(spillFile);
+        log.info("Shipped {} operation logs which were kept while the server could not be reached",
+                shippedCount.sum() - shippedBefore);
+    }
+
+    private static void writeRemainder(Path remainderFile, List<String> unshippedLines, BufferedReader rest) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(remainderFile, StandardCharsets.UTF_8)) {
+            for (String line : unshippedLines) {
+                writer.write(line);
+                writer.newLine();
+            }
+            String line;
+            while ((line = rest.readLine()) != null) {
+                writer.write(line);
+                writer.newLine();
+            }
+        }
+    }
+
+    /**
+     * @return number of operations that were dropped, because the buffer or the spill file was full
+     */
+    public long getDroppedCount() {
+        return droppedCount.sum();
+    }
+
+    /**
+     * @return number of operations waiting in the buffer
+     */
+    public int getQueuedCount() {
+        return ring.size();
+    }
+
+    public long getShippedCount() {
+        return shippedCount.sum();
+    }
+
+    /**
+     * @return number of operations that were written to the spill file, including those shipped from it since
+     */
+    public long getSpilledCount() {
+        return spilledCount.sum();
+    }
+
+    public long getBatchCount() {
+        return batchCount.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Operation logs: queued=%d shipped=%d batches=%d spilled=%d dropped=%d",
+                getQueuedCount(), getShippedCount(), getBatchCount(), getSpilledCount(), getDroppedCount());
+    }
+
+    /**
+     * Bounded ring buffer for any number of producers and a single consumer.
+     *
+     * A producer claims a slot by advancing the tail, and then fills it. The consumer takes filled slots
+     * in order from the head, and stops at a slot that was claimed but not filled yet.
+     */
+    private static class OperationRing {
+        private final AtomicReferenceArray<TmOperation> slots;
+        private final int capacity;
+        private final AtomicLong tail = new AtomicLong(); // next slot to claim
+        private volatile long head = 0; // next slot to take; only advanced by the consumer
+
+        OperationRing(int capacity) {
+            this.capacity = capacity;
+            this.slots = new AtomicReferenceArray<>(capacity);
+        }
+
+        boolean offer(TmOperation operation) {
+            long claimed;
+            do {
+                claimed = tail.get();
+                if (claimed - head >= capacity) {
+                    return false;
+                }
+            } while (!tail.compareAndSet(claimed, claimed + 1));
+            slots.set((int) (claimed % capacity), operation);
+            return true;
+        }
+
+        /**
+         * Takes up to the given number of operations. Must only be called by the consumer.
+         */
+        List<TmOperation> poll(int maxCount) {
+            List<TmOperation> operations = new ArrayList<>();
+            long next = head;
+            while (operations.size() < maxCount) {
+                int index = (int) (next % capacity);
+                TmOperation operation = slots.get(index);
+                if (operation == null) {
+                    break;
+                }
+                slots.set(index, null);
+                operations.add(operation);
+                head = ++next;
+            }
+            return operations;
+        }
+
+        int size() {
+            return (int) Math.max(0, tail.get() - head);
+        }
+    }
+}
@@ -1,6 +1,8 @@
 package org.janelia.workstation.controller.access;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.janelia.messaging.core.AsyncMessageConsumer;
 import org.janelia.messaging.core.ConnectionManager;
 import org.janelia.messaging.core.MessageConnection;
@@ -14,6 +16,7 @@ import org.janelia.workstation.controller.options.ApplicationPanel;
 import org.janelia.workstation.controller.scripts.spatialfilter.NeuronMessageConstants;
 import org.janelia.workstation.core.api.AccessManager;
 import org.janelia.workstation.core.util.ConsoleProperties;
+import org.janelia.workstation.core.util.LatencyRecorder;
 import org.janelia.workstation.integration.util.FrameworkAccess;
 import org.perf4j.StopWatch;
 import org.slf4j.Logger;
@@ -21,13 +24,25 @@ import org.slf4j.LoggerFactory;
 
 import javax.swing.*;
 import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
 
 /**
  * @author schauderd
  * handler to manage updates coming from the persistence broker
+ *
+ * Messages are deserialized on the messaging thread and collected for a short window.
+ * Within a window only the latest update of each neuron is kept, and the whole window
+ * is then applied on the Swing thread as one batch.
  */
 public class RefreshHandler implements MessageHandler {
     private static final Logger log = LoggerFactory.getLogger(RefreshHandler.class);
@@ -35,12 +50,31 @@ public class RefreshHandler implements MessageHandler {
     private static final String MESSAGESERVER_USERACCOUNT = ConsoleProperties.getInstance().getProperty("domain.msgserver.useraccount").trim();
     private static final String MESSAGESERVER_PASSWORD = ConsoleProperties.getInstance().getProperty("domain.msgserver.password").trim();
     private static final String MESSAGESERVER_EXCHANGE_REFRESH = ConsoleProperties.getInstance().getProperty("domain.msgserver.exchange.refresh").trim();
+    private static final int REFRESH_WINDOW_MS = ConsoleProperties.getInt("domain.msgserver.refreshWindowMs", 100);
+    private static final long LAG_WARNING_MS = 2000;
+
+    // readers are immutable and thread-safe, unlike building a mapper per message
+    private static final ObjectReader NEURON_READER = new ObjectMapper().readerFor(TmNeuronMetadata.class);
 
     private NeuronManager neuronManager;
     static RefreshHandler handler;
     private boolean receiveUpdates = false;
     private TmModelManager modelManager;
 
+    // latest pending update per neuron, in order of arrival; guarded by itself
+    private final Map<String, PendingUpdate> pendingUpdates = new LinkedHashMap<>();
+    private final ScheduledExecutorService flushExecutor = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder()
+                    .setNameFormat("RefreshHandlerFlush-%d")
+                    .setDaemon(true)
+                    .build());
+    private boolean flushScheduled; // guarded by pendingUpdates
+    private final AtomicInteger queuedUpdateCount = new AtomicInteger(); // received but not yet applied
+    private final AtomicLong receivedCount = new AtomicLong();
+    private final AtomicLong coalescedCount = new AtomicLong();
+    private final AtomicLong batchCount = new AtomicLong();
+    private final LatencyRecorder updateLag = new LatencyRecorder("Shared workspace update lag");
+
     /**
      * @return the receiveUpdates
      */
@@ -140,8 +174,7 @@ public class RefreshHandler implements MessageHandler {
                 return;
             }
 
-            ObjectMapper mapper = new ObjectMapper();
-            TmNeuronMetadata neuron = mapper.readValue(msgBody, TmNeuronMetadata.class);
+            long receivedNanos = System.nanoTime();
 
             log.debug("Processed headers for workspace Id {}", workspace);
             // if not this workspace or user isn't looking at a workspace right now or workspace not relating to a workspace update, filter out message
@@ -152,40 +185,9 @@ public class RefreshHandler implements MessageHandler {
                 return;
             }
 
-            SwingUtilities.invokeLater(() -> {
-                try {
-                    StopWatch stopWatch2 = new StopWatch();
-                    // fire notice to NeuronManager
-                    // change relevant to this workspace and not executed on this client,
-                    // update model or process request
-                    switch (action) {
-                        case NEURON_CREATE:
-                            handleNeuronCreate(user, neuron, n -> neuronManager.getNeuronModel().addNeuron(n));
-                            break;
-                        case NEURON_SAVE_NEURONDATA:
-                            if (neuronManager.getNeuronModel().getNeuronById(neuron.getId())==null) {
-                                // We don't know about this neuron yet
-                                neuronManager.getNeuronModel().addNeuron(neuron);
-                                updateFilter(neuron, NeuronMessageConstants.MessageType.NEURON_CREATE);
-                                neuronManager.fireNeuronCreated(neuron);
-                            } else {
-                                handleNeuronChanged(user, neuron);
-                            }
-                            break;
-                        case NEURON_DELETE:
-                            handleNeuronDeleted(user, neuron);
-                            break;
-                        case REQUEST_NEURON_ASSIGNMENT:
-                            handleNeuronAssignment(user, neuron);
-                            break;
-                    }
-                    stopWatch2.stop();
-                    log.debug("RefreshHandler.invokeLater: handled update in {} ms", stopWatch2.getElapsedTime());
-                } catch (Exception e) {
-                    FrameworkAccess.handleExceptionQuietly("Error handling refresh message: " + e.getMessage(), e);
-                }
-                log.debug("TOTAL MESSAGING PROCESSING TIME: {}", stopWatch.getElapsedTime());
-            });
+            // deserialize here, on the messaging thread, rather than on the Swing thread
+            TmNeuronMetadata neuron = NEURON_READER.readValue(msgBody);
+            enqueue(new PendingUpdate(action, user, neuron, receivedNanos));
             stopWatch.stop();
             log.debug("RefreshHandler: handled message in {} ms", stopWatch.getElapsedTime());
         } catch (Exception e) {
@@ -193,6 +195,132 @@ public class RefreshHandler implements MessageHandler {
         }
     }
 
+    private void enqueue(PendingUpdate update) {
+        receivedCount.incrementAndGet();
+        queuedUpdateCount.incrementAndGet();
+        Long neuronId = update.neuron.getId();
+        synchronized (pendingUpdates) {
+            if (update.action == NeuronMessageConstants.MessageType.NEURON_DELETE) {
+                // a deletion makes any pending change of the neuron moot
+                discardPending(PendingUpdate.key(NeuronMessageConstants.MessageType.NEURON_SAVE_NEURONDATA, neuronId));
+                discardPending(PendingUpdate.key(NeuronMessageConstants.MessageType.REQUEST_NEURON_ASSIGNMENT, neuronId));
+            }
+            // latest wins; re-inserting moves the update to the end of the window
+            discardPending(update.key());
+            pendingUpdates.put(update.key(), update);
+            if (!flushScheduled) {
+                flushScheduled = true;
+                flushExecutor.schedule(this::flush, REFRESH_WINDOW_MS, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    // must be called holding the pendingUpdates lock
+    private void discardPending(String key) {
+        if (pendingUpdates.remove(key) != null) {
+            coalescedCount.incrementAndGet();
+            queuedUpdateCount.decrementAndGet();
+        }
+    }
+
+    private void flush() {
+        List<PendingUpdate> batch;
+        synchronized (pendingUpdates) {
+            batch = new ArrayList<>(pendingUpdates.values());
+            pendingUpdates.clear();
+            flushScheduled = false;
+        }
+        if (!batch.isEmpty()) {
+            SwingUtilities.invokeLater(() -> applyBatch(batch));
+        }
+    }
+
+    private void applyBatch(List<PendingUpdate> batch) {
+        StopWatch stopWatch = new StopWatch();
+        List<TmNeuronMetadata> changedNeurons = new ArrayList<>();
+        for (PendingUpdate update : batch) {
+            try {
+                TmNeuronMetadata neuron = update.neuron;
+                // fire notice to NeuronManager
+                // change relevant to this workspace and not executed on this client,
+                // update model or process request
+                switch (update.action) {
+                    case NEURON_CREATE:
+                        handleNeuronCreate(update.user, neuron, n -> neuronManager.getNeuronModel().addNeuron(n));
+                        break;
+                    case NEURON_SAVE_NEURONDATA:
+                        if (neuronManager.getNeuronModel().getNeuronById(neuron.getId())==null) {
+                            // We don't know about this neuron yet
+                            neuronManager.getNeuronModel().addNeuron(neuron);
+                            updateFilter(neuron, NeuronMessageConstants.MessageType.NEURON_CREATE);
+                            neuronManager.fireNeuronCreated(neuron);
+                        } else if (handleNeuronChanged(update.user, neuron)) {
+                            changedNeurons.add(neuron);
+                        }
+                        break;
+                    case NEURON_DELETE:
+                        handleNeuronDeleted(update.user, neuron);
+                        break;
+                    case REQUEST_NEURON_ASSIGNMENT:
+                        handleNeuronAssignment(update.user, neuron);
+                        break;
+                }
+            } catch (Exception e) {
+                FrameworkAccess.handleExceptionQuietly("Error handling refresh message: " + e.getMessage(), e);
+            }
+        }
+        try {
+            // one spatial index and viewer update for all the changed neurons
+            neuronManager.refreshNeurons(changedNeurons);
+        } catch (Exception e) {
+            FrameworkAccess.handleExceptionQuietly("Error handling neuron changes: " + e.getMessage(), e);
+        }
+
+        long maxLagNanos = 0;
+        for (PendingUpdate update : batch) {
+            long lagNanos = System.nanoTime() - update.receivedNanos;
+            updateLag.recordNanos(lagNanos);
+            maxLagNanos = Math.max(maxLagNanos, lagNanos);
+        }
+        queuedUpdateCount.addAndGet(-batch.size());
+        batchCount.incrementAndGet();
+        stopWatch.stop();
+        log.debug("RefreshHandler: applied {} updates in {} ms", batch.size(), stopWatch.getElapsedTime());
+        if (maxLagNanos > TimeUnit.MILLISECONDS.toNanos(LAG_WARNING_MS)) {
+            log.warn("Shared workspace updates are falling behind: {} ms lag, {} updates queued; {}",
+                    TimeUnit.NANOSECONDS.toMillis(maxLagNanos), getQueuedUpdateCount(), updateLag);
+        }
+    }
+
+    /**
+     * @return number of updates received which have not been applied yet
+     */
+    public int getQueuedUpdateCount() {
+        return queuedUpdateCount.get();
+    }
+
+    public long getReceivedCount() {
+        return receivedCount.get();
+    }
+
+    /**
+     * @return number of updates that were superseded by a later update of the same neuron
+     */
+    public long getCoalescedCount() {
+        return coalescedCount.get();
+    }
+
+    public long getBatchCount() {
+        return batchCount.get();
+    }
+
+    /**
+     * @return time from receiving an update to having applied it on the Swing thread
+     */
+    public LatencyRecorder getUpdateLag() {
+        return updateLag;
+    }
+
     private void handleNeuronCreate(String user, TmNeuronMetadata neuron, Consumer<TmNeuronMetadata> neuronAction) {
         try {
             log.info("Processing neuron '{}' ({}) remotely created by {}", neuron.getName(), neuron.getId(), user);
@@ -204,13 +332,18 @@ public class RefreshHandler implements MessageHandler {
         }
     }
 
-    private void handleNeuronChanged(String user, TmNeuronMetadata neuron) {
+    /**
+     * Update the model with the changed neuron. The views are refreshed for the whole batch afterwards.
+     * @return true if the model was updated
+     */
+    private boolean handleNeuronChanged(String user, TmNeuronMetadata neuron) {
         try {
             log.info("Processing neuron '{}' ({}) remotely modified by {}", neuron.getName(), neuron.getId(), user);
             neuronManager.getNeuronModel().refreshNeuronFromShared(neuron);
-            neuronManager.refreshNeuron(neuron);
+            return true;
         } catch (Exception e) {
             FrameworkAccess.handleExceptionQuietly("Error handling neuron change: " + e.getMessage(), e);
+            return false;
         }
     }
 
@@ -251,4 +384,31 @@ public class RefreshHandler implements MessageHandler {
     public void setAnnotationModel(NeuronManager annotationModel) {
         this.neuronManager = annotationModel;
     }
+
+    private static class PendingUpdate {
+        private final NeuronMessageConstants.MessageType action;
+        private final String user;
+        private final TmNeuronMetadata neuron;
+        private final long receivedNanos;
+
+        PendingUpdate(NeuronMessageConstants.MessageType action, String user, TmNeuronMetadata neuron, long receivedNanos) {
+            this.action = action;
+            this.user = user;
+            this.neuron = neuron;
+            this.receivedNanos = receivedNanos;
+        }
+
+        String key() {
+            return key(action, neuron.getId());
+        }
+
+        /**
+         * Creating and saving a neuron both carry its latest data, so they replace each other.
+         */
+        static String key(NeuronMessageConstants.MessageType action, Long neuronId) {
+            NeuronMessageConstants.MessageType kind = action == NeuronMessageConstants.MessageType.NEURON_CREATE
+                    ? NeuronMessageConstants.MessageType.NEURON_SAVE_NEURONDATA : action;
+            return kind + ":" + neuronId;
+        }
+    }
 }
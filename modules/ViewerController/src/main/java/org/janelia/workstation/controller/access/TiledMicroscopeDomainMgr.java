@@ -172,6 +172,35 @@ public class TiledMicroscopeDomainMgr {
         client.createOperationLog(operation, subjectKey);
     }
 
+    /**
+     * Creates a batch of operation logs. There is no bulk endpoint for operation logs, so they are
+     * posted one by one; callers should not be waiting on this. Each operation log is created for the
+     * user who performed it, which may not be the current user when it was kept from an earlier session.
+     *
+     * @param defaultSubjectKey subject key for operation logs which do not name their user
+     * @return number of operation logs created, from the start of the list; fewer than all of them
+     * if the server failed part way through, in which case the rest were not sent
+     * @throws RuntimeException if the first operation log could not be created
+     */
+    public int createOperationLogs (List<TmOperation> operations, String defaultSubjectKey) {
+        LOG.debug("createOperationLogs({} operations)", operations.size());
+        int created = 0;
+        for (TmOperation operation : operations) {
+            try {
+                String subjectKey = operation.getUser() != null ? operation.getUser() : defaultSubjectKey;
+                client.createOperationLog(operation, subjectKey);
+            } catch (RuntimeException e) {
+                if (created == 0) {
+                    throw e;
+                }
+                LOG.warn("Created {} of {} operation logs before the server failed", created, operations.size(), e);
+                break;
+            }
+            created++;
+        }
+        return created;
+    }
+
     public TmWorkspace createWorkspace(Long sampleId, String name) throws Exception {
         LOG.debug("createWorkspace(sampleId={}, name={})", sampleId, name);
         TmSample sample = getSample(sampleId);
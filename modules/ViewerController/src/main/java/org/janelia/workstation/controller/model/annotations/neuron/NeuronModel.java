@@ -10,6 +10,7 @@ import org.janelia.workstation.controller.model.TmHistoricalEvent;
 import org.janelia.workstation.controller.model.TmModelManager;
 import org.janelia.model.domain.tiledMicroscope.BoundingBox3d;
 import org.janelia.workstation.integration.util.FrameworkAccess;
+import org.janelia.workstation.swc.SWCNodeColumns;
 import org.perf4j.StopWatch;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -164,6 +165,40 @@ public class NeuronModel {
         TmNeuronUtils.addLinkedGeometricAnnotationsInMemory(nodeParentLinkage, annotations, tmNeuronMetadata, () -> idSource.next());
     }
 
+    /**
+     * Same as {@link #addLinkedGeometricAnnotationsInMemory(Map, Map, TmNeuronMetadata)}, for
+     * nodes held in columns, as read from a large SWC file. Node locations must already be
+     * internal coordinates. The parent of each node is found by its row, so no maps are built.
+     *
+     * @param nodes nodes to add, with consecutive indices starting at 1.
+     * @param tmNeuronMetadata neuron receiving the annotations.
+     */
+    public void addLinkedGeometricAnnotationsInMemory(SWCNodeColumns nodes, TmNeuronMetadata tmNeuronMetadata) {
+        Date now = new Date();
+        TmGeoAnnotation[] annotations = new TmGeoAnnotation[nodes.size()];
+        for (int row = 0; row < nodes.size(); row++) {
+            annotations[row] = new TmGeoAnnotation(
+                    idSource.next(), null, tmNeuronMetadata.getId(),
+                    nodes.getX(row), nodes.getY(row), nodes.getZ(row), nodes.getRadius(row),
+                    now, now);
+        }
+        // parents may come after their children in the file, so link once all exist
+        Map<Long, TmGeoAnnotation> geoAnnotationMap = tmNeuronMetadata.getGeoAnnotationMap();
+        for (int row = 0; row < annotations.length; row++) {
+            TmGeoAnnotation annotation = annotations[row];
+            int parentRow = nodes.getParentRow(row);
+            if (parentRow == -1) {
+                annotation.setParentId(tmNeuronMetadata.getId());
+                tmNeuronMetadata.addRootAnnotation(annotation);
+            } else {
+                TmGeoAnnotation parent = annotations[parentRow];
+                annotation.setParentId(parent.getId());
+                parent.addChild(annotation);
+            }
+            geoAnnotationMap.put(annotation.getId(), annotation);
+        }
+    }
+
     public TmStructuredTextAnnotation addStructuredTextAnnotation(TmNeuronMetadata neuron, Long parentID, String data) throws Exception {
         // parent must not already have a structured text annotation
         if (neuron.getStructuredTextAnnotationMap().containsKey(parentID)) {
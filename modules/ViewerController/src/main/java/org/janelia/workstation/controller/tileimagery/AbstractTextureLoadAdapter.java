@@ -25,7 +25,7 @@ public abstract class AbstractTextureLoadAdapter {
 
 	private final TileFormat tileFormat;
 
-	AbstractTextureLoadAdapter(TileFormat tileFormat) {
+	protected AbstractTextureLoadAdapter(TileFormat tileFormat) {
 		this.tileFormat = tileFormat;
 	}
 
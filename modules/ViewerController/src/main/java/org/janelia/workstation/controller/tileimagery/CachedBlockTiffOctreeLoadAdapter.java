@@ -1,20 +1,20 @@
 package org.janelia.workstation.controller.tileimagery;
 
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.stream.Collectors;
-import java.util.stream.IntStream;
-import java.util.stream.Stream;
 
 import com.google.common.base.Stopwatch;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.LoadingCache;
 
-import org.apache.commons.lang3.tuple.ImmutablePair;
 import org.janelia.workstation.geom.CoordinateAxis;
 import org.janelia.workstation.geom.Vec3;
 import org.janelia.workstation.core.util.ConsoleProperties;
@@ -23,7 +23,7 @@ import org.slf4j.LoggerFactory;
 
 public class CachedBlockTiffOctreeLoadAdapter extends BlockTiffOctreeLoadAdapter {
 
-    private static final int MAX_CACHE_SIZE = ConsoleProperties.getInt("console.lvv.tileCacheSize", 300);
+    private static final long MAX_CACHE_BYTES = ConsoleProperties.getLong("console.lvv.tileCacheMB", 1024) * 1024 * 1024;
     private final static Logger LOG = LoggerFactory.getLogger(CachedBlockTiffOctreeLoadAdapter.class);
 
     private final ScheduledThreadPoolExecutor tileLoadThreadPool;
@@ -31,9 +31,13 @@ public class CachedBlockTiffOctreeLoadAdapter extends BlockTiffOctreeLoadAdapter
 
     private final TextureData2dCacheLoader tileCacheLoader;
     private final BlockTiffOctreeLoadAdapter tileLoader;
+    private final TileFocusPredictor focusPredictor;
     // holds the coord of the loading tiles relative to the current focus
     // this is only for display purposes
-    private final Map<TileIndex, int[]> tileCachingMap;
+    private volatile Map<TileIndex, int[]> tileCachingMap;
+    // requests for tiles to display, not counting prefetches
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
 
     private Double zoom;
     private Vec3 focus;
@@ -41,11 +45,15 @@ public class CachedBlockTiffOctreeLoadAdapter extends BlockTiffOctreeLoadAdapter
     CachedBlockTiffOctreeLoadAdapter(BlockTiffOctreeLoadAdapter tileLoader) {
         super(tileLoader.getTileFormat(), tileLoader.getVolumeBaseURI());
         this.tileLoader = tileLoader;
-        this.tileCacheLoader = new TextureData2dCacheLoader(tileLoader);
+        this.focusPredictor = new TileFocusPredictor();
+        this.tileCacheLoader = new TextureData2dCacheLoader(tileLoader, focusPredictor::addLatency);
         this.tileCache = CacheBuilder.newBuilder()
-                .maximumSize(MAX_CACHE_SIZE)
+                .maximumWeight(MAX_CACHE_BYTES)
+                .weigher((TileIndex tileIndex, Optional<TextureData2d> tile) -> tile
+                        .map(td -> td.getPixels() == null ? 1 : Math.max(1, td.getPixels().capacity()))
+                        .orElse(1))
                 .build(tileCacheLoader);
-        this.tileCachingMap = new LinkedHashMap<>();
+        this.tileCachingMap = new ConcurrentHashMap<>();
         this.tileLoadThreadPool = new ScheduledThreadPoolExecutor(4);
     }
 
@@ -59,6 +67,11 @@ public class CachedBlockTiffOctreeLoadAdapter extends BlockTiffOctreeLoadAdapter
             throws TileLoadError, MissingTileException  {
         LOG.debug("loadToRam: {}", tileIndex);
         if (isEnabled()) {
+            if (tileCache.getIfPresent(tileIndex) != null) {
+                hitCount.increment();
+            } else {
+                missCount.increment();
+            }
             return tileCache.getUnchecked(tileIndex)
                     .orElseThrow(() -> new MissingTileException("Tile " + tileIndex + "does not exist"));
         } else {
@@ -95,49 +108,59 @@ public class CachedBlockTiffOctreeLoadAdapter extends BlockTiffOctreeLoadAdapter
         if (zoom != null && focus != null) {
             // Update focus tile/stack
             int zoomLevel = tileLoader.getTileFormat().zoomLevelForCameraZoom(zoom);
-            TileIndex xyzFocusTileIndex = tileLoader.getTileFormat().tileIndexForXyz(focus, zoomLevel, CoordinateAxis.Z);
-            // Must add zoomOutFactor back in for Z to "correct" result from this method
-            TileIndex focusTileIndex = new TileIndex(
-                    xyzFocusTileIndex.getX(),
-                    xyzFocusTileIndex.getY(),
-                    ((int) (xyzFocusTileIndex.getZ() * Math.pow(2, zoomLevel))),
-                    zoomLevel, 
-                    tileLoader.getTileFormat().getZoomLevelCount() - 1,
-                    tileLoader.getTileFormat().getIndexStyle(),
-                    CoordinateAxis.Z
-            );
+            TileIndex focusTileIndex = getFocusTileIndex(zoomLevel);
+            updateFocusPredictor(zoomLevel);
+            // Drop the prefetches for the previous focus, the new ones are queued most urgent first
             tileLoadThreadPool.getQueue().clear();
             tileCache.getUnchecked(focusTileIndex);
-            tileCachingMap.clear();
-            Stream.of(
-                    generateOffsets(0, 0, 0), // focus tile
-                    // immediate neighboring tiles
-                    generateOffsets(-1, 1, 0), // same level
-                    generateOffsets(-1, 1, 1), // 1 level down
-                    generateOffsets(-1, 1, -1), // 1 level up
-                    // outer tiles
-                    generateOffsets(-2, 2, 0), // same level
-                    generateOffsets(-2, 2, 1), // 1 level down
-                    generateOffsets(-2, 2, -1)) // 1 level up
-                    .flatMap(offsets -> offsets)
-                    .map(offsets -> ImmutablePair.of(translateTile(focusTileIndex, offsets[0], offsets[1], offsets[2]), offsets))
-                    .forEach(tileWithOffsets -> {
-                        TileIndex ti = tileWithOffsets.getLeft();
-                        int[] offsets = tileWithOffsets.getRight();
-                        tileCachingMap.put(ti, offsets);
-                        submitCacheTileRequest(ti);
-                    });    
+            Map<TileIndex, int[]> cachingMap = new ConcurrentHashMap<>();
+            List<TileIndex> prefetchTiles = new ArrayList<>();
+            for (int[] offsets : focusPredictor.getPrefetchOffsets()) {
+                TileIndex ti = translateTile(focusTileIndex, offsets[0], offsets[1], offsets[2]);
+                cachingMap.put(ti, offsets);
+                prefetchTiles.add(ti);
+            }
+            int zoomDirection = focusPredictor.getZoomDirection();
+            int nextZoomLevel = zoomLevel + zoomDirection;
+            if (zoomDirection != 0 && nextZoomLevel >= 0 && nextZoomLevel < tileLoader.getTileFormat().getZoomLevelCount()) {
+                // Zooming, so the focus tile of the next zoom level will be needed soon
+                prefetchTiles.add(1, getFocusTileIndex(nextZoomLevel));
+            }
+            tileCachingMap = cachingMap;
+            prefetchTiles.forEach(this::submitCacheTileRequest);
         }
     }
 
-    private void submitCacheTileRequest(TileIndex tileIndex) {
-       tileLoadThreadPool.schedule(() -> tileCache.getUnchecked(tileIndex), 100, TimeUnit.MILLISECONDS);
+    private TileIndex getFocusTileIndex(int zoomLevel) {
+        TileIndex xyzFocusTileIndex = tileLoader.getTileFormat().tileIndexForXyz(focus, zoomLevel, CoordinateAxis.Z);
+        // Must add zoomOutFactor back in for Z to "correct" result from this method
+        return new TileIndex(
+                xyzFocusTileIndex.getX(),
+                xyzFocusTileIndex.getY(),
+                ((int) (xyzFocusTileIndex.getZ() * Math.pow(2, zoomLevel))),
+                zoomLevel,
+                tileLoader.getTileFormat().getZoomLevelCount() - 1,
+                tileLoader.getTileFormat().getIndexStyle(),
+                CoordinateAxis.Z
+        );
     }
 
-    private Stream<int[]> generateOffsets(int from, int to, int zOffset) {
-        return IntStream.rangeClosed(from, to)
-                .boxed()
-                .flatMap(yOffset -> IntStream.rangeClosed(from, to).mapToObj(xOffset -> new int[]{xOffset, yOffset, zOffset}));
+    private void updateFocusPredictor(int zoomLevel) {
+        // Fractional position in tiles, so that movement within a tile is seen
+        TileFormat tileFormat = tileLoader.getTileFormat();
+        double[] voxelMicrometers = tileFormat.getVoxelMicrometers();
+        int[] tileSize = tileFormat.getTileSize();
+        double zoomFactor = Math.pow(2, zoomLevel);
+        focusPredictor.update(System.currentTimeMillis(),
+                focus.getX() / (voxelMicrometers[0] * tileSize[0] * zoomFactor),
+                // Tile rows are counted from the bottom of the volume
+                -focus.getY() / (voxelMicrometers[1] * tileSize[1] * zoomFactor),
+                focus.getZ() / (voxelMicrometers[2] * tileSize[2] * zoomFactor),
+                zoomLevel);
+    }
+
+    private void submitCacheTileRequest(TileIndex tileIndex) {
+       tileLoadThreadPool.execute(() -> tileCache.getUnchecked(tileIndex));
     }
 
     private TileIndex translateTile(TileIndex tile, int xOffset, int yOffset, int zOffset) {
@@ -172,5 +195,26 @@ public class CachedBlockTiffOctreeLoadAdapter extends BlockTiffOctreeLoadAdapter
                 })
                 .collect(Collectors.toList());
     }
+
+    /**
+     * @return fraction of the requested tiles which were already cached
+     */
+    double getHitRate() {
+        long hits = hitCount.sum();
+        long requests = hits + missCount.sum();
+        return requests == 0 ? 0 : hits / (double) requests;
+    }
+
+    long getCachedTileCount() {
+        return tileCache.size();
+    }
+
+    int getPrefetchDepth() {
+        return focusPredictor.getDepth();
+    }
+
+    long getTileLatencyMs() {
+        return focusPredictor.getLatencyMs();
+    }
     
 }
@@ -13,12 +13,15 @@ import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.ShortBuffer;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
-import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
@@ -38,6 +41,18 @@ import org.slf4j.LoggerFactory;
 public class Subvolume {
 
     private static final int N_THREADS = 20;
+    // Fetches each request keeps on the shared executor at a time, so that a large request
+    // doesn't queue all of its tiles ahead of the requests that come after it
+    private static final int FETCH_WINDOW = N_THREADS;
+    private static final int FETCH_TIMEOUT_MINUTES = 5;
+    private static final long PROGRESS_POLL_MILLIS = 250;
+
+    // Shared by all requests, so that concurrent requests don't each start their own threads
+    private static final ExecutorService FETCH_EXECUTOR = Executors.newFixedThreadPool(N_THREADS,
+            new ThreadFactoryBuilder()
+                    .setNameFormat("SubvolumeFetch-%03d")
+                    .setDaemon(true)
+                    .build());
     private static final String PROGRESS_REPORT_FORMAT = "%d of %d to go...";
 
     private IndeterminateNoteProgressMonitor progressMonitor;
@@ -52,6 +67,10 @@ public class Subvolume {
     private int skipChannelBytes = 2;
     private int totalTiles = 0;
     private int remainingTiles = 0;
+    // Once a request is given up, fetches no longer copy into the raster; guarded by fetchLock
+    private final Object fetchLock = new Object();
+    private volatile boolean fetchAborted = false;
+    private int activeCopies = 0;
 
     private static final Logger logger = LoggerFactory.getLogger(Subvolume.class);
 
@@ -66,7 +85,20 @@ public class Subvolume {
     public Subvolume(ZoomedVoxelIndex corner1,
                      ZoomedVoxelIndex corner2,
                      SharedVolumeImage wholeImage) {
-        initialize(corner1, corner2, wholeImage, null);
+        initialize(corner1, corner2, wholeImage.getLoadAdapter(), null);
+    }
+
+    /**
+     * Loads the raster data from the tiles of the given source, e.g. a synthetic volume for testing.
+     *
+     * @param corner1 start from here, in 3D
+     * @param corner2 end here, in 3D
+     * @param loadAdapter source of the tiles
+     */
+    public Subvolume(ZoomedVoxelIndex corner1,
+                     ZoomedVoxelIndex corner2,
+                     AbstractTextureLoadAdapter loadAdapter) {
+        initialize(corner1, corner2, loadAdapter, null);
     }
 
     /**
@@ -82,7 +114,31 @@ public class Subvolume {
                      ZoomedVoxelIndex corner2,
                      SharedVolumeImage wholeImage,
                      TextureCache textureCache) {
-        initialize(corner1, corner2, wholeImage, textureCache);
+        initialize(corner1, corner2, wholeImage.getLoadAdapter(), textureCache);
+    }
+
+    /**
+     * Wraps raster data which has already been loaded, e.g. a synthetic volume for testing.
+     *
+     * @param origin upper left front corner within parent volume
+     * @param extent width, height, depth
+     * @param bytes intensities, with the channel moving fastest, then x, y and z
+     * @param bytesPerIntensity 1 or 2
+     * @param channelCount number of channels per voxel
+     */
+    public Subvolume(ZoomedVoxelIndex origin,
+                     VoxelIndex extent,
+                     ByteBuffer bytes,
+                     int bytesPerIntensity,
+                     int channelCount) {
+        this.origin = origin;
+        this.extent = extent;
+        this.bytes = bytes;
+        this.bytesPerIntensity = bytesPerIntensity;
+        this.channelCount = channelCount;
+        if (bytesPerIntensity == 2) {
+            shorts = bytes.asShortBuffer();
+        }
     }
 
     /**
@@ -101,7 +157,7 @@ public class Subvolume {
               TextureCache textureCache,
               IndeterminateNoteProgressMonitor progressMonitor) {
         this.progressMonitor = progressMonitor;
-        initialize(corner1, corner2, wholeImage, textureCache);
+        initialize(corner1, corner2, wholeImage.getLoadAdapter(), textureCache);
     }
 
     /**
@@ -152,13 +208,7 @@ public class Subvolume {
             logTileRequest(neededTiles);
         }
 
-        final ZoomedVoxelIndex farCorner = new ZoomedVoxelIndex(
-                zoom,
-                origin.getX() + dimensions[0],
-                origin.getY() + dimensions[1],
-                origin.getZ() + dimensions[2]
-        );
-        multiThreadedFetch(neededTiles, textureCache, loadAdapter, tileFormat, zoom, farCorner);
+        multiThreadedFetch(neededTiles, textureCache, loadAdapter, tileFormat, zoom);
     }
 
     // Load an octree subvolume into memory as a dense volume block
@@ -194,12 +244,12 @@ public class Subvolume {
                 vix2,
                 zoomLevel, CoordinateAxis.Z);
         //
-        initialize(zvix1, zvix2, wholeImage, null);
+        initialize(zvix1, zvix2, wholeImage.getLoadAdapter(), null);
     }
 
     private void initialize(ZoomedVoxelIndex corner1,
             ZoomedVoxelIndex corner2,
-            SharedVolumeImage wholeImage,
+            final AbstractTextureLoadAdapter loadAdapter,
             final TextureCache textureCache) {
         // Both corners must be the same zoom resolution
         assert (corner1.getZoomLevel().equals(corner2.getZoomLevel()));
@@ -220,7 +270,6 @@ public class Subvolume {
                 farCorner.getY() - origin.getY() + 1,
                 farCorner.getZ() - origin.getZ() + 1);
 
-        final AbstractTextureLoadAdapter loadAdapter = wholeImage.getLoadAdapter();
         final TileFormat tileFormat = loadAdapter.getTileFormat();
 
         allocateRasterMemory(tileFormat);
@@ -229,7 +278,7 @@ public class Subvolume {
         if (logger.isDebugEnabled()) {
             logTileRequest(neededTiles);
         }
-        multiThreadedFetch(neededTiles, textureCache, loadAdapter, tileFormat, zoom, farCorner);
+        multiThreadedFetch(neededTiles, textureCache, loadAdapter, tileFormat, zoom);
 
     }
 
@@ -364,37 +413,47 @@ public class Subvolume {
         logger.info("===SubVolume:: Requesting: " + bldr);
     }
 
-    private void multiThreadedFetch(Set<TileIndex> neededTiles, final TextureCache textureCache, final AbstractTextureLoadAdapter loadAdapter, final TileFormat tileFormat, final ZoomLevel zoom, final ZoomedVoxelIndex farCorner) {
-        ExecutorService executorService = ThreadUtils.establishExecutor(
-                N_THREADS,
-                new ThreadFactoryBuilder()
-                        .setNameFormat("SubvolumeFetch-%03d")
-                        .build());
+    private void multiThreadedFetch(Set<TileIndex> neededTiles, final TextureCache textureCache, final AbstractTextureLoadAdapter loadAdapter, final TileFormat tileFormat, final ZoomLevel zoom) {
+        // Tiles are copied into the raster by the fetch tasks, as soon as each one arrives.
+        // Only a window of them is submitted at a time, and each one that completes makes
+        // room for the next, so that concurrent requests take turns on the shared executor.
+        CompletionService<Boolean> completionService = new ExecutorCompletionService<>(FETCH_EXECUTOR);
         List<Future<Boolean>> followUps = new ArrayList<>();
+        Iterator<TileIndex> unsubmitted = neededTiles.iterator();
         totalTiles = neededTiles.size();
         remainingTiles = neededTiles.size();
         reportProgress(totalTiles, totalTiles);
-        for (final TileIndex tileIx : neededTiles) {
-            Callable<Boolean> fetchTask = new Callable<Boolean>() {
-                @Override
-                public Boolean call() throws Exception {
-                    return fetchTileData(
-                            textureCache, tileIx, loadAdapter, tileFormat, zoom, farCorner
-                    );
-                }
-            };
-            followUps.add(executorService.submit(fetchTask));
+        while (followUps.size() < FETCH_WINDOW && unsubmitted.hasNext()) {
+            submitFetch(completionService, followUps, unsubmitted.next(), textureCache, loadAdapter, tileFormat, zoom);
         }
-        executorService.shutdown();
 
+        long deadline = System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(FETCH_TIMEOUT_MINUTES);
+        boolean hadGaps = false;
         try {
-            executorService.awaitTermination(5, TimeUnit.MINUTES);
-            for (Future<Boolean> result : followUps) {
-                logger.debug("DEBUG: checking a follow-up.");
-                boolean failureOnResult = false;
+            while (remainingTiles > 0) {
+                if (progressMonitor != null && progressMonitor.isCanceled()) {
+                    logger.info("Request for {}..{} was canceled.", origin, extent);
+                    abortFetch(followUps);
+                    return;
+                }
+                long timeLeft = deadline - System.currentTimeMillis();
+                if (timeLeft <= 0) {
+                    logger.error("Request for {}..{} timed out with {} of {} tiles to go.", origin, extent, remainingTiles, totalTiles);
+                    abortFetch(followUps);
+                    return;
+                }
+                Future<Boolean> result = completionService.poll(Math.min(timeLeft, PROGRESS_POLL_MILLIS), TimeUnit.MILLISECONDS);
+                if (result == null) {
+                    continue;
+                }
+                if (unsubmitted.hasNext()) {
+                    submitFetch(completionService, followUps, unsubmitted.next(), textureCache, loadAdapter, tileFormat, zoom);
+                }
+                remainingTiles--;
+                reportProgress(remainingTiles, totalTiles);
                 try {
-                    if (result == null || !result.get()) {
-                        failureOnResult = true;
+                    if (!result.get()) {
+                        hadGaps = true;
                     }
                 } catch (ExecutionException | RuntimeException rte) {
                     logger.error(
@@ -402,41 +461,98 @@ public class Subvolume {
                             origin, extent
                     );
                     FrameworkAccess.handleException(rte);
-                    failureOnResult = true;
-                }
-                if (failureOnResult) {
-                    logger.info("Request for {}..{} had tile gaps.", origin, extent);
+                    hadGaps = true;
                 }
             }
         } catch (InterruptedException ex) {
+            // The requester gave up, so stop fetching for it, without disturbing other requests
+            abortFetch(followUps);
             if (progressMonitor != null) {
                 progressMonitor.close();
             }
-            logger.error(
-                    "Failure awaiting completion of fetch threads for request {}..{}.  Exception report follows.",
-                    origin, extent
-            );
-            ex.printStackTrace();
+            logger.info("Request for {}..{} was interrupted.", origin, extent);
+            Thread.currentThread().interrupt();
+            return;
+        }
+        if (hadGaps) {
+            logger.info("Request for {}..{} had tile gaps.", origin, extent);
+        }
+    }
+
+    private void submitFetch(CompletionService<Boolean> completionService, List<Future<Boolean>> followUps, TileIndex tileIx,
+            TextureCache textureCache, AbstractTextureLoadAdapter loadAdapter, TileFormat tileFormat, ZoomLevel zoom) {
+        followUps.add(completionService.submit(() -> fetchTileData(
+                textureCache, tileIx, loadAdapter, tileFormat, zoom)));
+    }
+
+    /**
+     * Cancels the fetches of a request that was given up, and waits for those that are
+     * copying into the raster to stop, so that nothing writes to it once it is returned.
+     * Loads still in progress are left to finish, but don't copy anything.
+     */
+    private void abortFetch(List<Future<Boolean>> fetches) {
+        boolean interrupted = false;
+        synchronized (fetchLock) {
+            fetchAborted = true;
+            for (Future<Boolean> fetch : fetches) {
+                fetch.cancel(true);
+            }
+            while (activeCopies > 0) {
+                try {
+                    fetchLock.wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
         }
+    }
+
+    /**
+     * @return false if the request was given up, and the tile must not be copied
+     */
+    private boolean beginCopy() {
+        synchronized (fetchLock) {
+            if (fetchAborted) {
+                return false;
+            }
+            activeCopies++;
+            return true;
+        }
+    }
 
+    private void endCopy() {
+        synchronized (fetchLock) {
+            activeCopies--;
+            fetchLock.notifyAll();
+        }
     }
 
-    private boolean fetchTileData(TextureCache textureCache, TileIndex tileIx, AbstractTextureLoadAdapter loadAdapter, TileFormat tileFormat, ZoomLevel zoom, ZoomedVoxelIndex farCorner) {
+    private boolean fetchTileData(TextureCache textureCache, TileIndex tileIx, AbstractTextureLoadAdapter loadAdapter, TileFormat tileFormat, ZoomLevel zoom) {
         boolean filledToEnd = true;
+        TextureData2dGL tileData = null;
+        boolean ownsTileData = false;
+        boolean retainedTileData = false;
         try {
             if (tileIx.getX() < 0 || tileIx.getY() < 0 || tileIx.getZ() < 0) {
-                remainingTiles--;
                 return false;
             }
-            TextureData2dGL tileData = null;
             // First try to get image from cache...
             if ((textureCache != null) && (textureCache.containsKey(tileIx))) {
                 TileTexture tt = textureCache.get(tileIx);
-                tileData = tt.getTextureData();
+                TextureData2dGL cachedData = tt == null ? null : tt.getTextureData();
+                // the cache may evict the tile while it is being copied
+                if (cachedData != null && cachedData.retainPixels()) {
+                    tileData = cachedData;
+                    retainedTileData = true;
+                }
             }
             // ... if that fails, load the data right now.
             if (tileData == null) {
                 tileData = new TextureData2dGL(loadAdapter.loadToRam(tileIx));
+                ownsTileData = true;
             }
             if (tileData == null) {
                 logger.info("Found no tile data for " + tileIx);
@@ -453,85 +569,89 @@ public class Subvolume {
                 int dstZ = tileOrigin.getZ() - origin.getZ(); // local Z coordinate
                 // Y
                 int startY = Math.max(origin.getY(), tileOrigin.getY());
-                int endY = Math.min(farCorner.getY(), tileOrigin.getY() + tileData.getHeight());
+                int endY = Math.min(origin.getY() + extent.getY(), tileOrigin.getY() + tileData.getHeight());
                 int overlapY = endY - startY;
-                //System.out.println("TileXyz=" + tileXyz.getX() + "," + tileXyz.getY() + "," + tileXyz.getZ() + ". Start Y=" + startY + ", End Y=" + endY + ", overlapY=" + overlapY);
                 // X
                 int startX = Math.max(origin.getX(), tileOrigin.getX());
-                int endX = Math.min(farCorner.getX(), tileOrigin.getX() + tileData.getUsedWidth());
+                int endX = Math.min(origin.getX() + extent.getX(), tileOrigin.getX() + tileData.getUsedWidth());
                 int overlapX = endX - startX;
-                // byte array offsets
-                int pixelBytes = skipChannelBytes * bytesPerIntensity;
-                int tileLineBytes = pixelBytes * tileData.getWidth();
-                int subvolumeLineBytes = pixelBytes * extent.getX();
-                // Where to start putting bytes into subvolume?
-                // Probable source of bug: may not be getting proper start location in "subsequent" volume, and/or wrong overlap values.
-                int dstOffset = dstZ * subvolumeLineBytes * extent.getY() // z plane offset
-                        + (startY - origin.getY()) * subvolumeLineBytes // y scan-line offset
-                        + (startX - origin.getX()) * pixelBytes;
-                int srcOffset = (startY - tileOrigin.getY()) * tileLineBytes // y scan-line offset
-                        + (startX - tileOrigin.getX()) * pixelBytes;
-                // Copy one scan line at a time
-                OVERFLOW_LABEL:
-                for (int y = 0; y < overlapY; ++y) {
-                    for (int x = 0; x < overlapX; ++x) {
-                        // TODO faster copy
-                        for (int b = 0; b < skipChannelBytes; ++b) {
-                            int d = dstOffset + x * pixelBytes + b;
-                            int s = srcOffset + x * pixelBytes + b;
-                            if (b==0 && y==0 && x==0) {
-                                logger.info("TILE INFO: {},{},{}",tileXyz.getX(), tileXyz.getY(),tileXyz.getZ());
-                                logger.info("Destination start point:{}-{}", dstOffset, dstOffset+overlapX*overlapY);
-                            }
-                            try {
-                                shorts.put(d, tileData.getPixels().getShort(s));
-                            } catch (Exception ex) {
-                                logger.error("Failed to copy data into pixels buffer: " + ex.getMessage() + ".  Skipping remainder.");
-                                /* for debugging */
-                                if (logger.isDebugEnabled() && d >= bytes.capacity()) {
-                                    logger.info("overflow destination: {} vs {}.", d, bytes.capacity());
-                                    logger.info("dstOffset={}; dstZ={}; extent-Y={}; subvolumeLineBytes={}", dstOffset, dstZ, extent.getY(), subvolumeLineBytes);
-                                    logger.info("dstZ=tileOrigin.getZ() - origin.getZ(); tileOrigin.getZ()={}; origin.getZ()={}.", tileOrigin.getZ(), origin.getZ());
-                                    logger.info("startX={}. endX={}. startY={}. endY={}", startX, endX, startY, endY);
-                                    logger.info("Destination X={}, Y={}, dstZ={}. srcOffset={}.", x, y, dstZ, srcOffset);
-                                    logger.info("overlapX={}, overlapY={}.   tileLineBytes={}.", overlapX, overlapY, tileLineBytes);
-                                }
-                                if (s >= tileData.getPixels().capacity()) {
-                                    logger.info("overflow source: {} vs {}.", s, bytes.capacity());
-                                }
-                                if (s < 0) {
-                                    logger.info("Underflow source: {} vs {}.", s, bytes.capacity());
-                                }
-                                if (d < 0) {
-                                    logger.info("underflow destination: {} vs {}.", d, bytes.capacity());
-                                }
-                                break OVERFLOW_LABEL;
-                            }
-                        }
+                if (dstZ < 0 || dstZ >= extent.getZ() || overlapX <= 0 || overlapY <= 0) {
+                    logger.debug("Tile {} does not overlap request {}..{}", tileIx, origin, extent);
+                } else {
+                    // byte array offsets
+                    int pixelBytes = skipChannelBytes * bytesPerIntensity;
+                    int tileLineBytes = pixelBytes * tileData.getWidth();
+                    int subvolumeLineBytes = pixelBytes * extent.getX();
+                    // Where to start putting bytes into subvolume?
+                    int dstOffset = dstZ * subvolumeLineBytes * extent.getY() // z plane offset
+                            + (startY - origin.getY()) * subvolumeLineBytes // y scan-line offset
+                            + (startX - origin.getX()) * pixelBytes;
+                    int srcOffset = (startY - tileOrigin.getY()) * tileLineBytes // y scan-line offset
+                            + (startX - tileOrigin.getX()) * pixelBytes;
+                    logger.debug("Copying tile {} to z={}, x={}..{}, y={}..{}", tileIx, dstZ, startX, endX, startY, endY);
+                    if (!beginCopy()) {
+                        return false;
+                    }
+                    try {
+                        filledToEnd = copyScanLines(tileData.getPixels(), srcOffset, tileLineBytes,
+                                dstOffset, subvolumeLineBytes, overlapX * pixelBytes, overlapY);
+                    } finally {
+                        endCopy();
                     }
-                    dstOffset += subvolumeLineBytes;
-                    srcOffset += tileLineBytes;
                 }
-
-                // There is a slim chance this could be decremented to sub-zero,
-                // since there are multiple threads using this method.  However,
-                // we will avoid incurring the overhead of AtomicInteger by simple
-                // accepting that risk (off-by-a-few is not terrible, here), and
-                // simply ensuring the user never sees a negative remainder.
-                remainingTiles--;
-                int remaining = Math.max(0, remainingTiles);
-                logger.info("start: {},{},{}, end: {},{},{}",dstZ, startX, startY, dstZ, endX, endY);
-                reportProgress(remaining, totalTiles);
             }
 
         } catch (AbstractTextureLoadAdapter.TileLoadError | AbstractTextureLoadAdapter.MissingTileException e) {
             // TODO Auto-generated catch block
             logger.error("Request for {}..{} failed with error {}.", origin, extent, e.getMessage());
             FrameworkAccess.handleException(e);
+        } finally {
+            if (ownsTileData && tileData != null) {
+                tileData.releaseMemory(); // return the pixel buffer to the pool
+            } else if (retainedTileData) {
+                tileData.releasePixels();
+            }
         }
         return filledToEnd;
     }
 
+    /**
+     * Copies a rectangle of scan lines from a tile into the raster, a whole line at a time, or
+     * all lines at once when both are laid out without gaps between lines.
+     *
+     * @return false if the rectangle did not fit in either buffer
+     */
+    private boolean copyScanLines(ByteBuffer tilePixels, int srcOffset, int srcLineBytes,
+            int dstOffset, int dstLineBytes, int lineBytes, int lineCount) {
+        int srcEnd = srcOffset + (lineCount - 1) * srcLineBytes + lineBytes;
+        int dstEnd = dstOffset + (lineCount - 1) * dstLineBytes + lineBytes;
+        if (srcOffset < 0 || dstOffset < 0 || srcEnd > tilePixels.capacity() || dstEnd > bytes.capacity()) {
+            logger.error("Tile rectangle does not fit: source {}..{} of {}, destination {}..{} of {}.",
+                    srcOffset, srcEnd, tilePixels.capacity(), dstOffset, dstEnd, bytes.capacity());
+            return false;
+        }
+        // Private views, so that concurrent copies don't share positions and limits
+        ByteBuffer src = tilePixels.duplicate();
+        ByteBuffer dst = bytes.duplicate();
+        if (lineBytes == srcLineBytes && lineBytes == dstLineBytes) {
+            src.limit(srcEnd).position(srcOffset);
+            dst.position(dstOffset);
+            dst.put(src);
+            return true;
+        }
+        for (int y = 0; y < lineCount; ++y) {
+            if (fetchAborted) {
+                return false; // the request was given up, and is waiting for this copy to stop
+            }
+            src.limit(srcOffset + lineBytes).position(srcOffset);
+            dst.position(dstOffset);
+            dst.put(src);
+            srcOffset += srcLineBytes;
+            dstOffset += dstLineBytes;
+        }
+        return true;
+    }
+
     private void allocateRasterMemory(final TileFormat tileFormat) {
         int[] dimensions = new int[3];
         dimensions[0] = extent.getX();
@@ -543,6 +663,8 @@ public class Subvolume {
     private void allocateRasterMemory(final TileFormat tileFormat, int[] dimensions) {
         bytesPerIntensity = tileFormat.getBitDepth() / 8;
         skipChannelBytes = tileFormat.getChannelCount();
+        // Voxels hold all of the channels, as in the tiles
+        channelCount = skipChannelBytes;
         int totalBytes = bytesPerIntensity
                 * skipChannelBytes
                 * dimensions[0] * dimensions[1] * dimensions[2];
@@ -590,8 +712,9 @@ public class Subvolume {
             0, 1, 2
         };
 
+        // The depth range is exclusive, and the far corner's plane is part of the subvolume
         return createTileIndexesOverRanges(
-                minDepth, maxDepth,
+                minDepth, maxDepth + 1,
                 minWidth, maxWidth,
                 minHeight, maxHeight,
                 xyzFromWhd,
@@ -1,160 +1,329 @@
 package org.janelia.workstation.controller.tileimagery;
 
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.janelia.workstation.controller.listener.StatusUpdateListener;
+import org.janelia.workstation.core.util.ConsoleProperties;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /*
  * Wrap texture cache so indices can be interpolated for either quadtrees
  * or octrees.
+ *
+ * All tiles live in a single concurrent map. Each entry belongs to a tier:
+ * PERSISTENT (lowest resolution textures for everything, never evicted),
+ * HISTORY (textures that have been displayed) or FUTURE (textures we predict
+ * will be displayed). The evictable tiers share the RAM and GL texture byte
+ * budgets in proportion to their weights; when a tier goes over its share the
+ * least recently used entries of that tier are evicted in one batch, so that
+ * obsolete GL textures are deleted in bulk rather than one per frame.
+ *
+ * Lookups never take a lock. Only eviction is serialized; threads that find
+ * an eviction already running leave it to the running one, which checks all
+ * tiers again once it has let go of the lock.
  */
 public class TextureCache {
 
     private static final Logger LOG = LoggerFactory.getLogger(TextureCache.class);
 
-    private HistoryCache historyCache = new HistoryCache(2000); // textures that have been displayed, ordered by LRU
-    private HistoryCache futureCache = new HistoryCache(3000); // textures we predict will be displayed
-    private PersistentCache persistentCache = new PersistentCache(); // lowest resolution textures for everything
-    private Map<TileIndex, Long> queuedTextureTime = new HashMap<>();
-    private StatusUpdateListener queueDrainedListener;
+    private static final long MB = 1024L * 1024L;
+    // by default a quarter of the maximum heap size, up to 2 GB
+    private static final long DEFAULT_RAM_BUDGET = ConsoleProperties.getLong("console.lvv.textureCache.ramMB",
+            Math.min(2048, Runtime.getRuntime().maxMemory() / MB / 4)) * MB;
+    private static final long DEFAULT_GL_BUDGET = ConsoleProperties.getLong("console.lvv.textureCache.glMB", 1024) * MB;
+    // after an eviction a tier is trimmed down to this fraction of its share
+    private static final double EVICTION_LOW_WATER_MARK = 0.75;
+    // used to estimate tile capacity before any tile has been loaded
+    private static final long DEFAULT_TILE_BYTES = 1024L * 1024L;
 
-    public synchronized void add(TileTexture texture) {
+    public enum Tier {
+        PERSISTENT(0), // lowest resolution textures; not subject to the budget
+        HISTORY(2), // textures that have been displayed, ordered by LRU
+        FUTURE(3); // textures we predict will be displayed
+
+        private final int weight;
+
+        Tier(int weight) {
+            this.weight = weight;
+        }
+
+        public int getWeight() {
+            return weight;
+        }
+
+        boolean isEvictable() {
+            return weight > 0;
+        }
+    }
+
+    private static final int EVICTABLE_WEIGHT_SUM = Tier.HISTORY.getWeight() + Tier.FUTURE.getWeight();
+
+    private static class CacheEntry {
+        private final TileTexture texture;
+        private final long ramBytes;
+        private volatile Tier tier;
+        private volatile long lastAccess;
+        private long glBytes; // guarded by the entry
+
+        CacheEntry(TileTexture texture, Tier tier, long lastAccess) {
+            this.texture = texture;
+            this.ramBytes = texture.getRamByteCount();
+            this.tier = tier;
+            this.lastAccess = lastAccess;
+        }
+    }
+
+    private final Map<TileIndex, CacheEntry> entries = new ConcurrentHashMap<>();
+    private final Map<TileIndex, Long> queuedTextureTime = new ConcurrentHashMap<>();
+    private final Queue<Integer> obsoleteGlTextures = new ConcurrentLinkedQueue<>();
+    private final AtomicLong accessClock = new AtomicLong();
+    // bytes currently held per tier, indexed by Tier.ordinal()
+    private final AtomicLongArray ramBytesByTier = new AtomicLongArray(Tier.values().length);
+    private final AtomicLongArray glBytesByTier = new AtomicLongArray(Tier.values().length);
+    private final ReentrantLock evictionLock = new ReentrantLock();
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+    private final LongAdder evictionCount = new LongAdder();
+    private final LongAdder evictedBytes = new LongAdder();
+    private final long ramBudget;
+    private final long glBudget;
+    private volatile StatusUpdateListener queueDrainedListener;
+
+    public TextureCache() {
+        this(DEFAULT_RAM_BUDGET, DEFAULT_GL_BUDGET);
+    }
+
+    public TextureCache(long ramBudget, long glBudget) {
+        this.ramBudget = ramBudget;
+        this.glBudget = glBudget;
+    }
+
+    public void add(TileTexture texture) {
         TileIndex index = texture.getIndex();
-        if (index.getZoom() == index.getMaxZoom()) {
-            persistentCache.put(texture.getIndex(), texture);
-        } else {
-            futureCache.put(index, texture);
+        Tier tier = index.getZoom() == index.getMaxZoom() ? Tier.PERSISTENT : Tier.FUTURE;
+        CacheEntry entry = new CacheEntry(texture, tier, accessClock.incrementAndGet());
+        texture.setTextureCache(this);
+        ramBytesByTier.addAndGet(tier.ordinal(), entry.ramBytes);
+        CacheEntry previous = entries.put(index, entry);
+        if (previous != null && previous != entry) {
+            release(previous);
+        }
+        if (tier.isEvictable()) {
+            evictIfOverBudget();
         }
     }
 
-    synchronized public void clear() {
-        futureCache.clear();
-        historyCache.clear();
-        persistentCache.clear();
+    public void clear() {
+        for (TileIndex index : entries.keySet()) {
+            CacheEntry entry = entries.remove(index);
+            if (entry != null) {
+                release(entry);
+            }
+        }
         queuedTextureTime.clear();
     }
 
     boolean containsKey(TileIndex index) {
-        return persistentCache.containsKey(index)
-                || historyCache.containsKey(index)
-                || futureCache.containsKey(index);
+        return entries.containsKey(index);
     }
 
-    synchronized TileTexture get(TileIndex index) {
-        if (persistentCache.containsKey(index)) {
-            return persistentCache.get(index);
-        } else if (historyCache.containsKey(index)) {
-            return historyCache.get(index);
-        } else {
-            return futureCache.get(index);
+    TileTexture get(TileIndex index) {
+        CacheEntry entry = entries.get(index);
+        if (entry == null) {
+            missCount.increment();
+            return null;
         }
+        hitCount.increment();
+        entry.lastAccess = accessClock.incrementAndGet();
+        return entry.texture;
     }
 
-    // Keep track of recently queued textures, to avoid redundant loads
-    public boolean hasQueuedTextures() {
-        if (queuedTextureTime.isEmpty()) {
+    /**
+     * Moves a texture that is waiting in the future tier to the most recently
+     * used position of that tier.
+     *
+     * @return true if the texture is in the future tier
+     */
+    boolean touchFuture(TileIndex index) {
+        CacheEntry entry = entries.get(index);
+        if (entry == null || entry.tier != Tier.FUTURE) {
             return false;
         }
+        entry.lastAccess = accessClock.incrementAndGet();
         return true;
     }
 
+    // Keep track of recently queued textures, to avoid redundant loads
+    public boolean hasQueuedTextures() {
+        return !queuedTextureTime.isEmpty();
+    }
+
     public boolean isLoadQueued(TileIndex index) {
-        if (!queuedTextureTime.containsKey(index)) {
-            return false;
-        }
         Long queuedTextureTimeForIndex = queuedTextureTime.get(index);
         if (queuedTextureTimeForIndex == null) {
-            LOG.warn("Queued Texture Time had no entry for index {}.  Setting queued time to 0.", index);
-            queuedTextureTimeForIndex = System.nanoTime();
+            return false;
         }
         long elapsed = System.nanoTime() - queuedTextureTimeForIndex;
         // Don't wait longer than ten seconds
         long maxSeconds = 10;
         if (elapsed > maxSeconds * 1e9) {
             // log.warn("Waited more than "+maxSeconds+" seconds for texture load "+index);
-            queuedTextureTime.remove(index);
+            queuedTextureTime.remove(index, queuedTextureTimeForIndex);
             return false;
         }
-        return true; // queued for less than 5 seconds
+        return true; // queued for less than ten seconds
     }
 
     public void setLoadQueued(TileIndex index, boolean isQueued) {
         if (isQueued) {
             queuedTextureTime.put(index, System.nanoTime());
         } else {
-            if (!queuedTextureTime.containsKey(index)) {
+            if (queuedTextureTime.remove(index) == null) {
                 return;
             }
-            queuedTextureTime.remove(index);
-            if (queuedTextureTime.isEmpty() && queueDrainedListener != null) {
-                queueDrainedListener.update();
+            StatusUpdateListener listener = queueDrainedListener;
+            if (queuedTextureTime.isEmpty() && listener != null) {
+                listener.update();
             }
         }
     }
 
     // Indicate that a particular texture has been viewed, rather than simply pre-fetched.
-    synchronized boolean markHistorical(TileTexture tile) {
+    boolean markHistorical(TileTexture tile) {
         if (tile == null) {
             return false;
         }
+        CacheEntry entry = entries.get(tile.getIndex());
+        if (entry == null) {
+            return false;
+        }
+        entry.lastAccess = accessClock.incrementAndGet();
         // Only future cached textures need to be moved.
         // (textures in the persistent cache should remain there)
-        if (persistentCache.containsKey(tile.getIndex())) {
-            return false;
+        synchronized (entry) {
+            if (entry.tier != Tier.FUTURE) {
+                return false;
+            }
+            moveTier(entry, Tier.HISTORY);
         }
-        if (futureCache.remove(tile.getIndex()) != null) {
-            historyCache.put(tile.getIndex(), tile); // move texture to the front of the queue
-            LOG.trace("Successfully removed {} from future cache.", tile);
-            return true;
-        } else {
-            return false;
+        LOG.trace("Successfully moved {} from future to history tier.", tile);
+        evictIfOverBudget();
+        return true;
+    }
+
+    /**
+     * Called by a cached texture once it has been uploaded to the video card,
+     * so that its GL texture memory is charged against the GL budget.
+     */
+    void textureUploaded(TileTexture tile) {
+        CacheEntry entry = entries.get(tile.getIndex());
+        if (entry == null || entry.texture != tile) {
+            return;
+        }
+        Tier tier;
+        synchronized (entry) {
+            long glBytes = tile.getGlByteCount();
+            glBytesByTier.addAndGet(entry.tier.ordinal(), glBytes - entry.glBytes);
+            entry.glBytes = glBytes;
+            tier = entry.tier;
+        }
+        if (tier.isEvictable()) {
+            evictIfOverBudget();
+        }
+    }
+
+    /**
+     * Called when the GL texture of a cached tile has been destroyed outside
+     * of the cache, e.g. when the GL context goes away.
+     */
+    public void textureReleasedFromGl(TileTexture tile) {
+        CacheEntry entry = entries.get(tile.getIndex());
+        if (entry == null || entry.texture != tile) {
+            return;
+        }
+        synchronized (entry) {
+            glBytesByTier.addAndGet(entry.tier.ordinal(), -entry.glBytes);
+            entry.glBytes = 0;
         }
     }
 
     public int size() {
-        return futureCache.size() + historyCache.size() + persistentCache.size();
+        return entries.size();
     }
 
-    public synchronized Collection<TileTexture> values() {
-        Set<TileTexture> result = new HashSet<>();
-        result.addAll(historyCache.values());
-        result.addAll(futureCache.values());
-        result.addAll(persistentCache.values());
+    public Collection<TileTexture> values() {
+        List<TileTexture> result = new ArrayList<>(entries.size());
+        for (CacheEntry entry : entries.values()) {
+            result.add(entry.texture);
+        }
         return result;
     }
 
     /**
-     * Do not use to modify future cache.
-     *
-     * @return
+     * @return the number of entries currently in the given tier
      */
-    public HistoryCache getFutureCache() {
-        return futureCache;
+    public int size(Tier tier) {
+        int count = 0;
+        for (CacheEntry entry : entries.values()) {
+            if (entry.tier == tier) {
+                count++;
+            }
+        }
+        return count;
     }
 
-    public HistoryCache getHistoryCache() {
-        return historyCache;
+    /**
+     * Estimate how many more tiles the future tier can hold before it starts
+     * evicting, based on the average size of the tiles loaded so far.
+     */
+    public int estimateFutureCapacity() {
+        int count = entries.size();
+        long totalRamBytes = 0;
+        for (Tier tier : Tier.values()) {
+            totalRamBytes += ramBytesByTier.get(tier.ordinal());
+        }
+        long averageTileBytes = count > 0 && totalRamBytes > 0 ? totalRamBytes / count : DEFAULT_TILE_BYTES;
+        return (int) Math.min(Integer.MAX_VALUE, tierShare(ramBudget, Tier.FUTURE) / Math.max(1, averageTileBytes));
+    }
+
+    public void storeObsoleteTextureIds(int[] textureIds) {
+        for (int id : textureIds) {
+            obsoleteGlTextures.add(id);
+        }
     }
 
     public int[] popObsoleteTextureIds() {
-        Set<Integer> ids = historyCache.popObsoleteGlTextures();
-        ids.addAll(persistentCache.popObsoleteGlTextures());
-        ids.addAll(futureCache.popObsoleteGlTextures());
+        List<Integer> ids = new ArrayList<>();
+        Integer id;
+        while ((id = obsoleteGlTextures.poll()) != null) {
+            ids.add(id);
+        }
+        if (ids.size() > 0) {
+            LOG.info("Popping obsolete textures.  Size {}.", ids.size());
+        }
         int result[] = new int[ids.size()];
-        int i = 0;
-        for (int val : ids) {
-            result[i] = val;
-            i += 1;
+        for (int i = 0; i < result.length; i++) {
+            result[i] = ids.get(i);
         }
         return result;
     }
 
+    public Statistics getStatistics() {
+        return new Statistics(this);
+    }
+
     /**
      * @param queueDrainedListener the queueDrainedListener to set
      */
@@ -162,4 +331,173 @@ public class TextureCache {
         this.queueDrainedListener = queueDrainedListener;
     }
 
+    private void moveTier(CacheEntry entry, Tier newTier) {
+        Tier oldTier = entry.tier;
+        ramBytesByTier.addAndGet(oldTier.ordinal(), -entry.ramBytes);
+        glBytesByTier.addAndGet(oldTier.ordinal(), -entry.glBytes);
+        ramBytesByTier.addAndGet(newTier.ordinal(), entry.ramBytes);
+        glBytesByTier.addAndGet(newTier.ordinal(), entry.glBytes);
+        entry.tier = newTier;
+    }
+
+    private void release(CacheEntry entry) {
+        synchronized (entry) {
+            ramBytesByTier.addAndGet(entry.tier.ordinal(), -entry.ramBytes);
+            glBytesByTier.addAndGet(entry.tier.ordinal(), -entry.glBytes);
+            entry.glBytes = 0;
+        }
+        PyramidTexture texture = entry.texture.getTexture();
+        if (texture != null && texture.getTextureId() > 0) {
+            obsoleteGlTextures.add(texture.getTextureId()); // remember OpenGl texture IDs for later deletion.
+        }
+        // Tiles being uploaded or copied into a subvolume hold on to the pixels
+        // until they are done, and only then are they returned to the pool
+        entry.texture.releasePixels();
+    }
+
+    private static long tierShare(long budget, Tier tier) {
+        return budget / EVICTABLE_WEIGHT_SUM * tier.getWeight();
+    }
+
+    private boolean isOverBudget(Tier tier, double fraction) {
+        return ramBytesByTier.get(tier.ordinal()) > tierShare(ramBudget, tier) * fraction
+                || glBytesByTier.get(tier.ordinal()) > tierShare(glBudget, tier) * fraction;
+    }
+
+    private boolean isOverBudget() {
+        for (Tier tier : Tier.values()) {
+            if (tier.isEvictable() && isOverBudget(tier, 1.0)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void evictIfOverBudget() {
+        // A thread that fails to get the lock returns at once. The thread holding it
+        // checks the budgets again after unlocking, so it sees what the other one added.
+        while (isOverBudget() && evictionLock.tryLock()) {
+            int evicted = 0;
+            try {
+                for (Tier tier : Tier.values()) {
+                    if (tier.isEvictable() && isOverBudget(tier, 1.0)) {
+                        evicted += evict(tier);
+                    }
+                }
+            } finally {
+                evictionLock.unlock();
+            }
+            if (evicted == 0) {
+                return; // nothing left that could be evicted
+            }
+        }
+    }
+
+    /**
+     * Evicts the least recently used entries of a tier until it is below its low water mark.
+     * Called with the eviction lock held.
+     *
+     * @return number of entries evicted
+     */
+    private int evict(Tier tier) {
+        List<Map.Entry<TileIndex, CacheEntry>> candidates = new ArrayList<>();
+        for (Map.Entry<TileIndex, CacheEntry> e : entries.entrySet()) {
+            if (e.getValue().tier == tier) {
+                candidates.add(e);
+            }
+        }
+        candidates.sort(Comparator.comparingLong(e -> e.getValue().lastAccess));
+        int evicted = 0;
+        for (Map.Entry<TileIndex, CacheEntry> e : candidates) {
+            if (!isOverBudget(tier, EVICTION_LOW_WATER_MARK)) {
+                break;
+            }
+            CacheEntry entry = e.getValue();
+            if (entry.tier != tier || !entries.remove(e.getKey(), entry)) {
+                continue; // moved or replaced in the meantime
+            }
+            release(entry);
+            evictedBytes.add(entry.ramBytes);
+            evicted++;
+        }
+        evictionCount.add(evicted);
+        LOG.debug("Evicted {} textures from {} tier", evicted, tier);
+        return evicted;
+    }
+
+    /**
+     * Point-in-time snapshot of the cache counters.
+     */
+    public static class Statistics {
+        private final long hitCount;
+        private final long missCount;
+        private final long evictionCount;
+        private final long evictedBytes;
+        private final long ramBytes;
+        private final long glBytes;
+        private final long ramBudget;
+        private final long glBudget;
+
+        private Statistics(TextureCache cache) {
+            this.hitCount = cache.hitCount.sum();
+            this.missCount = cache.missCount.sum();
+            this.evictionCount = cache.evictionCount.sum();
+            this.evictedBytes = cache.evictedBytes.sum();
+            long ram = 0;
+            long gl = 0;
+            for (Tier tier : Tier.values()) {
+                ram += cache.ramBytesByTier.get(tier.ordinal());
+                gl += cache.glBytesByTier.get(tier.ordinal());
+            }
+            this.ramBytes = ram;
+            this.glBytes = gl;
+            this.ramBudget = cache.ramBudget;
+            this.glBudget = cache.glBudget;
+        }
+
+        public long getHitCount() {
+            return hitCount;
+        }
+
+        public long getMissCount() {
+            return missCount;
+        }
+
+        public double getHitRate() {
+            long requests = hitCount + missCount;
+            return requests == 0 ? 0 : hitCount / (double) requests;
+        }
+
+        public long getEvictionCount() {
+            return evictionCount;
+        }
+
+        public long getEvictedBytes() {
+            return evictedBytes;
+        }
+
+        public long getRamBytes() {
+            return ramBytes;
+        }
+
+        public long getGlBytes() {
+            return glBytes;
+        }
+
+        public long getRamBudget() {
+            return ramBudget;
+        }
+
+        public long getGlBudget() {
+            return glBudget;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("hits=%d misses=%d evictions=%d ram=%dMB/%dMB gl=%dMB/%dMB",
+                    hitCount, missCount, evictionCount,
+                    ramBytes / MB, ramBudget / MB, glBytes / MB, glBudget / MB);
+        }
+    }
+
 }
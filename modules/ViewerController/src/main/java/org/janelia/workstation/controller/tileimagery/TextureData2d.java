@@ -9,11 +9,21 @@ import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.ShortBuffer;
 
+import org.janelia.workstation.core.util.ConsoleProperties;
+import org.janelia.workstation.core.util.DirectBufferPool;
+
 /**
  * Created by murphys on 5/13/2016.
  */
 public class TextureData2d {
 
+    // Size of the header written by copyToByteArray(): eight ints and a float
+    private static final int HEADER_BYTES = (Integer.SIZE / 8) * 8 + (Float.SIZE / 8);
+
+    // Pixel buffers are recycled through this pool when the owning tile is released
+    static final DirectBufferPool PIXEL_BUFFER_POOL = new DirectBufferPool("LVV tile",
+            ConsoleProperties.getLong("console.lvv.tileBufferPoolMB", 256) * 1024L * 1024L);
+
     // Direct glTexImage argument properties
     protected int mipmapLevel = 0;
     protected int width = 0; // padded to a multiple of 8
@@ -21,6 +31,9 @@ public class TextureData2d {
     protected int height = 0;
     protected int border = 0;
     protected ByteBuffer pixels = null; // prefer direct buffer; array backed buffer works too
+    protected boolean pooledPixels = false; // pixels came from PIXEL_BUFFER_POOL and are owned by this object
+    private int pixelReaders = 0; // threads reading the pixels outside of the owner, guarded by this
+    private boolean releasePending = false; // released by the owner while still being read
 
     // Derived properties
     protected boolean srgb; // vs. linear
@@ -56,11 +69,7 @@ public class TextureData2d {
         int rowByteCount = pixelByteCount * this.width;
         int imageByteCount = this.height * rowByteCount;
         // Allocate image store buffer, exactly as it will be passed to openGL
-        // TODO - Consider sharing a buffer among multiple textures to save allocation time.
-        // (there would need to be a separate one for each thread)
-        byte byteArray[] = new byte[imageByteCount];
-        ByteBuffer byteBuffer = ByteBuffer.wrap(byteArray);
-        byteBuffer.order(ByteOrder.nativeOrder());
+        ByteBuffer byteBuffer = acquirePixels(imageByteCount);
         ShortBuffer shortBuffer = byteBuffer.asShortBuffer(); // for 16-bit case
         //
         Raster raster = image.getData();
@@ -102,15 +111,85 @@ public class TextureData2d {
                 }
             }
         }
-        pixels = byteBuffer;
+        byteBuffer.rewind();
         return;
     }
 
-    public void releaseMemory() {
+    /**
+     * Release the pixels, returning them to the pool if this object owns them.
+     * While other threads are reading them, the release is put off until the
+     * last of them is done.
+     */
+    public synchronized void releaseMemory() {
+        if (pixelReaders > 0) {
+            releasePending = true;
+            return;
+        }
+        releasePending = false;
         width = height = usedWidth = 0;
+        if (pooledPixels) {
+            PIXEL_BUFFER_POOL.release(pixels);
+        }
+        pooledPixels = false;
         pixels = null;
     }
 
+    /**
+     * Keep the pixels from being released until {@link #releasePixels()} is called.
+     *
+     * @return false if the pixels have already been released, and must not be read
+     */
+    synchronized boolean retainPixels() {
+        if (pixels == null || releasePending) {
+            return false;
+        }
+        pixelReaders++;
+        return true;
+    }
+
+    /**
+     * Done reading pixels retained with {@link #retainPixels()}.
+     */
+    synchronized void releasePixels() {
+        if (--pixelReaders == 0 && releasePending) {
+            releaseMemory();
+        }
+    }
+
+    /**
+     * Replace the pixel buffer with a pooled direct buffer of the given size,
+     * returning the previous one to the pool if this object owned it.
+     */
+    private ByteBuffer acquirePixels(int byteCount) {
+        if (pooledPixels) {
+            PIXEL_BUFFER_POOL.release(pixels);
+        }
+        pixels = PIXEL_BUFFER_POOL.acquire(byteCount);
+        pooledPixels = true;
+        return pixels;
+    }
+
+    /**
+     * Hand the pixel buffer over to an owner that will keep it indefinitely,
+     * so that releasing this object does not recycle it.
+     */
+    synchronized void detachPixelsFromPool() {
+        if (pooledPixels) {
+            PIXEL_BUFFER_POOL.detach(pixels);
+        }
+        pooledPixels = false;
+    }
+
+    /**
+     * Take over the pixels of another texture, including the obligation to
+     * return them to the pool.
+     */
+    protected void takePixelsFrom(TextureData2d other) {
+        this.pixels = other.pixels;
+        this.pooledPixels = other.pooledPixels;
+        other.pooledPixels = false;
+    }
+
     public void setBitDepth(int bitDepth) {
         this.bitDepth = bitDepth;
     }
@@ -126,6 +205,10 @@ public class TextureData2d {
     }
 
     public void setPixels(ByteBuffer pixels) {
+        if (pooledPixels && pixels != this.pixels) {
+            PIXEL_BUFFER_POOL.release(this.pixels);
+        }
+        this.pooledPixels = false;
         this.pixels = pixels;
     }
 
@@ -249,8 +332,7 @@ public class TextureData2d {
             int rowByteCount = pixelByteCount * this.width;
             int imageByteCount = this.height * rowByteCount;
 
-            ByteBuffer byteBuffer=ByteBuffer.allocateDirect(imageByteCount);
-            byteBuffer.order(ByteOrder.nativeOrder());
+            ByteBuffer byteBuffer = acquirePixels(imageByteCount);
             ShortBuffer shortBuffer = byteBuffer.asShortBuffer();
             //short[] targetArray = shortBuffer.array();
 
@@ -285,7 +367,6 @@ public class TextureData2d {
                 }
             }
             //log.info("Check2");
-            pixels = byteBuffer;
         } catch (Exception ex) {
             ex.printStackTrace();
         }
@@ -293,7 +374,7 @@ public class TextureData2d {
     }
 
     public byte[] copyToByteArray() {
-        int byteBufferSize = (Integer.SIZE / 8) * 8 + (Float.SIZE / 8) + pixels.capacity();
+        int byteBufferSize = HEADER_BYTES + pixels.limit();
         byte[] textureData2dArray=new byte[byteBufferSize];
         ByteBuffer byteBuffer = ByteBuffer.wrap(textureData2dArray);
         byteBuffer.putInt(mipmapLevel);
@@ -305,14 +386,26 @@ public class TextureData2d {
         byteBuffer.putInt(bitDepth);
         byteBuffer.putInt(channelCount);
         byteBuffer.putFloat(textureCoordX);
-        byteBuffer.put(pixels);
+        ByteBuffer pixelData = pixels.duplicate();
+        pixelData.rewind();
+        byteBuffer.put(pixelData);
         return textureData2dArray;
     }
 
-    TextureData2d() {}
+    public TextureData2d() {}
 
     TextureData2d(byte[] bytes) {
         ByteBuffer byteBuffer=ByteBuffer.wrap(bytes);
+        readHeader(byteBuffer);
+        // Copy the pixels once, straight into the direct buffer that goes to GL.
+        // Keep the big-endian order of the serialized form for pixel readers.
+        int remainingBytes=byteBuffer.remaining();
+        acquirePixels(remainingBytes).put(byteBuffer);
+        pixels.rewind();
+        pixels.order(ByteOrder.BIG_ENDIAN);
+    }
+
+    private void readHeader(ByteBuffer byteBuffer) {
         mipmapLevel=byteBuffer.getInt();
         width=byteBuffer.getInt();
         usedWidth=byteBuffer.getInt();
@@ -327,10 +420,6 @@ public class TextureData2d {
         bitDepth=byteBuffer.getInt();
         channelCount=byteBuffer.getInt();
         textureCoordX=byteBuffer.getFloat();
-        int remainingBytes=byteBuffer.remaining();
-        byte[] pixelArray=new byte[remainingBytes];
-        byteBuffer.get(pixelArray);
-        pixels=ByteBuffer.wrap(pixelArray);
     }
 
 }
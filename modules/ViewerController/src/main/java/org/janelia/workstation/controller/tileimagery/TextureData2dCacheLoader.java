@@ -1,9 +1,13 @@
 package org.janelia.workstation.controller.tileimagery;
 
-import java.util.LinkedHashSet;
+import java.util.Collections;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongConsumer;
 
+import com.google.common.base.Stopwatch;
 import com.google.common.cache.CacheLoader;
 
 import org.slf4j.Logger;
@@ -17,10 +21,20 @@ public class TextureData2dCacheLoader extends CacheLoader<TileIndex, Optional<Te
 
     private final BlockTiffOctreeLoadAdapter delegateTileLoader;
     private final Set<TileIndex> currentlyLoadingTiles;
+    private final LongConsumer loadTimeListener;
 
     TextureData2dCacheLoader(BlockTiffOctreeLoadAdapter delegateTileLoader) {
+        this(delegateTileLoader, loadMs -> {});
+    }
+
+    /**
+     * @param loadTimeListener receives the time in milliseconds taken by each tile which is loaded
+     */
+    TextureData2dCacheLoader(BlockTiffOctreeLoadAdapter delegateTileLoader, LongConsumer loadTimeListener) {
         this.delegateTileLoader = delegateTileLoader;
-        this.currentlyLoadingTiles = new LinkedHashSet<>();
+        // tiles are loaded by several prefetch threads at once
+        this.currentlyLoadingTiles = Collections.newSetFromMap(new ConcurrentHashMap<>());
+        this.loadTimeListener = loadTimeListener;
     }
 
     @Override
@@ -28,10 +42,14 @@ public class TextureData2dCacheLoader extends CacheLoader<TileIndex, Optional<Te
         try {
             LOG.debug("Loading tile {}", tileIndex);
             currentlyLoadingTiles.add(tileIndex);
+            Stopwatch stopwatch = Stopwatch.createStarted();
             TextureData2d sliceImage = delegateTileLoader.loadToRam(tileIndex);
             if (sliceImage == null) {
                 return Optional.empty();
             } else {
+                loadTimeListener.accept(stopwatch.elapsed(TimeUnit.MILLISECONDS));
+                // Cached tiles are shared and never released, so keep them out of the buffer pool
+                sliceImage.detachPixelsFromPool();
                 return Optional.of(sliceImage);
             }
         } catch (AbstractTextureLoadAdapter.TileLoadError | AbstractTextureLoadAdapter.MissingTileException e) {
@@ -33,7 +33,7 @@ implements TextureDataI
 		setUsedWidth(textureData2d.getUsedWidth());
 		this.height=textureData2d.getHeight();
 		this.border=textureData2d.getBorder();
-		this.pixels=textureData2d.getPixels();
+		takePixelsFrom(textureData2d);
 		this.srgb=textureData2d.isSrgb();
 		this.bitDepth=textureData2d.getBitDepth();
 		this.channelCount=textureData2d.getChannelCount();
@@ -16,6 +16,7 @@ public class TextureLoadWorker implements Runnable {
     private TileTexture texture;
     private TextureCache textureCache;
     private TileServer tileServer;
+    private volatile boolean cancelled = false;
 
     TextureLoadWorker(TileTexture texture, TextureCache textureCache, TileServer tileServer) {
         if (texture.getLoadStatus().ordinal() < TileTexture.LoadStatus.LOAD_QUEUED.ordinal()) {
@@ -30,6 +31,21 @@ public class TextureLoadWorker implements Runnable {
         return texture;
     }
 
+    /**
+     * Keeps the texture out of the cache if it is still loading. The load
+     * itself runs to completion.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * Keeps the texture after all, for a load that was requested again after it was cancelled.
+     */
+    void reinstate() {
+        cancelled = false;
+    }
+
     @Override
     public void run() {
         TileIndex index = texture.getIndex();
@@ -47,7 +63,10 @@ public class TextureLoadWorker implements Runnable {
             // load texture
             boolean loadedSuccessfully = texture.loadImageToRam();
             LOG.debug("loadedSuccessfully={} loadStatus={}", loadedSuccessfully, texture.getLoadStatus());
-            if (loadedSuccessfully) {
+            if (cancelled) {
+                LOG.debug("Discarding cancelled load of texture {}", index);
+                texture.releaseMemory();
+            } else if (loadedSuccessfully) {
                 textureCache.add(texture);
                 tileServer.textureLoaded(texture.getIndex());
             }
@@ -1,38 +1,188 @@
 package org.janelia.workstation.controller.tileimagery;
 
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.Future;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
+import org.janelia.workstation.core.util.LatencyRecorder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Schedules tile texture loads on a pool of loader threads, in priority order.
+ *
+ * Each time the view changes the caller starts a new generation with
+ * {@link #beginReprioritization()}, submits the tiles it still wants with
+ * their new priorities, and then calls {@link #cancelStale()}. Tiles that are
+ * still waiting in the queue are re-ranked rather than re-submitted, and loads
+ * that were not requested again, whether queued or in flight, are cancelled so
+ * that the loader threads can move on to the tiles that matter.
+ *
+ * Removing an entry from a priority queue means a linear search, so neither
+ * re-ranking nor cancelling touches the queue. A load is only re-ranked when
+ * its stage or distance changed, by queueing it again under its new priority,
+ * and a cancelled load is just marked done; the entries they leave behind are
+ * stale, and are skipped when the loader threads take their next load. They
+ * are also swept out of the queue once per generation, in {@link #cancelStale()},
+ * so that the queue doesn't grow while the loader threads can't keep up.
+ *
+ * A load that has started stays in the pending loads until its worker returns,
+ * even if it was cancelled, so that the same tile is not loaded twice at once.
+ */
 class TexturePreFetcher {
 
     private static final Logger log = LoggerFactory.getLogger(TexturePreFetcher.class);
 
     private final ThreadPoolExecutor textureLoadExecutor;
-    private final Map<Future<?>, TileIndex> futures = new HashMap<>();
+    private final BlockingQueue<Runnable> loadQueue = new LoadQueue();
+    private final Map<TileIndex, TextureLoadTask> pendingLoads = new ConcurrentHashMap<>();
+    private final LatencyRecorder queueWaitLatency;
     private TextureCache textureCache; // holds texture
     private AbstractTextureLoadAdapter loadAdapter; // knows how to load textures
+    private int generation = 0;
+    private int sequence = 0;
 
-    TexturePreFetcher(int coreThreadPoolSize, int maxThreadPoolSize) {
+    /**
+     * A queued texture load that can be re-ranked while it is still waiting.
+     */
+    private class TextureLoadTask extends FutureTask<Void> {
+        private final TileIndex index;
+        private final TextureLoadWorker worker;
+        private final TextureCache taskTextureCache;
+        private final long queuedTime = System.nanoTime();
+        private volatile QueuedLoad queuedLoad; // current queue entry; older entries are stale
+        private volatile int taskGeneration;
+        private volatile boolean started = false;
+
+        TextureLoadTask(TextureLoadWorker worker, TextureCache taskTextureCache, int taskGeneration) {
+            super(worker, null);
+            this.index = worker.getTexture().getIndex();
+            this.worker = worker;
+            this.taskTextureCache = taskTextureCache;
+            this.taskGeneration = taskGeneration;
+        }
+
+        @Override
+        public void run() {
+            started = true;
+            queueWaitLatency.recordSince(queuedTime);
+            try {
+                super.run();
+            } finally {
+                // only now that the worker has returned, even if the load was cancelled while running
+                pendingLoads.remove(index, this);
+                taskTextureCache.setLoadQueued(index, false);
+            }
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            // The load itself doesn't respond to interrupts, so tell the worker not to cache the result
+            worker.cancel();
+            return super.cancel(mayInterruptIfRunning);
+        }
+
+        @Override
+        protected void done() {
+            // Loads cancelled while running are still loading; run() cleans up after them
+            if (isCancelled() && !started) {
+                pendingLoads.remove(index, this);
+                taskTextureCache.setLoadQueued(index, false);
+            }
+        }
+    }
+
+    /**
+     * Queue entry for a load at a given priority.
+     */
+    private static class QueuedLoad implements Runnable, Comparable<QueuedLoad> {
+        private final TextureLoadTask task;
+        private final TileLoadPriority priority;
+
+        QueuedLoad(TextureLoadTask task, TileLoadPriority priority) {
+            this.task = task;
+            this.priority = priority;
+            task.queuedLoad = this;
+        }
+
+        /**
+         * @return true if the load was re-ranked or cancelled since this entry was queued
+         */
+        boolean isStale() {
+            return task.queuedLoad != this || task.isDone();
+        }
+
+        @Override
+        public void run() {
+            if (!isStale()) {
+                task.run();
+            }
+        }
+
+        @Override
+        public int compareTo(QueuedLoad other) {
+            return priority.compareTo(other.priority);
+        }
+    }
+
+    /**
+     * Priority queue whose loader threads skip stale entries.
+     */
+    private static class LoadQueue extends PriorityBlockingQueue<Runnable> {
+
+        @Override
+        public Runnable take() throws InterruptedException {
+            Runnable next = super.take();
+            while (isStale(next)) {
+                next = super.take();
+            }
+            return next;
+        }
+
+        @Override
+        public Runnable poll(long timeout, TimeUnit unit) throws InterruptedException {
+            long deadline = System.nanoTime() + unit.toNanos(timeout);
+            Runnable next = super.poll(timeout, unit);
+            while (next != null && isStale(next)) {
+                next = super.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+            }
+            return next;
+        }
+
+        @Override
+        public Runnable poll() {
+            Runnable next = super.poll();
+            while (next != null && isStale(next)) {
+                next = super.poll();
+            }
+            return next;
+        }
+
+        private static boolean isStale(Runnable r) {
+            return r instanceof QueuedLoad && ((QueuedLoad) r).isStale();
+        }
+    }
+
+    TexturePreFetcher(String name, int coreThreadPoolSize, int maxThreadPoolSize) {
         textureLoadExecutor = new ThreadPoolExecutor(
                 coreThreadPoolSize,
                 maxThreadPoolSize,
                 0, TimeUnit.SECONDS,
-                new LinkedBlockingQueue<>(),
+                loadQueue,
                 new ThreadFactoryBuilder()
-                        .setNameFormat("TexturePreFetch-%03d")
+                        .setNameFormat("TexturePreFetch-" + name + "-%03d")
                         .setDaemon(true)
                         .build()
         );
+        queueWaitLatency = new LatencyRecorder(name + " texture queue wait");
     }
 
     /**
@@ -42,6 +192,10 @@ class TexturePreFetcher {
      * cache.
      */
     synchronized boolean loadDisplayedTexture(TileIndex index, TileServer tileServer) {
+        return loadDisplayedTexture(index, tileServer, new TileLoadPriority(TileLoadPriority.Stage.MIN_RES, 0, index.getZoom(), sequence++));
+    }
+
+    synchronized boolean loadDisplayedTexture(TileIndex index, TileServer tileServer, TileLoadPriority priority) {
         if (textureCache == null) {
             log.trace("loadDisplayedTexture - return because textureCache is null");
             return false;
@@ -50,15 +204,31 @@ class TexturePreFetcher {
             log.trace("loadDisplayedTexture - return because loadAdapter is null");
             return false;
         }
-        if (textureCache.getFutureCache().containsKey(index)) {
+        if (textureCache.touchFuture(index)) { // move cached texture to back of queue
             log.trace("loadDisplayedTexture - already in future cache");
-            textureCache.getFutureCache().get(index); // move cached texture to back of queue
             return true;
         }
         if (textureCache.containsKey(index)) {
             log.trace("loadDisplayedTexture - already in current cache");
             return false; // we already have this one!
         }
+        TextureLoadTask pending = pendingLoads.get(index);
+        if (pending != null && pending.started) {
+            // Still loading, and wanted after all if an earlier generation cancelled it
+            pending.taskGeneration = generation;
+            pending.worker.reinstate();
+            log.trace("loadDisplayedTexture - already loading");
+            return false;
+        }
+        if (pending != null && !pending.isDone()) {
+            pending.taskGeneration = generation;
+            // Re-rank the waiting load; its old entry goes stale
+            if (!pending.queuedLoad.priority.hasSameRank(priority)) {
+                loadQueue.add(new QueuedLoad(pending, priority));
+                log.trace("loadDisplayedTexture - reprioritized {} to {}", index, priority);
+            }
+            return (index.getZoom() != index.getMaxZoom());
+        }
         if (textureCache.isLoadQueued(index)) {
             log.trace("loadDisplayedTexture - already queued");
             return false;
@@ -66,41 +236,90 @@ class TexturePreFetcher {
         TileTexture texture = new TileTexture(index, loadAdapter);
         TextureLoadWorker textureLoadWorker = new TextureLoadWorker(texture, textureCache, tileServer);
         // TODO - handle MISSING textures vs. ERROR textures
-        Future<?> foo = textureLoadExecutor.submit(textureLoadWorker);
-        futures.put(foo, texture.getIndex());
+        TextureLoadTask task = new TextureLoadTask(textureLoadWorker, textureCache, generation);
+        pendingLoads.put(index, task);
         textureCache.setLoadQueued(index, true);
+        textureLoadExecutor.execute(new QueuedLoad(task, priority));
         // Lowest resolution textures are in the persistent cache, and thus
         // do not impact the future cache.
-        log.debug("loadDisplayedTexture - queued for download: {}", index);
+        log.debug("loadDisplayedTexture - queued for download: {} with priority {}", index, priority);
         return (index.getZoom() != index.getMaxZoom());
     }
 
+    /**
+     * Start a new round of submissions. Loads submitted before this call that
+     * are not submitted again before {@link #cancelStale()} will be cancelled.
+     */
+    synchronized void beginReprioritization() {
+        generation++;
+        sequence = 0;
+    }
+
+    /**
+     * Cancel queued and in-flight loads that were not requested again since
+     * the last call to {@link #beginReprioritization()}.
+     */
+    synchronized void cancelStale() {
+        int cancelledQueued = 0;
+        int cancelledInFlight = 0;
+        for (TextureLoadTask task : new ArrayList<>(pendingLoads.values())) {
+            if (task.taskGeneration == generation) {
+                continue;
+            }
+            if (!task.started) {
+                if (task.cancel(false)) {
+                    cancelledQueued++;
+                }
+            } else if (task.cancel(true)) {
+                cancelledInFlight++;
+            }
+        }
+        loadQueue.removeIf(LoadQueue::isStale);
+        if (cancelledQueued > 0 || cancelledInFlight > 0) {
+            log.debug("Cancelled {} queued and {} in-flight stale texture loads; {}",
+                    cancelledQueued, cancelledInFlight, queueWaitLatency);
+        }
+    }
+
+    /**
+     * Drop all loads that are still waiting in the queue. Loads already in
+     * flight are allowed to finish.
+     */
     synchronized void clear() {
         if (textureCache == null) {
             return;
         }
-        BlockingQueue<Runnable> blockingQueue = textureLoadExecutor.getQueue();
-        if (blockingQueue == null) {
-            return;
+        List<Runnable> drained = new ArrayList<>();
+        loadQueue.drainTo(drained);
+        for (Runnable r : drained) {
+            if (r instanceof QueuedLoad) {
+                ((QueuedLoad) r).task.cancel(false);
+            }
         }
-        //synchronize on it to prevent tasks from being polled
-        synchronized (blockingQueue) {
-            //clear the Queue
-            for (Runnable r : blockingQueue) {
-                if (futures.containsKey(r)) {
-                    textureCache.setLoadQueued(futures.get(r), false);
-                }
+    }
+
+    /**
+     * @return number of loads waiting for a loader thread
+     */
+    int getQueuedCount() {
+        int queued = 0;
+        for (TextureLoadTask task : pendingLoads.values()) {
+            if (!task.started) {
+                queued++;
             }
-            blockingQueue.clear();
         }
-        futures.clear();
+        return queued;
+    }
+
+    LatencyRecorder getQueueWaitLatency() {
+        return queueWaitLatency;
     }
 
     void setLoadAdapter(AbstractTextureLoadAdapter loadAdapter) {
         this.loadAdapter = loadAdapter;
     }
 
-    void setTextureCache(TextureCache textureCache) {
+    synchronized void setTextureCache(TextureCache textureCache) {
         this.textureCache = textureCache;
     }
 
@@ -0,0 +1,174 @@
+package org.janelia.workstation.controller.tileimagery;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Predicts where the focus is heading, so that tiles can be prefetched ahead of the user rather
+ * than evenly around them.
+ *
+ * The velocity of the focus, in tiles per second along x, y and z, and the rate of change of
+ * the zoom level are smoothed over successive focus updates. Tiles are then predicted along the
+ * trajectory for as far as the focus will travel during a few tile loads, so that a slow tile source
+ * or a fast pan gets a deeper prefetch.
+ */
+class TileFocusPredictor {
+
+    // Weight of the newest sample in the smoothed velocities and latency
+    private static final double SMOOTHING = 0.3;
+    // Updates further apart than this are a new movement, not a continuation
+    private static final long MAX_SAMPLE_INTERVAL_MS = 1000;
+    // Below this speed, in tiles per second, the focus is treated as stationary
+    private static final double MIN_SPEED = 0.5;
+    private static final double MIN_ZOOM_SPEED = 0.5;
+    private static final int LOOKAHEAD_LOADS = 4;
+    private static final int MAX_DEPTH = 6;
+    private static final long DEFAULT_LATENCY_MS = 100;
+
+    private long lastTime = -1;
+    private double lastX, lastY, lastZ, lastZoom;
+    private double vx, vy, vz, vzoom;
+    private double latencyMs = DEFAULT_LATENCY_MS;
+
+    /**
+     * Records a focus update.
+     *
+     * @param timeMs time of the update
+     * @param x focus position in tiles at the zoom level
+     * @param y focus position in tiles at the zoom level
+     * @param z focus position in tile depths at the zoom level
+     * @param zoom zoom level
+     */
+    synchronized void update(long timeMs, double x, double y, double z, double zoom) {
+        long dt = timeMs - lastTime;
+        if (lastTime < 0 || dt > MAX_SAMPLE_INTERVAL_MS) {
+            vx = vy = vz = vzoom = 0;
+        }
+        else if (dt > 0) {
+            double seconds = dt / 1000.0;
+            if (zoom == lastZoom) {
+                vx = smooth(vx, (x - lastX) / seconds);
+                vy = smooth(vy, (y - lastY) / seconds);
+                vz = smooth(vz, (z - lastZ) / seconds);
+            }
+            else {
+                // Tile coordinates are scaled by the zoom level, so the positions can't be compared
+                vx = vy = vz = 0;
+            }
+            vzoom = smooth(vzoom, (zoom - lastZoom) / seconds);
+        }
+        lastTime = timeMs;
+        lastX = x;
+        lastY = y;
+        lastZ = z;
+        lastZoom = zoom;
+    }
+
+    /**
+     * Records how long a tile took to load.
+     */
+    synchronized void addLatency(long loadMs) {
+        latencyMs = smooth(latencyMs, loadMs);
+    }
+
+    synchronized long getLatencyMs() {
+        return Math.round(latencyMs);
+    }
+
+    /**
+     * @return number of steps along the trajectory which are prefetched, 0 when the focus is stationary
+     */
+    synchronized int getDepth() {
+        double speed = Math.max(Math.max(Math.abs(vx), Math.abs(vy)), Math.abs(vz));
+        if (speed < MIN_SPEED) {
+            return 0;
+        }
+        // Tiles passed while a few rounds of tile loads complete
+        double lookaheadSeconds = Math.max(latencyMs, DEFAULT_LATENCY_MS) / 1000.0 * LOOKAHEAD_LOADS;
+        return (int) Math.max(1, Math.min(MAX_DEPTH, Math.ceil(speed * lookaheadSeconds)));
+    }
+
+    /**
+     * @return -1 or 1 if the zoom level is decreasing or increasing, otherwise 0
+     */
+    synchronized int getZoomDirection() {
+        if (Math.abs(vzoom) < MIN_ZOOM_SPEED) {
+            return 0;
+        }
+        return vzoom > 0 ? 1 : -1;
+    }
+
+    /**
+     * Returns the tile offsets from the focus tile which should be prefetched, most urgent first.
+     * These are the focus tile and its immediate neighbours, then the tiles along the predicted
+     * trajectory, each with the tiles to either side of it, and finally the rest of the
+     * neighbourhood if the focus is stationary.
+     *
+     * @return offsets as {x, y, z}, where z counts tile depths
+     */
+    synchronized List<int[]> getPrefetchOffsets() {
+        Set<Offset> offsets = new LinkedHashSet<>();
+        offsets.add(new Offset(0, 0, 0));
+        addNeighbourhood(offsets, 0, 0, 0, 1);
+        int depth = getDepth();
+        if (depth == 0) {
+            addNeighbourhood(offsets, 0, 0, 0, 2);
+        }
+        else {
+            double speed = Math.max(Math.max(Math.abs(vx), Math.abs(vy)), Math.abs(vz));
+            // One step moves one tile along the fastest axis
+            double sx = vx / speed, sy = vy / speed, sz = vz / speed;
+            for (int step = 1; step <= depth; step++) {
+                int cx = (int) Math.round(sx * step);
+                int cy = (int) Math.round(sy * step);
+                int cz = (int) Math.round(sz * step);
+                offsets.add(new Offset(cx, cy, cz));
+                addNeighbourhood(offsets, cx, cy, cz, 1);
+            }
+        }
+        List<int[]> result = new ArrayList<>(offsets.size());
+        for (Offset offset : offsets) {
+            result.add(new int[]{offset.x, offset.y, offset.z});
+        }
+        return result;
+    }
+
+    private static void addNeighbourhood(Set<Offset> offsets, int cx, int cy, int cz, int radius) {
+        for (int dz = -1; dz <= 1; dz++) {
+            for (int dy = -radius; dy <= radius; dy++) {
+                for (int dx = -radius; dx <= radius; dx++) {
+                    offsets.add(new Offset(cx + dx, cy + dy, cz + dz));
+                }
+            }
+        }
+    }
+
+    private static double smooth(double previous, double sample) {
+        return previous + SMOOTHING * (sample - previous);
+    }
+
+    private static class Offset {
+        private final int x, y, z;
+
+        Offset(int x, int y, int z) {
+            this.x = x;
+            this.y = y;
+            this.z = z;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Offset)) return false;
+            Offset other = (Offset) o;
+            return x == other.x && y == other.y && z == other.z;
+        }
+
+        @Override
+        public int hashCode() {
+            return (x * 31 + y) * 31 + z;
+        }
+    }
+}
@@ -423,11 +423,11 @@ public class TileFormat {
             zoomFactorCache[z] = Math.pow(2, z);
     }
 
-    void setBitDepth(int bitDepth) {
+    public void setBitDepth(int bitDepth) {
         this.bitDepth = bitDepth;
     }
 
-    void setChannelCount(int channelCount) {
+    public void setChannelCount(int channelCount) {
         this.channelCount = channelCount;
     }
 
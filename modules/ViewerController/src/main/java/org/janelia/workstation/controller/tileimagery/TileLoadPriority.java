@@ -0,0 +1,97 @@
+package org.janelia.workstation.controller.tileimagery;
+
+import java.util.Collection;
+
+import org.janelia.workstation.geom.CoordinateAxis;
+
+/**
+ * Ordering of a queued tile load. Lower values load first: tiles needed for
+ * the current display come before umbrella prefetches, which come before
+ * full resolution slice prefetches. Within a stage, tiles closer to the
+ * middle of the screen load first, then coarser zoom levels (they are
+ * smaller and fill the screen sooner), then the order in which the
+ * generators produced them.
+ */
+class TileLoadPriority implements Comparable<TileLoadPriority> {
+
+    enum Stage {
+        DISPLAYED,
+        MIN_RES,
+        UMBRELLA,
+        FULL_SLICE
+    }
+
+    private final Stage stage;
+    private final int screenDistance; // in tiles at the tile's own zoom level
+    private final int zoom;
+    private final int sequence;
+
+    TileLoadPriority(Stage stage, int screenDistance, int zoom, int sequence) {
+        this.stage = stage;
+        this.screenDistance = screenDistance;
+        this.zoom = zoom;
+        this.sequence = sequence;
+    }
+
+    /**
+     * Rank a tile relative to the tiles under the focus of each visible viewer.
+     */
+    static TileLoadPriority forTile(TileIndex index, Stage stage, int sequence, Collection<TileIndex> focusTiles) {
+        return new TileLoadPriority(stage, screenDistance(index, focusTiles), index.getZoom(), sequence);
+    }
+
+    static int screenDistance(TileIndex index, Collection<TileIndex> focusTiles) {
+        double best = Double.MAX_VALUE;
+        for (TileIndex focus : focusTiles) {
+            if (focus.getSliceAxis() != index.getSliceAxis()) {
+                continue;
+            }
+            // Express the focus tile in the tile grid of the zoom level being ranked
+            double scale = Math.pow(2, focus.getZoom() - index.getZoom());
+            double sumSq = 0;
+            for (CoordinateAxis axis : CoordinateAxis.values()) {
+                if (axis == index.getSliceAxis()) {
+                    continue;
+                }
+                double d = index.getCoordinate(axis.index()) - focus.getCoordinate(axis.index()) * scale;
+                sumSq += d * d;
+            }
+            best = Math.min(best, Math.sqrt(sumSq));
+        }
+        return best == Double.MAX_VALUE ? Integer.MAX_VALUE : (int) Math.round(best);
+    }
+
+    Stage getStage() {
+        return stage;
+    }
+
+    /**
+     * @return true if both are in the same stage at the same distance, and only
+     * differ in the order the generators produced them
+     */
+    boolean hasSameRank(TileLoadPriority other) {
+        return stage == other.stage && screenDistance == other.screenDistance && zoom == other.zoom;
+    }
+
+    @Override
+    public int compareTo(TileLoadPriority other) {
+        int result = stage.compareTo(other.stage);
+        if (result != 0) {
+            return result;
+        }
+        result = Integer.compare(screenDistance, other.screenDistance);
+        if (result != 0) {
+            return result;
+        }
+        result = Integer.compare(other.zoom, zoom); // coarser first
+        if (result != 0) {
+            return result;
+        }
+        return Integer.compare(sequence, other.sequence);
+    }
+
+    @Override
+    public String toString() {
+        return stage + "/d" + screenDistance + "/z" + zoom + "/#" + sequence;
+    }
+}
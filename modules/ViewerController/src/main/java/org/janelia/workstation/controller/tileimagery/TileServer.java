@@ -13,6 +13,7 @@ import java.util.Map;
 import java.util.Set;
 
 import org.janelia.jacsstorage.clients.api.JadeStorageAttributes;
+import org.janelia.workstation.core.util.LatencyRecorder;
 import org.janelia.workstation.geom.CoordinateAxis;
 import org.janelia.workstation.controller.listener.LoadStatusListener;
 import org.janelia.workstation.controller.listener.StatusUpdateListener;
@@ -63,8 +64,8 @@ public class TileServer implements ComponentListener, // so changes in viewer si
     private Set<TileIndex> currentDisplayTiles = new HashSet<>();
 
     public TileServer(SharedVolumeImage sharedVolumeImage, JadeStorageAttributes storageAttributes) {
-        this.minResPreFetcher = new TexturePreFetcher(MIN_RES_TILE_LOADER_CONCURRENCY, MIN_RES_TILE_LOADER_CONCURRENCY);
-        this.futurePreFetcher = new TexturePreFetcher(MIN_RES_TILE_LOADER_CONCURRENCY, HIGHER_RES_TILE_LOADER_CONCURRENCY);
+        this.minResPreFetcher = new TexturePreFetcher("MinRes", MIN_RES_TILE_LOADER_CONCURRENCY, MIN_RES_TILE_LOADER_CONCURRENCY);
+        this.futurePreFetcher = new TexturePreFetcher("Future", MIN_RES_TILE_LOADER_CONCURRENCY, HIGHER_RES_TILE_LOADER_CONCURRENCY);
 
         setSharedVolumeImage(sharedVolumeImage.setTileLoaderProvider(new BlockTiffOctreeTileLoaderProvider() {
             int concurrency = HIGHER_RES_TILE_LOADER_CONCURRENCY;
@@ -156,7 +157,7 @@ public class TileServer implements ComponentListener, // so changes in viewer si
         textureCache = new TextureCache();
         textureCache.setQueueDrainedListener(queueDrainedListener);
         if (textureIds != null) {
-            textureCache.getHistoryCache().storeObsoleteTextureIds(textureIds); // so old texture ids can get deleted next draw
+            textureCache.storeObsoleteTextureIds(textureIds); // so old texture ids can get deleted next draw
         }
         minResPreFetcher.setTextureCache(textureCache);
         futurePreFetcher.setTextureCache(textureCache);
@@ -258,10 +259,19 @@ public class TileServer implements ComponentListener, // so changes in viewer si
         }
         updateLoadStatus();
 
-        futurePreFetcher.clear();
+        // Re-rank what is already queued instead of throwing it away
+        futurePreFetcher.beginReprioritization();
+        List<TileIndex> focusTiles = new ArrayList<>();
+        for (ViewTileManager vtm : viewTileManagers) {
+            TileIndex focusTile = vtm.getFocusTileIndex();
+            if (focusTile != null) {
+                focusTiles.add(focusTile);
+            }
+        }
+        int sequence = 0;
 
         Set<TileIndex> cacheableTextures = new HashSet<TileIndex>();
-        int maxCacheable = (int) (0.90 * getTextureCache().getFutureCache().getMaxSize());
+        int maxCacheable = (int) (0.90 * getTextureCache().estimateFutureCapacity());
 
         LOG.debug("rearrangeLoadQueue for {} ViewTileManagers", viewTileManagers.size());
         // First in line are current display tiles
@@ -270,11 +280,12 @@ public class TileServer implements ComponentListener, // so changes in viewer si
             if (!vtm.getTileConsumer().isShowing()) {
                 continue;
             }
-            for (TileIndex ix : vtm.getNeededTextures()) {
+            for (TileIndex ix : vtm.getDesiredTextures()) {
                 if (cacheableTextures.contains(ix)) {
                     continue; // already noted
                 }
-                if (futurePreFetcher.loadDisplayedTexture(ix, TileServer.this)) {
+                TileLoadPriority priority = TileLoadPriority.forTile(ix, TileLoadPriority.Stage.DISPLAYED, sequence++, focusTiles);
+                if (futurePreFetcher.loadDisplayedTexture(ix, TileServer.this, priority)) {
                     cacheableTextures.add(ix);
                 }
             }
@@ -331,7 +342,8 @@ public class TileServer implements ComponentListener, // so changes in viewer si
                         break;
                     }
 
-                    if (futurePreFetcher.loadDisplayedTexture(ix, TileServer.this)) {
+                    TileLoadPriority priority = TileLoadPriority.forTile(ix, TileLoadPriority.Stage.UMBRELLA, sequence++, focusTiles);
+                    if (futurePreFetcher.loadDisplayedTexture(ix, TileServer.this, priority)) {
                         cacheableTextures.add(ix);
                     }
                 }
@@ -345,12 +357,16 @@ public class TileServer implements ComponentListener, // so changes in viewer si
                         break;
                     }
 
-                    if (futurePreFetcher.loadDisplayedTexture(ix, TileServer.this)) {
+                    TileLoadPriority priority = TileLoadPriority.forTile(ix, TileLoadPriority.Stage.FULL_SLICE, sequence++, focusTiles);
+                    if (futurePreFetcher.loadDisplayedTexture(ix, TileServer.this, priority)) {
                         cacheableTextures.add(ix);
                     }
                 }
             }
         }
+        // Anything queued or loading that was not asked for again is no longer useful
+        futurePreFetcher.cancelStale();
+        LOG.debug("{}", futurePreFetcher.getQueueWaitLatency());
         updateLoadStatus();
     }
 
@@ -394,6 +410,14 @@ public class TileServer implements ComponentListener, // so changes in viewer si
         return result;
     }
 
+    public LatencyRecorder getPrefetchQueueWaitLatency() {
+        return futurePreFetcher.getQueueWaitLatency();
+    }
+
+    public LatencyRecorder getMinResQueueWaitLatency() {
+        return minResPreFetcher.getQueueWaitLatency();
+    }
+
     // ComponentListener interface, to viewer changes can be tracked
     @Override
     public void componentResized(ComponentEvent e) {
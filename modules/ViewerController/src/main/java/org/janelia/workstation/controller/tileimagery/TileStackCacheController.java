@@ -52,4 +52,20 @@ public class TileStackCacheController extends BlockTiffOctreeLoadAdapter {
         return cachedTilesLoader.getCachingMap();
     }
 
+    public double getHitRate() {
+        return cachedTilesLoader.getHitRate();
+    }
+
+    public long getCachedTileCount() {
+        return cachedTilesLoader.getCachedTileCount();
+    }
+
+    public int getPrefetchDepth() {
+        return cachedTilesLoader.getPrefetchDepth();
+    }
+
+    public long getTileLatencyMs() {
+        return cachedTilesLoader.getTileLatencyMs();
+    }
+
 }
@@ -13,6 +13,7 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.image.BufferedImage;
 import java.util.Collection;
+import java.util.function.Supplier;
 
 /**
  * Created by murphys on 11/4/2015.
@@ -26,16 +27,33 @@ public class TileStackCacheStatusPanel extends JPanel implements ActionListener
     private static final int BOX_YSIZE=7;
     private static final int BOX_XBORDER=2;
     private static final int BOX_YBORDER=2;
+    private static final int STATS_HEIGHT=58;
+    private static final int STATS_LINE_HEIGHT=11;
+    private static final long MB=1024L*1024L;
 
     private int completeCount = 0;
     private long combinedLoadTime = 0;
 
     private Timer timer=new Timer(500 /*ms*/, this);
     Collection<int[]> cachingMap;
+    double tileHitRate;
+    long cachedTileCount;
+    int prefetchDepth;
+    long tileLatencyMs;
+    TextureCache.Statistics textureCacheStats;
+    private final Supplier<TextureCache> textureCacheSupplier;
     Color[] statusColors=new Color[] { Color.RED, Color.YELLOW, Color.GREEN };
     int zLevelCenter=3;
 
     public TileStackCacheStatusPanel() {
+        this(() -> null);
+    }
+
+    /**
+     * @param textureCacheSupplier provides the current texture cache, whose counters are shown below the tile map
+     */
+    public TileStackCacheStatusPanel(Supplier<TextureCache> textureCacheSupplier) {
+        this.textureCacheSupplier = textureCacheSupplier;
         timer.start();
     }
 
@@ -45,7 +63,14 @@ public class TileStackCacheStatusPanel extends JPanel implements ActionListener
             if (!isVisible()) {
                 setVisible(true);
             }
-            cachingMap = TileStackCacheController.getInstance().getCachingMap();
+            TileStackCacheController cacheController = TileStackCacheController.getInstance();
+            cachingMap = cacheController.getCachingMap();
+            tileHitRate = cacheController.getHitRate();
+            cachedTileCount = cacheController.getCachedTileCount();
+            prefetchDepth = cacheController.getPrefetchDepth();
+            tileLatencyMs = cacheController.getTileLatencyMs();
+            TextureCache textureCache = textureCacheSupplier.get();
+            textureCacheStats = textureCache == null ? null : textureCache.getStatistics();
             repaint();
         } else {
             if (isVisible()) {
@@ -73,16 +98,35 @@ public class TileStackCacheStatusPanel extends JPanel implements ActionListener
     public void paint(Graphics graphics) {
         if (cachingMap==null)
             return;
-        BufferedImage image=new BufferedImage(PANEL_WIDTH, PANEL_HEIGHT, BufferedImage.TYPE_INT_RGB);
+        BufferedImage image=new BufferedImage(PANEL_WIDTH, PANEL_HEIGHT+STATS_HEIGHT, BufferedImage.TYPE_INT_RGB);
         Graphics2D g = image.createGraphics();
         g.setBackground(Color.BLACK);
 
         for (int[] statusArr : cachingMap) {
+            if (Math.abs(statusArr[0])>zLevelCenter || Math.abs(statusArr[1])>zLevelCenter || Math.abs(statusArr[2])>1) {
+                continue; // prefetched further ahead than the map shows
+            }
             int[] xy = getStatusBoxCoordinates(statusArr);
             g.setColor(statusColors[statusArr[3]]);
             g.fillRect(xy[0], xy[1], BOX_XSIZE, BOX_YSIZE);
         }
 
+        g.setColor(Color.LIGHT_GRAY);
+        g.setFont(g.getFont().deriveFont(9f));
+        int y=PANEL_HEIGHT+STATS_LINE_HEIGHT;
+        g.drawString(String.format("tile %.0f%% n %d", tileHitRate*100, cachedTileCount), 2, y);
+        y+=STATS_LINE_HEIGHT;
+        g.drawString(String.format("ahead %d %dms", prefetchDepth, tileLatencyMs), 2, y);
+
+        if (textureCacheStats!=null) {
+            y+=STATS_LINE_HEIGHT;
+            g.drawString(String.format("hit %.0f%% ev %d", textureCacheStats.getHitRate()*100, textureCacheStats.getEvictionCount()), 2, y);
+            y+=STATS_LINE_HEIGHT;
+            g.drawString(String.format("ram %d/%dM", textureCacheStats.getRamBytes()/MB, textureCacheStats.getRamBudget()/MB), 2, y);
+            y+=STATS_LINE_HEIGHT;
+            g.drawString(String.format("gl %d/%dM", textureCacheStats.getGlBytes()/MB, textureCacheStats.getGlBudget()/MB), 2, y);
+        }
+
         graphics.drawImage(image, 0, 0, this);
     }
 
@@ -29,6 +29,7 @@ public class TileTexture {
     private TextureData2dGL textureData;
     private PyramidTexture texture = null;
     private AbstractTextureLoadAdapter loadAdapter;
+    private volatile TextureCache textureCache; // cache holding this texture, if any
 
     // time stamps for performance measurement
     private long constructTime = System.nanoTime();
@@ -93,6 +94,18 @@ public class TileTexture {
         texture = null;
     }
 
+    /**
+     * Give up the pixel buffer of an evicted texture. It goes back to the pool
+     * as soon as nobody is uploading or copying it any more; the GL texture,
+     * if any, stays usable until it is deleted.
+     */
+    void releasePixels() {
+        TextureData2dGL data = textureData;
+        if (data != null) {
+            data.releaseMemory();
+        }
+    }
+
     public void setFirstDisplayTime(long firstDisplayTime) {
         this.firstDisplayTime = firstDisplayTime;
     }
@@ -134,7 +147,8 @@ public class TileTexture {
     }
 
     public void init(GL2 gl) {
-        if (textureData == null) {
+        TextureData2dGL data = textureData;
+        if (data == null) {
             return;
         }
         if (getLoadStatus().ordinal() < LoadStatus.RAM_LOADED.ordinal()) {
@@ -143,9 +157,20 @@ public class TileTexture {
         if (getLoadStatus().ordinal() >= LoadStatus.GL_LOADED.ordinal()) {
             return; // already initialized
         }		// TODO what if there is already a texture allocated...
-        texture = textureData.createTexture(gl);
+        if (!data.retainPixels()) {
+            return; // evicted while waiting to be uploaded
+        }
+        try {
+            texture = data.createTexture(gl);
+        } finally {
+            data.releasePixels();
+        }
         setLoadStatus(LoadStatus.GL_LOADED);
         uploadTextureTime = System.nanoTime();
+        TextureCache cache = textureCache;
+        if (cache != null) {
+            cache.textureUploaded(this);
+        }
     }
 
     synchronized boolean loadImageToRam() {
@@ -163,6 +188,32 @@ public class TileTexture {
         return true;
     }
 
+    /**
+     * @return number of bytes held in RAM by the texture data
+     */
+    long getRamByteCount() {
+        TextureData2dGL data = textureData;
+        if (data == null || data.getPixels() == null) {
+            return 0;
+        }
+        return data.getPixels().capacity();
+    }
+
+    /**
+     * @return number of bytes of texture memory used once uploaded to the video card
+     */
+    long getGlByteCount() {
+        TextureData2dGL data = textureData;
+        if (data == null || loadStatus != LoadStatus.GL_LOADED) {
+            return 0;
+        }
+        return (long) data.getWidth() * data.getHeight() * data.getChannelCount() * (data.getBitDepth() / 8);
+    }
+
+    void setTextureCache(TextureCache textureCache) {
+        this.textureCache = textureCache;
+    }
+
     public void setIndex(TileIndex index) {
         this.index = index;
     }
@@ -176,10 +227,15 @@ public class TileTexture {
     }
 
     public ImageBrightnessStats getBrightnessStats() {
-        if (loadStatus.ordinal() < LoadStatus.RAM_LOADED.ordinal()) {
+        TextureData2dGL data = textureData;
+        if (loadStatus.ordinal() < LoadStatus.RAM_LOADED.ordinal() || data == null || !data.retainPixels()) {
             return null;
         }
-        return textureData.getBrightnessStats();
+        try {
+            return data.getBrightnessStats();
+        } finally {
+            data.releasePixels();
+        }
     }
 
 }
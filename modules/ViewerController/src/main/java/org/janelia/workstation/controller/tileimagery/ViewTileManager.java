@@ -92,6 +92,8 @@ public class ViewTileManager {
     // tiles are loading.
     private TileSet lastGoodTiles;
     private final Set<TileIndex> neededTextures = new HashSet<>();
+    // Every texture the current view wants, in the order it wants them
+    private volatile Set<TileIndex> desiredTextures = ImmutableSet.of();
     private final Set<TileIndex> displayableTextures = new HashSet<>();
 
     private TileConsumer tileConsumer;
@@ -296,6 +298,7 @@ public class ViewTileManager {
         }
         // Then load the best ones
         newNeededTextures.addAll(latestTiles.getBestNeededTextures());
+        desiredTextures = ImmutableSet.copyOf(newNeededTextures);
         Set<TileIndex> tilesToGet = Sets.difference(newNeededTextures, neededTextures);
         if (!tilesToGet.isEmpty()) {
             synchronized (neededTextures) {
@@ -335,6 +338,28 @@ public class ViewTileManager {
         return result;
     }
 
+    /**
+     * @return all textures wanted by the current view, including those
+     * already queued, in the order they should be loaded
+     */
+    Collection<TileIndex> getDesiredTextures() {
+        return desiredTextures;
+    }
+
+    /**
+     * @return the tile under the camera focus at the current zoom level, or
+     * null if this viewer is not showing anything
+     */
+    TileIndex getFocusTileIndex() {
+        if (volumeImage == null || volumeImage.getLoadAdapter() == null || !tileConsumer.isShowing()) {
+            return null;
+        }
+        Camera3d camera = tileConsumer.getCamera();
+        TileFormat tileFormat = volumeImage.getLoadAdapter().getTileFormat();
+        int zoom = tileFormat.zoomLevelForCameraZoom(camera.getPixelsPerSceneUnit());
+        return tileFormat.tileIndexForXyz(camera.getFocus(), zoom, tileConsumer.getSliceAxis());
+    }
+
     private void rearrangeFromRotationAxis(Rotation3d viewerInGround, int[] xyzFromWhd) {
         // Rearrange from rotation matrix
         // Which axis (x,y,z) corresponds to width, height, and depth?
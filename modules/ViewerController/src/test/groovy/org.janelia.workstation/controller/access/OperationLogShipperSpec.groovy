@@ -0,0 +1,250 @@
+package org.janelia.workstation.controller.access
+
+import java.nio.file.Files
+import java.nio.file.Path
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.function.ToIntFunction
+
+import com.fasterxml.jackson.databind.ObjectMapper
+import org.janelia.model.domain.tiledMicroscope.TmOperation
+import spock.lang.Specification
+import spock.util.concurrent.PollingConditions
+
+class OperationLogShipperSpec extends Specification {
+
+    static final long HOUR_MS = 60 * 60 * 1000L
+
+    PollingConditions conditions = new PollingConditions(timeout: 5)
+    Path spillDir
+    Path spillFile
+    // operations stored by the fake server, by elapsed time, and the batches it was sent
+    List<Long> stored = new CopyOnWriteArrayList<>()
+    List<Integer> batchSizes = new CopyOnWriteArrayList<>()
+    // number of operations the fake server accepts before it fails, or -1 for no limit
+    AtomicInteger acceptsBeforeFailure = new AtomicInteger(-1)
+    List<OperationLogShipper> shippers = []
+
+    def setup() {
+        spillDir = Files.createTempDirectory("operation-log")
+        spillFile = spillDir.resolve("unshipped.json")
+    }
+
+    def cleanup() {
+        shippers.each { it.close() }
+        spillDir.toFile().deleteDir()
+    }
+
+    def "concurrent adds into a full buffer drop and count the overflow"() {
+        given:
+        def shipper = createShipper(100, 1000, HOUR_MS)
+        def start = new CountDownLatch(1)
+        def threads = (0..<8).collect { t ->
+            Thread.start {
+                start.await()
+                500.times { i -> shipper.add(operation(t * 1000 + i)) }
+            }
+        }
+
+        when:
+        start.countDown()
+        threads*.join()
+
+        then:
+        shipper.queuedCount == 100
+        shipper.droppedCount == 8 * 500 - 100
+        stored.isEmpty()
+    }
+
+    def "a full batch is shipped without waiting for the flush interval"() {
+        given:
+        def shipper = createShipper(1000, 10, HOUR_MS)
+
+        when:
+        (0..<10).each { shipper.add(operation(it)) }
+
+        then:
+        conditions.eventually {
+            assert stored == (0L..<10L)
+            assert batchSizes == [10]
+        }
+
+        when:
+        (10..<15).each { shipper.add(operation(it)) }
+        Thread.sleep(300)
+
+        then: "a partial batch waits for the flush interval"
+        stored.size() == 10
+        shipper.queuedCount == 5
+    }
+
+    def "a partial batch is shipped after the flush interval"() {
+        given:
+        def shipper = createShipper(1000, 100, 100)
+
+        when:
+        (0..<3).each { shipper.add(operation(it)) }
+
+        then:
+        conditions.eventually {
+            assert stored == (0L..<3L)
+            assert batchSizes == [3]
+            assert shipper.queuedCount == 0
+        }
+    }
+
+    def "operations the server did not store are spilled and replayed in order without duplicates"() {
+        given:
+        acceptsBeforeFailure.set(5)
+        def shipper = createShipper(1000, 10, 50)
+
+        when: "the server fails part way through the first batch"
+        (0..<10).each { shipper.add(operation(it)) }
+
+        then: "only the operations it did not store are spilled"
+        conditions.eventually {
+            assert stored == (0L..<5L)
+            assert shipper.spilledCount == 5
+        }
+
+        when: "more operations arrive while the server is down"
+        (10..<25).each { shipper.add(operation(it)) }
+
+        then:
+        conditions.eventually {
+            assert shipper.queuedCount == 0
+            assert shipper.spilledCount == 20
+        }
+        spilledElapsedTimes() == (5L..<25L)
+
+        when: "the server is back"
+        acceptsBeforeFailure.set(-1)
+
+        then:
+        conditions.eventually {
+            assert stored == (0L..<25L)
+            assert !Files.exists(spillFile)
+        }
+        shipper.shippedCount == 25
+        shipper.droppedCount == 0
+    }
+
+    def "a spill file is shipped from where the server failed and unreadable lines are dropped once"() {
+        given:
+        def lines = (0..<25).collect { new ObjectMapper().writeValueAsString(operation(it)) }
+        lines.add(3, '{"activity":')
+        Files.write(spillFile, lines)
+        acceptsBeforeFailure.set(12)
+
+        when:
+        def shipper = createShipper(1000, 10, 50)
+
+        then: "the rest is kept, without the unreadable line"
+        conditions.eventually {
+            assert stored == (0L..<12L)
+            assert spilledElapsedTimes() == (12L..<25L)
+        }
+
+        when: "later drains fail as well"
+        Thread.sleep(300)
+
+        then:
+        shipper.droppedCount == 1
+        stored.size() == 12
+
+        when: "the server is back"
+        acceptsBeforeFailure.set(-1)
+
+        then:
+        conditions.eventually {
+            assert stored == (0L..<25L)
+            assert !Files.exists(spillFile)
+        }
+        shipper.droppedCount == 1
+    }
+
+    def "operations still queued at close are shipped by the next session"() {
+        given:
+        def shipper = createShipper(1000, 100, HOUR_MS)
+        (0..<7).each { shipper.add(operation(it)) }
+
+        when:
+        shipper.close()
+
+        then:
+        stored.isEmpty()
+        spilledElapsedTimes() == (0L..<7L)
+
+        when:
+        createShipper(1000, 100, 50)
+
+        then:
+        conditions.eventually {
+            assert stored == (0L..<7L)
+            assert !Files.exists(spillFile)
+        }
+    }
+
+    def "the buffer is still drained when the spill file can't be shipped"() {
+        given: "a spill file that can be neither read nor appended to"
+        Files.createDirectories(spillFile)
+        def shipper = createShipper(20, 10, 50)
+
+        when:
+        (0..<10).each { shipper.add(operation(it)) }
+
+        then: "the operations are counted as dropped instead of filling the buffer"
+        conditions.eventually {
+            assert shipper.queuedCount == 0
+            assert shipper.droppedCount == 10
+        }
+
+        when:
+        (10..<30).each { shipper.add(operation(it)) }
+
+        then:
+        conditions.eventually {
+            assert shipper.queuedCount == 0
+            assert shipper.droppedCount == 30
+        }
+        stored.isEmpty()
+    }
+
+    private OperationLogShipper createShipper(int bufferSize, int batchSize, long flushIntervalMs) {
+        def shipper = new OperationLogShipper(this.&shipToServer as ToIntFunction, spillFile,
+                bufferSize, batchSize, flushIntervalMs, 1024 * 1024)
+        shippers << shipper
+        return shipper
+    }
+
+    private int shipToServer(List<TmOperation> batch) {
+        batchSizes << batch.size()
+        int created = 0
+        for (TmOperation operation : batch) {
+            if (acceptsBeforeFailure.get() == 0) {
+                if (created == 0) {
+                    throw new IllegalStateException("server unavailable")
+                }
+                return created
+            }
+            if (acceptsBeforeFailure.get() > 0) {
+                acceptsBeforeFailure.decrementAndGet()
+            }
+            stored << operation.elapsedTime
+            created++
+        }
+        return created
+    }
+
+    private List<Long> spilledElapsedTimes() {
+        def mapper = new ObjectMapper()
+        return Files.readAllLines(spillFile).findAll { it }.collect { mapper.readValue(it, TmOperation).elapsedTime }
+    }
+
+    private static TmOperation operation(long id) {
+        def operation = new TmOperation()
+        operation.setElapsedTime(id)
+        return operation
+    }
+}
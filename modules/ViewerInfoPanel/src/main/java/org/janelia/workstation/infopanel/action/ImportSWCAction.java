@@ -99,19 +99,12 @@ public class ImportSWCAction extends AbstractAction {
 
                         @Override
                         protected void doStuff() throws Exception {
-                            int imported = 0;
-                            int index = 0;
-                            int total = swcFiles.size();
                             TmWorkspace workspace = TmModelManager.getInstance().getCurrentWorkspace();
-                            for (File swcFile : swcFiles) {
-                                setStatus(swcFile.getName());
-                                if (swcFile.exists()) {
-                                    annotationModel.importBulkSWCData(swcFile, workspace);
-                                    imported++;
-                                }
-                                setProgress(index++, total);
-                            }
-                            setStatus("Successfully imported "+imported+" files");
+                            List<File> existingFiles = swcFiles.stream()
+                                    .filter(File::exists)
+                                    .collect(Collectors.toList());
+                            annotationModel.importBulkSWCData(existingFiles, workspace, this);
+                            setStatus("Successfully imported "+existingFiles.size()+" files");
                         }
 
                         @Override